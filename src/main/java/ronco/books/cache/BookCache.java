@@ -0,0 +1,108 @@
+package ronco.books.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded in-process cache of books keyed by ISBN-13. Eviction is frequency-aware
+ * (W-TinyLFU), so the hot titles stay resident while one-off lookups age out.
+ * Hit, miss and eviction counts are published as {@code cache.*} metrics tagged
+ * {@code cache=books}.
+ * <p>
+ * Cached instances are shared between callers and must not be mutated.
+ * <p>
+ * A book read from a slower tier is cached with {@link #putIfAbsent(Book, long)} and the
+ * {@link #generation} read before the read began. Every write and invalidation moves the
+ * generation on, so a read that raced with one is served but not cached, rather than
+ * kept until it expires.
+ */
+@Component
+public class BookCache {
+
+    static final String CACHE_NAME = "books";
+    // Generations are striped by ISBN rather than kept per book; a collision only skips caching a read
+    static final int GENERATION_STRIPES = 4096;
+
+    private final Cache<Long, Book> cache;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    @Autowired
+    public BookCache(@Value("${books.cache.max-size:100000}") final long maxSize,
+                     @Value("${books.cache.ttl:10m}") final Duration ttl,
+                     final MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    public Book get(final long isbn13) {
+        return cache.getIfPresent(isbn13);
+    }
+
+    /**
+     * To be read before the book is looked up anywhere else, and handed to {@link #putIfAbsent(Book, long)}.
+     */
+    public long generation(final long isbn13) {
+        return generations.get(stripe(isbn13));
+    }
+
+    /**
+     * Caches a book read from the database, the off-heap store or the snapshot, unless the
+     * book has been written or invalidated since {@code generation} was read. Never replaces
+     * an entry, so a slow read can't overwrite the fresher value a concurrent write has just put.
+     */
+    public void putIfAbsent(final Book book, final long generation) {
+        final long isbn13 = Isbn.parse(book.getIsbn());
+        // Returning the cached value from compute() would restart its expiry, so present entries are skipped first
+        if (cache.policy().getIfPresentQuietly(isbn13) != null) {
+            return;
+        }
+        // Checked under the entry's lock, which invalidate() takes after moving the generation on.
+        // compute() rather than computeIfAbsent(), which would count the call as a cache miss
+        cache.asMap().compute(isbn13, (key, cached) ->
+                cached != null || generation(isbn13) != generation ? cached : book);
+    }
+
+    /**
+     * Caches a book that has just been written, replacing any previous entry.
+     */
+    public void put(final Book book) {
+        final long isbn13 = Isbn.parse(book.getIsbn());
+        generations.incrementAndGet(stripe(isbn13));
+        cache.put(isbn13, book);
+    }
+
+    public void invalidate(final long isbn13) {
+        generations.incrementAndGet(stripe(isbn13));
+        cache.invalidate(isbn13);
+    }
+
+    public void invalidateAll() {
+        for (int stripe = 0; stripe < GENERATION_STRIPES; stripe++) {
+            generations.incrementAndGet(stripe);
+        }
+        cache.invalidateAll();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private static int stripe(final long isbn13) {
+        return (int) ((isbn13 ^ (isbn13 >>> 32)) & (GENERATION_STRIPES - 1));
+    }
+}
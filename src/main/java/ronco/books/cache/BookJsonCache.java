@@ -0,0 +1,180 @@
+package ronco.books.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+import ronco.books.service.CatalogListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of the UTF-8 JSON encoding of each book, so a book is serialized once per
+ * change instead of once per request. Bounded by the total size of the cached bytes.
+ * <p>
+ * An entry remembers the book it was encoded from and is only served for an equal
+ * book, so a read racing with a write can never get bytes for another version of the
+ * book. Writes reported through {@link CatalogListener} just drop stale entries early.
+ */
+@Component
+public class BookJsonCache implements CatalogListener {
+
+    static final String CACHE_NAME = "books-json";
+
+    // Rough per-entry cost of the key, the entry object and the array headers
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final ObjectWriter bookWriter;
+    private final Cache<Long, EncodedBook> cache;
+
+    @Autowired
+    public BookJsonCache(final ObjectMapper objectMapper,
+                         @Value("${books.json-cache.max-size:64MB}") final DataSize maxSize,
+                         final MeterRegistry meterRegistry) {
+        this.bookWriter = objectMapper.writerFor(Book.class);
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                // The gzip form is built lazily, so reserve room for it up front
+                .weigher((Long isbn13, EncodedBook encoded) -> ENTRY_OVERHEAD + 2 * encoded.json.length)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Returns the encoded form of the given book, serializing it only if the cached
+     * entry is missing or was encoded from a different version of the book.
+     */
+    public EncodedBook encode(final Book book) {
+        final long isbn13 = Isbn.parse(book.getIsbn());
+        final EncodedBook cached = cache.getIfPresent(isbn13);
+        if (cached != null && cached.book.equals(book)) {
+            return cached;
+        }
+        final EncodedBook encoded;
+        try {
+            encoded = new EncodedBook(book, bookWriter.writeValueAsBytes(book));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        cache.put(isbn13, encoded);
+        return encoded;
+    }
+
+    /**
+     * Returns the cached encoding of the given book, or {@code null} if there is none for
+     * this version of it, without encoding anything. Not counted in the cache statistics;
+     * the {@link #encode} that follows is.
+     */
+    public EncodedBook cached(final Book book) {
+        final EncodedBook cached = cache.policy().getIfPresentQuietly(Isbn.parse(book.getIsbn()));
+        return cached != null && cached.book.equals(book) ? cached : null;
+    }
+
+    /**
+     * Encodes the books as a JSON array by joining their cached encodings.
+     */
+    public byte[] encodeArray(final List<Book> books) {
+        final byte[][] fragments = new byte[books.size()][];
+        int length = 2 + Math.max(books.size() - 1, 0);
+        for (int i = 0; i < fragments.length; i++) {
+            fragments[i] = encode(books.get(i)).json;
+            length += fragments[i].length;
+        }
+
+        final byte[] array = new byte[length];
+        int position = 0;
+        array[position++] = '[';
+        for (int i = 0; i < fragments.length; i++) {
+            if (i > 0) {
+                array[position++] = ',';
+            }
+            System.arraycopy(fragments[i], 0, array, position, fragments[i].length);
+            position += fragments[i].length;
+        }
+        array[position] = ']';
+        return array;
+    }
+
+    @Override
+    public void bookSaved(final Book book) {
+        cache.invalidate(Isbn.parse(book.getIsbn()));
+    }
+
+    @Override
+    public void bookDeleted(final long isbn13) {
+        cache.invalidate(isbn13);
+    }
+
+    /**
+     * A book together with its JSON bytes. The gzip form and the ETag are derived on
+     * first use and then kept with the entry. Arrays returned here are shared and must
+     * not be modified.
+     */
+    public static final class EncodedBook {
+
+        private static final byte[] NOT_SMALLER = new byte[0];
+
+        private final Book book;
+        private final byte[] json;
+        private volatile byte[] gzip;
+        private volatile String eTag;
+
+        EncodedBook(final Book book, final byte[] json) {
+            this.book = book;
+            this.json = json;
+        }
+
+        public byte[] json() {
+            return json;
+        }
+
+        /**
+         * Returns the gzip-compressed JSON, or {@code null} when compression doesn't make
+         * the body smaller, which is common for a single short book.
+         */
+        public byte[] gzip() {
+            byte[] compressed = gzip;
+            if (compressed == null) {
+                compressed = compress(json);
+                if (compressed.length >= json.length) {
+                    compressed = NOT_SMALLER;
+                }
+                gzip = compressed;
+            }
+            return compressed == NOT_SMALLER ? null : compressed;
+        }
+
+        public String eTag() {
+            String tag = eTag;
+            if (tag == null) {
+                tag = CatalogVersion.bookETag(book);
+                eTag = tag;
+            }
+            return tag;
+        }
+
+        private static byte[] compress(final byte[] bytes) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+            try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+                gzipOut.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toByteArray();
+        }
+    }
+}
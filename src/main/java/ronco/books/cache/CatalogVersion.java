@@ -0,0 +1,93 @@
+package ronco.books.cache;
+
+import org.springframework.stereotype.Component;
+import ronco.books.model.Book;
+import ronco.books.service.CatalogListener;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source of the ETags served by the book endpoints, which weaken them where the
+ * container may compress the response. The catalog ETag changes
+ * on every write made through {@code BookService} and when the catalog is reloaded,
+ * which picks up writes this node wasn't told about; a book's ETag is a hash of its
+ * content, so it can be checked against a cached book without touching the database.
+ */
+@Component
+public class CatalogVersion implements CatalogListener {
+
+    // Distinguishes versions across restarts, when the counter starts again from zero
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLong version = new AtomicLong();
+
+    public String catalogETag() {
+        return "\"c" + epoch + "-" + version() + "\"";
+    }
+
+    /**
+     * The counter behind the catalog ETag, moved on after every write this node applies;
+     * a read that starts once it has been read sees every write it counts.
+     */
+    public long version() {
+        return version.get();
+    }
+
+    public static String bookETag(final Book book) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        update(digest, book.getIsbn());
+        update(digest, book.getTitle());
+        update(digest, book.getAuthor());
+        return "\"b" + HexFormat.of().formatHex(digest.digest(), 0, 16) + "\"";
+    }
+
+    /**
+     * Pages read while the reload runs may already show the writes it picks up.
+     */
+    @Override
+    public void loadStarted() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * The reloaded views are in use from here on.
+     */
+    @Override
+    public void loadCompleted() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * The views in use before the load are back in use.
+     */
+    @Override
+    public void loadFailed() {
+        version.incrementAndGet();
+    }
+
+    @Override
+    public void bookSaved(final Book book) {
+        version.incrementAndGet();
+    }
+
+    @Override
+    public void bookDeleted(final long isbn13) {
+        version.incrementAndGet();
+    }
+
+    private static void update(final MessageDigest digest, final String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        // Separator keeps ("ab", "c") and ("a", "bc") apart; null and "" differ by the marker byte
+        digest.update(value == null ? (byte) 1 : (byte) 0);
+    }
+}
@@ -0,0 +1,129 @@
+package ronco.books.cache;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+import ronco.books.service.CatalogListener;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over every stored ISBN-13, used to answer lookups for unknown ISBNs
+ * without a database round trip. {@link #mightContain} never returns {@code false}
+ * for a stored book; it returns {@code true} for everything until the first catalog
+ * load has completed.
+ * <p>
+ * Bloom filters can't forget, so deleted ISBNs keep answering "maybe" (costing one
+ * query) until the filter is rebuilt by the next catalog load.
+ */
+@Component
+public class IsbnFilter implements CatalogListener {
+
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+
+    private volatile Bits current;
+    private volatile Bits loading;
+
+    @Autowired
+    public IsbnFilter(@Value("${books.isbn-filter.expected-insertions:1000000}") final long expectedInsertions,
+                      @Value("${books.isbn-filter.false-positive-rate:0.01}") final double falsePositiveRate) {
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    public boolean mightContain(final long isbn13) {
+        final Bits bits = current;
+        return bits == null || bits.mightContain(isbn13);
+    }
+
+    @Override
+    public void loadStarted() {
+        loading = new Bits(expectedInsertions, falsePositiveRate);
+    }
+
+    @Override
+    public void bookLoaded(final Book book) {
+        loading.put(Isbn.parse(book.getIsbn()));
+    }
+
+    @Override
+    public void loadCompleted() {
+        current = loading;
+        loading = null;
+    }
+
+    /**
+     * The filter loaded before keeps serving, or none, which means "maybe" for everything.
+     */
+    @Override
+    public void loadFailed() {
+        loading = null;
+    }
+
+    @Override
+    public void bookSaved(final Book book) {
+        final long isbn13 = Isbn.parse(book.getIsbn());
+        final Bits next = loading;
+        if (next != null) {
+            next.put(isbn13);
+        }
+        final Bits bits = current;
+        if (bits != null) {
+            bits.put(isbn13);
+        }
+    }
+
+    @Override
+    public void bookDeleted(final long isbn13) {
+        // Not removable from a Bloom filter; see class comment
+    }
+
+    private static final class Bits {
+
+        private final AtomicLongArray words;
+        private final long bitCount;
+        private final int hashCount;
+
+        Bits(final long expectedInsertions, final double falsePositiveRate) {
+            final long n = Math.max(expectedInsertions, 1);
+            final long bits = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.words = new AtomicLongArray((int) Math.min((bits + 63) >>> 6, Integer.MAX_VALUE));
+            this.bitCount = (long) words.length() << 6;
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+        }
+
+        void put(final long isbn13) {
+            final long hash = IsbnTable.mix(isbn13);
+            final long h1 = hash;
+            final long h2 = IsbnTable.mix(hash ^ 0x9E3779B97F4A7C15L);
+            for (int i = 0; i < hashCount; i++) {
+                final long bit = Math.floorMod(h1 + i * h2, bitCount);
+                final int index = (int) (bit >>> 6);
+                final long mask = 1L << bit;
+                long word;
+                do {
+                    word = words.get(index);
+                    if ((word & mask) != 0) {
+                        break;
+                    }
+                } while (!words.compareAndSet(index, word, word | mask));
+            }
+        }
+
+        boolean mightContain(final long isbn13) {
+            final long hash = IsbnTable.mix(isbn13);
+            final long h1 = hash;
+            final long h2 = IsbnTable.mix(hash ^ 0x9E3779B97F4A7C15L);
+            for (int i = 0; i < hashCount; i++) {
+                final long bit = Math.floorMod(h1 + i * h2, bitCount);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
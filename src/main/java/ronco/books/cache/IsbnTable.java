@@ -0,0 +1,141 @@
+package ronco.books.cache;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from an ISBN-13 to a {@code long}, for in-memory structures that
+ * track every book of the catalog. Keys are the ISBN-13s themselves (never zero, which
+ * marks an empty slot), so the table costs 16 bytes a slot and lookups are exact.
+ * Not thread-safe: callers guard it with their own lock.
+ */
+public final class IsbnTable {
+
+    /**
+     * Returned by {@link #get} and {@link #remove} for an ISBN-13 that isn't in the table.
+     */
+    public static final long ABSENT = Long.MIN_VALUE;
+
+    private long[] keys = new long[1024];
+    private long[] values = new long[1024];
+    private int size;
+
+    public long get(final long isbn13) {
+        for (int slot = slot(isbn13); keys[slot] != 0; slot = (slot + 1) & (keys.length - 1)) {
+            if (keys[slot] == isbn13) {
+                return values[slot];
+            }
+        }
+        return ABSENT;
+    }
+
+    public boolean contains(final long isbn13) {
+        return get(isbn13) != ABSENT;
+    }
+
+    /**
+     * Maps the ISBN-13 to the value, which must not be {@link #ABSENT}.
+     */
+    public void put(final long isbn13, final long value) {
+        if (2 * (size + 1) > keys.length) {
+            resize();
+        }
+        insert(isbn13, value);
+    }
+
+    /**
+     * Removes the ISBN-13, returning the value it had or {@link #ABSENT}.
+     */
+    public long remove(final long isbn13) {
+        final int mask = keys.length - 1;
+        int slot = slot(isbn13);
+        while (keys[slot] != isbn13) {
+            if (keys[slot] == 0) {
+                return ABSENT;
+            }
+            slot = (slot + 1) & mask;
+        }
+        final long removed = values[slot];
+        size--;
+        // Shift later entries of the probe chain back, so lookups never stop at the gap
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            final int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = 0;
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    public long estimatedBytes() {
+        return 16L * keys.length;
+    }
+
+    private void insert(final long isbn13, final long value) {
+        int slot = slot(isbn13);
+        while (keys[slot] != 0 && keys[slot] != isbn13) {
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        if (keys[slot] == 0) {
+            size++;
+        }
+        keys[slot] = isbn13;
+        values[slot] = value;
+    }
+
+    private void resize() {
+        final long[] oldKeys = keys;
+        final long[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                insert(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private int slot(final long isbn13) {
+        // ISBN-13s of one publisher are consecutive, so spread them over the table
+        return (int) mix(isbn13) & (keys.length - 1);
+    }
+
+    /**
+     * 64-bit hash of a short string such as an author name, never zero.
+     */
+    public static long hash(final String value) {
+        // FNV-1a over the chars, finished with the Murmur3 mixer
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash = mix(hash);
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * The Murmur3 finalizer: every input bit affects every output bit.
+     */
+    public static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
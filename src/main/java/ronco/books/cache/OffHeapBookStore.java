@@ -0,0 +1,433 @@
+package ronco.books.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+import ronco.books.service.CatalogListener;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Copy of the catalog held outside the Java heap, behind {@link BookCache}, so a
+ * catalog larger than the heap can still be served from memory without the garbage
+ * collector ever seeing it. It is filled from the catalog load only. A write drops the
+ * book rather than storing it: listeners may see concurrent writes out of commit order,
+ * and the store has no expiry to correct a stale record, so the book is read from the
+ * database until the next load.
+ * <p>
+ * Books are appended to a ring of direct buffers in a compact binary form; the ring
+ * is bounded by {@code books.off-heap.max-size} and the oldest records are dropped
+ * as new ones come in. Records are found through an open-addressing table, also in
+ * direct memory, from the ISBN-13 to the record's ring position.
+ * Replacing or removing a book only updates the table; the old record stays in the
+ * ring until its turn to be dropped.
+ * <p>
+ * Reads take no lock unless a write overlaps them.
+ */
+@Component
+public class OffHeapBookStore implements CatalogListener {
+
+    // Largest direct buffer we allocate; ByteBuffer offsets are ints
+    static final int MAX_SLAB_BYTES = 1 << 30;
+    // One table slot (ISBN-13 and position, 16 bytes) per 64 bytes of budget, a quarter of it
+    static final int BYTES_PER_SLOT = 64;
+
+    // Record: int length, long ISBN-13, three unsigned 16-bit field lengths, then the UTF-8 fields
+    private static final int HEADER_BYTES = 18;
+    private static final int ALIGNMENT = 8;
+    private static final int NULL_FIELD = 0xFFFF;
+    private static final int MAX_FIELD_BYTES = NULL_FIELD - 1;
+    private static final int LONGS_PER_SLAB = MAX_SLAB_BYTES / Long.BYTES;
+
+    private final StampedLock lock = new StampedLock();
+    private final ByteBuffer[] slabs;
+    private final int slabBytes;
+    private final long ringBytes;
+    private final LongBuffer[] table;
+    private final long slotMask;
+    private final long maxEntries;
+
+    // Ring positions only ever grow; a record's offset is its position modulo ringBytes
+    private long head;
+    private long tail;
+    private long entries;
+    private long evictions;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private IsbnTable writtenDuringLoad;
+
+    @Autowired
+    public OffHeapBookStore(@Value("${books.off-heap.max-size:256MB}") final DataSize maxSize,
+                            final MeterRegistry meterRegistry) {
+        final long budget = maxSize.toBytes();
+        long slots = budget < 2 * BYTES_PER_SLOT ? 0 : Long.highestOneBit(budget / BYTES_PER_SLOT);
+        final long dataBytes = budget - 2 * Long.BYTES * slots;
+
+        this.slabBytes = (int) Math.min(MAX_SLAB_BYTES, dataBytes / ALIGNMENT * ALIGNMENT);
+        // A budget of 0 turns the store off
+        if (slots == 0 || slabBytes < HEADER_BYTES) {
+            slots = 0;
+        }
+        this.slabs = new ByteBuffer[slots == 0 ? 0 : (int) (dataBytes / slabBytes)];
+        for (int i = 0; i < slabs.length; i++) {
+            slabs[i] = ByteBuffer.allocateDirect(slabBytes);
+        }
+        this.ringBytes = (long) slabs.length * slabBytes;
+        this.table = new LongBuffer[(int) ((2 * slots + LONGS_PER_SLAB - 1) / LONGS_PER_SLAB)];
+        for (int i = 0; i < table.length; i++) {
+            final long longs = Math.min(LONGS_PER_SLAB, 2 * slots - (long) i * LONGS_PER_SLAB);
+            table[i] = ByteBuffer.allocateDirect((int) (longs * Long.BYTES)).asLongBuffer();
+        }
+        this.slotMask = slots - 1;
+        // Keeps probe chains short, whatever the average record size
+        this.maxEntries = slots / 4 * 3;
+
+        Gauge.builder("books.off-heap.entries", this, OffHeapBookStore::size)
+                .description("Books held in the off-heap store")
+                .register(meterRegistry);
+        Gauge.builder("books.off-heap.used", this, OffHeapBookStore::usedBytes)
+                .description("Bytes of the off-heap ring holding records, including replaced ones not yet dropped")
+                .baseUnit(BaseUnits.BYTES)
+                .register(meterRegistry);
+        Gauge.builder("books.off-heap.capacity", this, OffHeapBookStore::capacityBytes)
+                .description("Direct memory reserved by the off-heap store")
+                .baseUnit(BaseUnits.BYTES)
+                .register(meterRegistry);
+        FunctionCounter.builder("books.off-heap.evictions", this, store -> store.evictions)
+                .description("Books dropped from the off-heap store to stay within its budget")
+                .register(meterRegistry);
+        FunctionCounter.builder("books.off-heap.requests", this, store -> store.hits.sum())
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("books.off-heap.requests", this, store -> store.misses.sum())
+                .tag("result", "miss")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the stored book, or {@code null} if the store doesn't hold it (which
+     * doesn't mean it isn't in the catalog).
+     */
+    public Book get(final long isbn13) {
+        if (slabs.length == 0) {
+            return null;
+        }
+        byte[] record = null;
+        final long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                record = read(isbn13);
+            } catch (RuntimeException e) {
+                // A write moved the data under us; validate() fails and we retry under the lock
+            }
+        }
+        if (stamp == 0 || !lock.validate(stamp)) {
+            final long readStamp = lock.readLock();
+            try {
+                record = read(isbn13);
+            } finally {
+                lock.unlockRead(readStamp);
+            }
+        }
+        if (record == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return decode(record);
+    }
+
+    /**
+     * Stores the book, replacing any previous record, and drops the oldest records if
+     * needed to stay within budget. Books with a field longer than 64 KB aren't stored.
+     */
+    public void put(final Book book) {
+        if (slabs.length == 0) {
+            return;
+        }
+        final byte[] record = encode(book);
+        final long stamp = lock.writeLock();
+        try {
+            if (record == null) {
+                remove(Isbn.parse(book.getIsbn()));
+            } else {
+                append(record);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void invalidate(final long isbn13) {
+        if (slabs.length == 0) {
+            return;
+        }
+        final long stamp = lock.writeLock();
+        try {
+            remove(isbn13);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void invalidateAll() {
+        final long stamp = lock.writeLock();
+        try {
+            for (LongBuffer longs : table) {
+                for (int i = 0; i < longs.capacity(); i++) {
+                    longs.put(i, 0);
+                }
+            }
+            tail = head;
+            entries = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public long size() {
+        final long stamp = lock.readLock();
+        try {
+            return entries;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public long usedBytes() {
+        final long stamp = lock.readLock();
+        try {
+            return head - tail;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public long capacityBytes() {
+        return ringBytes + (slotMask + 1) * 2 * Long.BYTES;
+    }
+
+    @Override
+    public synchronized void loadStarted() {
+        // A reload follows a missed invalidation, so nothing held so far can be trusted
+        invalidateAll();
+        writtenDuringLoad = new IsbnTable();
+    }
+
+    @Override
+    public synchronized void bookLoaded(final Book book) {
+        if (writtenDuringLoad == null || !writtenDuringLoad.contains(Isbn.parse(book.getIsbn()))) {
+            put(book);
+        }
+    }
+
+    @Override
+    public synchronized void loadCompleted() {
+        writtenDuringLoad = null;
+    }
+
+    /**
+     * Keeps the books loaded so far: none of them is older than a write, and the others
+     * are read from the database.
+     */
+    @Override
+    public synchronized void loadFailed() {
+        writtenDuringLoad = null;
+    }
+
+    @Override
+    public synchronized void bookSaved(final Book book) {
+        bookDeleted(Isbn.parse(book.getIsbn()));
+    }
+
+    @Override
+    public synchronized void bookDeleted(final long isbn13) {
+        if (writtenDuringLoad != null) {
+            writtenDuringLoad.put(isbn13, 0);
+        }
+        invalidate(isbn13);
+    }
+
+    private byte[] read(final long isbn13) {
+        for (long slot = home(isbn13), probes = 0; probes <= slotMask; slot = (slot + 1) & slotMask, probes++) {
+            final long slotKey = tableGet(2 * slot);
+            if (slotKey == 0) {
+                return null;
+            }
+            if (slotKey == isbn13) {
+                final long position = tableGet(2 * slot + 1);
+                final ByteBuffer slab = slab(position);
+                final int offset = offset(position);
+                final int length = slab.getInt(offset);
+                if (length < HEADER_BYTES || length > slabBytes - offset) {
+                    // Only seen by an optimistic read racing a write, which is retried
+                    return null;
+                }
+                final byte[] record = new byte[length];
+                slab.get(offset, record);
+                return record;
+            }
+        }
+        return null;
+    }
+
+    private void append(final byte[] record) {
+        final long isbn13 = ByteBuffer.wrap(record).getLong(Integer.BYTES);
+        if (record.length > slabBytes) {
+            remove(isbn13);
+            return;
+        }
+        final int room = slabBytes - offset(head);
+        if (record.length > room) {
+            // Records never straddle two slabs; mark the rest of this one as padding
+            makeRoom(room);
+            slab(head).putInt(offset(head), -room);
+            head += room;
+        }
+        makeRoom(record.length);
+        while (entries >= maxEntries && tail < head) {
+            evictOldest();
+        }
+        slab(head).put(offset(head), record);
+        final long slot = find(isbn13);
+        if (tableGet(2 * slot) == 0) {
+            tablePut(2 * slot, isbn13);
+            entries++;
+        }
+        tablePut(2 * slot + 1, head);
+        head += record.length;
+    }
+
+    private void makeRoom(final int bytes) {
+        while (head + bytes - tail > ringBytes) {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        final ByteBuffer slab = slab(tail);
+        final int length = slab.getInt(offset(tail));
+        if (length > 0) {
+            final long isbn13 = slab.getLong(offset(tail) + Integer.BYTES);
+            final long slot = find(isbn13);
+            // Only if the table still points here; a replaced book's old record is just skipped
+            if (tableGet(2 * slot) == isbn13 && tableGet(2 * slot + 1) == tail) {
+                remove(isbn13);
+                evictions++;
+            }
+        }
+        tail += Math.abs(length);
+    }
+
+    /**
+     * Returns the slot holding the ISBN-13, or the empty slot ending its probe chain.
+     */
+    private long find(final long isbn13) {
+        long slot = home(isbn13);
+        while (tableGet(2 * slot) != 0 && tableGet(2 * slot) != isbn13) {
+            slot = (slot + 1) & slotMask;
+        }
+        return slot;
+    }
+
+    private long home(final long isbn13) {
+        return IsbnTable.mix(isbn13) & slotMask;
+    }
+
+    private void remove(final long isbn13) {
+        final long slot = find(isbn13);
+        if (tableGet(2 * slot) == 0) {
+            return;
+        }
+        entries--;
+        // Shift later entries of the probe chain back, as IsbnTable does
+        long gap = slot;
+        for (long next = (gap + 1) & slotMask; tableGet(2 * next) != 0; next = (next + 1) & slotMask) {
+            final long home = home(tableGet(2 * next));
+            if (((next - home) & slotMask) >= ((next - gap) & slotMask)) {
+                tablePut(2 * gap, tableGet(2 * next));
+                tablePut(2 * gap + 1, tableGet(2 * next + 1));
+                gap = next;
+            }
+        }
+        tablePut(2 * gap, 0);
+    }
+
+    private ByteBuffer slab(final long position) {
+        return slabs[(int) (position % ringBytes / slabBytes)];
+    }
+
+    private int offset(final long position) {
+        return (int) (position % ringBytes % slabBytes);
+    }
+
+    private long tableGet(final long index) {
+        return table[(int) (index / LONGS_PER_SLAB)].get((int) (index % LONGS_PER_SLAB));
+    }
+
+    private void tablePut(final long index, final long value) {
+        table[(int) (index / LONGS_PER_SLAB)].put((int) (index % LONGS_PER_SLAB), value);
+    }
+
+    /**
+     * Encodes the book as one record, or returns {@code null} if a field is too long.
+     *
+     * @throws IllegalArgumentException if the book's ISBN isn't valid
+     */
+    static byte[] encode(final Book book) {
+        final byte[] isbn = book.getIsbn().getBytes(StandardCharsets.UTF_8);
+        final byte[] title = book.getTitle() == null ? null : book.getTitle().getBytes(StandardCharsets.UTF_8);
+        final byte[] author = book.getAuthor() == null ? null : book.getAuthor().getBytes(StandardCharsets.UTF_8);
+        if (isbn.length > MAX_FIELD_BYTES || length(title) > MAX_FIELD_BYTES || length(author) > MAX_FIELD_BYTES) {
+            return null;
+        }
+        final int used = HEADER_BYTES + isbn.length + length(title) + length(author);
+        final ByteBuffer record = ByteBuffer.allocate((used + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT)
+                .putInt(0)
+                .putLong(Isbn.parse(book.getIsbn()))
+                .putChar((char) isbn.length)
+                .putChar((char) (title == null ? NULL_FIELD : title.length))
+                .putChar((char) (author == null ? NULL_FIELD : author.length))
+                .put(isbn);
+        if (title != null) {
+            record.put(title);
+        }
+        if (author != null) {
+            record.put(author);
+        }
+        return record.putInt(0, record.capacity()).array();
+    }
+
+    static Book decode(final byte[] record) {
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        final int isbnLength = buffer.getChar(12);
+        final int titleLength = buffer.getChar(14);
+        final int authorLength = buffer.getChar(16);
+        int offset = HEADER_BYTES;
+        final String isbn = new String(record, offset, isbnLength, StandardCharsets.UTF_8);
+        offset += isbnLength;
+        String title = null;
+        if (titleLength != NULL_FIELD) {
+            title = new String(record, offset, titleLength, StandardCharsets.UTF_8);
+            offset += titleLength;
+        }
+        final String author = authorLength == NULL_FIELD ? null : new String(record, offset, authorLength, StandardCharsets.UTF_8);
+        return new Book(isbn, title, author);
+    }
+
+    private static int length(final byte[] field) {
+        return field == null ? 0 : field.length;
+    }
+}
@@ -0,0 +1,80 @@
+package ronco.books.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs at most one load per key at a time: callers that ask for a key while its load
+ * is in flight wait for that load and share its result (or its exception) instead of
+ * starting their own.
+ * <p>
+ * Publishes {@code books.single-flight.loads} (loads actually run) and
+ * {@code books.single-flight.shared} (loads saved) tagged with the operation name.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    public SingleFlight(final String operation, final MeterRegistry meterRegistry) {
+        FunctionCounter.builder("books.single-flight.loads", loads, LongAdder::sum)
+                .description("Loads executed")
+                .tag("operation", operation)
+                .register(meterRegistry);
+        FunctionCounter.builder("books.single-flight.shared", shared, LongAdder::sum)
+                .description("Loads avoided by waiting on an identical in-flight load")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    public V execute(final K key, final Supplier<V> loader) {
+        final CompletableFuture<V> flight = new CompletableFuture<>();
+        final CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            shared.increment();
+            return await(existing);
+        }
+
+        loads.increment();
+        try {
+            final V value = loader.get();
+            flight.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    public long loadCount() {
+        return loads.sum();
+    }
+
+    public long sharedCount() {
+        return shared.sum();
+    }
+
+    private static <V> V await(final CompletableFuture<V> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package ronco.books.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ronco.books.cache.BookCache;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+import ronco.books.repository.BookRepository;
+import ronco.books.service.CatalogListener;
+import ronco.books.service.CatalogReloadRequest;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the in-memory state of every node in step with writes made on the others, over
+ * Postgres {@code LISTEN/NOTIFY}, so books can be cached on each node without a shared
+ * cache server.
+ * <p>
+ * Writes reported to this listener are queued and sent by one thread as {@code NOTIFY}
+ * payloads of ISBN-13s, each numbered in a per-node sequence; an idle node sends an empty
+ * payload every poll interval instead. Every node listens on one
+ * dedicated connection; for each ISBN written elsewhere it evicts the cached book, reads
+ * the row and hands it (or its deletion) to the other {@link CatalogListener}s, so the
+ * ISBN filter, indexes and statistics follow remote writes too.
+ * <p>
+ * Anything that may have lost notifications (a gap in a node's sequence, a reconnect
+ * of the listening connection, a sender falling more than {@code max-pending} ISBNs
+ * behind, which tells every node to flush, or a node falling silent for three poll
+ * intervals without saying it left, as one that crashed with writes still queued does)
+ * clears the book cache and reloads the catalog.
+ * The reload runs on a thread of its own, so the listening thread keeps draining the
+ * channel meanwhile.
+ * <p>
+ * The threads start with the application context, ahead of the catalog load, so remote
+ * writes made during the load aren't missed, and stop after the web server has, so a
+ * node shutting down sends every write it made before it says it is leaving. Opt-in with {@code books.invalidation.enabled},
+ * and only for Postgres.
+ */
+@Slf4j
+@Component
+public class CatalogInvalidationBus implements CatalogListener, SmartLifecycle, DisposableBean {
+
+    static final String CHANNEL = "books_invalidation";
+    // Postgres rejects payloads of 8000 bytes or more
+    static final int MAX_PAYLOAD_BYTES = 7900;
+    static final String FLUSH = "*";
+    static final String LEAVE = "-";
+
+    private static final int LOOKUP_CHUNK_SIZE = 500;
+    private static final long MIN_RECONNECT_DELAY_MILLIS = 1000;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 30_000;
+    private static final long STOP_TIMEOUT_MILLIS = 10_000;
+    private static final int SILENT_POLL_INTERVALS = 3;
+
+    private final boolean enabled;
+    private final DataSourceProperties dataSourceProperties;
+    private final JdbcTemplate jdbcTemplate;
+    private final BookRepository bookRepository;
+    private final BookCache bookCache;
+    private final List<CatalogListener> catalogListeners;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int pollMillis;
+    private final int maxPending;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final AtomicLong sequence = new AtomicLong();
+    private final LinkedBlockingQueue<Long> pending = new LinkedBlockingQueue<>();
+    private final AtomicBoolean flushPending = new AtomicBoolean();
+    // Last sequence seen from each node, and when (System.nanoTime()); only touched by the listening thread
+    private final Map<String, Long> lastSequences = new HashMap<>();
+    private final Map<String, Long> lastHeard = new HashMap<>();
+    private Thread sender;
+    private Thread listener;
+    private final ExecutorService reloads = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "catalog-invalidation-reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Set while a reload is queued and not yet started, so flushes arriving meanwhile share it
+    private final AtomicBoolean reloadQueued = new AtomicBoolean();
+    private volatile boolean running;
+
+    @Autowired
+    public CatalogInvalidationBus(@Value("${books.invalidation.enabled:false}") final boolean enabled,
+                                  @Value("${books.invalidation.poll-interval:10s}") final Duration pollInterval,
+                                  @Value("${books.invalidation.max-pending:100000}") final int maxPending,
+                                  final DataSourceProperties dataSourceProperties,
+                                  final JdbcTemplate jdbcTemplate,
+                                  final BookRepository bookRepository,
+                                  final BookCache bookCache,
+                                  final List<CatalogListener> catalogListeners,
+                                  final ApplicationEventPublisher eventPublisher) {
+        this.enabled = enabled;
+        this.pollMillis = (int) pollInterval.toMillis();
+        this.maxPending = maxPending;
+        this.dataSourceProperties = dataSourceProperties;
+        this.jdbcTemplate = jdbcTemplate;
+        this.bookRepository = bookRepository;
+        this.bookCache = bookCache;
+        // Spring leaves this bean out of the list it is given; filtered anyway so remote writes are never echoed
+        this.catalogListeners = catalogListeners.stream().filter(listener -> listener != this).toList();
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        sender = startThread("catalog-invalidation-sender", this::sendLoop);
+        listener = startThread("catalog-invalidation-listener", this::listenLoop);
+    }
+
+    /**
+     * Waits for the sender to send what is still queued: those writes are committed, and
+     * once the node has left nothing else would tell the other nodes about them.
+     */
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        listener.interrupt();
+        try {
+            sender.join(STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (sender.isAlive()) {
+            // The other nodes flush once they notice this one fell silent
+            log.warn("Stopped before sending every queued catalog invalidation");
+            sender.interrupt();
+        }
+        sender = null;
+        listener = null;
+    }
+
+    /**
+     * Stops after the web server, whose in-flight writes are still to be sent.
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MIN_VALUE;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void bookSaved(final Book book) {
+        queue(Isbn.parse(book.getIsbn()));
+    }
+
+    @Override
+    public void bookDeleted(final long isbn13) {
+        queue(isbn13);
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+        reloads.shutdownNow();
+    }
+
+    private void queue(final long isbn13) {
+        if (!enabled) {
+            return;
+        }
+        if (pending.size() >= maxPending) {
+            // Cheaper for every node to reload than to read this many books one notification at a time
+            flushPending.set(true);
+        } else {
+            pending.add(isbn13);
+        }
+    }
+
+    private void sendLoop() {
+        // Short enough to send idle payloads on time and to notice a stop within a second
+        final long waitMillis = Math.min(pollMillis, 1000);
+        long lastSent = System.nanoTime();
+        while (running) {
+            try {
+                if (send(pending.poll(waitMillis, TimeUnit.MILLISECONDS))) {
+                    lastSent = System.nanoTime();
+                } else if (System.nanoTime() - lastSent >= TimeUnit.MILLISECONDS.toNanos(pollMillis)) {
+                    notify(encodeIdle());
+                    lastSent = System.nanoTime();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        send(null);
+        notify(encodeLeave());
+    }
+
+    /**
+     * Sends what is queued, if anything, after the ISBN-13 already taken off the queue.
+     */
+    private boolean send(final Long first) {
+        final boolean flush = flushPending.getAndSet(false);
+        final List<Long> isbn13s = new ArrayList<>();
+        if (first != null) {
+            isbn13s.add(first);
+        }
+        pending.drainTo(isbn13s);
+        if (isbn13s.isEmpty() && !flush) {
+            return false;
+        }
+        for (String payload : flush ? List.of(encodeFlush()) : encode(isbn13s)) {
+            notify(payload);
+        }
+        return true;
+    }
+
+    private void notify(final String payload) {
+        try {
+            jdbcTemplate.query("SELECT pg_notify(?, ?)", row -> {
+            }, CHANNEL, payload);
+        } catch (RuntimeException e) {
+            // The sequence number is used up regardless, so the other nodes see a gap and flush
+            log.warn("Failed to send a catalog invalidation", e);
+        }
+    }
+
+    /**
+     * Packs the ISBN-13s into as few payloads as fit, each with the next sequence number.
+     */
+    List<String> encode(final List<Long> isbn13s) {
+        final List<String> payloads = new ArrayList<>();
+        StringBuilder payload = null;
+        int bytes = 0;
+        for (long isbn13 : isbn13s) {
+            final String isbn = Isbn.format(isbn13);
+            // ASCII digits, so one byte a char
+            final int isbnBytes = isbn.length() + 1;
+            if (payload != null && bytes + isbnBytes > MAX_PAYLOAD_BYTES) {
+                payloads.add(payload.toString());
+                payload = null;
+            }
+            if (payload == null) {
+                payload = new StringBuilder(header());
+                bytes = payload.length();
+            }
+            payload.append('\n').append(isbn);
+            bytes += isbnBytes;
+        }
+        if (payload != null) {
+            payloads.add(payload.toString());
+        }
+        return payloads;
+    }
+
+    String encodeFlush() {
+        return header() + "\n" + FLUSH;
+    }
+
+    String encodeIdle() {
+        return header();
+    }
+
+    String encodeLeave() {
+        return header() + "\n" + LEAVE;
+    }
+
+    private String header() {
+        return nodeId + " " + sequence.getAndIncrement();
+    }
+
+    private void listenLoop() {
+        long reconnectDelay = MIN_RECONNECT_DELAY_MILLIS;
+        boolean missedNotifications = false;
+        while (running) {
+            try (Connection connection = openConnection()) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                if (missedNotifications) {
+                    flush("the invalidation listener reconnected");
+                    // Silent while we weren't listening, not necessarily since
+                    lastHeard.clear();
+                    missedNotifications = false;
+                }
+                reconnectDelay = MIN_RECONNECT_DELAY_MILLIS;
+                final PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    final PGNotification[] notifications = pgConnection.getNotifications(pollMillis);
+                    if (notifications == null || notifications.length == 0) {
+                        // A dead connection only shows when it is used, so an idle one is checked
+                        try (Statement statement = connection.createStatement()) {
+                            statement.execute("SELECT 1");
+                        }
+                    } else {
+                        for (PGNotification notification : notifications) {
+                            receive(notification.getParameter());
+                        }
+                    }
+                    checkSilentNodes();
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                missedNotifications = true;
+                log.warn("Catalog invalidation listener failed, reconnecting in {} ms", reconnectDelay, e);
+                try {
+                    Thread.sleep(reconnectDelay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY_MILLIS);
+            }
+        }
+    }
+
+    private Connection openConnection() throws SQLException {
+        // Held for as long as the node runs, so it doesn't come out of the pool
+        return DriverManager.getConnection(dataSourceProperties.determineUrl(),
+                dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword());
+    }
+
+    /**
+     * Applies one notification from the channel.
+     */
+    void receive(final String payload) {
+        final String[] lines = payload.split("\n");
+        final String[] header = lines[0].split(" ");
+        final String node = header[0];
+        final long nodeSequence = Long.parseLong(header[1]);
+        if (node.equals(nodeId)) {
+            return;
+        }
+        final Long last = lastSequences.put(node, nodeSequence);
+        lastHeard.put(node, System.nanoTime());
+        if (last != null && nodeSequence != last + 1) {
+            flush("missed invalidations from node " + node);
+            return;
+        }
+        if (lines.length == 2 && FLUSH.equals(lines[1])) {
+            flush("node " + node + " asked for a flush");
+            return;
+        }
+        if (lines.length == 2 && LEAVE.equals(lines[1])) {
+            // Everything it wrote has been sent, so its silence from now on is expected
+            lastSequences.remove(node);
+            lastHeard.remove(node);
+            return;
+        }
+        final List<Long> isbn13s = new ArrayList<>(lines.length - 1);
+        for (int i = 1; i < lines.length; i++) {
+            isbn13s.add(Long.parseLong(lines[i]));
+        }
+        // Evicted before the rows are read: that moves each book to a new cache generation, so
+        // a local lookup that read the row before the remote write can no longer cache it
+        isbn13s.forEach(bookCache::invalidate);
+        final Map<Long, Book> found = new HashMap<>();
+        for (int from = 0; from < isbn13s.size(); from += LOOKUP_CHUNK_SIZE) {
+            final List<Long> chunk = isbn13s.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, isbn13s.size()));
+            bookRepository.findBooksByIsbnIn(chunk).forEach(book -> found.put(Isbn.parse(book.getIsbn()), book));
+        }
+        for (long isbn13 : isbn13s) {
+            final Book book = found.get(isbn13);
+            if (book != null) {
+                catalogListeners.forEach(listener -> listener.bookSaved(book));
+            } else {
+                catalogListeners.forEach(listener -> listener.bookDeleted(isbn13));
+            }
+            // Again after the listeners, so a copy promoted from the off-heap store before it took the write goes too
+            bookCache.invalidate(isbn13);
+        }
+    }
+
+    /**
+     * Flushes if a node has sent nothing, not even an idle payload, for too long: it may
+     * have stopped without sending the writes it had queued.
+     */
+    void checkSilentNodes() {
+        final long silentNanos = SILENT_POLL_INTERVALS * TimeUnit.MILLISECONDS.toNanos(pollMillis);
+        final long now = System.nanoTime();
+        final List<String> silentNodes = lastHeard.entrySet().stream()
+                .filter(heard -> now - heard.getValue() > silentNanos)
+                .map(Map.Entry::getKey)
+                .toList();
+        for (String node : silentNodes) {
+            lastSequences.remove(node);
+            lastHeard.remove(node);
+            flush("node " + node + " fell silent without leaving");
+        }
+    }
+
+    private void flush(final String reason) {
+        log.warn("Flushing cached books and reloading the catalog: {}", reason);
+        bookCache.invalidateAll();
+        if (reloadQueued.compareAndSet(false, true)) {
+            reloads.execute(() -> {
+                reloadQueued.set(false);
+                eventPublisher.publishEvent(new CatalogReloadRequest(reason));
+            });
+        }
+    }
+
+    private static Thread startThread(final String name, final Runnable task) {
+        final Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
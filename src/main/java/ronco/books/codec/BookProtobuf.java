@@ -0,0 +1,187 @@
+package ronco.books.codec;
+
+import ronco.books.model.Book;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Protocol Buffers encoding of books, as described by {@code book.proto}. The schema is
+ * three optional strings, so the wire format is written by hand rather than through
+ * generated classes and a protoc build step. Unset fields stay {@code null}.
+ */
+public final class BookProtobuf {
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_FIXED32 = 5;
+
+    // Book
+    private static final int ISBN_TAG = 1 << 3 | WIRE_LENGTH_DELIMITED;
+    private static final int TITLE_TAG = 2 << 3 | WIRE_LENGTH_DELIMITED;
+    private static final int AUTHOR_TAG = 3 << 3 | WIRE_LENGTH_DELIMITED;
+
+    // BookList
+    private static final int BOOKS_TAG = 1 << 3 | WIRE_LENGTH_DELIMITED;
+
+    private BookProtobuf() {
+    }
+
+    public static byte[] encodeBook(final Book book) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeString(out, ISBN_TAG, book.getIsbn());
+        writeString(out, TITLE_TAG, book.getTitle());
+        writeString(out, AUTHOR_TAG, book.getAuthor());
+        return out.toByteArray();
+    }
+
+    public static byte[] encodeBooks(final Collection<Book> books) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(books.size() * 64);
+        for (Book book : books) {
+            final byte[] encoded = encodeBook(book);
+            writeVarint(out, BOOKS_TAG);
+            writeVarint(out, encoded.length);
+            out.writeBytes(encoded);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes are not a valid {@code Book} message
+     */
+    public static Book decodeBook(final byte[] bytes) {
+        return readBook(new Reader(bytes, 0, bytes.length));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes are not a valid {@code BookList} message
+     */
+    public static List<Book> decodeBooks(final byte[] bytes) {
+        final List<Book> books = new ArrayList<>();
+        final Reader reader = new Reader(bytes, 0, bytes.length);
+        while (reader.hasMore()) {
+            final int tag = reader.tag();
+            if (tag == BOOKS_TAG) {
+                books.add(readBook(reader.message()));
+            } else {
+                reader.skip(tag);
+            }
+        }
+        return books;
+    }
+
+    private static Book readBook(final Reader reader) {
+        final Book.BookBuilder book = Book.builder();
+        while (reader.hasMore()) {
+            final int tag = reader.tag();
+            switch (tag) {
+                case ISBN_TAG -> book.isbn(reader.string());
+                case TITLE_TAG -> book.title(reader.string());
+                case AUTHOR_TAG -> book.author(reader.string());
+                default -> reader.skip(tag);
+            }
+        }
+        return book.build();
+    }
+
+    private static void writeString(final ByteArrayOutputStream out, final int tag, final String value) {
+        if (value == null) {
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, tag);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+        private final int limit;
+        private int position;
+
+        Reader(final byte[] bytes, final int position, final int limit) {
+            this.bytes = bytes;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        boolean hasMore() {
+            return position < limit;
+        }
+
+        int tag() {
+            final long tag = varint();
+            if (tag >>> 3 == 0 || tag > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid field tag " + tag + " at byte " + position);
+            }
+            return (int) tag;
+        }
+
+        String string() {
+            final int length = length();
+            final String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        Reader message() {
+            final int length = length();
+            final Reader nested = new Reader(bytes, position, position + length);
+            position += length;
+            return nested;
+        }
+
+        void skip(final int tag) {
+            switch (tag & 0x7) {
+                case WIRE_VARINT -> varint();
+                case WIRE_FIXED64 -> advance(8);
+                case WIRE_LENGTH_DELIMITED -> advance(length());
+                case WIRE_FIXED32 -> advance(4);
+                default -> throw new IllegalArgumentException("Unsupported wire type " + (tag & 0x7));
+            }
+        }
+
+        private int length() {
+            final long length = varint();
+            if (length > limit - position) {
+                throw new IllegalArgumentException("Field length " + length + " runs past the end of the message");
+            }
+            return (int) length;
+        }
+
+        private void advance(final int count) {
+            if (count > limit - position) {
+                throw new IllegalArgumentException("Truncated message");
+            }
+            position += count;
+        }
+
+        private long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw new IllegalArgumentException("Truncated varint");
+                }
+                final byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+    }
+}
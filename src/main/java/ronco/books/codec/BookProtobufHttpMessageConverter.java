@@ -0,0 +1,94 @@
+package ronco.books.codec;
+
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import ronco.books.model.Book;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+
+/**
+ * Reads a {@link Book} and writes a {@link Book} or a collection of books as
+ * {@code application/x-protobuf}. Registered after the default converters, see
+ * {@code WebConfig}, so JSON stays the default when the client has no preference.
+ */
+public class BookProtobufHttpMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+
+    public static final MediaType APPLICATION_PROTOBUF = new MediaType("application", "x-protobuf");
+
+    public BookProtobufHttpMessageConverter() {
+        super(APPLICATION_PROTOBUF, new MediaType("application", "protobuf"));
+    }
+
+    @Override
+    protected boolean supports(final Class<?> clazz) {
+        return Book.class == clazz || Collection.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(final Class<?> clazz, final MediaType mediaType) {
+        return Book.class == clazz && canRead(mediaType);
+    }
+
+    @Override
+    public boolean canRead(final Type type, final Class<?> contextClass, final MediaType mediaType) {
+        return Book.class == type && canRead(mediaType);
+    }
+
+    @Override
+    public boolean canWrite(final Type type, final Class<?> clazz, final MediaType mediaType) {
+        // When the declared type carries the element type, only book collections qualify;
+        // otherwise the elements are checked while writing
+        if (type instanceof ParameterizedType) {
+            final ResolvableType resolved = ResolvableType.forType(type);
+            if (!Collection.class.isAssignableFrom(resolved.toClass())
+                    || resolved.asCollection().getGeneric().toClass() != Book.class) {
+                return false;
+            }
+        }
+        return canWrite(clazz, mediaType);
+    }
+
+    @Override
+    protected void writeInternal(final Object body, final Type type, final HttpOutputMessage outputMessage)
+            throws IOException {
+        final byte[] encoded;
+        if (body instanceof Book book) {
+            encoded = BookProtobuf.encodeBook(book);
+        } else {
+            final Collection<?> books = (Collection<?>) body;
+            for (Object element : books) {
+                if (!(element instanceof Book)) {
+                    throw new HttpMessageNotWritableException("Only books can be written as " + APPLICATION_PROTOBUF);
+                }
+            }
+            @SuppressWarnings("unchecked") final Collection<Book> bookCollection = (Collection<Book>) books;
+            encoded = BookProtobuf.encodeBooks(bookCollection);
+        }
+        outputMessage.getHeaders().setContentLength(encoded.length);
+        outputMessage.getBody().write(encoded);
+    }
+
+    @Override
+    protected Object readInternal(final Class<?> clazz, final HttpInputMessage inputMessage) throws IOException {
+        final byte[] bytes = inputMessage.getBody().readAllBytes();
+        try {
+            return BookProtobuf.decodeBook(bytes);
+        } catch (IllegalArgumentException e) {
+            throw new HttpMessageNotReadableException("Invalid protobuf book: " + e.getMessage(), e, inputMessage);
+        }
+    }
+
+    @Override
+    public Object read(final Type type, final Class<?> contextClass, final HttpInputMessage inputMessage)
+            throws IOException {
+        return readInternal(Book.class, inputMessage);
+    }
+}
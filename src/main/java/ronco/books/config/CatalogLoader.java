@@ -0,0 +1,115 @@
+package ronco.books.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ronco.books.model.Book;
+import ronco.books.service.AuthorDictionary;
+import ronco.books.service.BookService;
+import ronco.books.service.CatalogListener;
+import ronco.books.service.CatalogReloadRequest;
+import ronco.books.snapshot.CatalogSnapshots;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Replays the stored catalog into every {@link CatalogListener} once the application
+ * has started, and again whenever a {@link CatalogReloadRequest} is published. The
+ * catalog is read from the mapped snapshot plus the changes made since, when there is
+ * one, and otherwise with a single streaming pass over the books table. Author names
+ * are interned through the {@link AuthorDictionary} before the listeners keep them.
+ * <p>
+ * A load that fails part way is reported to the listeners with
+ * {@link CatalogListener#loadFailed()} and retried, waiting twice as long after each
+ * failure, up to a few minutes.
+ */
+@Slf4j
+@Component
+public class CatalogLoader implements CommandLineRunner, DisposableBean {
+
+    private static final long MAX_RETRY_DELAY_MILLIS = 300_000;
+
+    private final BookService bookService;
+    private final AuthorDictionary authorDictionary;
+    private final CatalogSnapshots catalogSnapshots;
+    private final List<CatalogListener> catalogListeners;
+    private final long minRetryDelayMillis;
+    private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "catalog-load-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by this
+    private long retryDelayMillis;
+    private ScheduledFuture<?> retry;
+
+    @Autowired
+    public CatalogLoader(BookService bookService, AuthorDictionary authorDictionary, CatalogSnapshots catalogSnapshots,
+                         List<CatalogListener> catalogListeners,
+                         @Value("${books.catalog.load-retry-delay:1s}") Duration minRetryDelay) {
+        this.bookService = bookService;
+        this.authorDictionary = authorDictionary;
+        this.catalogSnapshots = catalogSnapshots;
+        this.catalogListeners = catalogListeners;
+        this.minRetryDelayMillis = minRetryDelay.toMillis();
+        this.retryDelayMillis = minRetryDelayMillis;
+    }
+
+    @Override
+    public void run(String... args) {
+        load();
+    }
+
+    @EventListener
+    public void reload(final CatalogReloadRequest request) {
+        log.info("Reloading the catalog into memory: {}", request.reason());
+        load();
+    }
+
+    public synchronized void load() {
+        // A reload requested meanwhile supersedes the retry
+        if (retry != null) {
+            retry.cancel(false);
+            retry = null;
+        }
+        final long started = System.nanoTime();
+        final long[] loaded = {0};
+        final Consumer<Book> load = book -> {
+            final Book interned = book.withAuthor(authorDictionary.intern(book.getAuthor()));
+            catalogListeners.forEach(listener -> listener.bookLoaded(interned));
+            loaded[0]++;
+        };
+        catalogListeners.forEach(CatalogListener::loadStarted);
+        try {
+            authorDictionary.load();
+            if (!catalogSnapshots.replay(load)) {
+                bookService.exportBooks(load);
+            }
+        } catch (RuntimeException e) {
+            catalogListeners.forEach(CatalogListener::loadFailed);
+            log.error("Failed to load the catalog into memory, retrying in {} ms", retryDelayMillis, e);
+            retry = retries.schedule(this::load, retryDelayMillis, TimeUnit.MILLISECONDS);
+            retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+            return;
+        }
+        retryDelayMillis = minRetryDelayMillis;
+        catalogListeners.forEach(CatalogListener::loadCompleted);
+        log.info("Loaded {} books into memory in {} ms", loaded[0], (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @Override
+    public void destroy() {
+        retries.shutdownNow();
+    }
+}
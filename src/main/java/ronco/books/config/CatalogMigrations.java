@@ -0,0 +1,42 @@
+package ronco.books.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import ronco.books.repository.BookRepository;
+
+/**
+ * Brings rows written by older versions up to date with columns that Hibernate's
+ * schema update adds empty. Each step only touches rows that still need it, so
+ * running them on every start is cheap once they have completed.
+ */
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class CatalogMigrations implements CommandLineRunner {
+
+    private final BookRepository bookRepository;
+
+    @Autowired
+    public CatalogMigrations(BookRepository bookRepository) {
+        this.bookRepository = bookRepository;
+    }
+
+    @Override
+    public void run(String... args) {
+        if (bookRepository.collateTitleKeys()) {
+            log.info("Collated the title keys in code point order");
+        }
+        final int titleKeys = bookRepository.backfillTitleKeys();
+        if (titleKeys > 0) {
+            log.info("Backfilled the title key of {} books", titleKeys);
+        }
+        final int changeVersions = bookRepository.backfillChangeVersions();
+        if (changeVersions > 0) {
+            log.info("Backfilled the change version of {} books", changeVersions);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package ronco.books.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import ronco.books.codec.BookProtobufHttpMessageConverter;
+
+import java.util.List;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        // Appended rather than declared as a bean, which Spring Boot would put ahead of Jackson
+        converters.add(new BookProtobufHttpMessageConverter());
+    }
+}
@@ -1,23 +1,102 @@
 package ronco.books.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+import ronco.books.cache.BookJsonCache;
+import ronco.books.cache.CatalogVersion;
+import ronco.books.codec.BookProtobufHttpMessageConverter;
+import ronco.books.events.CatalogEventStream;
+import ronco.books.ingest.BookFeed;
+import ronco.books.ingest.CsvBookFeed;
+import ronco.books.ingest.NdjsonBookFeed;
 import ronco.books.model.Book;
+import ronco.books.model.BookChange;
+import ronco.books.model.BookChangePage;
+import ronco.books.model.BookCursor;
+import ronco.books.model.BookField;
+import ronco.books.model.BookLookupRequest;
+import ronco.books.model.BookLookupResult;
+import ronco.books.model.BookPage;
+import ronco.books.model.BookQuery;
+import ronco.books.model.BookSort;
+import ronco.books.model.BookStats;
+import ronco.books.model.BookSuggestion;
+import ronco.books.model.BulkIngestResult;
+import ronco.books.model.Isbn;
 import ronco.books.service.BookService;
+import ronco.books.snapshot.CatalogSnapshots;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.stream.Collectors;
 
 @RestController
 public class BookController {
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    static final int MAX_LOOKUP_SIZE = 1000;
+    static final int DEFAULT_SEARCH_PAGE_SIZE = 20;
+    // Deep pages of a ranked search get more expensive and are rarely wanted
+    static final int MAX_SEARCH_WINDOW = 10_000;
+    static final int DEFAULT_SUGGESTIONS = 10;
+    static final int MAX_SUGGESTIONS = 50;
+    static final int DEFAULT_STATS_TOP = 10;
+    static final int MAX_STATS_TOP = 100;
+    static final MediaType TEXT_CSV = MediaType.parseMediaType("text/csv");
+    static final String GZIP = "gzip";
+    // Set on search responses whose last keyword expanded to only some of the words it starts
+    static final String SEARCH_TRUNCATED = "Search-Truncated";
+    static final MediaType APPLICATION_SMILE = MediaType.parseMediaType("application/x-jackson-smile");
+    // In order of preference when the client accepts several; JSON is served from BookJsonCache
+    static final List<MediaType> BOOK_MEDIA_TYPES = List.of(
+            MediaType.APPLICATION_JSON,
+            MediaType.APPLICATION_CBOR,
+            APPLICATION_SMILE,
+            BookProtobufHttpMessageConverter.APPLICATION_PROTOBUF);
+
     private final BookService bookService;
+    private final CatalogVersion catalogVersion;
+    private final BookJsonCache bookJsonCache;
+    private final CatalogEventStream catalogEventStream;
+    private final CatalogSnapshots catalogSnapshots;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter bookWriter;
 
     @Autowired
-    public BookController(BookService bookService) {
+    public BookController(BookService bookService, CatalogVersion catalogVersion, BookJsonCache bookJsonCache,
+                          CatalogEventStream catalogEventStream, CatalogSnapshots catalogSnapshots,
+                          ObjectMapper objectMapper) {
         this.bookService = bookService;
+        this.catalogVersion = catalogVersion;
+        this.bookJsonCache = bookJsonCache;
+        this.catalogEventStream = catalogEventStream;
+        this.catalogSnapshots = catalogSnapshots;
+        this.objectMapper = objectMapper;
+        this.bookWriter = objectMapper.writerFor(Book.class);
     }
 
     @PutMapping(path = "/books/{isbn}")
@@ -25,41 +104,424 @@ public class BookController {
     public ResponseEntity<Book> createUpdateBook(
             @PathVariable final String isbn,
             @RequestBody final Book book) {
-        book.setIsbn(isbn);
-
-        final boolean isBookExists = bookService.isBookExist(book);
-        final Book savedBook = bookService.save(book);
-
-        if (isBookExists) {
-            return new ResponseEntity<>(savedBook, HttpStatus.OK);
-        } else {
-            return new ResponseEntity<>(savedBook, HttpStatus.CREATED);
+        if (!Isbn.isValid(isbn)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
+        final Book stored = book.toBuilder().isbn(isbn).build();
+
+        final boolean created = bookService.upsert(stored);
+        return new ResponseEntity<>(stored, created ? HttpStatus.CREATED : HttpStatus.OK);
     }
 
     @PostMapping(path = "/books")
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<Book> createBook(@RequestBody final Book book) {
+        if (!Isbn.isValid(book.getIsbn())) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
         final Book savedBook = bookService.save(book);
         return new ResponseEntity<>(savedBook, HttpStatus.CREATED);
     }
 
+    @PostMapping(path = "/books/_bulk", consumes = {MediaType.APPLICATION_NDJSON_VALUE, "text/csv"})
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<BulkIngestResult> bulkIngest(
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) final MediaType contentType,
+            final InputStream body) throws IOException {
+        final BulkIngestResult result;
+        try (BookFeed feed = TEXT_CSV.isCompatibleWith(contentType)
+                ? new CsvBookFeed(body)
+                : new NdjsonBookFeed(body, objectMapper)) {
+            result = bookService.ingest(feed);
+        }
+        return new ResponseEntity<>(result, result.getFailed() == 0 ? HttpStatus.OK : HttpStatus.MULTI_STATUS);
+    }
+
     @GetMapping(path = "/books/{isbn}")
-    public ResponseEntity<Book> getBook(@PathVariable final String isbn) {
+    public ResponseEntity<?> getBook(
+            @PathVariable final String isbn,
+            @RequestParam(required = false) final List<String> fields,
+            final WebRequest request) {
+        final MediaType mediaType = negotiate(request);
+        if (mediaType == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_ACCEPTABLE);
+        }
+        if (!Isbn.isValid(isbn)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        final Set<BookField> bookFields;
+        try {
+            bookFields = BookField.parse(fields);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
         final Optional<Book> foundBook = bookService.findById(isbn);
-        return foundBook.map(book -> new ResponseEntity<>(book, HttpStatus.OK))
-                .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+        if (foundBook.isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        // A book encoded before carries its ETag, so a revalidation of a hot book hashes nothing
+        final BookJsonCache.EncodedBook cached = bookJsonCache.cached(foundBook.get());
+        final String bookETag = cached != null ? cached.eTag() : CatalogVersion.bookETag(foundBook.get());
+
+        final String variant = variant(mediaType, bookFields);
+        if (!variant.isEmpty()) {
+            // Binary formats and sparse fieldsets are encoded by the message converters
+            final String eTag = representationETag(variantETag(bookETag, variant), mediaType);
+            if (request.checkNotModified(eTag)) {
+                return null;
+            }
+            return ResponseEntity.ok()
+                    .eTag(eTag)
+                    .contentType(mediaType)
+                    .varyBy(vary(mediaType))
+                    .body(select(foundBook.get(), bookFields, mediaType));
+        }
+
+        // Each content coding is a different representation, so it gets its own strong ETag; the
+        // container leaves a response with a strong ETag uncompressed. The gzip ETag also names the
+        // plain body sent when gzip doesn't make a book smaller, so it is known before encoding
+        final boolean gzipAccepted = acceptsGzip(request);
+        final String eTag = gzipAccepted ? variantETag(bookETag, GZIP) : bookETag;
+        if (request.checkNotModified(eTag)) {
+            return null;
+        }
+
+        final BookJsonCache.EncodedBook encoded = cached != null ? cached : bookJsonCache.encode(foundBook.get());
+        final byte[] gzip = gzipAccepted ? encoded.gzip() : null;
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(eTag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip != null) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, GZIP).body(gzip);
+        }
+        return response.body(encoded.json());
+    }
+
+    @PostMapping(path = "/books/_mget")
+    public ResponseEntity<BookLookupResult> lookupBooks(@RequestBody final BookLookupRequest lookupRequest) {
+        final List<String> isbns = lookupRequest.getIsbns();
+        if (isbns == null || isbns.size() > MAX_LOOKUP_SIZE) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(bookService.findAllById(isbns), HttpStatus.OK);
+    }
+
+    @RequestMapping(path = "/books/{isbn}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> bookExists(@PathVariable final String isbn) {
+        if (!Isbn.isValid(isbn)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(bookService.existsById(isbn) ? HttpStatus.OK : HttpStatus.NOT_FOUND);
     }
 
     @GetMapping(path = "/books")
-    public ResponseEntity<List<Book>> listBooks() {
-        return new ResponseEntity<>(bookService.listBooks(), HttpStatus.OK);
+    public ResponseEntity<?> listBooks(
+            @RequestParam(required = false) final String after,
+            @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) final int limit,
+            @RequestParam(required = false) final List<String> fields,
+            @RequestParam(required = false) final String author,
+            @RequestParam(required = false) final String titlePrefix,
+            @RequestParam(required = false) final String sort,
+            final WebRequest request) {
+        final MediaType mediaType = negotiate(request);
+        if (mediaType == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_ACCEPTABLE);
+        }
+        final Set<BookField> bookFields;
+        final BookSort bookSort;
+        final BookCursor cursor;
+        try {
+            bookFields = BookField.parse(fields);
+            bookSort = BookSort.parse(sort);
+            cursor = after == null ? null : BookCursor.decode(bookSort, after);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        final String variant = variant(mediaType, bookFields);
+
+        // Read the version before the rows: a write in between then only makes the ETag stale, never the body
+        final String eTag = representationETag(variantETag(catalogVersion.catalogETag(), variant), mediaType);
+        if (request.checkNotModified(eTag)) {
+            return null;
+        }
+
+        final int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        final BookPage page = bookService.listBooks(BookQuery.builder()
+                .author(author)
+                .titlePrefix(titlePrefix)
+                .sort(bookSort)
+                .fields(bookFields)
+                .after(cursor)
+                .limit(pageSize)
+                .build());
+
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setETag(eTag);
+        headers.setContentType(mediaType);
+        headers.setVary(List.of(vary(mediaType)));
+        if (page.getNextCursor() != null) {
+            final String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", UriUtils.encodeQueryParam(page.getNextCursor(), StandardCharsets.UTF_8))
+                    .replaceQueryParam("limit", pageSize)
+                    // The rest of the query is copied from the request, so it is already encoded
+                    .build(true)
+                    .toUriString();
+            headers.add(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        final Object body = variant.isEmpty()
+                ? bookJsonCache.encodeArray(page.getBooks())
+                : page.getBooks().stream().map(book -> select(book, bookFields, mediaType)).toList();
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    @GetMapping(path = "/books/search")
+    public ResponseEntity<byte[]> searchBooks(
+            @RequestParam final String q,
+            @RequestParam(defaultValue = "0") final int offset,
+            @RequestParam(defaultValue = "" + DEFAULT_SEARCH_PAGE_SIZE) final int limit,
+            final WebRequest request) {
+        final int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        if (offset < 0 || offset + pageSize > MAX_SEARCH_WINDOW) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        final String eTag = representationETag(catalogVersion.catalogETag(), MediaType.APPLICATION_JSON);
+        if (request.checkNotModified(eTag)) {
+            return null;
+        }
+
+        final BookPage page;
+        try {
+            page = bookService.searchBooks(q, offset, pageSize);
+        } catch (IllegalStateException e) {
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setETag(eTag);
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+        if (page.isTruncated()) {
+            headers.set(SEARCH_TRUNCATED, "true");
+        }
+        if (page.getNextCursor() != null) {
+            final String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("offset", page.getNextCursor())
+                    .replaceQueryParam("limit", pageSize)
+                    .build(true)
+                    .toUriString();
+            headers.add(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return new ResponseEntity<>(bookJsonCache.encodeArray(page.getBooks()), headers, HttpStatus.OK);
+    }
+
+    @GetMapping(path = "/books/suggest")
+    public ResponseEntity<List<BookSuggestion>> suggestBooks(
+            @RequestParam final String prefix,
+            @RequestParam(defaultValue = "" + DEFAULT_SUGGESTIONS) final int limit,
+            final WebRequest request) {
+        final String eTag = representationETag(catalogVersion.catalogETag(), MediaType.APPLICATION_JSON);
+        if (request.checkNotModified(eTag)) {
+            return null;
+        }
+        try {
+            return ResponseEntity.ok()
+                    .eTag(eTag)
+                    .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                    .body(bookService.suggestBooks(prefix, Math.min(Math.max(limit, 1), MAX_SUGGESTIONS)));
+        } catch (IllegalStateException e) {
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    @GetMapping(path = "/books/changes")
+    public ResponseEntity<List<BookChange>> listChanges(
+            @RequestParam(defaultValue = "0") final long since,
+            @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) final int limit,
+            final WebRequest request) {
+        if (since < 0) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        final String eTag = representationETag(catalogVersion.catalogETag(), MediaType.APPLICATION_JSON);
+        if (request.checkNotModified(eTag)) {
+            return null;
+        }
+
+        final int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        final BookChangePage page = bookService.listChanges(since, pageSize);
+
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setETag(eTag);
+        headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+        // Once caught up, "poll" is where to read from later; it repeats some changes, see BookChangePage
+        final boolean caughtUp = page.getNextSince() == null;
+        final String link = ServletUriComponentsBuilder.fromCurrentRequest()
+                .replaceQueryParam("since", caughtUp ? page.getPollSince() : page.getNextSince())
+                .replaceQueryParam("limit", pageSize)
+                .build(true)
+                .toUriString();
+        headers.add(HttpHeaders.LINK, "<" + link + ">; rel=\"" + (caughtUp ? "poll" : "next") + "\"");
+        return new ResponseEntity<>(page.getChanges(), headers, HttpStatus.OK);
+    }
+
+    @GetMapping(path = "/books/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public void streamEvents(@RequestHeader(name = "Last-Event-ID", required = false) final String lastEventId,
+                             final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        catalogEventStream.subscribe(lastEventId, request, response);
+    }
+
+    @GetMapping(path = "/books/stats")
+    public ResponseEntity<BookStats> getStats(@RequestParam(defaultValue = "" + DEFAULT_STATS_TOP) final int top) {
+        try {
+            // No ETag: the write rates change with time even when the catalog doesn't
+            return ResponseEntity.ok(bookService.getStats(Math.min(Math.max(top, 0), MAX_STATS_TOP)));
+        } catch (IllegalStateException e) {
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    @GetMapping(path = "/books/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportBooks() {
+        final StreamingResponseBody body = outputStream -> {
+            if (catalogSnapshots.export(outputStream)) {
+                return;
+            }
+            bookService.exportBooks(book -> {
+                try {
+                    outputStream.write(bookWriter.writeValueAsBytes(book));
+                    outputStream.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .body(body);
     }
 
     @DeleteMapping(value = "/books/{isbn}")
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<Book> deleteBook(@PathVariable final String isbn) {
+        if (!Isbn.isValid(isbn)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
         bookService.deleteBookById(isbn);
         return new ResponseEntity<>(HttpStatus.NO_CONTENT);
     }
+
+    private static boolean acceptsGzip(final WebRequest request) {
+        final String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            final String[] parts = coding.split(";");
+            final String name = parts[0].trim();
+            if (name.equalsIgnoreCase(GZIP) || name.equals("*")) {
+                // "q=0" means the client refuses the coding
+                return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Picks the book format to respond with from the Accept header, or {@code null} when
+     * the client accepts none of them. JSON wins for a missing header and for wildcards.
+     */
+    private static MediaType negotiate(final WebRequest request) {
+        final String accept = request.getHeader(HttpHeaders.ACCEPT);
+        if (accept == null || accept.isBlank()) {
+            return MediaType.APPLICATION_JSON;
+        }
+        final List<MediaType> accepted;
+        try {
+            accepted = new ArrayList<>(MediaType.parseMediaTypes(accept));
+        } catch (InvalidMediaTypeException e) {
+            return null;
+        }
+        // Stable sort, so types of equal quality keep the client's order
+        accepted.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+        for (MediaType acceptedType : accepted) {
+            if (acceptedType.getQualityValue() == 0) {
+                break;
+            }
+            for (MediaType bookType : BOOK_MEDIA_TYPES) {
+                if (acceptedType.isCompatibleWith(bookType)) {
+                    return bookType;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Names the representation for its ETag: empty for full JSON, otherwise the format
+     * and/or the selected fields, e.g. {@code cbor}, {@code isbn.title} or {@code cbor-isbn.title}.
+     */
+    private static String variant(final MediaType mediaType, final Set<BookField> fields) {
+        final StringJoiner variant = new StringJoiner("-");
+        if (!MediaType.APPLICATION_JSON.equals(mediaType)) {
+            variant.add(mediaType.getSubtype());
+        }
+        if (fields.size() < BookField.values().length) {
+            variant.add(fields.stream().map(BookField::getProperty).collect(Collectors.joining(".")));
+        }
+        return variant.toString();
+    }
+
+    private static String variantETag(final String eTag, final String variant) {
+        if (variant.isEmpty()) {
+            return eTag;
+        }
+        return eTag.substring(0, eTag.length() - 1) + "-" + variant + "\"";
+    }
+
+    /**
+     * Whether the container may gzip a response of this type; see {@code server.compression.mime-types}.
+     */
+    private static boolean compressible(final MediaType mediaType) {
+        return MediaType.APPLICATION_JSON.equals(mediaType) || MediaType.APPLICATION_NDJSON.equals(mediaType);
+    }
+
+    /**
+     * Weakens the ETag of a response the container may compress: the gzipped and plain
+     * bodies differ byte for byte, so a strong ETag can't name both, and Tomcat only
+     * compresses responses whose ETag is weak.
+     */
+    private static String representationETag(final String eTag, final MediaType mediaType) {
+        return compressible(mediaType) ? "W/" + eTag : eTag;
+    }
+
+    private static String[] vary(final MediaType mediaType) {
+        return compressible(mediaType)
+                ? new String[]{HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING}
+                : new String[]{HttpHeaders.ACCEPT};
+    }
+
+    /**
+     * Trims a book to the requested fields. Protobuf leaves unset fields out of the
+     * message, so it gets a book with the other fields cleared; the Jackson formats get
+     * a map, so requested fields that are null are still written.
+     */
+    private static Object select(final Book book, final Set<BookField> fields, final MediaType mediaType) {
+        if (fields.size() == BookField.values().length) {
+            return book;
+        }
+        if (BookProtobufHttpMessageConverter.APPLICATION_PROTOBUF.equals(mediaType)) {
+            return Book.builder()
+                    .isbn(fields.contains(BookField.ISBN) ? book.getIsbn() : null)
+                    .title(fields.contains(BookField.TITLE) ? book.getTitle() : null)
+                    .author(fields.contains(BookField.AUTHOR) ? book.getAuthor() : null)
+                    .build();
+        }
+        final Map<String, Object> selected = new LinkedHashMap<>();
+        for (BookField field : fields) {
+            selected.put(field.getProperty(), field.get(book));
+        }
+        return selected;
+    }
 }
@@ -0,0 +1,457 @@
+package ronco.books.events;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+import ronco.books.service.CatalogListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes every write made through {@code BookService} to Server-Sent Events subscribers.
+ * <p>
+ * Writes are appended to one ring buffer of the most recent events; a subscriber is
+ * only a position in that ring, so memory doesn't grow with the number of subscribers.
+ * Subscribers are served by a small pool of sender threads, each subscriber by at most
+ * one thread at a time, rather than a thread per connection.
+ * <p>
+ * Events are written with the servlet's non-blocking output, so a sender never waits on
+ * a slow client. A subscriber holds at most one batch of encoded events that its
+ * connection hasn't taken yet. It gets no more until the container reports the
+ * connection writable again, and it is dropped if that takes longer than
+ * {@code write-timeout}. Meanwhile it falls behind in the ring like any other subscriber.
+ * <p>
+ * A subscriber that falls more than {@code max-lag} events behind has the events it
+ * missed dropped: it jumps to the newest event and gets a {@code resync} event, telling
+ * it to catch up through {@code GET /books/changes}. The same happens when a client
+ * reconnects with a {@code Last-Event-ID} that has left the ring or was issued before a
+ * restart or by another node. Event ids are the position after the event, so a resumed
+ * subscriber continues with the event following the last one it saw.
+ * <p>
+ * Writes made on other nodes are published too when {@code CatalogInvalidationBus}
+ * relays them; event ids are only meaningful to the node that issued them.
+ */
+@Slf4j
+@Component
+public class CatalogEventStream implements CatalogListener, DisposableBean {
+
+    static final String SAVED = "saved";
+    static final String DELETED = "deleted";
+    static final String RESYNC = "resync";
+
+    // Caps what one sender pass holds, so a far-behind subscriber doesn't copy the whole ring at once
+    private static final int MAX_SEND_BATCH = 256;
+    private static final byte[] END_OF_EVENT = "\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEARTBEAT = ":heartbeat\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Event[] ring;
+    private final int maxLag;
+    private final long timeoutMillis;
+    private final long writeTimeoutNanos;
+    private final ObjectWriter bookWriter;
+    private final Executor senders;
+    private final Counter resyncCounter;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean fanOutScheduled = new AtomicBoolean();
+    // Distinguishes event ids across restarts and nodes, whose positions start again from zero
+    private final long epoch = System.currentTimeMillis();
+    // Position of the next event; only advanced under this object's lock
+    private volatile long published;
+
+    @Autowired
+    public CatalogEventStream(@Value("${books.events.buffer-size:65536}") final int bufferSize,
+                              @Value("${books.events.max-lag:4096}") final int maxLag,
+                              @Value("${books.events.timeout:30m}") final Duration timeout,
+                              @Value("${books.events.write-timeout:30s}") final Duration writeTimeout,
+                              @Value("${books.events.threads:4}") final int threads,
+                              final ObjectMapper objectMapper,
+                              final MeterRegistry meterRegistry) {
+        this(bufferSize, maxLag, timeout, writeTimeout, Executors.newFixedThreadPool(threads, daemonThreads()),
+                objectMapper, meterRegistry);
+    }
+
+    CatalogEventStream(final int bufferSize, final int maxLag, final Duration timeout, final Duration writeTimeout,
+                       final Executor senders, final ObjectMapper objectMapper, final MeterRegistry meterRegistry) {
+        this.ring = new Event[bufferSize];
+        this.maxLag = Math.min(maxLag, bufferSize);
+        this.timeoutMillis = timeout.toMillis();
+        this.writeTimeoutNanos = writeTimeout.toNanos();
+        this.bookWriter = objectMapper.writerFor(Book.class);
+        this.senders = senders;
+        this.resyncCounter = Counter.builder("books.events.resyncs")
+                .description("Subscribers told to resync after missing events")
+                .register(meterRegistry);
+        Gauge.builder("books.events.subscribers", subscribers, Set::size)
+                .description("Open catalog event streams")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Turns the request into a stream of the events published from now on, or after
+     * {@code lastEventId} when the client is resuming and the ring still holds what it missed.
+     */
+    public void subscribe(final String lastEventId, final HttpServletRequest request,
+                          final HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(timeoutMillis);
+        subscribe(lastEventId, new ServletEventOutput(asyncContext, response.getOutputStream()));
+    }
+
+    Subscriber subscribe(final String lastEventId, final EventOutput output) {
+        final Subscriber subscriber;
+        synchronized (this) {
+            final long resumeAt = resumePosition(lastEventId);
+            subscriber = new Subscriber(output, resumeAt < 0 ? published : resumeAt);
+            subscriber.resyncDue = lastEventId != null && resumeAt < 0;
+        }
+        subscribers.add(subscriber);
+        // The container calls onWritePossible() once the output is ready, which schedules the first send
+        output.start(subscriber);
+        return subscriber;
+    }
+
+    @Override
+    public void bookSaved(final Book book) {
+        publish(SAVED, book);
+    }
+
+    @Override
+    public void bookDeleted(final long isbn13) {
+        publish(DELETED, Book.builder().isbn(Isbn.format(isbn13)).build());
+    }
+
+    /**
+     * Sends a comment to every subscriber, so proxies keep idle streams open and
+     * connections closed by the client are noticed, and drops the subscribers whose
+     * connection has taken no writes for {@code write-timeout}.
+     */
+    @Scheduled(fixedDelayString = "${books.events.heartbeat:15s}")
+    public void heartbeat() {
+        final long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            final long stalledSince = subscriber.stalledSince;
+            if (stalledSince != 0 && now - stalledSince >= writeTimeoutNanos) {
+                log.debug("Dropping a catalog event subscriber that took no writes for {} ms", (now - stalledSince) / 1_000_000);
+                drop(subscriber);
+                continue;
+            }
+            subscriber.heartbeatDue = true;
+            schedule(subscriber);
+        }
+    }
+
+    /**
+     * Ends the open streams, so a graceful shutdown doesn't wait for them and clients
+     * reconnect to another node.
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void closeStreams() {
+        for (Subscriber subscriber : subscribers) {
+            drop(subscriber);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (senders instanceof ExecutorService executor) {
+            executor.shutdown();
+        }
+    }
+
+    private void publish(final String name, final Book book) {
+        synchronized (this) {
+            final long position = published;
+            ring[(int) (position % ring.length)] = new Event(position, name, book);
+            published = position + 1;
+        }
+        // One task wakes the subscribers, so the writing thread doesn't pay for each of them
+        if (fanOutScheduled.compareAndSet(false, true)) {
+            senders.execute(this::fanOut);
+        }
+    }
+
+    private void fanOut() {
+        fanOutScheduled.set(false);
+        for (Subscriber subscriber : subscribers) {
+            schedule(subscriber);
+        }
+    }
+
+    private void schedule(final Subscriber subscriber) {
+        if (subscriber.hasPending() && subscriber.scheduled.compareAndSet(false, true)) {
+            senders.execute(() -> send(subscriber));
+        }
+    }
+
+    private void send(final Subscriber subscriber) {
+        do {
+            final List<Event> events = new ArrayList<>();
+            boolean resync;
+            synchronized (this) {
+                final boolean lagging = published - subscriber.position > maxLag;
+                resync = subscriber.resyncDue || lagging;
+                subscriber.resyncDue = false;
+                if (lagging) {
+                    subscriber.position = published;
+                }
+                while (subscriber.position < published && events.size() < MAX_SEND_BATCH) {
+                    events.add(ring[(int) (subscriber.position++ % ring.length)]);
+                }
+            }
+            try {
+                final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+                if (resync) {
+                    resyncCounter.increment();
+                    encode(encoded, eventId(subscriber.position - events.size()), RESYNC, new byte[0]);
+                }
+                for (Event event : events) {
+                    encode(encoded, eventId(event.position() + 1), event.name(), bookWriter.writeValueAsBytes(event.book()));
+                }
+                if (subscriber.heartbeatDue) {
+                    subscriber.heartbeatDue = false;
+                    encoded.write(HEARTBEAT);
+                }
+                subscriber.write(encoded.toByteArray());
+            } catch (IOException | IllegalStateException e) {
+                // The client went away or the request already completed
+                log.debug("Dropping a catalog event subscriber", e);
+                drop(subscriber);
+                return;
+            }
+            subscriber.scheduled.set(false);
+            // A publish, or the output turning writable, that found this subscriber still
+            // scheduled left its work to this pass
+        } while (subscriber.hasPending() && subscriber.scheduled.compareAndSet(false, true));
+    }
+
+    private void drop(final Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            subscriber.output.close();
+        }
+    }
+
+    private static void encode(final ByteArrayOutputStream encoded, final String id, final String name, final byte[] data) {
+        encoded.writeBytes(("id:" + id + "\nevent:" + name + "\ndata:").getBytes(StandardCharsets.UTF_8));
+        encoded.writeBytes(data);
+        encoded.writeBytes(END_OF_EVENT);
+    }
+
+    private String eventId(final long position) {
+        return epoch + "-" + position;
+    }
+
+    /**
+     * Returns where to resume after the given event id, or -1 if the events since are gone.
+     */
+    private long resumePosition(final String lastEventId) {
+        if (lastEventId == null) {
+            return -1;
+        }
+        final int separator = lastEventId.indexOf('-');
+        try {
+            if (separator < 0 || Long.parseLong(lastEventId.substring(0, separator)) != epoch) {
+                return -1;
+            }
+            final long position = Long.parseLong(lastEventId.substring(separator + 1));
+            final long oldest = Math.max(0, published - ring.length);
+            return position >= oldest && position <= published ? position : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, "catalog-events-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A subscriber's connection, written without blocking: callers check {@link #isReady()}
+     * before every write or flush, and once it returns {@code false} the output calls
+     * {@link WriteListener#onWritePossible()} when it is ready again.
+     */
+    interface EventOutput {
+        void start(WriteListener listener);
+
+        boolean isReady();
+
+        void write(byte[] bytes) throws IOException;
+
+        void flush() throws IOException;
+
+        void close();
+    }
+
+    private record Event(long position, String name, Book book) {
+    }
+
+    /**
+     * The servlet response of a subscriber, in asynchronous mode with non-blocking writes.
+     */
+    private final class ServletEventOutput implements EventOutput {
+        private final AsyncContext asyncContext;
+        private final ServletOutputStream outputStream;
+
+        private ServletEventOutput(final AsyncContext asyncContext, final ServletOutputStream outputStream) {
+            this.asyncContext = asyncContext;
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void start(final WriteListener listener) {
+            asyncContext.addListener(new AsyncListener() {
+                @Override
+                public void onComplete(final AsyncEvent event) {
+                    subscribers.remove(listener);
+                }
+
+                @Override
+                public void onTimeout(final AsyncEvent event) {
+                    subscribers.remove(listener);
+                    asyncContext.complete();
+                }
+
+                @Override
+                public void onError(final AsyncEvent event) {
+                    subscribers.remove(listener);
+                }
+
+                @Override
+                public void onStartAsync(final AsyncEvent event) {
+                }
+            });
+            outputStream.setWriteListener(listener);
+        }
+
+        @Override
+        public boolean isReady() {
+            return outputStream.isReady();
+        }
+
+        @Override
+        public void write(final byte[] bytes) throws IOException {
+            outputStream.write(bytes);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            outputStream.flush();
+        }
+
+        @Override
+        public void close() {
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                // Already completed
+            }
+        }
+    }
+
+    final class Subscriber implements WriteListener {
+        private final EventOutput output;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // Only touched by the sender currently holding the subscriber, under the stream's lock
+        private long position;
+        private volatile boolean resyncDue;
+        private volatile boolean heartbeatDue;
+        // Encoded events the output hasn't taken yet, and whether they still need a flush; under this object's lock
+        private byte[] unwritten;
+        private boolean flushDue;
+        // System.nanoTime() when the output last refused a write, 0 while it keeps up
+        private volatile long stalledSince;
+
+        private Subscriber(final EventOutput output, final long position) {
+            this.output = output;
+            this.position = position;
+        }
+
+        private boolean hasPending() {
+            return stalledSince == 0 && (resyncDue || heartbeatDue || position < published);
+        }
+
+        private synchronized void write(final byte[] bytes) throws IOException {
+            if (bytes.length > 0) {
+                unwritten = bytes;
+            }
+            drain();
+        }
+
+        /**
+         * Hands the output as much as it takes without blocking.
+         */
+        private synchronized void drain() throws IOException {
+            while (unwritten != null || flushDue) {
+                if (!output.isReady()) {
+                    if (stalledSince == 0) {
+                        stalledSince = System.nanoTime();
+                    }
+                    return;
+                }
+                if (unwritten != null) {
+                    output.write(unwritten);
+                    unwritten = null;
+                    flushDue = true;
+                } else {
+                    output.flush();
+                    flushDue = false;
+                }
+            }
+            stalledSince = 0;
+        }
+
+        @Override
+        public void onWritePossible() throws IOException {
+            drain();
+            schedule(this);
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+            log.debug("Dropping a catalog event subscriber", t);
+            drop(this);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package ronco.books.ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A bulk feed of books, read one item at a time so that a feed of any size can be
+ * ingested in constant memory.
+ */
+public interface BookFeed extends Closeable {
+
+    /**
+     * @return the next item, or {@code null} once the feed is exhausted
+     */
+    BookFeedRecord next() throws IOException;
+}
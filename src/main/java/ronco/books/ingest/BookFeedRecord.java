@@ -0,0 +1,19 @@
+package ronco.books.ingest;
+
+import ronco.books.model.Book;
+
+/**
+ * One item of a bulk feed: either a parsed book or the reason it couldn't be parsed.
+ *
+ * @param line the 1-based line the item starts on
+ */
+public record BookFeedRecord(long line, Book book, String error) {
+
+    static BookFeedRecord parsed(long line, Book book) {
+        return new BookFeedRecord(line, book, null);
+    }
+
+    static BookFeedRecord failed(long line, String error) {
+        return new BookFeedRecord(line, null, error);
+    }
+}
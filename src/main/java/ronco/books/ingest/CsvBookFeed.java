@@ -0,0 +1,126 @@
+package ronco.books.ingest;
+
+import ronco.books.model.Book;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads RFC 4180 CSV. Columns default to {@code isbn,title,author}; a header row naming
+ * those columns may reorder them. Quoted fields may contain commas, doubled quotes and
+ * line breaks.
+ */
+public class CsvBookFeed implements BookFeed {
+
+    private static final List<String> DEFAULT_COLUMNS = List.of("isbn", "title", "author");
+
+    private final BufferedReader reader;
+    private long line;
+    private int isbnColumn = 0;
+    private int titleColumn = 1;
+    private int authorColumn = 2;
+    private boolean headerChecked;
+
+    public CsvBookFeed(InputStream inputStream) {
+        this.reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public BookFeedRecord next() throws IOException {
+        while (true) {
+            final long startLine = line + 1;
+            final List<String> fields = readRecord();
+            if (fields == null) {
+                return null;
+            }
+            if (fields.size() == 1 && fields.get(0).isBlank()) {
+                continue;
+            }
+            if (!headerChecked) {
+                headerChecked = true;
+                if (applyHeader(fields)) {
+                    continue;
+                }
+            }
+            if (fields.size() <= Math.max(isbnColumn, Math.max(titleColumn, authorColumn))) {
+                return BookFeedRecord.failed(startLine, "Expected " + DEFAULT_COLUMNS.size() + " columns but found " + fields.size());
+            }
+            return BookFeedRecord.parsed(startLine, Book.builder()
+                    .isbn(fields.get(isbnColumn))
+                    .title(fields.get(titleColumn))
+                    .author(fields.get(authorColumn))
+                    .build());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private boolean applyHeader(List<String> fields) {
+        final List<String> names = fields.stream().map(field -> field.trim().toLowerCase(Locale.ROOT)).toList();
+        if (!names.containsAll(DEFAULT_COLUMNS)) {
+            return false;
+        }
+        isbnColumn = names.indexOf("isbn");
+        titleColumn = names.indexOf("title");
+        authorColumn = names.indexOf("author");
+        return true;
+    }
+
+    private List<String> readRecord() throws IOException {
+        String text = reader.readLine();
+        if (text == null) {
+            return null;
+        }
+        line++;
+
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (true) {
+            if (i == text.length()) {
+                if (!quoted) {
+                    break;
+                }
+                // A quoted field runs on to the next physical line
+                text = reader.readLine();
+                if (text == null) {
+                    break;
+                }
+                line++;
+                field.append('\n');
+                i = 0;
+                continue;
+            }
+            final char c = text.charAt(i++);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i < text.length() && text.charAt(i) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
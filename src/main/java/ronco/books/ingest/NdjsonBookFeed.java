@@ -0,0 +1,50 @@
+package ronco.books.ingest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import ronco.books.model.Book;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads newline-delimited JSON, one book object per line. Blank lines are skipped.
+ */
+public class NdjsonBookFeed implements BookFeed {
+
+    private final BufferedReader reader;
+    private final ObjectReader bookReader;
+    private long line;
+
+    public NdjsonBookFeed(InputStream inputStream, ObjectMapper objectMapper) {
+        this.reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        this.bookReader = objectMapper.readerFor(Book.class);
+    }
+
+    @Override
+    public BookFeedRecord next() throws IOException {
+        String text;
+        do {
+            text = reader.readLine();
+            if (text == null) {
+                return null;
+            }
+            line++;
+        } while (text.isBlank());
+
+        try {
+            return BookFeedRecord.parsed(line, bookReader.readValue(text));
+        } catch (JsonProcessingException e) {
+            return BookFeedRecord.failed(line, "Malformed JSON: " + e.getOriginalMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
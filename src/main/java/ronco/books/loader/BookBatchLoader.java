@@ -0,0 +1,151 @@
+package ronco.books.loader;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+import ronco.books.repository.BookRepository;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces concurrent single-ISBN lookups into one {@code IN} query. The first
+ * lookup opens a batch; the batch is sent after the configured window, or as soon as
+ * it holds {@code max-batch-size} distinct ISBNs, and every waiting caller is then
+ * completed from the one result.
+ * <p>
+ * Opt-in with {@code books.batch-loader.enabled}; when disabled every lookup goes
+ * straight to {@link BookRepository#findBookByIsbn}.
+ */
+@Slf4j
+@Component
+public class BookBatchLoader implements DisposableBean {
+
+    private final BookRepository bookRepository;
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService dispatcher;
+    private final Counter batchCounter;
+    private final Counter keyCounter;
+
+    private final Object lock = new Object();
+    private Batch openBatch;
+
+    @Autowired
+    public BookBatchLoader(final BookRepository bookRepository,
+                           @Value("${books.batch-loader.enabled:false}") final boolean enabled,
+                           @Value("${books.batch-loader.window:2ms}") final Duration window,
+                           @Value("${books.batch-loader.max-batch-size:100}") final int maxBatchSize,
+                           @Value("${books.batch-loader.threads:4}") final int threads,
+                           final MeterRegistry meterRegistry) {
+        this.bookRepository = bookRepository;
+        this.enabled = enabled;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.dispatcher = enabled ? Executors.newScheduledThreadPool(threads, daemonThreads()) : null;
+        this.batchCounter = Counter.builder("books.batch-loader.batches")
+                .description("IN queries sent by the batch loader")
+                .register(meterRegistry);
+        this.keyCounter = Counter.builder("books.batch-loader.keys")
+                .description("Distinct ISBNs resolved by the batch loader")
+                .register(meterRegistry);
+    }
+
+    public Optional<Book> findById(final long isbn13) {
+        if (!enabled) {
+            return bookRepository.findBookByIsbn(isbn13);
+        }
+        try {
+            return load(isbn13).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    CompletableFuture<Optional<Book>> load(final long isbn13) {
+        final CompletableFuture<Optional<Book>> future;
+        Batch fullBatch = null;
+        synchronized (lock) {
+            if (openBatch == null) {
+                final Batch batch = new Batch();
+                openBatch = batch;
+                dispatcher.schedule(() -> dispatch(batch), windowNanos, TimeUnit.NANOSECONDS);
+            }
+            future = openBatch.waiters.computeIfAbsent(isbn13, key -> new CompletableFuture<>());
+            if (openBatch.waiters.size() >= maxBatchSize) {
+                fullBatch = openBatch;
+                openBatch = null;
+            }
+        }
+        if (fullBatch != null) {
+            final Batch batch = fullBatch;
+            dispatcher.execute(() -> dispatch(batch));
+        }
+        return future;
+    }
+
+    private void dispatch(final Batch batch) {
+        synchronized (lock) {
+            if (batch.dispatched) {
+                // Already sent because it filled up before the window closed
+                return;
+            }
+            batch.dispatched = true;
+            if (openBatch == batch) {
+                openBatch = null;
+            }
+        }
+
+        batchCounter.increment();
+        keyCounter.increment(batch.waiters.size());
+        try {
+            final Map<Long, Book> found = new HashMap<>();
+            bookRepository.findBooksByIsbnIn(batch.waiters.keySet()).forEach(book -> found.put(Isbn.parse(book.getIsbn()), book));
+            batch.waiters.forEach((isbn13, future) -> future.complete(Optional.ofNullable(found.get(isbn13))));
+        } catch (RuntimeException e) {
+            log.debug("Batched lookup of {} ISBNs failed", batch.waiters.size(), e);
+            batch.waiters.values().forEach(future -> future.completeExceptionally(e));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, "book-batch-loader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class Batch {
+        // Only mutated under the loader's lock until the batch is dispatched
+        private final Map<Long, CompletableFuture<Optional<Book>>> waiters = new HashMap<>();
+        private boolean dispatched;
+    }
+}
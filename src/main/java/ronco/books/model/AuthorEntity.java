@@ -0,0 +1,27 @@
+package ronco.books.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One row per distinct author name, referenced from {@link BookEntity} by its integer
+ * ID. Rows are never updated or deleted, so an ID always names the same author.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Entity
+@Table(name = "authors", uniqueConstraints = @UniqueConstraint(name = "authors_name_key", columnNames = "name"))
+public class AuthorEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "name", nullable = false)
+    private String name;
+}
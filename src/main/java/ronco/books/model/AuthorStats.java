@@ -0,0 +1,21 @@
+package ronco.books.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * An author and how many books of the catalog carry their name.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class AuthorStats {
+
+    private String author;
+
+    private long books;
+
+}
@@ -2,19 +2,26 @@ package ronco.books.model;
 
 import lombok.AllArgsConstructor;
 import lombok.Builder;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import lombok.Value;
+import lombok.With;
+import lombok.extern.jackson.Jacksonized;
 
-@Data
+/**
+ * A book as it is read and returned. Immutable, since one instance is shared by the
+ * caches, the in-memory indexes and the event stream; derive a changed copy with
+ * {@link #toBuilder()} or {@link #withAuthor(String)}.
+ */
+@Value
 @AllArgsConstructor
-@NoArgsConstructor
-@Builder
+@Builder(toBuilder = true)
+@Jacksonized
 public class Book {
 
-    private String isbn;
+    String isbn;
 
-    private String title;
+    String title;
 
-    private String author;
+    @With
+    String author;
 
-}
\ No newline at end of file
+}
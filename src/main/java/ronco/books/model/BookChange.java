@@ -0,0 +1,36 @@
+package ronco.books.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The latest state of a book in the changes feed: its content, or only the ISBN and
+ * {@code deleted} for a deleted book. {@code version} increases with every write, so
+ * a client that has applied a change can ask for those after its version.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BookChange {
+
+    /**
+     * How far below the newest version it has read a reader of the feed starts its next
+     * read. A write takes its version before it commits, so it can become visible after
+     * writes with higher versions.
+     */
+    public static final long COMMIT_OVERLAP = 1000;
+
+    private String isbn;
+
+    private String title;
+
+    private String author;
+
+    private long version;
+
+    private boolean deleted;
+
+}
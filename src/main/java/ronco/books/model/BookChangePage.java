@@ -0,0 +1,29 @@
+package ronco.books.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of the changes feed, oldest first. {@code nextSince} is the version to pass
+ * as {@code since} to fetch the following page, or {@code null} once the feed is caught up.
+ * On the last page, {@code pollSince} is the version to poll from later instead. It is
+ * {@link BookChange#COMMIT_OVERLAP} versions behind the newest change, so the next poll
+ * also returns writes that committed after newer ones.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BookChangePage {
+
+    private List<BookChange> changes;
+
+    private Long nextSince;
+
+    private Long pollSince;
+
+}
@@ -0,0 +1,49 @@
+package ronco.books.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position of the last book on a page: its sort key and its ISBN-13, which breaks ties.
+ * In ISBN order the token is the plain ISBN-13; other orders use an opaque URL-safe token.
+ *
+ * @param key the sort key of the last book, which may be {@code null}; unused in ISBN order
+ */
+public record BookCursor(String key, long isbn13) {
+
+    private static final char SEPARATOR = '\0';
+    private static final char NULL_KEY = '0';
+    private static final char KEY = '1';
+
+    public static BookCursor after(final BookSort sort, final Book book) {
+        return new BookCursor(sort == BookSort.ISBN ? null : sort.key(book), Isbn.parse(book.getIsbn()));
+    }
+
+    public String encode(final BookSort sort) {
+        if (sort == BookSort.ISBN) {
+            return Isbn.format(isbn13);
+        }
+        final String token = Isbn.format(isbn13) + SEPARATOR + (key == null ? String.valueOf(NULL_KEY) : KEY + key);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token was not produced by {@link #encode} for this order
+     */
+    public static BookCursor decode(final BookSort sort, final String token) {
+        if (sort == BookSort.ISBN) {
+            return new BookCursor(null, Isbn.parse(token));
+        }
+        final String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        final int separator = decoded.indexOf(SEPARATOR);
+        if (separator < 0 || separator == decoded.length() - 1) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        final long isbn13 = Isbn.parse(decoded.substring(0, separator));
+        return switch (decoded.charAt(separator + 1)) {
+            case NULL_KEY -> new BookCursor(null, isbn13);
+            case KEY -> new BookCursor(decoded.substring(separator + 2), isbn13);
+            default -> throw new IllegalArgumentException("Malformed cursor");
+        };
+    }
+}
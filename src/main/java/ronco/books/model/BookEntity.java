@@ -3,19 +3,131 @@ package ronco.books.model;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
-import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.SQLRestriction;
 
-@Data
+import java.util.Locale;
+
+// Identity is the ISBN-13 alone, and the lazy author is left out of toString so it never loads a proxy
+@Getter
+@Setter
+@ToString(exclude = "author")
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
 @AllArgsConstructor
 @NoArgsConstructor
 @Builder
 @Entity
-@Table(name = "books")
+@Table(name = "books", indexes = {
+        // Both end with the ISBN so keyset pages walk the index in order
+        @Index(name = "books_author_id_isbn13_idx", columnList = "author_id, isbn13"),
+        @Index(name = "books_title_key_isbn13_idx", columnList = "title_key, isbn13"),
+        @Index(name = "books_change_version_idx", columnList = "change_version")
+})
+// Deleted books stay behind as tombstones for the changes feed, hidden from every other read
+@SQLRestriction("deleted = false")
 public class BookEntity {
 
+    /**
+     * The canonical ISBN-13 (see {@link Isbn}), so every way of writing an ISBN keys the
+     * same row, in an 8-byte key.
+     */
     @Id
+    @Column(name = "isbn13")
+    @EqualsAndHashCode.Include
+    private Long isbn13;
+
+    /**
+     * The ISBN as it was last written, returned to clients.
+     */
+    @Column(name = "isbn", nullable = false)
     private String isbn;
     private String title;
-    private String author;
+
+    /**
+     * Shared by every book of the author; see {@code AuthorDictionary}.
+     */
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "author_id", foreignKey = @ForeignKey(name = "books_author_id_fkey"))
+    private AuthorEntity author;
+
+    /**
+     * Lower-cased title used for case-insensitive prefix search and title order. Kept
+     * in a column rather than an expression index so JPA can declare its index. Compared
+     * in code point order, which Postgres only does once {@code CatalogMigrations} has
+     * collated the column {@code "C"}.
+     */
+    @Column(name = "title_key")
+    private String titleKey;
+
+    /**
+     * Drawn from the {@code books_change_seq} sequence (see {@code schema.sql}) by every
+     * write, so it orders the changes feed. {@code null} only for rows written before
+     * the column existed, until they are migrated.
+     */
+    @Column(name = "change_version")
+    private Long changeVersion;
+
+    @Column(name = "deleted", nullable = false)
+    @ColumnDefault("false")
+    private boolean deleted;
+
+    /**
+     * @throws IllegalArgumentException if the ISBN isn't valid
+     */
+    public BookEntity(final String isbn, final String title, final AuthorEntity author) {
+        this(Isbn.parse(isbn), isbn, title, author, titleKey(title), null, false);
+    }
+
+    /**
+     * Sets the displayed ISBN and the key parsed from it.
+     *
+     * @throws IllegalArgumentException if the ISBN isn't valid
+     */
+    public void setIsbn(final String isbn) {
+        this.isbn = isbn;
+        this.isbn13 = isbn == null ? null : Isbn.parse(isbn);
+    }
+
+    /**
+     * The author's name, or {@code null} for a book without an author.
+     */
+    public String getAuthorName() {
+        return author == null ? null : author.getName();
+    }
+
+    /**
+     * The author's ID, or {@code null} for a book without an author.
+     */
+    public Integer getAuthorId() {
+        return author == null ? null : author.getId();
+    }
+
+    @PrePersist
+    @PreUpdate
+    void updateTitleKey() {
+        titleKey = titleKey(title);
+    }
+
+    public static String titleKey(final String title) {
+        return title == null ? null : title.toLowerCase(Locale.ROOT);
+    }
+
+    public static class BookEntityBuilder {
+
+        /**
+         * Sets the displayed ISBN and the key parsed from it.
+         *
+         * @throws IllegalArgumentException if the ISBN isn't valid
+         */
+        public BookEntityBuilder isbn(final String isbn) {
+            this.isbn = isbn;
+            this.isbn13 = isbn == null ? null : Isbn.parse(isbn);
+            return this;
+        }
+    }
 }
@@ -0,0 +1,59 @@
+package ronco.books.model;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The fields of a {@link Book} a client can ask for with {@code ?fields=}. Each
+ * property name is both the JSON field and the {@link BookEntity} attribute; for the
+ * author, that attribute is the {@link AuthorEntity} holding the name.
+ */
+public enum BookField {
+    ISBN("isbn"),
+    TITLE("title"),
+    AUTHOR("author");
+
+    private final String property;
+
+    BookField(final String property) {
+        this.property = property;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public Object get(final Book book) {
+        return switch (this) {
+            case ISBN -> book.getIsbn();
+            case TITLE -> book.getTitle();
+            case AUTHOR -> book.getAuthor();
+        };
+    }
+
+    /**
+     * Parses a list of property names; {@code null} or empty selects every field.
+     *
+     * @throws IllegalArgumentException if a name is not a book field
+     */
+    public static Set<BookField> parse(final Collection<String> properties) {
+        if (properties == null || properties.isEmpty()) {
+            return EnumSet.allOf(BookField.class);
+        }
+        final Set<BookField> fields = EnumSet.noneOf(BookField.class);
+        for (String property : properties) {
+            fields.add(fromProperty(property.trim()));
+        }
+        return fields;
+    }
+
+    private static BookField fromProperty(final String property) {
+        for (BookField field : values()) {
+            if (field.property.equals(property)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Unknown book field: " + property);
+    }
+}
@@ -0,0 +1,18 @@
+package ronco.books.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BookLookupRequest {
+
+    private List<String> isbns;
+
+}
@@ -0,0 +1,24 @@
+package ronco.books.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Result of a multi-get: the books that were found, in request order, and the
+ * requested ISBNs that don't exist.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BookLookupResult {
+
+    private List<Book> found;
+
+    private List<String> missing;
+
+}
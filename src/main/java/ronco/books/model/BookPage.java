@@ -0,0 +1,30 @@
+package ronco.books.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One keyset page of the catalog. {@code nextCursor} is the ISBN to pass as
+ * {@code after} to fetch the following page, or {@code null} on the last page.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BookPage {
+
+    private List<Book> books;
+
+    private String nextCursor;
+
+    /**
+     * Set on a search page whose last keyword, as a prefix, started more indexed words
+     * than the search expands; books matching only the words left out are missing.
+     */
+    private boolean truncated;
+
+}
@@ -0,0 +1,47 @@
+package ronco.books.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A filtered, sorted keyset page of the catalog. {@code null} filters match every book.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder(toBuilder = true)
+public class BookQuery {
+
+    private String author;
+
+    /**
+     * The ID of {@link #author}, which the service resolves before the query reaches the
+     * repository; the repository filters on this alone.
+     */
+    private Integer authorId;
+
+    private String titlePrefix;
+
+    @Builder.Default
+    private BookSort sort = BookSort.ISBN;
+
+    @Builder.Default
+    private Set<BookField> fields = EnumSet.allOf(BookField.class);
+
+    private BookCursor after;
+
+    private int limit;
+
+    /**
+     * Whether this is a plain page of whole books in ISBN order.
+     */
+    public boolean isUnfiltered() {
+        return author == null && titlePrefix == null && sort == BookSort.ISBN
+                && fields.containsAll(EnumSet.allOf(BookField.class));
+    }
+}
@@ -0,0 +1,53 @@
+package ronco.books.model;
+
+/**
+ * Orders a book listing can be returned in. Every order ends with the ISBN-13, so rows
+ * with the same sort key still have a stable position for keyset paging.
+ */
+public enum BookSort {
+    ISBN("isbn", "isbn13"),
+    TITLE("title", "titleKey"),
+    AUTHOR("author", "author");
+
+    private final String name;
+    private final String keyAttribute;
+
+    BookSort(final String name, final String keyAttribute) {
+        this.name = name;
+        this.keyAttribute = keyAttribute;
+    }
+
+    /**
+     * The {@link BookEntity} attribute the rows are ordered by before the ISBN-13. For
+     * {@link #AUTHOR}, rows are ordered by the name of that attribute's author.
+     */
+    public String getKeyAttribute() {
+        return keyAttribute;
+    }
+
+    /**
+     * The sort key of a book, as stored in {@link #getKeyAttribute()}.
+     */
+    public String key(final Book book) {
+        return switch (this) {
+            case ISBN -> book.getIsbn();
+            case TITLE -> BookEntity.titleKey(book.getTitle());
+            case AUTHOR -> book.getAuthor();
+        };
+    }
+
+    /**
+     * @throws IllegalArgumentException if the name is not a supported order
+     */
+    public static BookSort parse(final String name) {
+        if (name == null || name.isEmpty()) {
+            return ISBN;
+        }
+        for (BookSort sort : values()) {
+            if (sort.name.equals(name)) {
+                return sort;
+            }
+        }
+        throw new IllegalArgumentException("Unknown sort: " + name);
+    }
+}
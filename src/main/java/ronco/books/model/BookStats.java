@@ -0,0 +1,33 @@
+package ronco.books.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Catalog statistics kept in memory: the number of books, the authors with the most
+ * books, the average writes (saves and deletes) per second over the last one and five
+ * minutes, and when the figures were last checked against the database ({@code null}
+ * until the first check).
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BookStats {
+
+    private long totalBooks;
+
+    private List<AuthorStats> topAuthors;
+
+    private double writesPerSecond1m;
+
+    private double writesPerSecond5m;
+
+    private Instant reconciledAt;
+
+}
@@ -0,0 +1,24 @@
+package ronco.books.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A type-ahead completion: a title or author name as stored, which of the two it
+ * is ({@code title} or {@code author}), and how many books carry it.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BookSuggestion {
+
+    private String text;
+
+    private String field;
+
+    private int books;
+
+}
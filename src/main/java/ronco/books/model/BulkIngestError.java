@@ -0,0 +1,20 @@
+package ronco.books.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BulkIngestError {
+
+    private long line;
+
+    private String isbn;
+
+    private String message;
+
+}
@@ -0,0 +1,30 @@
+package ronco.books.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk ingest. Only failed items are listed individually, and at most
+ * {@code errors.size()} of them; {@code errorsTruncated} says whether more were dropped.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BulkIngestResult {
+
+    private long received;
+
+    private long written;
+
+    private long failed;
+
+    private List<BulkIngestError> errors;
+
+    private boolean errorsTruncated;
+
+}
@@ -0,0 +1,109 @@
+package ronco.books.model;
+
+/**
+ * Parses ISBNs into their canonical ISBN-13 number, the key books are stored, cached
+ * and indexed under. ISBN-10 and ISBN-13, with or without hyphens or spaces, are
+ * accepted when their check digit is right, so every way of writing an ISBN names the
+ * same book.
+ */
+public final class Isbn {
+
+    private static final long MIN = 978_000_000_000_0L;
+    private static final long MAX = 979_999_999_999_9L;
+
+    private Isbn() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the string isn't a valid ISBN-10 or ISBN-13
+     */
+    public static long parse(final String isbn) {
+        final long isbn13 = parseOrZero(isbn);
+        if (isbn13 == 0) {
+            throw new IllegalArgumentException("Invalid ISBN: " + isbn);
+        }
+        return isbn13;
+    }
+
+    public static boolean isValid(final String isbn) {
+        return parseOrZero(isbn) != 0;
+    }
+
+    /**
+     * Formats an ISBN-13 as its 13 digits.
+     */
+    public static String format(final long isbn13) {
+        return Long.toString(isbn13);
+    }
+
+    /**
+     * Completes the first 12 digits of an ISBN-13 with its check digit.
+     */
+    public static long withCheckDigit(final long first12) {
+        return first12 * 10 + isbn13CheckDigit(first12);
+    }
+
+    /**
+     * Returns the ISBN-13, or 0 (never a valid ISBN-13) if the string isn't a valid ISBN.
+     */
+    public static long parseOrZero(final String isbn) {
+        if (isbn == null) {
+            return 0;
+        }
+        long digits = 0;
+        int count = 0;
+        int checkDigit = -1;
+        for (int i = 0; i < isbn.length(); i++) {
+            final char c = isbn.charAt(i);
+            if (c == '-' || c == ' ') {
+                continue;
+            }
+            if (checkDigit >= 0) {
+                // Only the final character of an ISBN-10 may be an X
+                return 0;
+            }
+            if (c >= '0' && c <= '9') {
+                if (++count > 13) {
+                    return 0;
+                }
+                digits = digits * 10 + (c - '0');
+            } else if ((c == 'X' || c == 'x') && count == 9) {
+                checkDigit = 10;
+                count++;
+            } else {
+                return 0;
+            }
+        }
+        if (count == 10) {
+            final long first9 = checkDigit == 10 ? digits : digits / 10;
+            final int given = checkDigit == 10 ? 10 : (int) (digits % 10);
+            if (isbn10CheckDigit(first9) != given) {
+                return 0;
+            }
+            return withCheckDigit(978_000_000_000L + first9);
+        }
+        if (count == 13 && digits >= MIN && digits <= MAX && isbn13CheckDigit(digits / 10) == digits % 10) {
+            return digits;
+        }
+        return 0;
+    }
+
+    private static int isbn10CheckDigit(long first9) {
+        int sum = 0;
+        for (int weight = 2; weight <= 10; weight++) {
+            sum += weight * (int) (first9 % 10);
+            first9 /= 10;
+        }
+        return (11 - sum % 11) % 11;
+    }
+
+    private static int isbn13CheckDigit(long first12) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            // Weights alternate 1, 3 from the left, so 3 for the rightmost of the 12
+            sum += (i % 2 == 0 ? 3 : 1) * (int) (first12 % 10);
+            first12 /= 10;
+        }
+        return (10 - sum % 10) % 10;
+    }
+}
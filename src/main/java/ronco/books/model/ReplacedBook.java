@@ -0,0 +1,10 @@
+package ronco.books.model;
+
+/**
+ * The live book a write overwrote or deleted, as the write's own statement read it.
+ * Only what the in-memory counters need is read.
+ *
+ * @param author the author of the replaced book, {@code null} for a book without one
+ */
+public record ReplacedBook(String author) {
+}
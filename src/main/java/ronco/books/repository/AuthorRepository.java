@@ -0,0 +1,12 @@
+package ronco.books.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import ronco.books.model.AuthorEntity;
+
+import java.util.Optional;
+
+@Repository
+public interface AuthorRepository extends JpaRepository<AuthorEntity, Integer> {
+    Optional<AuthorEntity> findByName(String name);
+}
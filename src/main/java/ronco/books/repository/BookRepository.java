@@ -1,9 +1,77 @@
 package ronco.books.repository;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ronco.books.model.AuthorStats;
+import ronco.books.model.Book;
 import ronco.books.model.BookEntity;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Reads return {@link Book} DTOs built straight from the selected columns, so no
+ * managed {@link BookEntity} (and no dirty-checking snapshot) is created per row.
+ * Entities are only loaded on the write path.
+ */
 @Repository
-public interface BookRepository extends JpaRepository<BookEntity, String> {
+public interface BookRepository extends JpaRepository<BookEntity, Long>, BookRepositoryCustom {
+
+    int EXPORT_FETCH_SIZE = 1000;
+
+    String SELECT_BOOK = "select new ronco.books.model.Book(b.isbn, b.title, a.name) from BookEntity b left join b.author a";
+
+    @Transactional(readOnly = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query(SELECT_BOOK + " where b.isbn13 = :isbn13")
+    Optional<Book> findBookByIsbn(@Param("isbn13") long isbn13);
+
+    @Transactional(readOnly = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query(SELECT_BOOK + " where b.isbn13 in :isbn13s")
+    List<Book> findBooksByIsbnIn(@Param("isbn13s") Collection<Long> isbn13s);
+
+    @Transactional(readOnly = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query(SELECT_BOOK)
+    List<Book> findAllBooks();
+
+    @Transactional(readOnly = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query(SELECT_BOOK + " order by b.isbn13")
+    List<Book> findBooksOrderByIsbn(Limit limit);
+
+    @Transactional(readOnly = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query(SELECT_BOOK + " where b.isbn13 > :after order by b.isbn13")
+    List<Book> findBooksAfterIsbn(@Param("after") long after, Limit limit);
+
+    /**
+     * Streams the whole catalog through a server-side cursor. Must be consumed inside a
+     * transaction and closed by the caller.
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + EXPORT_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query(SELECT_BOOK + " order by b.isbn13")
+    Stream<Book> streamBooks();
+
+    /**
+     * Counts the books of each author, most books first. Scans the whole table, grouping
+     * by author ID; only meant for the periodic reconciliation of the in-memory statistics.
+     */
+    @Transactional(readOnly = true)
+    @Query("select new ronco.books.model.AuthorStats(a.name, count(b)) from BookEntity b join b.author a"
+            + " group by a.id, a.name order by count(b) desc, a.name")
+    List<AuthorStats> findTopAuthors(Limit limit);
 }
@@ -0,0 +1,86 @@
+package ronco.books.repository;
+
+import ronco.books.model.Book;
+import ronco.books.model.BookChange;
+import ronco.books.model.BookEntity;
+import ronco.books.model.BookQuery;
+import ronco.books.model.ReplacedBook;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Statements that Spring Data can't derive: native upserts and deletes, and reads whose
+ * column list is chosen at runtime.
+ */
+public interface BookRepositoryCustom {
+
+    /**
+     * Inserts the book or overwrites the stored row with the same ISBN-13, reviving it if
+     * it was deleted, and gives the row a new change version. A new book takes a single
+     * statement. Concurrent writes of one ISBN are serialized on its row, so exactly one
+     * of them creates the book, and each reports the book it actually replaced.
+     *
+     * @return the live book the write overwrote, or {@code null} if it created the book
+     */
+    ReplacedBook upsert(BookEntity book);
+
+    /**
+     * Upserts all books as one JDBC batch in a single transaction. The ISBN-13s must be distinct.
+     *
+     * @return the live books the batch overwrote, by ISBN-13; books it created are absent
+     */
+    Map<Long, ReplacedBook> upsertAll(List<BookEntity> books);
+
+    /**
+     * Reads one keyset page of books matching the query, in the query's order, selecting
+     * only the columns of the requested fields plus the ISBN and the sort field. Fields
+     * that weren't selected are {@code null} in the returned books.
+     */
+    List<Book> findBooks(BookQuery query);
+
+    /**
+     * Turns the stored book into a tombstone for the changes feed, dropping its content.
+     *
+     * @return the book that was deleted, or {@code null} if there was none
+     */
+    ReplacedBook markDeleted(long isbn13);
+
+    /**
+     * Reads up to {@code limit} books and tombstones written after the given change
+     * version, oldest first.
+     */
+    List<BookChange> findChanges(long since, int limit);
+
+    /**
+     * Streams every stored book in ISBN-13 order from one consistent view of the table.
+     *
+     * @return the highest change version of that view, tombstones included
+     */
+    long exportSnapshot(Consumer<Book> consumer);
+
+    /**
+     * Gives rows written before change versions existed a version, so the changes feed
+     * picks them up.
+     *
+     * @return the number of rows updated
+     */
+    int backfillChangeVersions();
+
+    /**
+     * Collates the title key column in code point order on Postgres, which creates it in
+     * the database's collation. Title order, page cursors and prefix ranges on the column
+     * assume that order.
+     *
+     * @return whether the column was changed
+     */
+    boolean collateTitleKeys();
+
+    /**
+     * Fills in the title key of rows written before the column existed.
+     *
+     * @return the number of rows updated
+     */
+    int backfillTitleKeys();
+}
@@ -0,0 +1,474 @@
+package ronco.books.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.JoinType;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+import org.hibernate.Session;
+import org.hibernate.jpa.HibernateHints;
+import org.hibernate.query.criteria.HibernateCriteriaBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+import ronco.books.model.AuthorEntity;
+import ronco.books.model.Book;
+import ronco.books.model.BookChange;
+import ronco.books.model.BookEntity;
+import ronco.books.model.BookCursor;
+import ronco.books.model.BookField;
+import ronco.books.model.BookQuery;
+import ronco.books.model.BookSort;
+import ronco.books.model.ReplacedBook;
+
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+public class BookRepositoryCustomImpl implements BookRepositoryCustom {
+
+    // Creates the books or revives their tombstones, returning the ISBN-13 of each row it wrote. A live
+    // row is only locked, as the conflicting row always is: RETURNING can't show what an update
+    // replaced, so POSTGRES_REPLACE overwrites it next, in the same transaction
+    private static final String POSTGRES_UPSERT = """
+            INSERT INTO books (isbn13, isbn, title, author_id, title_key, change_version, deleted)
+            VALUES %s
+            ON CONFLICT (isbn13) DO UPDATE SET isbn = EXCLUDED.isbn, title = EXCLUDED.title, author_id = EXCLUDED.author_id,
+                title_key = EXCLUDED.title_key, change_version = EXCLUDED.change_version, deleted = FALSE
+            WHERE books.deleted
+            RETURNING isbn13""";
+
+    private static final String POSTGRES_UPSERT_ROW = "(?, ?, ?, ?, ?, nextval('books_change_seq'), FALSE)";
+
+    // The row is locked by POSTGRES_UPSERT, so the join reads the version this update replaces
+    private static final String POSTGRES_REPLACE = """
+            UPDATE books b SET isbn = ?, title = ?, author_id = ?, title_key = ?, change_version = nextval('books_change_seq')
+            FROM books old LEFT JOIN authors a ON a.id = old.author_id
+            WHERE b.isbn13 = ? AND old.isbn13 = b.isbn13
+            RETURNING a.name AS author""";
+
+    // OLD TABLE holds the pre-image of rows the MERGE updated, and nothing for rows it inserted
+    private static final String H2_UPSERT = """
+            SELECT NOT b.deleted AS replaced, a.name AS author FROM OLD TABLE (
+                MERGE INTO books (isbn13, isbn, title, author_id, title_key, change_version, deleted) KEY (isbn13)
+                VALUES (?, ?, ?, ?, ?, NEXT VALUE FOR books_change_seq, FALSE)) b
+            LEFT JOIN authors a ON a.id = b.author_id""";
+
+    // The rows are locked by POSTGRES_UPSERT, so their authors are still the replaced ones
+    private static final String POSTGRES_SELECT_REPLACED = """
+            SELECT b.isbn13, a.name AS author FROM books b LEFT JOIN authors a ON a.id = b.author_id
+            WHERE b.isbn13 IN (%s)""";
+
+    // Locks the rows the batch is about to overwrite, so their authors are still the replaced ones
+    private static final String H2_SELECT_REPLACED = """
+            SELECT b.isbn13, a.name AS author FROM books b LEFT JOIN authors a ON a.id = b.author_id
+            WHERE b.isbn13 IN (%s) AND NOT b.deleted FOR UPDATE""";
+
+    private static final String POSTGRES_BATCH_REPLACE = """
+            UPDATE books SET isbn = ?, title = ?, author_id = ?, title_key = ?, change_version = nextval('books_change_seq')
+            WHERE isbn13 = ?""";
+
+    private static final String H2_BATCH_UPSERT = """
+            MERGE INTO books (isbn13, isbn, title, author_id, title_key, change_version, deleted) KEY (isbn13)
+            VALUES (?, ?, ?, ?, ?, NEXT VALUE FOR books_change_seq, FALSE)""";
+
+    // The content is dropped: a tombstone only has to tell the changes feed which ISBN went away,
+    // and keeps the ISBN as it was last written for that. RETURNING would read the dropped author,
+    // so it comes from the subquery, which locks the row first and so reads the version it replaces
+    private static final String POSTGRES_MARK_DELETED = """
+            UPDATE books b SET title = NULL, author_id = NULL, title_key = NULL,
+                change_version = nextval('books_change_seq'), deleted = TRUE
+            FROM (SELECT isbn13, author_id FROM books WHERE isbn13 = ? AND NOT deleted FOR UPDATE) old
+            LEFT JOIN authors a ON a.id = old.author_id
+            WHERE b.isbn13 = old.isbn13
+            RETURNING TRUE AS replaced, a.name AS author""";
+
+    private static final String H2_MARK_DELETED = """
+            SELECT TRUE AS replaced, a.name AS author FROM OLD TABLE (
+                UPDATE books SET title = NULL, author_id = NULL, title_key = NULL,
+                    change_version = NEXT VALUE FOR books_change_seq, deleted = TRUE
+                WHERE isbn13 = ? AND NOT deleted) b
+            LEFT JOIN authors a ON a.id = b.author_id""";
+
+    private static final RowMapper<ReplacedBook> REPLACED_BOOK =
+            (row, rowNum) -> row.getBoolean("replaced") ? new ReplacedBook(row.getString("author")) : null;
+
+    private static final String SELECT_CHANGES = """
+            SELECT b.isbn, b.title, a.name AS author, b.change_version, b.deleted
+            FROM books b LEFT JOIN authors a ON a.id = b.author_id
+            WHERE b.change_version > ? ORDER BY b.change_version LIMIT ?""";
+
+    private static final String SELECT_MAX_CHANGE_VERSION = "SELECT COALESCE(MAX(change_version), 0) FROM books";
+
+    private static final String SELECT_SNAPSHOT = """
+            SELECT b.isbn, b.title, a.name AS author
+            FROM books b LEFT JOIN authors a ON a.id = b.author_id
+            WHERE NOT b.deleted ORDER BY b.isbn13""";
+
+    private static final String POSTGRES_BACKFILL_CHANGE_VERSIONS = """
+            UPDATE books SET change_version = nextval('books_change_seq') WHERE change_version IS NULL""";
+
+    private static final String H2_BACKFILL_CHANGE_VERSIONS = """
+            UPDATE books SET change_version = NEXT VALUE FOR books_change_seq WHERE change_version IS NULL""";
+
+    private static final String SELECT_MISSING_TITLE_KEYS = """
+            SELECT isbn13, title FROM books WHERE title_key IS NULL AND title IS NOT NULL AND isbn13 > ?
+            ORDER BY isbn13 LIMIT ?""";
+
+    private static final String UPDATE_TITLE_KEY = "UPDATE books SET title_key = ? WHERE isbn13 = ?";
+
+    private static final String POSTGRES_SELECT_TITLE_KEY_COLLATION = """
+            SELECT collation_name FROM information_schema.columns
+            WHERE table_schema = current_schema() AND table_name = 'books' AND column_name = 'title_key'""";
+
+    // Also rebuilds books_title_key_isbn13_idx in the new order
+    private static final String POSTGRES_COLLATE_TITLE_KEYS = """
+            ALTER TABLE books ALTER COLUMN title_key TYPE varchar(255) COLLATE "C\"""";
+
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+
+    private static final String TITLE_KEY = BookSort.TITLE.getKeyAttribute();
+    private static final String AUTHOR_ID = "id";
+    private static final String AUTHOR_NAME = "name";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManager entityManager;
+    private volatile Boolean postgres;
+
+    @Autowired
+    public BookRepositoryCustomImpl(JdbcTemplate jdbcTemplate, EntityManager entityManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    @Transactional
+    public ReplacedBook upsert(BookEntity book) {
+        if (!isPostgres()) {
+            return first(jdbcTemplate.query(H2_UPSERT, REPLACED_BOOK,
+                    book.getIsbn13(), book.getIsbn(), book.getTitle(), book.getAuthorId(), BookEntity.titleKey(book.getTitle())));
+        }
+        if (!createOrRevive(List.of(book)).isEmpty()) {
+            return null;
+        }
+        return first(jdbcTemplate.query(POSTGRES_REPLACE, (row, rowNum) -> new ReplacedBook(row.getString("author")),
+                book.getIsbn(), book.getTitle(), book.getAuthorId(), BookEntity.titleKey(book.getTitle()), book.getIsbn13()));
+    }
+
+    @Override
+    @Transactional
+    public Map<Long, ReplacedBook> upsertAll(List<BookEntity> books) {
+        final Map<Long, ReplacedBook> replaced = new HashMap<>();
+        if (books.isEmpty()) {
+            return replaced;
+        }
+        if (!isPostgres()) {
+            selectReplaced(H2_SELECT_REPLACED, books, replaced);
+            jdbcTemplate.batchUpdate(H2_BATCH_UPSERT, books, books.size(), (statement, book) -> {
+                statement.setLong(1, book.getIsbn13());
+                statement.setString(2, book.getIsbn());
+                statement.setString(3, book.getTitle());
+                statement.setObject(4, book.getAuthorId(), Types.INTEGER);
+                statement.setString(5, BookEntity.titleKey(book.getTitle()));
+            });
+            return replaced;
+        }
+        final Set<Long> created = createOrRevive(books);
+        final List<BookEntity> live = books.stream().filter(book -> !created.contains(book.getIsbn13())).toList();
+        if (!live.isEmpty()) {
+            selectReplaced(POSTGRES_SELECT_REPLACED, live, replaced);
+            jdbcTemplate.batchUpdate(POSTGRES_BATCH_REPLACE, live, live.size(), (statement, book) -> {
+                statement.setString(1, book.getIsbn());
+                statement.setString(2, book.getTitle());
+                statement.setObject(3, book.getAuthorId(), Types.INTEGER);
+                statement.setString(4, BookEntity.titleKey(book.getTitle()));
+                statement.setLong(5, book.getIsbn13());
+            });
+        }
+        return replaced;
+    }
+
+    /**
+     * Writes the books that are new or deleted, and locks the rows of the others.
+     * Whether a book was created is decided by the row the statement wrote, not by a read
+     * ahead of it, so of two concurrent writes of a new ISBN only one creates the book.
+     *
+     * @return the ISBN-13s of the books written
+     */
+    private Set<Long> createOrRevive(List<BookEntity> books) {
+        final List<Object> args = new ArrayList<>(5 * books.size());
+        for (BookEntity book : books) {
+            Collections.addAll(args, book.getIsbn13(), book.getIsbn(), book.getTitle(), book.getAuthorId(), BookEntity.titleKey(book.getTitle()));
+        }
+        final String rows = String.join(", ", Collections.nCopies(books.size(), POSTGRES_UPSERT_ROW));
+        return new HashSet<>(jdbcTemplate.queryForList(POSTGRES_UPSERT.formatted(rows), Long.class, args.toArray()));
+    }
+
+    private void selectReplaced(String sql, List<BookEntity> books, Map<Long, ReplacedBook> replaced) {
+        jdbcTemplate.query(sql.formatted(String.join(", ", Collections.nCopies(books.size(), "?"))),
+                (RowCallbackHandler) row -> replaced.put(row.getLong("isbn13"), new ReplacedBook(row.getString("author"))),
+                books.stream().map(BookEntity::getIsbn13).toArray());
+    }
+
+    @Override
+    public ReplacedBook markDeleted(long isbn13) {
+        return isPostgres()
+                ? first(jdbcTemplate.query(POSTGRES_MARK_DELETED, REPLACED_BOOK, isbn13))
+                : first(jdbcTemplate.query(H2_MARK_DELETED, REPLACED_BOOK, isbn13));
+    }
+
+    private static ReplacedBook first(List<ReplacedBook> rows) {
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<BookChange> findChanges(long since, int limit) {
+        return jdbcTemplate.query(SELECT_CHANGES, (row, rowNum) -> BookChange.builder()
+                .isbn(row.getString("isbn"))
+                .title(row.getString("title"))
+                .author(row.getString("author"))
+                .version(row.getLong("change_version"))
+                .deleted(row.getBoolean("deleted"))
+                .build(), since, limit);
+    }
+
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public long exportSnapshot(Consumer<Book> consumer) {
+        final Long version = jdbcTemplate.queryForObject(SELECT_MAX_CHANGE_VERSION, Long.class);
+        jdbcTemplate.query(connection -> {
+            final PreparedStatement statement = connection.prepareStatement(SELECT_SNAPSHOT);
+            // Inside a transaction, Postgres then reads through a cursor instead of buffering every row
+            statement.setFetchSize(BookRepository.EXPORT_FETCH_SIZE);
+            return statement;
+        }, (RowCallbackHandler) row -> consumer.accept(new Book(row.getString("isbn"), row.getString("title"), row.getString("author"))));
+        return version;
+    }
+
+    @Override
+    @Transactional
+    public int backfillChangeVersions() {
+        return jdbcTemplate.update(isPostgres() ? POSTGRES_BACKFILL_CHANGE_VERSIONS : H2_BACKFILL_CHANGE_VERSIONS);
+    }
+
+    @Override
+    public boolean collateTitleKeys() {
+        // H2 already compares strings char by char
+        if (!isPostgres()) {
+            return false;
+        }
+        final List<String> collation = jdbcTemplate.queryForList(POSTGRES_SELECT_TITLE_KEY_COLLATION, String.class);
+        if (collation.isEmpty() || "C".equals(collation.get(0))) {
+            return false;
+        }
+        jdbcTemplate.execute(POSTGRES_COLLATE_TITLE_KEYS);
+        return true;
+    }
+
+    @Override
+    @Transactional
+    public int backfillTitleKeys() {
+        // Keys are computed here rather than with SQL lower() so they match the keys in page cursors.
+        // Read a page at a time by ISBN-13, so only one page of titles is held in memory
+        final List<Object[]> updates = new ArrayList<>(BACKFILL_BATCH_SIZE);
+        long after = Long.MIN_VALUE;
+        int updated = 0;
+        do {
+            updates.clear();
+            jdbcTemplate.query(SELECT_MISSING_TITLE_KEYS, row -> {
+                updates.add(new Object[]{BookEntity.titleKey(row.getString("title")), row.getLong("isbn13")});
+            }, after, BACKFILL_BATCH_SIZE);
+            if (!updates.isEmpty()) {
+                jdbcTemplate.batchUpdate(UPDATE_TITLE_KEY, updates);
+                after = (long) updates.get(updates.size() - 1)[1];
+                updated += updates.size();
+            }
+        } while (updates.size() == BACKFILL_BATCH_SIZE);
+        return updated;
+    }
+
+    /**
+     * Pages in an order other than ISBN are read in two phases: the rows with a sort key,
+     * each page seeking to its cursor in the index that holds the key, then the rows
+     * without one, in ISBN-13 order. A page that runs out of keyed rows is topped up from
+     * the start of the second phase.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<Book> findBooks(BookQuery bookQuery) {
+        final List<Book> books = findBooksInPhase(bookQuery);
+        final BookCursor after = bookQuery.getAfter();
+        final boolean keyedPhase = after == null || after.key() != null;
+        if (books.size() < bookQuery.getLimit() && keyedPhase && mayHaveNullKeys(bookQuery)) {
+            books.addAll(findBooksInPhase(bookQuery.toBuilder()
+                    .after(new BookCursor(null, 0))
+                    .limit(bookQuery.getLimit() - books.size())
+                    .build()));
+        }
+        return books;
+    }
+
+    /**
+     * Whether the query can match books without a sort key: the filters only match books
+     * with a title, or with an author.
+     */
+    private static boolean mayHaveNullKeys(BookQuery bookQuery) {
+        return switch (bookQuery.getSort()) {
+            case ISBN -> false;
+            case TITLE -> bookQuery.getTitlePrefix() == null;
+            case AUTHOR -> bookQuery.getAuthorId() == null;
+        };
+    }
+
+    private List<Book> findBooksInPhase(BookQuery bookQuery) {
+        final HibernateCriteriaBuilder builder = entityManager.unwrap(Session.class).getCriteriaBuilder();
+        final CriteriaQuery<Tuple> query = builder.createTupleQuery();
+        final Root<BookEntity> book = query.from(BookEntity.class);
+        final Path<Long> isbn13 = book.get(BookSort.ISBN.getKeyAttribute());
+
+        // The cursor for the next page needs the sort field, so it is read even when not requested
+        final Set<BookField> fields = EnumSet.copyOf(bookQuery.getFields());
+        fields.add(BookField.ISBN);
+        switch (bookQuery.getSort()) {
+            case TITLE -> fields.add(BookField.TITLE);
+            case AUTHOR -> fields.add(BookField.AUTHOR);
+            default -> {
+            }
+        }
+        // Only joined when the name is read; the author filter compares the ID on the books row.
+        // Author order reads the books with an author first, through an inner join, which
+        // Postgres can drive from authors_name_key into books_author_id_isbn13_idx
+        final BookCursor after = bookQuery.getAfter();
+        final boolean keyedPhase = after == null || after.key() != null;
+        final Join<BookEntity, AuthorEntity> author = fields.contains(BookField.AUTHOR)
+                ? book.join(BookField.AUTHOR.getProperty(),
+                        bookQuery.getSort() == BookSort.AUTHOR && keyedPhase ? JoinType.INNER : JoinType.LEFT)
+                : null;
+        final List<Selection<?>> selections = new ArrayList<>();
+        for (BookField field : fields) {
+            selections.add(field(book, author, field).alias(field.getProperty()));
+        }
+        query.multiselect(selections);
+
+        final List<Predicate> predicates = new ArrayList<>();
+        if (bookQuery.getAuthorId() != null) {
+            predicates.add(builder.equal(book.get(BookField.AUTHOR.getProperty()).get(AUTHOR_ID), bookQuery.getAuthorId()));
+        }
+        if (bookQuery.getTitlePrefix() != null) {
+            predicates.addAll(titlePrefix(builder, book.get(TITLE_KEY), BookEntity.titleKey(bookQuery.getTitlePrefix())));
+        }
+        if (after != null) {
+            predicates.add(after(builder, book, author, bookQuery.getSort(), after));
+        } else if (bookQuery.getSort() != BookSort.ISBN) {
+            // The rows without a key are the second phase, see findBooks
+            predicates.add(builder.isNotNull(sortKey(book, author, bookQuery.getSort())));
+        }
+        query.where(predicates.toArray(Predicate[]::new));
+
+        if (bookQuery.getSort() == BookSort.ISBN || !keyedPhase) {
+            query.orderBy(builder.asc(isbn13));
+        } else {
+            // An author's books come out of the index in ISBN-13 order, so Postgres only has to
+            // sort within each author, incrementally, as it walks the names
+            query.orderBy(builder.asc(sortKey(book, author, bookQuery.getSort())), builder.asc(isbn13));
+        }
+
+        final List<Tuple> rows = entityManager.createQuery(query)
+                .setMaxResults(bookQuery.getLimit())
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultList();
+        final List<Book> books = new ArrayList<>(rows.size());
+        for (Tuple row : rows) {
+            books.add(Book.builder()
+                    .isbn(row.get(BookField.ISBN.getProperty(), String.class))
+                    .title(fields.contains(BookField.TITLE) ? row.get(BookField.TITLE.getProperty(), String.class) : null)
+                    .author(fields.contains(BookField.AUTHOR) ? row.get(BookField.AUTHOR.getProperty(), String.class) : null)
+                    .build());
+        }
+        return books;
+    }
+
+    private static Path<String> field(Root<BookEntity> book, Join<BookEntity, AuthorEntity> author, BookField field) {
+        return field == BookField.AUTHOR ? author.get(AUTHOR_NAME) : book.get(field.getProperty());
+    }
+
+    /**
+     * The column the rows are ordered by before the ISBN-13: for author order, the joined name.
+     */
+    private static Path<String> sortKey(Root<BookEntity> book, Join<BookEntity, AuthorEntity> author, BookSort sort) {
+        return sort == BookSort.AUTHOR ? author.get(AUTHOR_NAME) : book.get(sort.getKeyAttribute());
+    }
+
+    /**
+     * A range on the title key that a B-tree index can seek to, plus a LIKE for prefixes
+     * the range can't bound from above. The upper bound, the prefix with its last character
+     * incremented, only holds in code point order, which is why the title key column is
+     * collated {@code "C"} on Postgres (see {@link #collateTitleKeys}).
+     */
+    private static List<Predicate> titlePrefix(CriteriaBuilder builder, Path<String> titleKey, String prefix) {
+        final List<Predicate> predicates = new ArrayList<>();
+        predicates.add(builder.greaterThanOrEqualTo(titleKey, prefix));
+        final char last = prefix.isEmpty() ? Character.MAX_VALUE : prefix.charAt(prefix.length() - 1);
+        // Around surrogates, UTF-16 order and code point order disagree
+        if (last != Character.MAX_VALUE && !Character.isSurrogate(last) && !Character.isSurrogate((char) (last + 1))) {
+            predicates.add(builder.lessThan(titleKey, prefix.substring(0, prefix.length() - 1) + (char) (last + 1)));
+        }
+        final String pattern = prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        predicates.add(builder.like(titleKey, pattern, '\\'));
+        return predicates;
+    }
+
+    /**
+     * Rows after the cursor in (sort key, ISBN-13) order, with null keys sorted last. After
+     * a cursor with a key, only rows with a key match, so the range on the key is an index
+     * condition rather than a filter over the whole index; the rows without a key are read
+     * in a phase of their own, see {@link #findBooks}.
+     */
+    private static Predicate after(CriteriaBuilder builder, Root<BookEntity> book, Join<BookEntity, AuthorEntity> author,
+                                   BookSort sort, BookCursor cursor) {
+        final Path<Long> isbn13 = book.get(BookSort.ISBN.getKeyAttribute());
+        if (sort == BookSort.ISBN) {
+            return builder.greaterThan(isbn13, cursor.isbn13());
+        }
+        if (cursor.key() == null) {
+            // A book without an author has no ID on its row, which the author index holds
+            final Expression<?> key = sort == BookSort.AUTHOR
+                    ? book.get(sort.getKeyAttribute()).get(AUTHOR_ID)
+                    : book.get(sort.getKeyAttribute());
+            return builder.and(builder.isNull(key), builder.greaterThan(isbn13, cursor.isbn13()));
+        }
+        final Path<String> key = sortKey(book, author, sort);
+        // key >= k AND (key > k OR isbn13 > i): the same rows as (key, isbn13) > (k, i), which
+        // criteria queries can't express, with the seekable half pulled out of the OR
+        return builder.and(
+                builder.greaterThanOrEqualTo(key, cursor.key()),
+                builder.or(builder.greaterThan(key, cursor.key()), builder.greaterThan(isbn13, cursor.isbn13())));
+    }
+
+    private boolean isPostgres() {
+        if (postgres == null) {
+            postgres = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection ->
+                    "PostgreSQL".equals(connection.getMetaData().getDatabaseProductName()));
+        }
+        return postgres;
+    }
+}
@@ -0,0 +1,622 @@
+package ronco.books.search;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ronco.books.cache.IsbnTable;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+import ronco.books.service.CatalogListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToIntFunction;
+
+/**
+ * In-memory inverted index over the title and author of every book, answering keyword
+ * searches without touching the database.
+ * <p>
+ * Each book gets an int document id in the order it was indexed, so every posting
+ * list is an append-only sorted {@code int[]}. A posting packs the document id with
+ * the fields the term occurs in ({@code docId << 2 | TITLE | AUTHOR}). Re-saving a book
+ * tombstones its old document and appends a new one; tombstoned documents are dropped
+ * from the postings once they make up a quarter of the index.
+ * <p>
+ * A query matches books containing all of its terms; the last term also matches as a
+ * prefix, so "tolkien ring" finds "The Lord of the Rings". A prefix only expands to the
+ * first {@value #MAX_PREFIX_EXPANSIONS} indexed terms it starts, in term order; when it
+ * starts more, the hits are marked {@link Hits#truncated()}. Hits are ranked by the sum
+ * of each term's IDF, weighted by the field it was found in; ties go to the book
+ * indexed first, which is ISBN order for books loaded from the catalog.
+ */
+@Component
+public class BookSearchIndex implements CatalogListener {
+
+    static final int MIN_PREFIX_LENGTH = 3;
+    // Caps the work a short prefix such as "the" can cause
+    static final int MAX_PREFIX_EXPANSIONS = 256;
+    static final float TITLE_WEIGHT = 2.0f;
+    static final float AUTHOR_WEIGHT = 1.0f;
+
+    private static final int TITLE = 1;
+    private static final int AUTHOR = 2;
+    private static final int MIN_COMPACTION_TOMBSTONES = 1024;
+
+    private volatile Segment current;
+    private volatile Segment loading;
+
+    @Autowired
+    public BookSearchIndex(final MeterRegistry meterRegistry) {
+        Gauge.builder("books.search.documents", this, index -> index.size(Segment::liveDocuments))
+                .description("Books in the search index")
+                .register(meterRegistry);
+        Gauge.builder("books.search.terms", this, index -> index.size(Segment::termCount))
+                .description("Distinct terms in the search index")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the ISBN-13s of one page of hits, best first, and the total number of hits.
+     *
+     * @throws IllegalStateException if the catalog hasn't been loaded yet
+     */
+    public Hits search(final String query, final int offset, final int limit) {
+        final Segment segment = current;
+        if (segment == null) {
+            throw new IllegalStateException("The search index is still being built");
+        }
+        final List<String> terms = new ArrayList<>(new LinkedHashSet<>(BookTokenizer.tokenize(query)));
+        if (terms.isEmpty()) {
+            return new Hits(new long[0], 0, false);
+        }
+        return segment.search(terms, offset, limit);
+    }
+
+    @Override
+    public void loadStarted() {
+        loading = new Segment();
+    }
+
+    @Override
+    public void bookLoaded(final Book book) {
+        loading.load(book);
+    }
+
+    @Override
+    public void loadCompleted() {
+        final Segment loaded = loading;
+        loaded.loadCompleted();
+        current = loaded;
+        loading = null;
+    }
+
+    /**
+     * The segment loaded before keeps serving, as it took every write made meanwhile.
+     */
+    @Override
+    public void loadFailed() {
+        loading = null;
+    }
+
+    @Override
+    public void bookSaved(final Book book) {
+        final Segment next = loading;
+        if (next != null) {
+            next.add(book);
+        }
+        final Segment segment = current;
+        if (segment != null) {
+            segment.add(book);
+        }
+    }
+
+    @Override
+    public void bookDeleted(final long isbn13) {
+        final Segment next = loading;
+        if (next != null) {
+            next.remove(isbn13);
+        }
+        final Segment segment = current;
+        if (segment != null) {
+            segment.remove(isbn13);
+        }
+    }
+
+    private double size(final ToIntFunction<Segment> size) {
+        final Segment segment = current;
+        return segment == null ? 0 : size.applyAsInt(segment);
+    }
+
+    /**
+     * @param truncated whether the last term was a prefix of more terms than were expanded,
+     *                  so books matching only the others are missing from the hits
+     */
+    public record Hits(long[] isbn13s, int total, boolean truncated) {
+    }
+
+    private static final class Segment {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Postings> postings = new HashMap<>();
+        // Only consulted to expand prefixes; new terms are rare once the catalog is loaded
+        private final TreeSet<String> sortedTerms = new TreeSet<>();
+        // ISBN-13 of each live document to its id; isbn13s maps back, with 0 for a tombstone
+        private final IsbnTable docIds = new IsbnTable();
+        private final BitSet tombstones = new BitSet();
+        private long[] isbn13s = new long[1024];
+        private int nextDocId;
+        private int tombstoneCount;
+        private IsbnTable writtenDuringLoad = new IsbnTable();
+
+        void load(final Book book) {
+            final long isbn13 = Isbn.parse(book.getIsbn());
+            final Map<String, Integer> terms = terms(book);
+            lock.writeLock().lock();
+            try {
+                if (!writtenDuringLoad.contains(isbn13)) {
+                    index(isbn13, terms);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void loadCompleted() {
+            lock.writeLock().lock();
+            try {
+                writtenDuringLoad = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void add(final Book book) {
+            final long isbn13 = Isbn.parse(book.getIsbn());
+            final Map<String, Integer> terms = terms(book);
+            lock.writeLock().lock();
+            try {
+                if (writtenDuringLoad != null) {
+                    writtenDuringLoad.put(isbn13, 0);
+                }
+                delete(isbn13);
+                index(isbn13, terms);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(final long isbn13) {
+            lock.writeLock().lock();
+            try {
+                if (writtenDuringLoad != null) {
+                    writtenDuringLoad.put(isbn13, 0);
+                }
+                delete(isbn13);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        int liveDocuments() {
+            lock.readLock().lock();
+            try {
+                return docIds.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        int termCount() {
+            lock.readLock().lock();
+            try {
+                return postings.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        Hits search(final List<String> terms, final int offset, final int limit) {
+            lock.readLock().lock();
+            try {
+                final List<TermMatches> matches = new ArrayList<>(terms.size());
+                boolean truncated = false;
+                for (int i = 0; i < terms.size(); i++) {
+                    final TermMatches termMatches = i == terms.size() - 1
+                            ? prefixMatches(terms.get(i))
+                            : exactMatches(terms.get(i));
+                    if (termMatches.size() == 0) {
+                        return new Hits(new long[0], 0, false);
+                    }
+                    truncated |= termMatches instanceof PrefixMatches prefixMatches && prefixMatches.truncated;
+                    matches.add(termMatches);
+                }
+                // Intersect from the rarest term, so each step probes as few documents as possible
+                matches.sort(Comparator.comparingInt(TermMatches::size));
+                final Candidates candidates = new Candidates(matches.get(0).size());
+                matches.get(0).seed(candidates, idf(matches.get(0)), tombstones);
+                for (int i = 1; i < matches.size() && candidates.size > 0; i++) {
+                    matches.get(i).retain(candidates, idf(matches.get(i)));
+                }
+                return new Hits(top(candidates, offset, limit), candidates.size, truncated);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private float idf(final TermMatches matches) {
+            return (float) Math.log(1 + (double) Math.max(docIds.size(), 1) / matches.size());
+        }
+
+        private TermMatches exactMatches(final String term) {
+            final Postings found = postings.get(term);
+            // Read in place: writers are locked out until the search is done
+            return found == null ? new PostingList(new int[0], 0) : new PostingList(found.values, found.size);
+        }
+
+        private TermMatches prefixMatches(final String prefix) {
+            if (prefix.length() < MIN_PREFIX_LENGTH) {
+                return exactMatches(prefix);
+            }
+            // Walk the expansions rather than size them up: sizing a sub-set visits every term in it
+            final List<Postings> expansions = new ArrayList<>();
+            boolean truncated = false;
+            for (String term : sortedTerms.subSet(prefix, prefix + Character.MAX_VALUE)) {
+                if (expansions.size() == MAX_PREFIX_EXPANSIONS) {
+                    truncated = true;
+                    break;
+                }
+                expansions.add(postings.get(term));
+            }
+            if (expansions.size() == 1) {
+                return new PostingList(expansions.get(0).values, expansions.get(0).size);
+            }
+            final PrefixMatches union = new PrefixMatches(nextDocId, truncated);
+            expansions.forEach(union::add);
+            return union;
+        }
+
+        /**
+         * Selects the hits ranked {@code offset} up to {@code offset + limit} with a
+         * bounded min-heap, so only the requested window is ever sorted.
+         */
+        private long[] top(final Candidates candidates, final int offset, final int limit) {
+            final int window = Math.min(offset + limit, candidates.size);
+            if (window <= offset) {
+                return new long[0];
+            }
+            final int[] heap = new int[window];
+            int heapSize = 0;
+            for (int i = 0; i < candidates.size; i++) {
+                if (heapSize < window) {
+                    heap[heapSize] = i;
+                    siftUp(heap, heapSize++, candidates);
+                } else if (ranksBefore(i, heap[0], candidates)) {
+                    heap[0] = i;
+                    siftDown(heap, heapSize, candidates);
+                }
+            }
+            // Popping the heap yields the window worst first
+            final long[] ranked = new long[window];
+            while (heapSize > 0) {
+                ranked[heapSize - 1] = isbn13s[candidates.docs[heap[0]]];
+                heap[0] = heap[--heapSize];
+                siftDown(heap, heapSize, candidates);
+            }
+            return Arrays.copyOfRange(ranked, offset, window);
+        }
+
+        private boolean ranksBefore(final int a, final int b, final Candidates candidates) {
+            final float scoreA = candidates.scores[a];
+            final float scoreB = candidates.scores[b];
+            if (scoreA != scoreB) {
+                return scoreA > scoreB;
+            }
+            return candidates.docs[a] < candidates.docs[b];
+        }
+
+        private void siftUp(final int[] heap, int position, final Candidates candidates) {
+            while (position > 0) {
+                final int parent = (position - 1) >>> 1;
+                if (!ranksBefore(heap[parent], heap[position], candidates)) {
+                    return;
+                }
+                swap(heap, parent, position);
+                position = parent;
+            }
+        }
+
+        private void siftDown(final int[] heap, final int size, final Candidates candidates) {
+            int position = 0;
+            while (true) {
+                final int left = 2 * position + 1;
+                if (left >= size) {
+                    return;
+                }
+                final int right = left + 1;
+                final int worseChild = right < size && ranksBefore(heap[left], heap[right], candidates) ? right : left;
+                if (!ranksBefore(heap[position], heap[worseChild], candidates)) {
+                    return;
+                }
+                swap(heap, position, worseChild);
+                position = worseChild;
+            }
+        }
+
+        private static void swap(final int[] heap, final int a, final int b) {
+            final int swapped = heap[a];
+            heap[a] = heap[b];
+            heap[b] = swapped;
+        }
+
+        private void index(final long isbn13, final Map<String, Integer> terms) {
+            final int docId = nextDocId++;
+            if (docId == isbn13s.length) {
+                isbn13s = Arrays.copyOf(isbn13s, isbn13s.length * 2);
+            }
+            isbn13s[docId] = isbn13;
+            docIds.put(isbn13, docId);
+            terms.forEach((term, fields) -> postings.computeIfAbsent(term, newTerm -> {
+                sortedTerms.add(newTerm);
+                return new Postings();
+            }).add(docId << 2 | fields));
+        }
+
+        private void delete(final long isbn13) {
+            final long docId = docIds.remove(isbn13);
+            if (docId == IsbnTable.ABSENT) {
+                return;
+            }
+            tombstones.set((int) docId);
+            isbn13s[(int) docId] = 0;
+            if (++tombstoneCount >= Math.max(MIN_COMPACTION_TOMBSTONES, docIds.size() / 4)) {
+                compact();
+            }
+        }
+
+        /**
+         * Drops tombstoned documents and renumbers the rest. Surviving documents keep
+         * their relative order, so the posting lists stay sorted.
+         */
+        private void compact() {
+            final int[] renumbered = new int[nextDocId];
+            int live = 0;
+            for (int docId = 0; docId < nextDocId; docId++) {
+                if (!tombstones.get(docId)) {
+                    isbn13s[live] = isbn13s[docId];
+                    renumbered[docId] = live++;
+                }
+            }
+            Arrays.fill(isbn13s, live, nextDocId, 0);
+            final Iterator<Map.Entry<String, Postings>> lists = postings.entrySet().iterator();
+            while (lists.hasNext()) {
+                final Map.Entry<String, Postings> list = lists.next();
+                list.getValue().retain(tombstones, renumbered);
+                if (list.getValue().size == 0) {
+                    sortedTerms.remove(list.getKey());
+                    lists.remove();
+                }
+            }
+            for (int docId = 0; docId < live; docId++) {
+                docIds.put(isbn13s[docId], docId);
+            }
+            tombstones.clear();
+            tombstoneCount = 0;
+            nextDocId = live;
+        }
+
+        private static Map<String, Integer> terms(final Book book) {
+            final Map<String, Integer> terms = new HashMap<>();
+            BookTokenizer.tokenize(book.getTitle()).forEach(term -> terms.merge(term, TITLE, (a, b) -> a | b));
+            BookTokenizer.tokenize(book.getAuthor()).forEach(term -> terms.merge(term, AUTHOR, (a, b) -> a | b));
+            return terms;
+        }
+    }
+
+    /**
+     * Posting list of one term: document ids in ascending order, each packed with the
+     * fields the term occurs in.
+     */
+    private static final class Postings {
+
+        private int[] values = new int[2];
+        private int size;
+
+        void add(final int posting) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size + (size >> 1) + 1);
+            }
+            values[size++] = posting;
+        }
+
+        void retain(final BitSet tombstones, final int[] renumbered) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                final int docId = values[i] >>> 2;
+                if (!tombstones.get(docId)) {
+                    values[kept++] = renumbered[docId] << 2 | (values[i] & 3);
+                }
+            }
+            size = kept;
+            if (values.length > 2 * size + 2) {
+                values = Arrays.copyOf(values, size);
+            }
+        }
+    }
+
+    /**
+     * The documents matching one query term.
+     */
+    private interface TermMatches {
+
+        /**
+         * Number of matching documents, counting tombstoned ones.
+         */
+        int size();
+
+        void seed(Candidates candidates, float idf, BitSet tombstones);
+
+        /**
+         * Drops the candidates this term doesn't match and scores the rest.
+         */
+        void retain(Candidates candidates, float idf);
+    }
+
+    /**
+     * Matches of a single term: the first {@code size} postings of {@code values}.
+     */
+    private record PostingList(int[] values, int size) implements TermMatches {
+
+        @Override
+        public void seed(final Candidates candidates, final float idf, final BitSet tombstones) {
+            for (int i = 0; i < size; i++) {
+                final int docId = values[i] >>> 2;
+                if (!tombstones.get(docId)) {
+                    candidates.add(docId, idf * weight(values[i] & 3));
+                }
+            }
+        }
+
+        /**
+         * Gallops through the postings, since they usually far outnumber the candidates.
+         */
+        @Override
+        public void retain(final Candidates candidates, final float idf) {
+            int kept = 0;
+            int from = 0;
+            for (int i = 0; i < candidates.size && from < size; i++) {
+                final int docId = candidates.docs[i];
+                from = seek(from, docId);
+                if (from < size && values[from] >>> 2 == docId) {
+                    candidates.docs[kept] = docId;
+                    candidates.scores[kept++] = candidates.scores[i] + idf * weight(values[from] & 3);
+                }
+            }
+            candidates.size = kept;
+        }
+
+        private int seek(final int from, final int docId) {
+            int bound = 1;
+            while (from + bound < size && values[from + bound] >>> 2 < docId) {
+                bound <<= 1;
+            }
+            int low = from + (bound >> 1);
+            int high = Math.min(from + bound, size);
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (values[middle] >>> 2 < docId) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Union of the terms a prefix expands to, as one bit set per field. Marking bits
+     * costs one pass over the postings, where merging the sorted lists would not.
+     */
+    private static final class PrefixMatches implements TermMatches {
+
+        private final long[] title;
+        private final long[] author;
+        // Whether the prefix starts more terms than were added
+        private final boolean truncated;
+        private int size;
+
+        PrefixMatches(final int documents, final boolean truncated) {
+            title = new long[(documents + 63) >>> 6];
+            author = new long[title.length];
+            this.truncated = truncated;
+        }
+
+        void add(final Postings list) {
+            for (int i = 0; i < list.size; i++) {
+                final int docId = list.values[i] >>> 2;
+                final int word = docId >>> 6;
+                final long bit = 1L << docId;
+                if (((title[word] | author[word]) & bit) == 0) {
+                    size++;
+                }
+                if ((list.values[i] & TITLE) != 0) {
+                    title[word] |= bit;
+                }
+                if ((list.values[i] & AUTHOR) != 0) {
+                    author[word] |= bit;
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void seed(final Candidates candidates, final float idf, final BitSet tombstones) {
+            for (int word = 0; word < title.length; word++) {
+                long bits = title[word] | author[word];
+                while (bits != 0) {
+                    final int docId = word << 6 | Long.numberOfTrailingZeros(bits);
+                    if (!tombstones.get(docId)) {
+                        candidates.add(docId, idf * weight(fields(docId)));
+                    }
+                    bits &= bits - 1;
+                }
+            }
+        }
+
+        @Override
+        public void retain(final Candidates candidates, final float idf) {
+            int kept = 0;
+            for (int i = 0; i < candidates.size; i++) {
+                final int fields = fields(candidates.docs[i]);
+                if (fields != 0) {
+                    candidates.docs[kept] = candidates.docs[i];
+                    candidates.scores[kept++] = candidates.scores[i] + idf * weight(fields);
+                }
+            }
+            candidates.size = kept;
+        }
+
+        private int fields(final int docId) {
+            final long bit = 1L << docId;
+            return ((title[docId >>> 6] & bit) != 0 ? TITLE : 0) | ((author[docId >>> 6] & bit) != 0 ? AUTHOR : 0);
+        }
+    }
+
+    /**
+     * Documents matching every term so far, in ascending id order, with their scores.
+     */
+    private static final class Candidates {
+
+        private final int[] docs;
+        private final float[] scores;
+        private int size;
+
+        Candidates(final int capacity) {
+            docs = new int[capacity];
+            scores = new float[capacity];
+        }
+
+        void add(final int docId, final float score) {
+            docs[size] = docId;
+            scores[size++] = score;
+        }
+    }
+
+    private static float weight(final int fields) {
+        return ((fields & TITLE) != 0 ? TITLE_WEIGHT : 0) + ((fields & AUTHOR) != 0 ? AUTHOR_WEIGHT : 0);
+    }
+}
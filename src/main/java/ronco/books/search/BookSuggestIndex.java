@@ -0,0 +1,607 @@
+package ronco.books.search;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ronco.books.cache.IsbnTable;
+import ronco.books.model.Book;
+import ronco.books.model.BookField;
+import ronco.books.model.BookSuggestion;
+import ronco.books.model.Isbn;
+import ronco.books.service.CatalogListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * In-memory type-ahead over distinct titles and author names, answering every
+ * keystroke without touching the database.
+ * <p>
+ * Each completion is found from the start of any of its words ("lord" and "rings"
+ * both complete to "The Lord of the Rings"), through a sorted array of
+ * (completion, word offset) keys searched by binary search. Keys of completions
+ * created since the array was built sit in a small sorted delta, which is merged
+ * into the array once it reaches an eighth of its size.
+ * <p>
+ * Completions are ranked by how many books carry them, then alphabetically. The
+ * array is split in two: completions shared by several books when it was built, which
+ * are all ranked, and the rest, where only the first matches in key order are read.
+ */
+@Component
+public class BookSuggestIndex implements CatalogListener {
+
+    // Bounds the keys of long titles; later words are rarely what people type
+    static final int MAX_WORD_STARTS = 8;
+    // Bounds the keys a query reads from each array, which only one- or two-letter prefixes reach
+    static final int MAX_RANKED_KEYS = 10_000;
+    static final int MIN_MERGE_SIZE = 4096;
+
+    private static final Comparator<Key> KEY_ORDER = (a, b) -> {
+        int order = Long.compareUnsigned(a.code(), b.code());
+        if (order == 0) {
+            order = compareSuffixes(a.completion().key, a.offset(), b.completion().key, b.offset());
+        }
+        return order != 0 ? order : Integer.compare(a.completion().id, b.completion().id);
+    };
+    private static final Comparator<Completion> RANKING = Comparator.comparingInt((Completion completion) -> completion.count)
+            .reversed()
+            .thenComparing(completion -> completion.key);
+
+    private volatile Segment current;
+    private volatile Segment loading;
+
+    @Autowired
+    public BookSuggestIndex(final MeterRegistry meterRegistry) {
+        Gauge.builder("books.suggest.memory", this, index -> index.measure(Segment::estimatedBytes))
+                .description("Estimated heap held by the type-ahead index")
+                .baseUnit(BaseUnits.BYTES)
+                .register(meterRegistry);
+        Gauge.builder("books.suggest.completions", this, index -> index.measure(Segment::completionCount))
+                .description("Distinct titles and authors offered as completions")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns up to {@code limit} titles and authors with a word starting with the
+     * prefix, most widely carried first.
+     *
+     * @throws IllegalStateException if the catalog hasn't been loaded yet
+     */
+    public List<BookSuggestion> suggest(final String prefix, final int limit) {
+        final Segment segment = current;
+        if (segment == null) {
+            throw new IllegalStateException("The suggestion index is still being built");
+        }
+        final String key = BookTokenizer.normalize(prefix).strip();
+        if (key.isEmpty()) {
+            return List.of();
+        }
+        return segment.suggest(key, limit);
+    }
+
+    /**
+     * Estimated heap held by the index, as reported by {@code books.suggest.memory}.
+     */
+    public long estimatedBytes() {
+        return (long) measure(Segment::estimatedBytes);
+    }
+
+    @Override
+    public void loadStarted() {
+        loading = new Segment();
+    }
+
+    @Override
+    public void bookLoaded(final Book book) {
+        loading.load(book);
+    }
+
+    @Override
+    public void loadCompleted() {
+        final Segment loaded = loading;
+        loaded.loadCompleted();
+        current = loaded;
+        loading = null;
+    }
+
+    /**
+     * The segment loaded before keeps serving, as it took every write made meanwhile.
+     */
+    @Override
+    public void loadFailed() {
+        loading = null;
+    }
+
+    @Override
+    public void bookSaved(final Book book) {
+        final Segment next = loading;
+        if (next != null) {
+            next.add(book);
+        }
+        final Segment segment = current;
+        if (segment != null) {
+            segment.add(book);
+        }
+    }
+
+    @Override
+    public void bookDeleted(final long isbn13) {
+        final Segment next = loading;
+        if (next != null) {
+            next.remove(isbn13);
+        }
+        final Segment segment = current;
+        if (segment != null) {
+            segment.remove(isbn13);
+        }
+    }
+
+    private double measure(final ToLongFunction<Segment> measure) {
+        final Segment segment = current;
+        return segment == null ? 0 : measure.applyAsLong(segment);
+    }
+
+    private static int compareSuffixes(final String a, final int aFrom, final String b, final int bFrom) {
+        final int aLength = a.length() - aFrom;
+        final int bLength = b.length() - bFrom;
+        final int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; i++) {
+            final int order = a.charAt(aFrom + i) - b.charAt(bFrom + i);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    private static final class Segment {
+
+        // Rough heap cost of the objects behind each entry, for the memory gauge
+        private static final int COMPLETION_BYTES = 32 + 48;
+        private static final int STRING_BYTES = 40;
+        private static final int DELTA_KEY_BYTES = 64;
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Completion> titles = new HashMap<>();
+        private final Map<String, Completion> authors = new HashMap<>();
+        // Title and author completion ids of each book, as the two halves of the value
+        private final IsbnTable books = new IsbnTable();
+        private Completion[] byId = new Completion[1024];
+        private int nextId;
+        private long stringBytes;
+        // Until the load completes, keys are built in one go from every completion
+        private boolean built;
+        private Run shared = new Run(0);
+        private Run unshared = new Run(0);
+        private final TreeSet<Key> delta = new TreeSet<>(KEY_ORDER);
+        private IsbnTable writtenDuringLoad = new IsbnTable();
+
+        void load(final Book book) {
+            lock.writeLock().lock();
+            try {
+                if (!writtenDuringLoad.contains(Isbn.parse(book.getIsbn()))) {
+                    put(book);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void loadCompleted() {
+            lock.writeLock().lock();
+            try {
+                writtenDuringLoad = null;
+                final List<Key> keys = new ArrayList<>();
+                for (int id = 0; id < nextId; id++) {
+                    if (byId[id] != null) {
+                        addKeys(byId[id], keys);
+                    }
+                }
+                split(sort(keys));
+                built = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void add(final Book book) {
+            lock.writeLock().lock();
+            try {
+                if (writtenDuringLoad != null) {
+                    writtenDuringLoad.put(Isbn.parse(book.getIsbn()), 0);
+                }
+                put(book);
+                if (delta.size() >= Math.max(MIN_MERGE_SIZE, (shared.size + unshared.size) / 8)) {
+                    merge();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(final long isbn13) {
+            lock.writeLock().lock();
+            try {
+                if (writtenDuringLoad != null) {
+                    writtenDuringLoad.put(isbn13, 0);
+                }
+                final long previous = books.remove(isbn13);
+                if (previous != IsbnTable.ABSENT) {
+                    release((int) (previous >> 32));
+                    release((int) previous);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        List<BookSuggestion> suggest(final String prefix, final int limit) {
+            lock.readLock().lock();
+            try {
+                final Set<Completion> found = new HashSet<>();
+                shared.collect(prefix, found, Integer.MAX_VALUE);
+                final Key probe = Key.of(new Completion(-1, prefix, prefix, null), 0);
+                for (Key key : delta.tailSet(probe, true)) {
+                    if (!key.completion().key.startsWith(prefix, key.offset())) {
+                        break;
+                    }
+                    if (key.completion().count > 0) {
+                        found.add(key.completion());
+                    }
+                }
+                // Unshared completions all rank alike, so the first ones in key order are enough
+                unshared.collect(prefix, found, limit);
+
+                return found.stream()
+                        .sorted(RANKING)
+                        .limit(limit)
+                        .map(completion -> BookSuggestion.builder()
+                                .text(completion.text)
+                                .field(completion.field.getProperty())
+                                .books(completion.count)
+                                .build())
+                        .toList();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        long completionCount() {
+            lock.readLock().lock();
+            try {
+                return titles.size() + authors.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        long estimatedBytes() {
+            lock.readLock().lock();
+            try {
+                return stringBytes
+                        + (long) COMPLETION_BYTES * (titles.size() + authors.size())
+                        + 4L * byId.length
+                        + 8L * (shared.completions.length + unshared.completions.length)
+                        + (long) DELTA_KEY_BYTES * delta.size()
+                        + books.estimatedBytes();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void put(final Book book) {
+            final long isbn13 = Isbn.parse(book.getIsbn());
+            final long previous = books.get(isbn13);
+            final int titleId = acquire(titles, book.getTitle(), BookField.TITLE);
+            final int authorId = acquire(authors, book.getAuthor(), BookField.AUTHOR);
+            books.put(isbn13, (long) titleId << 32 | (authorId & 0xFFFFFFFFL));
+            // Released after acquiring, so a book saved unchanged doesn't drop and recreate its completions
+            if (previous != IsbnTable.ABSENT) {
+                release((int) (previous >> 32));
+                release((int) previous);
+            }
+        }
+
+        private int acquire(final Map<String, Completion> completions, final String text, final BookField field) {
+            if (text == null || text.isBlank()) {
+                return -1;
+            }
+            final String key = BookTokenizer.normalize(text).strip();
+            Completion completion = completions.get(key);
+            if (completion == null) {
+                completion = new Completion(nextId++, text, key, field);
+                if (completion.id == byId.length) {
+                    byId = Arrays.copyOf(byId, byId.length * 2);
+                }
+                byId[completion.id] = completion;
+                completions.put(key, completion);
+                stringBytes += STRING_BYTES + text.length() + (key.equals(text) ? 0 : STRING_BYTES + key.length());
+                if (built) {
+                    addKeys(completion, delta);
+                }
+            }
+            completion.count++;
+            return completion.id;
+        }
+
+        private void release(final int id) {
+            if (id < 0) {
+                return;
+            }
+            final Completion completion = byId[id];
+            if (--completion.count == 0) {
+                // Its keys stay behind until the next merge, which drops keys of dead completions
+                (completion.field == BookField.TITLE ? titles : authors).remove(completion.key);
+                byId[id] = null;
+                stringBytes -= STRING_BYTES + completion.text.length()
+                        + (completion.key.equals(completion.text) ? 0 : STRING_BYTES + completion.key.length());
+            }
+        }
+
+        /**
+         * Folds the delta into the sorted arrays in one linear merge of the three
+         * sorted runs, re-splitting by the current book counts.
+         */
+        private void merge() {
+            final List<Key> keys = new ArrayList<>(shared.size + unshared.size + delta.size());
+            int sharedAt = 0;
+            int unsharedAt = 0;
+            Key sharedKey = shared.key(sharedAt);
+            Key unsharedKey = unshared.key(unsharedAt);
+            for (Key deltaKey : delta) {
+                while (true) {
+                    final Key next = min(min(sharedKey, unsharedKey), deltaKey);
+                    if (next == deltaKey) {
+                        break;
+                    }
+                    keys.add(next);
+                    if (next == sharedKey) {
+                        sharedKey = shared.key(++sharedAt);
+                    } else {
+                        unsharedKey = unshared.key(++unsharedAt);
+                    }
+                }
+                keys.add(deltaKey);
+            }
+            while (sharedKey != null || unsharedKey != null) {
+                final Key next = min(sharedKey, unsharedKey);
+                keys.add(next);
+                if (next == sharedKey) {
+                    sharedKey = shared.key(++sharedAt);
+                } else {
+                    unsharedKey = unshared.key(++unsharedAt);
+                }
+            }
+            delta.clear();
+            split(keys);
+        }
+
+        private static List<Key> sort(final List<Key> keys) {
+            final Key[] sorted = keys.toArray(new Key[0]);
+            sort(sorted, 0, sorted.length, 0);
+            return Arrays.asList(sorted);
+        }
+
+        /**
+         * Sorts keys whose first {@code from} chars are equal: an LSD radix sort on the
+         * codes of the next eight chars, which streams through flat arrays, then the same
+         * for each run of equal codes. Comparison sorting millions of keys directly is
+         * dominated by cache misses on the key objects.
+         */
+        private static void sort(final Key[] keys, final int start, final int end, final int from) {
+            final int size = end - start;
+            if (size < 64) {
+                Arrays.sort(keys, start, end, KEY_ORDER);
+                return;
+            }
+            long[] codes = new long[size];
+            Key[] order = Arrays.copyOfRange(keys, start, end);
+            for (int i = 0; i < size; i++) {
+                codes[i] = from == 0 ? order[i].code() : Key.code(order[i].completion().key, order[i].offset() + from);
+            }
+            long[] sortedCodes = new long[size];
+            Key[] sortedOrder = new Key[size];
+            final int[] offsets = new int[257];
+            for (int shift = 0; shift < Long.SIZE; shift += 8) {
+                Arrays.fill(offsets, 0);
+                for (long code : codes) {
+                    offsets[(int) (code >>> shift & 0xFF) + 1]++;
+                }
+                if (offsets[(int) (codes[0] >>> shift & 0xFF) + 1] == size) {
+                    // Every code has the same byte here
+                    continue;
+                }
+                for (int digit = 0; digit < 256; digit++) {
+                    offsets[digit + 1] += offsets[digit];
+                }
+                for (int i = 0; i < size; i++) {
+                    final int to = offsets[(int) (codes[i] >>> shift & 0xFF)]++;
+                    sortedCodes[to] = codes[i];
+                    sortedOrder[to] = order[i];
+                }
+                final long[] swappedCodes = codes;
+                codes = sortedCodes;
+                sortedCodes = swappedCodes;
+                final Key[] swappedOrder = order;
+                order = sortedOrder;
+                sortedOrder = swappedOrder;
+            }
+            System.arraycopy(order, 0, keys, start, size);
+            for (int runStart = 0, runEnd; runStart < size; runStart = runEnd) {
+                runEnd = runStart + 1;
+                while (runEnd < size && codes[runEnd] == codes[runStart]) {
+                    runEnd++;
+                }
+                if (runEnd - runStart > 1) {
+                    // A code that ran out of chars or hit a wide char can't be refined further
+                    final boolean refinable = (codes[runStart] & 0xFF) != 0 && (codes[runStart] & 0xFF) != 0xFF;
+                    if (refinable) {
+                        sort(keys, start + runStart, start + runEnd, from + 8);
+                    } else {
+                        Arrays.sort(keys, start + runStart, start + runEnd, KEY_ORDER);
+                    }
+                }
+            }
+        }
+
+        private static Key min(final Key a, final Key b) {
+            if (a == null) {
+                return b;
+            }
+            if (b == null) {
+                return a;
+            }
+            return KEY_ORDER.compare(a, b) <= 0 ? a : b;
+        }
+
+        private void split(final List<Key> sortedKeys) {
+            int sharedCount = 0;
+            int unsharedCount = 0;
+            for (Key key : sortedKeys) {
+                if (key.completion().count > 1) {
+                    sharedCount++;
+                } else if (key.completion().count == 1) {
+                    unsharedCount++;
+                }
+            }
+            shared = new Run(sharedCount);
+            unshared = new Run(unsharedCount);
+            for (Key key : sortedKeys) {
+                if (key.completion().count > 1) {
+                    shared.append(key);
+                } else if (key.completion().count == 1) {
+                    unshared.append(key);
+                }
+            }
+        }
+
+        private static void addKeys(final Completion completion, final Collection<Key> keys) {
+            final String key = completion.key;
+            int starts = 0;
+            for (int i = 0; i < key.length() && starts < MAX_WORD_STARTS; i++) {
+                if (!Character.isLetterOrDigit(key.charAt(i)) || (i > 0 && Character.isLetterOrDigit(key.charAt(i - 1)))) {
+                    continue;
+                }
+                int end = i;
+                while (end < key.length() && Character.isLetterOrDigit(key.charAt(end))) {
+                    end++;
+                }
+                // The first word is always a start, so "The Hobbit" is found from "the"
+                if (i == 0 || !BookTokenizer.isStopWord(key.substring(i, end))) {
+                    keys.add(Key.of(completion, i));
+                    starts++;
+                }
+            }
+            if (starts == 0) {
+                keys.add(Key.of(completion, 0));
+            }
+        }
+    }
+
+    /**
+     * A title or author name offered as a completion; {@code key} is its normalized form.
+     */
+    private static final class Completion {
+
+        private final int id;
+        private final String text;
+        private final String key;
+        private final BookField field;
+        private int count;
+
+        Completion(final int id, final String text, final String key, final BookField field) {
+            this.id = id;
+            this.text = text;
+            this.key = key;
+            this.field = field;
+        }
+    }
+
+    /**
+     * Entry point into a completion: the part of its key from {@code offset} on.
+     * {@code code} packs its first eight chars a byte each, so most comparisons are
+     * settled without reaching the strings; a char beyond Latin-1 ends the code.
+     */
+    private record Key(Completion completion, int offset, long code) {
+
+        static Key of(final Completion completion, final int offset) {
+            return new Key(completion, offset, code(completion.key, offset));
+        }
+
+        static long code(final String key, final int from) {
+            long code = 0;
+            int packed = 0;
+            for (int i = from; i < key.length() && packed < 8; i++) {
+                final char c = key.charAt(i);
+                code = code << 8 | Math.min(c, 0xFF);
+                packed++;
+                if (c >= 0xFF) {
+                    break;
+                }
+            }
+            return code << 8 * (8 - packed);
+        }
+    }
+
+    /**
+     * Keys sorted by {@link #KEY_ORDER}, as parallel arrays.
+     */
+    private static final class Run {
+
+        private final Completion[] completions;
+        private final int[] offsets;
+        private int size;
+
+        Run(final int capacity) {
+            completions = new Completion[capacity];
+            offsets = new int[capacity];
+        }
+
+        void append(final Key key) {
+            completions[size] = key.completion();
+            offsets[size++] = key.offset();
+        }
+
+        Key key(final int index) {
+            return index < size ? Key.of(completions[index], offsets[index]) : null;
+        }
+
+        /**
+         * Adds the live completions of keys starting with the prefix, stopping after
+         * {@code max} new ones or {@link #MAX_RANKED_KEYS} keys.
+         */
+        void collect(final String prefix, final Set<Completion> found, final int max) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (compareSuffixes(completions[middle].key, offsets[middle], prefix, 0) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            int added = 0;
+            for (int i = low; i < size && i - low < MAX_RANKED_KEYS && added < max; i++) {
+                if (!completions[i].key.startsWith(prefix, offsets[i])) {
+                    return;
+                }
+                if (completions[i].count > 0 && found.add(completions[i])) {
+                    added++;
+                }
+            }
+        }
+    }
+}
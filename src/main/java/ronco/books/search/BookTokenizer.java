@@ -0,0 +1,72 @@
+package ronco.books.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits titles, author names and queries into search terms: lower-cased, accents
+ * stripped ("Brontë" finds "bronte"), split on anything that isn't a letter or digit,
+ * with common English stop words dropped since they would match most of the catalog.
+ */
+public final class BookTokenizer {
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "at", "by", "for", "from", "in", "of", "on", "or", "the", "to", "with");
+
+    private BookTokenizer() {
+    }
+
+    static boolean isStopWord(final String term) {
+        return STOP_WORDS.contains(term);
+    }
+
+    /**
+     * Lower-cases the text and strips its accents, keeping every other character.
+     */
+    public static String normalize(final String text) {
+        final String lowerCase = text.toLowerCase(Locale.ROOT);
+        // Pure ASCII needs no decomposition, which spares the common case an extra copy
+        for (int i = 0; i < lowerCase.length(); i++) {
+            if (lowerCase.charAt(i) >= 0x80) {
+                final String decomposed = Normalizer.normalize(lowerCase, Normalizer.Form.NFD);
+                final StringBuilder stripped = new StringBuilder(decomposed.length());
+                for (int j = 0; j < decomposed.length(); j++) {
+                    final char c = decomposed.charAt(j);
+                    if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                        stripped.append(c);
+                    }
+                }
+                return stripped.toString();
+            }
+        }
+        return lowerCase;
+    }
+
+    /**
+     * Returns the terms of the text in order, duplicates included; empty for {@code null}.
+     */
+    public static List<String> tokenize(final String text) {
+        final List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        final String normalized = normalize(text);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            final boolean termChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (termChar && start < 0) {
+                start = i;
+            } else if (!termChar && start >= 0) {
+                final String term = normalized.substring(start, i);
+                if (!isStopWord(term)) {
+                    terms.add(term);
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+}
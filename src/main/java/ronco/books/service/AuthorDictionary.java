@@ -0,0 +1,84 @@
+package ronco.books.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import ronco.books.model.AuthorEntity;
+import ronco.books.repository.AuthorRepository;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps author names to their rows in the {@code authors} table, so books reference an
+ * author by integer ID and every book in memory shares one {@code String} per author.
+ * <p>
+ * Author rows are never updated or deleted, so a cached entry can't go stale and needs
+ * no invalidation; an author created through another instance is simply a cache miss.
+ */
+@Slf4j
+@Component
+public class AuthorDictionary {
+
+    private final AuthorRepository authorRepository;
+    private final Map<String, AuthorEntity> authors = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AuthorDictionary(final AuthorRepository authorRepository) {
+        this.authorRepository = authorRepository;
+    }
+
+    /**
+     * Caches every stored author, so loading the catalog resolves names without a query each.
+     */
+    public void load() {
+        for (AuthorEntity author : authorRepository.findAll()) {
+            authors.putIfAbsent(author.getName(), author);
+        }
+        log.info("Loaded {} authors", authors.size());
+    }
+
+    /**
+     * Returns the stored author of that name, or {@code null} if no book has carried it.
+     */
+    public AuthorEntity find(final String name) {
+        final AuthorEntity cached = authors.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        return authorRepository.findByName(name).map(this::cache).orElse(null);
+    }
+
+    /**
+     * Returns the stored author of that name, creating it if there is none yet.
+     */
+    public AuthorEntity resolve(final String name) {
+        final AuthorEntity found = find(name);
+        if (found != null) {
+            return found;
+        }
+        try {
+            return cache(authorRepository.saveAndFlush(AuthorEntity.builder().name(name).build()));
+        } catch (DataIntegrityViolationException e) {
+            // Created concurrently, here or by another instance
+            return authorRepository.findByName(name).map(this::cache).orElseThrow(() -> e);
+        }
+    }
+
+    /**
+     * Returns the shared instance of the name, or the name itself if it isn't a stored author.
+     */
+    public String intern(final String name) {
+        if (name == null) {
+            return null;
+        }
+        final AuthorEntity author = find(name);
+        return author == null ? name : author.getName();
+    }
+
+    private AuthorEntity cache(final AuthorEntity author) {
+        final AuthorEntity cached = authors.putIfAbsent(author.getName(), author);
+        return cached == null ? author : cached;
+    }
+}
@@ -1,21 +1,102 @@
 package ronco.books.service;
 
 import org.springframework.stereotype.Service;
+import ronco.books.ingest.BookFeed;
 import ronco.books.model.Book;
+import ronco.books.model.BookChangePage;
+import ronco.books.model.BookLookupResult;
+import ronco.books.model.BookPage;
+import ronco.books.model.BookQuery;
+import ronco.books.model.BookStats;
+import ronco.books.model.BookSuggestion;
+import ronco.books.model.BulkIngestResult;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Service
 public interface BookService {
 
+    /**
+     * @throws IllegalArgumentException if the book's ISBN isn't valid
+     */
     Book save(Book book);
 
+    /**
+     * Creates or overwrites the book without reading it first. An ISBN-10 or an ISBN-13
+     * written differently replaces the book with the same ISBN-13.
+     *
+     * @return {@code true} if the book was created, {@code false} if an existing one was replaced
+     * @throws IllegalArgumentException if the book's ISBN isn't valid
+     */
+    boolean upsert(Book book);
+
+    BulkIngestResult ingest(BookFeed feed) throws IOException;
+
+    /**
+     * @throws IllegalArgumentException if the ISBN isn't valid
+     */
     Optional<Book> findById(String isbn);
 
+    /**
+     * Invalid ISBNs are reported as missing.
+     */
+    BookLookupResult findAllById(Collection<String> isbns);
+
     List<Book> listBooks();
 
+    BookPage listBooks(String after, int limit);
+
+    /**
+     * Reads one keyset page of the books matching the query. Only the columns of the
+     * requested fields and the sort field are read; other fields are {@code null}.
+     */
+    BookPage listBooks(BookQuery query);
+
+    /**
+     * Returns one page of the books matching a keyword query, best match first. The
+     * next cursor, if any, is the offset of the following page; the page is marked
+     * {@link BookPage#isTruncated() truncated} when the last keyword was too short a prefix
+     * to expand in full.
+     *
+     * @throws IllegalStateException if the search index hasn't been built yet
+     */
+    BookPage searchBooks(String query, int offset, int limit);
+
+    /**
+     * Returns up to {@code limit} titles and authors completing the prefix.
+     *
+     * @throws IllegalStateException if the suggestion index hasn't been built yet
+     */
+    List<BookSuggestion> suggestBooks(String prefix, int limit);
+
+    /**
+     * Returns one page of the books written or deleted after the given change version,
+     * oldest first. Deleted books appear as tombstones carrying only their ISBN.
+     */
+    BookChangePage listChanges(long since, int limit);
+
+    /**
+     * Returns the in-memory catalog statistics with up to {@code top} authors.
+     *
+     * @throws IllegalStateException if the statistics haven't been seeded yet
+     */
+    BookStats getStats(int top);
+
+    void exportBooks(Consumer<Book> consumer);
+
     boolean isBookExist(Book book);
 
+    /**
+     * @throws IllegalArgumentException if the ISBN isn't valid
+     */
+    boolean existsById(String isbn);
+
+    /**
+     * @throws IllegalArgumentException if the ISBN isn't valid
+     */
     void deleteBookById(String isbn);
 }
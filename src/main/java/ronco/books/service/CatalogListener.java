@@ -0,0 +1,61 @@
+package ronco.books.service;
+
+import ronco.books.model.Book;
+import ronco.books.model.ReplacedBook;
+
+/**
+ * Keeps an in-memory view of the catalog in step with the database. Listeners are
+ * fed the stored catalog at startup, and again on every {@link CatalogReloadRequest},
+ * between {@link #loadStarted()} and {@link #loadCompleted()}, or {@link #loadFailed()}
+ * if the load stops part way; they are also told about every write made through
+ * {@link BookService}.
+ * <p>
+ * Writes keep arriving while a load runs, and the load may have read each of them
+ * or not. A listener that builds the loaded view beside the one it serves, and swaps
+ * it in at {@link #loadCompleted()}, must apply writes to both views until the swap;
+ * otherwise a write racing with a reload is lost when the old view is dropped. For
+ * the same reason a loaded book must not replace one written since the load started,
+ * as the load may have read its row before the write.
+ * <p>
+ * A write made through this instance comes with the live book it replaced, as the
+ * write's own statement read it. Writes made through other instances come without it.
+ */
+public interface CatalogListener {
+
+    default void loadStarted() {
+    }
+
+    default void bookLoaded(Book book) {
+    }
+
+    default void loadCompleted() {
+    }
+
+    /**
+     * The load stopped part way and will be retried. A listener drops what it loaded and
+     * goes back to serving what it had before the load, or to what is safe without it.
+     */
+    default void loadFailed() {
+    }
+
+    void bookSaved(Book book);
+
+    /**
+     * @param replaced the live book the write overwrote, or {@code null} if it created the book
+     */
+    default void bookSaved(Book book, ReplacedBook replaced) {
+        bookSaved(book);
+    }
+
+    /**
+     * @param isbn13 the canonical ISBN-13 of the deleted book, see {@link ronco.books.model.Isbn}
+     */
+    void bookDeleted(long isbn13);
+
+    /**
+     * @param deleted the book as it was before the delete
+     */
+    default void bookDeleted(long isbn13, ReplacedBook deleted) {
+        bookDeleted(isbn13);
+    }
+}
@@ -0,0 +1,8 @@
+package ronco.books.service;
+
+/**
+ * Application event asking for the catalog to be replayed into every
+ * {@link CatalogListener} again, because the in-memory view may have missed writes.
+ */
+public record CatalogReloadRequest(String reason) {
+}
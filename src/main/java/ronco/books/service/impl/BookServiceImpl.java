@@ -1,68 +1,464 @@
 package ronco.books.service.impl;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ronco.books.cache.BookCache;
+import ronco.books.cache.CatalogVersion;
+import ronco.books.cache.IsbnFilter;
+import ronco.books.cache.OffHeapBookStore;
+import ronco.books.cache.SingleFlight;
+import ronco.books.ingest.BookFeed;
+import ronco.books.loader.BookBatchLoader;
+import ronco.books.ingest.BookFeedRecord;
+import ronco.books.model.AuthorEntity;
 import ronco.books.model.Book;
+import ronco.books.model.BookChange;
+import ronco.books.model.BookChangePage;
+import ronco.books.model.BookCursor;
 import ronco.books.model.BookEntity;
+import ronco.books.model.BookLookupResult;
+import ronco.books.model.BookPage;
+import ronco.books.model.BookQuery;
+import ronco.books.model.BookSort;
+import ronco.books.model.BookStats;
+import ronco.books.model.BookSuggestion;
+import ronco.books.model.BulkIngestError;
+import ronco.books.model.BulkIngestResult;
+import ronco.books.model.Isbn;
+import ronco.books.model.ReplacedBook;
 import ronco.books.repository.BookRepository;
+import ronco.books.search.BookSearchIndex;
+import ronco.books.search.BookSuggestIndex;
+import ronco.books.service.AuthorDictionary;
 import ronco.books.service.BookService;
+import ronco.books.service.CatalogListener;
+import ronco.books.snapshot.CatalogSnapshots;
+import ronco.books.stats.CatalogStats;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
 public class BookServiceImpl implements BookService {
 
+    static final int INGEST_BATCH_SIZE = 1000;
+    static final int MAX_REPORTED_INGEST_ERRORS = 1000;
+    // Keeps the IN list well below driver and planner limits
+    static final int LOOKUP_CHUNK_SIZE = 500;
+
     private final BookRepository bookRepository;
+    private final AuthorDictionary authorDictionary;
+    private final BookCache bookCache;
+    private final OffHeapBookStore offHeapBookStore;
+    private final CatalogSnapshots catalogSnapshots;
+    private final IsbnFilter isbnFilter;
+    private final BookSearchIndex bookSearchIndex;
+    private final BookSuggestIndex bookSuggestIndex;
+    private final CatalogStats catalogStats;
+    private final CatalogVersion catalogVersion;
+    private final BookBatchLoader bookBatchLoader;
+    private final List<CatalogListener> catalogListeners;
+    // Keyed by what the caller has seen written, so nobody joins a load that began before a write they saw
+    private final SingleFlight<BookKey, Optional<Book>> findByIdFlights;
+    private final SingleFlight<PageKey, BookPage> listPageFlights;
 
     @Autowired
-    public BookServiceImpl(final BookRepository bookRepository) {
+    public BookServiceImpl(final BookRepository bookRepository,
+                           final AuthorDictionary authorDictionary,
+                           final BookCache bookCache,
+                           final OffHeapBookStore offHeapBookStore,
+                           final CatalogSnapshots catalogSnapshots,
+                           final IsbnFilter isbnFilter,
+                           final BookSearchIndex bookSearchIndex,
+                           final BookSuggestIndex bookSuggestIndex,
+                           final CatalogStats catalogStats,
+                           final CatalogVersion catalogVersion,
+                           final BookBatchLoader bookBatchLoader,
+                           final List<CatalogListener> catalogListeners,
+                           final MeterRegistry meterRegistry) {
         this.bookRepository = bookRepository;
+        this.authorDictionary = authorDictionary;
+        this.bookCache = bookCache;
+        this.offHeapBookStore = offHeapBookStore;
+        this.catalogSnapshots = catalogSnapshots;
+        this.isbnFilter = isbnFilter;
+        this.bookSearchIndex = bookSearchIndex;
+        this.bookSuggestIndex = bookSuggestIndex;
+        this.catalogStats = catalogStats;
+        this.catalogVersion = catalogVersion;
+        this.bookBatchLoader = bookBatchLoader;
+        this.catalogListeners = catalogListeners;
+        this.findByIdFlights = new SingleFlight<>("findById", meterRegistry);
+        this.listPageFlights = new SingleFlight<>("listBooksPage", meterRegistry);
     }
 
     @Override
     public Book save(final Book book) {
+        // Upserted rather than merged, so the write takes a change version and can replace a tombstone
+        final BookEntity bookEntity = bookToBookEntity(book);
+        final ReplacedBook replaced = bookRepository.upsert(bookEntity);
+        final Book savedBook = bookEntityToBook(bookEntity);
+        bookWritten(savedBook, replaced);
+        return savedBook;
+    }
+
+    @Override
+    public boolean upsert(final Book book) {
         final BookEntity bookEntity = bookToBookEntity(book);
-        final BookEntity savedBookEntity = bookRepository.save(bookEntity);
-        return bookEntityToBook(savedBookEntity);
+        final ReplacedBook replaced = bookRepository.upsert(bookEntity);
+        bookWritten(bookEntityToBook(bookEntity), replaced);
+        return replaced == null;
+    }
+
+    @Override
+    public BulkIngestResult ingest(final BookFeed feed) throws IOException {
+        final IngestProgress progress = new IngestProgress();
+        // Keyed by ISBN-13 so a feed repeating a book within one batch, however it writes the ISBN,
+        // doesn't hit the same row twice in a statement
+        final Map<Long, BookFeedRecord> batch = new LinkedHashMap<>();
+
+        BookFeedRecord record;
+        while ((record = feed.next()) != null) {
+            progress.received++;
+            if (record.error() != null) {
+                progress.fail(record.line(), null, record.error());
+            } else if (record.book().getIsbn() == null || record.book().getIsbn().isBlank()) {
+                progress.fail(record.line(), null, "ISBN is required");
+            } else if (!Isbn.isValid(record.book().getIsbn())) {
+                progress.fail(record.line(), record.book().getIsbn(), "Invalid ISBN");
+            } else {
+                if (batch.put(Isbn.parse(record.book().getIsbn()), record) != null) {
+                    progress.written++;
+                }
+                if (batch.size() == INGEST_BATCH_SIZE) {
+                    writeBatch(batch.values(), progress);
+                    batch.clear();
+                }
+            }
+        }
+        writeBatch(batch.values(), progress);
+
+        return BulkIngestResult.builder()
+                .received(progress.received)
+                .written(progress.written)
+                .failed(progress.failed)
+                .errors(progress.errors)
+                .errorsTruncated(progress.failed > progress.errors.size())
+                .build();
+    }
+
+    private void writeBatch(final Collection<BookFeedRecord> records, final IngestProgress progress) {
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            final List<BookEntity> bookEntities = records.stream().map(record -> bookToBookEntity(record.book())).toList();
+            final Map<Long, ReplacedBook> replaced = bookRepository.upsertAll(bookEntities);
+            bookEntities.forEach(bookEntity -> bookIngested(bookEntityToBook(bookEntity), replaced.get(bookEntity.getIsbn13())));
+            progress.written += records.size();
+        } catch (DataAccessException e) {
+            // Replay the batch row by row so only the offending rows are reported
+            log.debug("Bulk batch failed, retrying its {} rows one at a time", records.size(), e);
+            for (BookFeedRecord record : records) {
+                try {
+                    final BookEntity bookEntity = bookToBookEntity(record.book());
+                    final ReplacedBook replaced = bookRepository.upsert(bookEntity);
+                    bookIngested(bookEntityToBook(bookEntity), replaced);
+                    progress.written++;
+                } catch (DataAccessException rowFailure) {
+                    progress.fail(record.line(), record.book().getIsbn(), rowFailure.getMostSpecificCause().getMessage());
+                }
+            }
+        }
     }
 
     @Override
     public Optional<Book> findById(String isbn) {
-        final Optional<BookEntity> foundBook = bookRepository.findById(isbn);
-        return foundBook.map(this::bookEntityToBook);
+        final long isbn13 = Isbn.parse(isbn);
+        final Book cachedBook = cachedBook(isbn13);
+        if (cachedBook != null) {
+            return Optional.of(cachedBook);
+        }
+        if (!isbnFilter.mightContain(isbn13)) {
+            return Optional.empty();
+        }
+
+        final long generation = bookCache.generation(isbn13);
+        return findByIdFlights.execute(new BookKey(isbn13, generation), () -> {
+            final Optional<Book> foundBook = bookBatchLoader.findById(isbn13).map(this::interned);
+            foundBook.ifPresent(book -> bookCache.putIfAbsent(book, generation));
+            return foundBook;
+        });
+    }
+
+    /**
+     * Looks the book up in the heap cache, then in the off-heap store and the mapped
+     * snapshot, promoting what they hold so the hot set is served without decoding.
+     */
+    private Book cachedBook(final long isbn13) {
+        final Book cachedBook = bookCache.get(isbn13);
+        if (cachedBook != null) {
+            return cachedBook;
+        }
+        final long generation = bookCache.generation(isbn13);
+        Book storedBook = offHeapBookStore.get(isbn13);
+        if (storedBook == null) {
+            storedBook = catalogSnapshots.find(isbn13);
+        }
+        if (storedBook != null) {
+            storedBook = interned(storedBook);
+            bookCache.putIfAbsent(storedBook, generation);
+        }
+        return storedBook;
+    }
+
+    @Override
+    public BookLookupResult findAllById(final Collection<String> isbns) {
+        final Set<String> requestedIsbns = new LinkedHashSet<>(isbns);
+        final Set<Long> isbn13s = new LinkedHashSet<>();
+        for (String isbn : requestedIsbns) {
+            final long isbn13 = Isbn.parseOrZero(isbn);
+            if (isbn13 != 0) {
+                isbn13s.add(isbn13);
+            }
+        }
+        final Map<Long, Book> foundBooks = findBooks(isbn13s);
+
+        // Invalid ISBNs are reported missing; two ways of writing one ISBN find the book once
+        final List<Book> found = new ArrayList<>(foundBooks.size());
+        final List<String> missing = new ArrayList<>();
+        final Set<Long> returned = new HashSet<>();
+        for (String isbn : requestedIsbns) {
+            final long isbn13 = Isbn.parseOrZero(isbn);
+            final Book book = foundBooks.get(isbn13);
+            if (book == null) {
+                missing.add(isbn);
+            } else if (returned.add(isbn13)) {
+                found.add(book);
+            }
+        }
+        return BookLookupResult.builder()
+                .found(found)
+                .missing(missing)
+                .build();
+    }
+
+    /**
+     * Finds the books in the caches, then the rest in the database in chunks, skipping
+     * those the ISBN filter rules out.
+     */
+    private Map<Long, Book> findBooks(final Collection<Long> isbn13s) {
+        final Map<Long, Book> foundBooks = new HashMap<>();
+        final List<Long> uncachedIsbn13s = new ArrayList<>();
+        final Map<Long, Long> generations = new HashMap<>();
+        for (long isbn13 : isbn13s) {
+            final long generation = bookCache.generation(isbn13);
+            final Book cachedBook = cachedBook(isbn13);
+            if (cachedBook != null) {
+                foundBooks.put(isbn13, cachedBook);
+            } else if (isbnFilter.mightContain(isbn13)) {
+                uncachedIsbn13s.add(isbn13);
+                generations.put(isbn13, generation);
+            }
+        }
+
+        for (int from = 0; from < uncachedIsbn13s.size(); from += LOOKUP_CHUNK_SIZE) {
+            final List<Long> chunk = uncachedIsbn13s.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, uncachedIsbn13s.size()));
+            for (Book book : bookRepository.findBooksByIsbnIn(chunk)) {
+                final long isbn13 = Isbn.parse(book.getIsbn());
+                final Book interned = interned(book);
+                bookCache.putIfAbsent(interned, generations.get(isbn13));
+                foundBooks.put(isbn13, interned);
+            }
+        }
+        return foundBooks;
     }
 
     @Override
     public List<Book> listBooks() {
-        final List<BookEntity> foundBooks = bookRepository.findAll();
-        return foundBooks.stream().map(this::bookEntityToBook).collect(Collectors.toList());
+        return bookRepository.findAllBooks();
+    }
+
+    @Override
+    public BookPage listBooks(final String after, final int limit) {
+        return listBooks(after == null ? null : Isbn.parse(after), limit);
+    }
+
+    private BookPage listBooks(final Long after, final int limit) {
+        return listPageFlights.execute(new PageKey(after, limit, catalogVersion.version()), () -> loadPage(after, limit));
+    }
+
+    @Override
+    public BookPage listBooks(final BookQuery query) {
+        if (query.isUnfiltered()) {
+            return listBooks(query.getAfter() == null ? null : query.getAfter().isbn13(), query.getLimit());
+        }
+        final BookQuery.BookQueryBuilder window = query.toBuilder();
+        if (query.getAuthor() != null) {
+            final AuthorEntity author = authorDictionary.find(query.getAuthor());
+            if (author == null) {
+                return BookPage.builder().books(List.of()).build();
+            }
+            window.authorId(author.getId());
+        }
+        final List<Book> foundBooks = bookRepository.findBooks(window.limit(lookahead(query.getLimit())).build());
+        return toPage(foundBooks, query.getLimit(), query.getSort());
+    }
+
+    private BookPage loadPage(final Long after, final int limit) {
+        final Limit window = Limit.of(lookahead(limit));
+        final List<Book> foundBooks = after == null
+                ? bookRepository.findBooksOrderByIsbn(window)
+                : bookRepository.findBooksAfterIsbn(after, window);
+        return toPage(foundBooks, limit, BookSort.ISBN);
+    }
+
+    private static BookPage toPage(final List<Book> foundBooks, final int limit, final BookSort sort) {
+        final List<Book> books = trim(foundBooks, limit);
+        final boolean hasMore = books.size() < foundBooks.size();
+        final String nextCursor = hasMore ? BookCursor.after(sort, books.get(books.size() - 1)).encode(sort) : null;
+
+        return BookPage.builder()
+                .books(books)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    /**
+     * Pages are read one row past their limit, so whether another page follows is known
+     * without a COUNT query: fetch {@code lookahead(limit)} rows, then {@link #trim} them.
+     */
+    private static int lookahead(final int limit) {
+        return limit + 1;
+    }
+
+    /**
+     * The page within rows read with {@link #lookahead}; shorter than them when another page follows.
+     */
+    private static <T> List<T> trim(final List<T> rows, final int limit) {
+        return rows.size() > limit ? rows.subList(0, limit) : rows;
+    }
+
+    @Override
+    public BookPage searchBooks(final String query, final int offset, final int limit) {
+        final BookSearchIndex.Hits hits = bookSearchIndex.search(query, offset, limit);
+        final Map<Long, Book> foundBooks = findBooks(Arrays.stream(hits.isbn13s()).boxed().toList());
+        // In rank order; a hit deleted since the search is just left out
+        final List<Book> books = new ArrayList<>(foundBooks.size());
+        for (long isbn13 : hits.isbn13s()) {
+            final Book book = foundBooks.get(isbn13);
+            if (book != null) {
+                books.add(book);
+            }
+        }
+        final int nextOffset = offset + limit;
+
+        return BookPage.builder()
+                .books(books)
+                .nextCursor(nextOffset < hits.total() ? String.valueOf(nextOffset) : null)
+                .truncated(hits.truncated())
+                .build();
+    }
+
+    @Override
+    public List<BookSuggestion> suggestBooks(final String prefix, final int limit) {
+        return bookSuggestIndex.suggest(prefix, limit);
+    }
+
+    @Override
+    public BookChangePage listChanges(final long since, final int limit) {
+        final List<BookChange> foundChanges = bookRepository.findChanges(since, lookahead(limit));
+        final List<BookChange> changes = trim(foundChanges, limit);
+        final boolean hasMore = changes.size() < foundChanges.size();
+        final long newest = changes.isEmpty() ? since : changes.get(changes.size() - 1).getVersion();
+
+        return BookChangePage.builder()
+                .changes(changes)
+                .nextSince(hasMore ? newest : null)
+                .pollSince(hasMore ? null : Math.max(0, newest - BookChange.COMMIT_OVERLAP))
+                .build();
+    }
+
+    @Override
+    public BookStats getStats(final int top) {
+        return catalogStats.getStats(top);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void exportBooks(final Consumer<Book> consumer) {
+        // Rows arrive as DTOs, which the persistence context never holds on to
+        try (Stream<Book> foundBooks = bookRepository.streamBooks()) {
+            foundBooks.forEach(consumer);
+        }
     }
 
     @Override
     public boolean isBookExist(Book book) {
-        return bookRepository.existsById(book.getIsbn());
+        return existsById(book.getIsbn());
+    }
+
+    @Override
+    public boolean existsById(String isbn) {
+        final long isbn13 = Isbn.parse(isbn);
+        return isbnFilter.mightContain(isbn13) && bookRepository.existsById(isbn13);
     }
 
     @Override
     public void deleteBookById(String isbn) {
+        final long isbn13 = Isbn.parse(isbn);
         try {
-            bookRepository.deleteById(isbn);
-        } catch (EmptyResultDataAccessException e) {
-            log.debug("Attempted to delete non-existing book", e);
+            // A delete that failed or found nothing changed no state the listeners keep
+            final ReplacedBook deleted = bookRepository.markDeleted(isbn13);
+            if (deleted != null) {
+                catalogListeners.forEach(listener -> listener.bookDeleted(isbn13, deleted));
+            } else {
+                log.debug("Attempted to delete non-existing book {}", isbn);
+            }
+        } finally {
+            // After the listeners, so a copy promoted from the off-heap store before it dropped the book goes too
+            bookCache.invalidate(isbn13);
         }
     }
 
+    private void bookWritten(final Book book, final ReplacedBook replaced) {
+        bookCache.put(book);
+        catalogListeners.forEach(listener -> listener.bookSaved(book, replaced));
+    }
 
+    private void bookIngested(final Book book, final ReplacedBook replaced) {
+        // Evict rather than refresh: a bulk load shouldn't flush the hot set out of the cache.
+        // After the listeners, so a copy promoted from the off-heap store before it dropped the book goes too
+        catalogListeners.forEach(listener -> listener.bookSaved(book, replaced));
+        bookCache.invalidate(Isbn.parse(book.getIsbn()));
+    }
+
+    /**
+     * Creates the author if the book is the first to carry the name.
+     */
     private BookEntity bookToBookEntity(Book book) {
         return BookEntity.builder()
                 .isbn(book.getIsbn())
                 .title(book.getTitle())
-                .author(book.getAuthor())
+                .author(book.getAuthor() == null ? null : authorDictionary.resolve(book.getAuthor()))
                 .build();
     }
 
@@ -70,8 +466,35 @@ public class BookServiceImpl implements BookService {
         return Book.builder()
                 .isbn(bookEntity.getIsbn())
                 .title(bookEntity.getTitle())
-                .author(bookEntity.getAuthor())
+                .author(bookEntity.getAuthorName())
                 .build();
     }
 
+    /**
+     * The book with its author name swapped for the instance every other book of the
+     * author in memory shares.
+     */
+    private Book interned(final Book book) {
+        return book.withAuthor(authorDictionary.intern(book.getAuthor()));
+    }
+
+    private record BookKey(long isbn13, long generation) {
+    }
+
+    private record PageKey(Long after, int limit, long version) {
+    }
+
+    private static final class IngestProgress {
+        private long received;
+        private long written;
+        private long failed;
+        private final List<BulkIngestError> errors = new ArrayList<>();
+
+        void fail(final long line, final String isbn, final String message) {
+            failed++;
+            if (errors.size() < MAX_REPORTED_INGEST_ERRORS) {
+                errors.add(BulkIngestError.builder().line(line).isbn(isbn).message(message).build());
+            }
+        }
+    }
 }
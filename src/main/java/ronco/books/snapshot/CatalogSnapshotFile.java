@@ -0,0 +1,339 @@
+package ronco.books.snapshot;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Immutable file holding the whole catalog, memory-mapped for reading. Books are
+ * stored in ISBN-13 order in two sections:
+ * <ul>
+ *   <li>lines: each book as one line of JSON, so a run of books is already a valid
+ *       {@code /books/export} body and can be sent with {@link FileChannel#transferTo};</li>
+ *   <li>index: for each book, its ISBN-13 and the offset of its line, which a binary
+ *       search walks to find a book.</li>
+ * </ul>
+ * The file is written to a temporary sibling and moved into place once complete, so a
+ * reader never sees a partial file.
+ */
+public final class CatalogSnapshotFile implements Closeable {
+
+    // "BOOKSNAP"
+    static final long MAGIC = 0x424F4F4B534E4150L;
+    static final int FORMAT = 2;
+    static final int HEADER_BYTES = 64;
+    // Mappings are limited to 2 GB; a multiple of 8 keeps index entries within one chunk
+    static final int CHUNK_BYTES = 1 << 30;
+
+    private static final int INDEX_ENTRY_BYTES = 2 * Long.BYTES;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final ObjectReader bookReader;
+    private final long changeVersion;
+    private final long count;
+    private final long linesOffset;
+    private final long linesLength;
+    private final long indexOffset;
+    // Held by the owner and by each export in flight; the channel closes with the last one
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private CatalogSnapshotFile(final Path path, final FileChannel channel, final ObjectReader bookReader) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.bookReader = bookReader;
+        final long size = channel.size();
+        if (size < HEADER_BYTES) {
+            throw new IOException("Truncated catalog snapshot " + path);
+        }
+        this.chunks = new MappedByteBuffer[(int) ((size + CHUNK_BYTES - 1) / CHUNK_BYTES)];
+        for (int i = 0; i < chunks.length; i++) {
+            final long start = (long) i * CHUNK_BYTES;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_BYTES, size - start));
+        }
+        if (getLong(0) != MAGIC || chunks[0].getInt(8) != FORMAT) {
+            throw new IOException("Not a catalog snapshot in format " + FORMAT + ": " + path);
+        }
+        this.changeVersion = getLong(16);
+        this.count = getLong(24);
+        this.linesOffset = getLong(32);
+        this.linesLength = getLong(40);
+        this.indexOffset = getLong(48);
+        if (indexOffset + count * INDEX_ENTRY_BYTES != size) {
+            throw new IOException("Truncated catalog snapshot " + path);
+        }
+    }
+
+    /**
+     * Maps an existing snapshot.
+     *
+     * @throws IOException if the file can't be read or isn't a complete snapshot
+     */
+    public static CatalogSnapshotFile open(final Path path, final ObjectReader bookReader) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new CatalogSnapshotFile(path, channel, bookReader);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a new snapshot that will replace the file at {@code path} once finished.
+     */
+    public static Writer writer(final Path path, final ObjectWriter bookWriter) throws IOException {
+        return new Writer(path, bookWriter);
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * The highest change version the snapshot includes.
+     */
+    public long changeVersion() {
+        return changeVersion;
+    }
+
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Returns the book with the given ISBN-13, or {@code null} if the snapshot doesn't hold it.
+     */
+    public Book find(final long isbn13) {
+        final long position = lowerBound(isbn13);
+        return position < count && key(position) == isbn13 ? book(position) : null;
+    }
+
+    /**
+     * Returns the position of the first book whose ISBN-13 isn't below the given one, or
+     * {@link #size()} if there is none.
+     */
+    public long lowerBound(final long isbn13) {
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            final long middle = (low + high) >>> 1;
+            if (key(middle) < isbn13) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the ISBN-13 of the book at the given position.
+     */
+    public long key(final long position) {
+        return getLong(indexOffset + position * INDEX_ENTRY_BYTES);
+    }
+
+    public Book book(final long position) {
+        final long start = lineOffset(position);
+        try {
+            // The length excludes the line's newline
+            return bookReader.readValue(read(linesOffset + start, (int) (lineOffset(position + 1) - start - 1)));
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt line at position " + position + " of " + path, e);
+        }
+    }
+
+    /**
+     * Replays every book of the snapshot, in ISBN-13 order.
+     */
+    public void forEach(final Consumer<Book> consumer) {
+        for (long position = 0; position < count; position++) {
+            consumer.accept(book(position));
+        }
+    }
+
+    /**
+     * Writes the JSON lines of the books from position {@code from} up to {@code to}
+     * (exclusive) to the target, letting the kernel copy straight from the page cache
+     * where the target allows it.
+     */
+    public void transferLines(final long from, final long to, final WritableByteChannel target) throws IOException {
+        long position = linesOffset + lineOffset(from);
+        final long end = linesOffset + lineOffset(to);
+        while (position < end) {
+            position += channel.transferTo(position, end - position, target);
+        }
+    }
+
+    /**
+     * Takes a reference that keeps the file open until {@link #close()} is called for
+     * it, or returns {@code false} if the file has already been closed by its last holder.
+     */
+    public boolean retain() {
+        int current;
+        do {
+            current = references.get();
+            if (current == 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Drops one reference; the last one closes the file. Mapped pages stay readable
+     * until the mapping is garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        if (references.decrementAndGet() == 0) {
+            channel.close();
+        }
+    }
+
+    private long lineOffset(final long position) {
+        return position == count ? linesLength : getLong(indexOffset + position * INDEX_ENTRY_BYTES + Long.BYTES);
+    }
+
+    private long getLong(final long offset) {
+        return chunks[(int) (offset / CHUNK_BYTES)].getLong((int) (offset % CHUNK_BYTES));
+    }
+
+    private byte[] read(final long offset, final int length) {
+        final byte[] bytes = new byte[length];
+        int done = 0;
+        while (done < length) {
+            final long at = offset + done;
+            final MappedByteBuffer chunk = chunks[(int) (at / CHUNK_BYTES)];
+            final int within = (int) (at % CHUNK_BYTES);
+            final int part = Math.min(length - done, chunk.limit() - within);
+            chunk.get(within, bytes, done, part);
+            done += part;
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes a snapshot from books added in strictly increasing ISBN-13 order. Lines go
+     * straight into the target's temporary file; index entries are spooled to their own
+     * temporary file and appended by {@link #finish(long)}.
+     */
+    public static final class Writer implements Closeable {
+
+        private final Path path;
+        private final Path linesPath;
+        private final Path indexPath;
+        private final ObjectWriter bookWriter;
+        private final OutputStream lines;
+        private final DataOutputStream index;
+        private long linesLength;
+        private long count;
+        private long previousKey;
+        private boolean finished;
+
+        private Writer(final Path path, final ObjectWriter bookWriter) throws IOException {
+            this.path = path;
+            this.linesPath = path.resolveSibling(path.getFileName() + ".tmp");
+            this.indexPath = path.resolveSibling(path.getFileName() + ".index.tmp");
+            this.bookWriter = bookWriter;
+            final FileChannel linesChannel = FileChannel.open(linesPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            linesChannel.position(HEADER_BYTES);
+            this.lines = new BufferedOutputStream(Channels.newOutputStream(linesChannel), 1 << 16);
+            this.index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath), 1 << 16));
+        }
+
+        /**
+         * @throws IllegalArgumentException if the ISBN isn't valid or its ISBN-13 isn't above the previous book's
+         */
+        public void add(final Book book) throws IOException {
+            final long key = Isbn.parse(book.getIsbn());
+            if (key <= previousKey) {
+                throw new IllegalArgumentException("Books must be added in increasing ISBN-13 order, got " + book.getIsbn());
+            }
+            previousKey = key;
+
+            index.writeLong(key);
+            index.writeLong(linesLength);
+            final byte[] line = bookWriter.writeValueAsBytes(book);
+            lines.write(line);
+            lines.write('\n');
+            linesLength += line.length + 1;
+            count++;
+        }
+
+        /**
+         * Completes the file and moves it over any previous snapshot.
+         *
+         * @param changeVersion the highest change version the added books include
+         */
+        public void finish(final long changeVersion) throws IOException {
+            lines.close();
+            index.close();
+            final long indexOffset = (HEADER_BYTES + linesLength + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+            try (FileChannel file = FileChannel.open(linesPath, StandardOpenOption.WRITE)) {
+                append(file, indexPath, indexOffset);
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                        .putLong(MAGIC)
+                        .putInt(FORMAT)
+                        .putInt(0)
+                        .putLong(changeVersion)
+                        .putLong(count)
+                        .putLong(HEADER_BYTES)
+                        .putLong(linesLength)
+                        .putLong(indexOffset)
+                        .flip();
+                while (header.hasRemaining()) {
+                    file.write(header, header.position());
+                }
+                file.force(true);
+            }
+            Files.move(linesPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        /**
+         * Removes the temporary files, and the unfinished snapshot if {@link #finish} wasn't reached.
+         */
+        @Override
+        public void close() throws IOException {
+            lines.close();
+            index.close();
+            if (!finished) {
+                Files.deleteIfExists(linesPath);
+            }
+            Files.deleteIfExists(indexPath);
+        }
+
+        private static void append(final FileChannel file, final Path part, final long offset) throws IOException {
+            try (FileChannel source = FileChannel.open(part, StandardOpenOption.READ)) {
+                final long size = source.size();
+                long done = 0;
+                while (done < size) {
+                    done += source.transferTo(done, size - done, file.position(offset + done));
+                }
+            }
+            // Padding up to an aligned index is left as the zeros of the file's hole
+        }
+    }
+}
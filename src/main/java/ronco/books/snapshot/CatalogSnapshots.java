@@ -0,0 +1,290 @@
+package ronco.books.snapshot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ronco.books.model.Book;
+import ronco.books.model.BookChange;
+import ronco.books.model.Isbn;
+import ronco.books.repository.BookRepository;
+import ronco.books.service.CatalogListener;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Serves reads from a memory-mapped {@link CatalogSnapshotFile}, so a restarted node
+ * answers lookups and exports from its first request and loads the catalog into memory
+ * without reading the whole books table.
+ * <p>
+ * A snapshot is written every {@code books.snapshot.interval} to {@code books.snapshot.path}
+ * and mapped at startup if present. Writes made since the snapshot are layered on top:
+ * their ISBN-13s are kept in an overlay, and for those the snapshot is never trusted.
+ * At load time the changes feed is read from the snapshot's change version on, so
+ * writes made while the node was down land in the overlay too. A snapshot mapped at
+ * startup serves nothing until that catch-up is done, as until then it may hold books
+ * written or deleted since.
+ * <p>
+ * Opt-in by setting {@code books.snapshot.path}.
+ */
+@Slf4j
+@Component
+public class CatalogSnapshots implements CatalogListener, DisposableBean {
+
+    // Beyond this many changes since the snapshot, reading the table is as cheap as catching up
+    static final int MAX_CATCH_UP = 100_000;
+
+    private static final int CHANGES_PAGE_SIZE = 1000;
+    private static final int LOOKUP_CHUNK_SIZE = 500;
+
+    private final Path path;
+    private final BookRepository bookRepository;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter bookWriter;
+
+    private volatile State state;
+    // Mapped at startup, until replay() catches it up and makes it the state
+    private volatile State pending;
+    // Collects writes while a new snapshot is read, to become its overlay
+    private volatile Set<Long> nextOverlay;
+
+    @Autowired
+    public CatalogSnapshots(@Value("${books.snapshot.path:}") final String path,
+                            final BookRepository bookRepository,
+                            final ObjectMapper objectMapper) {
+        this.path = path.isBlank() ? null : Path.of(path);
+        this.bookRepository = bookRepository;
+        this.objectMapper = objectMapper;
+        this.bookWriter = objectMapper.writerFor(Book.class);
+        if (this.path != null && Files.exists(this.path)) {
+            try {
+                final CatalogSnapshotFile snapshot = CatalogSnapshotFile.open(this.path, objectMapper.readerFor(Book.class));
+                pending = new State(snapshot, ConcurrentHashMap.newKeySet());
+                log.info("Mapped the catalog snapshot {} of {} books at change version {}",
+                        this.path, snapshot.size(), snapshot.changeVersion());
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable catalog snapshot {}", this.path, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the book as of the snapshot, or {@code null} if there is no snapshot, the
+     * book has been written since, or the snapshot doesn't hold it.
+     */
+    public Book find(final long isbn13) {
+        final State current = state;
+        if (current == null || current.overlay.contains(isbn13)) {
+            return null;
+        }
+        return current.snapshot.find(isbn13);
+    }
+
+    /**
+     * Replays the catalog from the snapshot mapped at startup and the changes made
+     * since, each book once, and from then on serves reads from it.
+     *
+     * @return {@code false}, having replayed nothing, if there is no snapshot or it is
+     *         too far behind to be worth catching up; it is then dropped
+     */
+    public synchronized boolean replay(final Consumer<Book> consumer) {
+        final State current = pending;
+        if (current == null) {
+            return false;
+        }
+        final Map<Long, BookChange> changes = new HashMap<>();
+        long since = Math.max(0, current.snapshot.changeVersion() - BookChange.COMMIT_OVERLAP);
+        List<BookChange> page;
+        do {
+            page = bookRepository.findChanges(since, CHANGES_PAGE_SIZE);
+            for (BookChange change : page) {
+                changes.put(Isbn.parse(change.getIsbn()), change);
+                since = change.getVersion();
+            }
+            if (changes.size() > MAX_CATCH_UP) {
+                log.info("The catalog snapshot is over {} changes behind; loading from the database", MAX_CATCH_UP);
+                pending = null;
+                closeQuietly(current.snapshot);
+                return false;
+            }
+        } while (page.size() == CHANGES_PAGE_SIZE);
+
+        current.overlay.addAll(changes.keySet());
+        pending = null;
+        state = current;
+        current.snapshot.forEach(book -> {
+            if (!changes.containsKey(Isbn.parse(book.getIsbn()))) {
+                consumer.accept(book);
+            }
+        });
+        for (BookChange change : changes.values()) {
+            if (!change.isDeleted()) {
+                consumer.accept(new Book(change.getIsbn(), change.getTitle(), change.getAuthor()));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the whole catalog as newline-delimited JSON: runs of unchanged books are
+     * copied from the snapshot file by the kernel, and books written since are read
+     * from the database and spliced in at their place.
+     *
+     * @return {@code false}, having written nothing, if there is no snapshot
+     */
+    public boolean export(final OutputStream outputStream) throws IOException {
+        CatalogSnapshotFile snapshot;
+        State current;
+        do {
+            current = state;
+            if (current == null) {
+                return false;
+            }
+            snapshot = current.snapshot;
+            // Fails only if a newer snapshot replaced this one in between
+        } while (!snapshot.retain());
+
+        try {
+            final WritableByteChannel channel = Channels.newChannel(outputStream);
+            final long[] overlaid = current.overlay.stream().mapToLong(Long::longValue).sorted().toArray();
+
+            long from = 0;
+            for (int chunkStart = 0; chunkStart < overlaid.length; chunkStart += LOOKUP_CHUNK_SIZE) {
+                final long[] chunk = Arrays.copyOfRange(overlaid, chunkStart, Math.min(chunkStart + LOOKUP_CHUNK_SIZE, overlaid.length));
+                final Map<Long, Book> written = new HashMap<>();
+                for (Book book : bookRepository.findBooksByIsbnIn(Arrays.stream(chunk).boxed().toList())) {
+                    written.put(Isbn.parse(book.getIsbn()), book);
+                }
+                for (long key : chunk) {
+                    final long at = snapshot.lowerBound(key);
+                    snapshot.transferLines(from, at, channel);
+                    from = at < snapshot.size() && snapshot.key(at) == key ? at + 1 : at;
+                    final Book book = written.get(key);
+                    if (book != null) {
+                        outputStream.write(bookWriter.writeValueAsBytes(book));
+                        outputStream.write('\n');
+                    }
+                }
+            }
+            snapshot.transferLines(from, snapshot.size(), channel);
+            return true;
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * Reads the catalog into a new snapshot file and switches reads over to it.
+     */
+    @Scheduled(initialDelayString = "${books.snapshot.interval:1h}", fixedDelayString = "${books.snapshot.interval:1h}")
+    public synchronized void writeSnapshot() {
+        if (path == null) {
+            return;
+        }
+        final long started = System.nanoTime();
+        final Set<Long> overlay = ConcurrentHashMap.newKeySet();
+        // Set before the read starts, so every write the snapshot might miss is in its overlay
+        nextOverlay = overlay;
+        final CatalogSnapshotFile snapshot;
+        try {
+            try (CatalogSnapshotFile.Writer writer = CatalogSnapshotFile.writer(path, bookWriter)) {
+                final long changeVersion = bookRepository.exportSnapshot(book -> {
+                    try {
+                        writer.add(book);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                writer.finish(changeVersion);
+            }
+            snapshot = CatalogSnapshotFile.open(path, objectMapper.readerFor(Book.class));
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to write the catalog snapshot {}", path, e);
+            nextOverlay = null;
+            return;
+        }
+
+        final State previous = state;
+        state = new State(snapshot, overlay);
+        // Only once the new state is visible, see written()
+        nextOverlay = null;
+        if (previous != null) {
+            closeQuietly(previous.snapshot);
+        }
+        if (pending != null) {
+            closeQuietly(pending.snapshot);
+            pending = null;
+        }
+        log.info("Wrote the catalog snapshot {} of {} books at change version {} in {} ms",
+                path, snapshot.size(), snapshot.changeVersion(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @Override
+    public void bookSaved(final Book book) {
+        written(Isbn.parse(book.getIsbn()));
+    }
+
+    @Override
+    public void bookDeleted(final long isbn13) {
+        written(isbn13);
+    }
+
+    @Override
+    public synchronized void destroy() {
+        final State current = state;
+        if (current != null) {
+            closeQuietly(current.snapshot);
+        }
+        if (pending != null) {
+            closeQuietly(pending.snapshot);
+        }
+    }
+
+    private void written(final long isbn13) {
+        // Read in the reverse order writeSnapshot() publishes them, so a write racing the switch lands in both
+        final Set<Long> next = nextOverlay;
+        if (next != null) {
+            next.add(isbn13);
+        }
+        final State current = state;
+        if (current != null) {
+            current.overlay.add(isbn13);
+        }
+        // Writes made before the catch-up reads the changes feed are in it; later ones must land here
+        final State mapped = pending;
+        if (mapped != null) {
+            mapped.overlay.add(isbn13);
+        }
+    }
+
+    private static void closeQuietly(final CatalogSnapshotFile snapshot) {
+        try {
+            snapshot.close();
+        } catch (IOException e) {
+            log.warn("Failed to close the catalog snapshot {}", snapshot.path(), e);
+        }
+    }
+
+    /**
+     * A snapshot and the ISBN-13s written since it was read, swapped together.
+     */
+    private record State(CatalogSnapshotFile snapshot, Set<Long> overlay) {
+    }
+}
@@ -0,0 +1,345 @@
+package ronco.books.stats;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ronco.books.model.AuthorEntity;
+import ronco.books.model.AuthorStats;
+import ronco.books.model.Book;
+import ronco.books.model.BookStats;
+import ronco.books.model.ReplacedBook;
+import ronco.books.repository.BookRepository;
+import ronco.books.service.AuthorDictionary;
+import ronco.books.service.CatalogListener;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Catalog statistics held in memory, so dashboards don't cost a {@code COUNT(*)} or
+ * {@code GROUP BY} scan. They are seeded from the catalog load, updated on every write
+ * and periodically reconciled against the database, which also picks up writes made
+ * through other instances.
+ * <p>
+ * Books per author are tracked with the Space-Saving algorithm, keyed by author ID: at most
+ * {@code trackedAuthors} counters, where an author without a counter takes over the
+ * smallest one and its count. Any author with more books than the smallest counter is
+ * tracked, and a count overestimates by at most the count it took over. Deletes only
+ * decrement authors that are tracked, so the summary drifts until the next
+ * reconciliation replaces it with exact counts.
+ * <p>
+ * Nothing is kept per book: a write made through this instance says which live book it
+ * replaced, which tells a created book from an updated one and which author to
+ * decrement. Writes made through other instances only count towards the write rate.
+ * Without a record of the loaded books there is no telling whether the load read a row
+ * before or after a write racing it, so a load that raced writes is reconciled as soon
+ * as it completes.
+ */
+@Slf4j
+@Component
+public class CatalogStats implements CatalogListener {
+
+    static final int WINDOW_SECONDS = 300;
+
+    // Author IDs start at one, so zero stands for a book without an author
+    private static final int NO_AUTHOR = 0;
+    private static final Comparator<AuthorCounter> COUNTER_ORDER = Comparator
+            .comparingLong((AuthorCounter counter) -> counter.books)
+            .thenComparing(counter -> counter.author, Comparator.reverseOrder());
+
+    private final BookRepository bookRepository;
+    private final AuthorDictionary authorDictionary;
+    private final int trackedAuthors;
+    private final Clock clock;
+
+    private final Map<Integer, AuthorCounter> counters = new HashMap<>();
+    // Ascending, so the first counter is the one to evict and the last the top author
+    private final TreeSet<AuthorCounter> countersByBooks = new TreeSet<>(COUNTER_ORDER);
+    private final long[] writeSeconds = new long[WINDOW_SECONDS];
+    private final long[] writeCounts = new long[WINDOW_SECONDS];
+    private long totalBooks;
+    private boolean loading;
+    private boolean writtenDuringLoad;
+    // The figures in use before a reload, restored if it fails; null during the first load
+    private List<AuthorCounter> countersBeforeLoad;
+    private long totalBooksBeforeLoad;
+    private boolean loaded;
+    private Instant reconciledAt;
+
+    @Autowired
+    public CatalogStats(final BookRepository bookRepository,
+                        final AuthorDictionary authorDictionary,
+                        @Value("${books.stats.tracked-authors:1000}") final int trackedAuthors) {
+        this(bookRepository, authorDictionary, trackedAuthors, Clock.systemUTC());
+    }
+
+    CatalogStats(final BookRepository bookRepository, final AuthorDictionary authorDictionary,
+                 final int trackedAuthors, final Clock clock) {
+        this.bookRepository = bookRepository;
+        this.authorDictionary = authorDictionary;
+        this.trackedAuthors = trackedAuthors;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the current statistics with up to {@code top} authors, most books first.
+     *
+     * @throws IllegalStateException if the catalog hasn't been loaded yet
+     */
+    public synchronized BookStats getStats(final int top) {
+        if (!loaded) {
+            throw new IllegalStateException("The catalog statistics are still being seeded");
+        }
+        final List<AuthorStats> topAuthors = new ArrayList<>(Math.min(top, countersByBooks.size()));
+        final Iterator<AuthorCounter> counters = countersByBooks.descendingIterator();
+        while (topAuthors.size() < top && counters.hasNext()) {
+            final AuthorCounter counter = counters.next();
+            topAuthors.add(AuthorStats.builder().author(counter.author).books(counter.books).build());
+        }
+        return BookStats.builder()
+                .totalBooks(totalBooks)
+                .topAuthors(topAuthors)
+                .writesPerSecond1m(writesPerSecond(60))
+                .writesPerSecond5m(writesPerSecond(WINDOW_SECONDS))
+                .reconciledAt(reconciledAt)
+                .build();
+    }
+
+    /**
+     * Replaces the total and the author summary with exact figures from the database.
+     * Writes landing while the queries run may be counted twice or not at all until
+     * the next reconciliation.
+     */
+    @Scheduled(initialDelayString = "${books.stats.reconcile-interval:10m}",
+            fixedDelayString = "${books.stats.reconcile-interval:10m}")
+    public void reconcile() {
+        synchronized (this) {
+            if (!loaded) {
+                return;
+            }
+        }
+        final long total = bookRepository.count();
+        final List<AuthorCounter> topAuthors = new ArrayList<>();
+        for (AuthorStats author : bookRepository.findTopAuthors(Limit.of(trackedAuthors))) {
+            topAuthors.add(new AuthorCounter(authorId(author.getAuthor()), author.getAuthor(), author.getBooks()));
+        }
+        synchronized (this) {
+            // A reload started meanwhile will seed everything again
+            if (!loaded) {
+                return;
+            }
+            if (total != totalBooks) {
+                log.info("Catalog statistics counted {} books, the database holds {}", totalBooks, total);
+            }
+            totalBooks = total;
+            counters.clear();
+            countersByBooks.clear();
+            topAuthors.forEach(this::track);
+            reconciledAt = clock.instant();
+        }
+    }
+
+    @Override
+    public synchronized void loadStarted() {
+        countersBeforeLoad = null;
+        if (loaded) {
+            countersBeforeLoad = new ArrayList<>(countersByBooks.size());
+            countersByBooks.forEach(counter -> countersBeforeLoad.add(counter.copy()));
+            totalBooksBeforeLoad = totalBooks;
+        }
+        writtenDuringLoad = false;
+        counters.clear();
+        countersByBooks.clear();
+        totalBooks = 0;
+        loading = true;
+        loaded = false;
+    }
+
+    @Override
+    public void bookLoaded(final Book book) {
+        final int authorId = authorId(book.getAuthor());
+        synchronized (this) {
+            added(authorId, book.getAuthor());
+        }
+    }
+
+    @Override
+    public void loadCompleted() {
+        final boolean raced;
+        synchronized (this) {
+            raced = writtenDuringLoad;
+            writtenDuringLoad = false;
+            countersBeforeLoad = null;
+            loading = false;
+            loaded = true;
+        }
+        if (raced) {
+            reconcile();
+        }
+    }
+
+    /**
+     * Goes back to the figures from before the reload. They miss the writes made during
+     * it until the next reconciliation; after a failed first load there are none to serve.
+     */
+    @Override
+    public synchronized void loadFailed() {
+        counters.clear();
+        countersByBooks.clear();
+        totalBooks = 0;
+        if (countersBeforeLoad != null) {
+            countersBeforeLoad.forEach(this::track);
+            totalBooks = totalBooksBeforeLoad;
+            loaded = true;
+        }
+        countersBeforeLoad = null;
+        writtenDuringLoad = false;
+        loading = false;
+    }
+
+    /**
+     * A write made through another instance, which only counts towards the write rate.
+     */
+    @Override
+    public synchronized void bookSaved(final Book book) {
+        recordWrite();
+    }
+
+    @Override
+    public void bookSaved(final Book book, final ReplacedBook replaced) {
+        final int authorId = authorId(book.getAuthor());
+        final int replacedAuthorId = replaced == null ? NO_AUTHOR : authorId(replaced.author());
+        synchronized (this) {
+            writtenDuringLoad |= loading;
+            if (replaced == null) {
+                added(authorId, book.getAuthor());
+            } else if (replacedAuthorId != authorId) {
+                decrement(replacedAuthorId);
+                increment(authorId, book.getAuthor());
+            }
+            recordWrite();
+        }
+    }
+
+    /**
+     * A delete made through another instance, which only counts towards the write rate.
+     */
+    @Override
+    public synchronized void bookDeleted(final long isbn13) {
+        recordWrite();
+    }
+
+    @Override
+    public void bookDeleted(final long isbn13, final ReplacedBook deleted) {
+        final int authorId = authorId(deleted.author());
+        synchronized (this) {
+            writtenDuringLoad |= loading;
+            totalBooks--;
+            decrement(authorId);
+            recordWrite();
+        }
+    }
+
+    private void added(final int authorId, final String author) {
+        totalBooks++;
+        increment(authorId, author);
+    }
+
+    /**
+     * The ID of the stored author of that name. Outside the lock, since an author created
+     * through another instance takes a query; the write path has already cached the others.
+     */
+    private int authorId(final String author) {
+        if (author == null) {
+            return NO_AUTHOR;
+        }
+        final AuthorEntity entity = authorDictionary.find(author);
+        return entity == null ? NO_AUTHOR : entity.getId();
+    }
+
+    private void increment(final int authorId, final String author) {
+        if (authorId == NO_AUTHOR) {
+            return;
+        }
+        final AuthorCounter counter = counters.get(authorId);
+        if (counter != null) {
+            countersByBooks.remove(counter);
+            counter.books++;
+            countersByBooks.add(counter);
+        } else if (counters.size() < trackedAuthors) {
+            track(new AuthorCounter(authorId, author, 1));
+        } else {
+            final AuthorCounter evicted = countersByBooks.pollFirst();
+            counters.remove(evicted.authorId);
+            track(new AuthorCounter(authorId, author, evicted.books + 1));
+        }
+    }
+
+    private void decrement(final int authorId) {
+        if (authorId == NO_AUTHOR) {
+            return;
+        }
+        final AuthorCounter counter = counters.get(authorId);
+        if (counter == null) {
+            return;
+        }
+        countersByBooks.remove(counter);
+        if (--counter.books > 0) {
+            countersByBooks.add(counter);
+        } else {
+            counters.remove(authorId);
+        }
+    }
+
+    private void track(final AuthorCounter counter) {
+        counters.put(counter.authorId, counter);
+        countersByBooks.add(counter);
+    }
+
+    private void recordWrite() {
+        final long second = clock.millis() / 1000;
+        final int slot = (int) (second % WINDOW_SECONDS);
+        if (writeSeconds[slot] != second) {
+            writeSeconds[slot] = second;
+            writeCounts[slot] = 0;
+        }
+        writeCounts[slot]++;
+    }
+
+    private double writesPerSecond(final int seconds) {
+        final long now = clock.millis() / 1000;
+        long writes = 0;
+        for (int slot = 0; slot < WINDOW_SECONDS; slot++) {
+            if (now - writeSeconds[slot] < seconds) {
+                writes += writeCounts[slot];
+            }
+        }
+        return (double) writes / seconds;
+    }
+
+    private static final class AuthorCounter {
+        private final int authorId;
+        private final String author;
+        private long books;
+
+        AuthorCounter(final int authorId, final String author, final long books) {
+            this.authorId = authorId;
+            this.author = author;
+            this.books = books;
+        }
+
+        AuthorCounter copy() {
+            return new AuthorCounter(authorId, author, books);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+-- Runs before Hibernate's schema update. The first block moves a books table keyed by
+-- the ISBN string over to the numeric ISBN-13 key: rows whose ISBN isn't valid, and all
+-- but the latest row of each ISBN-13, are moved to books_rejected. Does nothing once
+-- isbn13 exists. The second moves author names out of books into the authors table and
+-- does nothing once author_id exists.
+-- The whole file is sent as one statement (see spring.sql.init.separator), so each
+-- block must end with a semicolon for Postgres to run them one after the other.
+DO $migration$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM information_schema.columns
+                   WHERE table_schema = current_schema() AND table_name = 'books' AND column_name = 'isbn')
+       OR EXISTS (SELECT 1 FROM information_schema.columns
+                  WHERE table_schema = current_schema() AND table_name = 'books' AND column_name = 'isbn13') THEN
+        RETURN;
+    END IF;
+
+    -- Same rules as ronco.books.model.Isbn
+    CREATE FUNCTION pg_temp.books_isbn13(isbn text) RETURNS bigint LANGUAGE plpgsql IMMUTABLE AS $isbn13$
+    DECLARE
+        digits text := upper(translate(isbn, '- ', ''));
+        total int := 0;
+        check_digit int;
+    BEGIN
+        IF digits ~ '^[0-9]{9}[0-9X]$' THEN
+            FOR i IN 1..9 LOOP
+                total := total + (11 - i) * substr(digits, i, 1)::int;
+            END LOOP;
+            -- Not inline in the IF, whose condition would end at the CASE's THEN
+            check_digit := CASE WHEN right(digits, 1) = 'X' THEN 10 ELSE right(digits, 1)::int END;
+            IF (11 - total % 11) % 11 <> check_digit THEN
+                RETURN NULL;
+            END IF;
+            -- The first 12 digits of the ISBN-13; its check digit is computed below
+            digits := '978' || left(digits, 9);
+        ELSIF digits !~ '^97[89][0-9]{10}$' THEN
+            RETURN NULL;
+        END IF;
+        total := 0;
+        FOR i IN 1..12 LOOP
+            total := total + CASE WHEN i % 2 = 0 THEN 3 ELSE 1 END * substr(digits, i, 1)::int;
+        END LOOP;
+        IF length(digits) = 12 THEN
+            RETURN (digits || (10 - total % 10) % 10)::bigint;
+        END IF;
+        IF (10 - total % 10) % 10 <> right(digits, 1)::int THEN
+            RETURN NULL;
+        END IF;
+        RETURN digits::bigint;
+    END
+    $isbn13$;
+
+    -- Ranked on below; a table from before the changes feed doesn't have them yet, as
+    -- Hibernate adds them only after this script
+    ALTER TABLE books ADD COLUMN IF NOT EXISTS change_version bigint;
+    ALTER TABLE books ADD COLUMN IF NOT EXISTS deleted boolean NOT NULL DEFAULT false;
+    ALTER TABLE books ADD COLUMN isbn13 bigint;
+    UPDATE books SET isbn13 = pg_temp.books_isbn13(isbn);
+    CREATE TABLE IF NOT EXISTS books_rejected (LIKE books);
+
+    WITH rejected AS (
+        DELETE FROM books WHERE ctid IN (
+            SELECT ctid FROM (
+                SELECT ctid, isbn13, row_number() OVER (
+                    PARTITION BY isbn13 ORDER BY deleted, change_version DESC NULLS LAST) AS rank
+                FROM books) ranked
+            WHERE isbn13 IS NULL OR rank > 1)
+        RETURNING *)
+    INSERT INTO books_rejected SELECT * FROM rejected;
+
+    ALTER TABLE books DROP CONSTRAINT IF EXISTS books_pkey;
+    ALTER TABLE books ALTER COLUMN isbn13 SET NOT NULL;
+    ALTER TABLE books ADD PRIMARY KEY (isbn13);
+    -- Replaced by the indexes ending with isbn13, which Hibernate creates
+    DROP INDEX IF EXISTS books_author_isbn_idx;
+    DROP INDEX IF EXISTS books_title_key_isbn_idx;
+    RAISE NOTICE 'Moved the books table to ISBN-13 keys';
+END
+$migration$;
+
+DO $authors$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM information_schema.columns
+                   WHERE table_schema = current_schema() AND table_name = 'books' AND column_name = 'author')
+       OR EXISTS (SELECT 1 FROM information_schema.columns
+                  WHERE table_schema = current_schema() AND table_name = 'books' AND column_name = 'author_id') THEN
+        RETURN;
+    END IF;
+
+    CREATE TABLE IF NOT EXISTS authors (
+        id integer GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+        name varchar(255) NOT NULL,
+        CONSTRAINT authors_name_key UNIQUE (name));
+    INSERT INTO authors (name)
+        SELECT DISTINCT author FROM books WHERE author IS NOT NULL
+        ON CONFLICT DO NOTHING;
+
+    ALTER TABLE books ADD COLUMN author_id integer CONSTRAINT books_author_id_fkey REFERENCES authors (id);
+    UPDATE books SET author_id = authors.id FROM authors WHERE authors.name = books.author;
+    -- Replaced by books_author_id_isbn13_idx, which Hibernate creates
+    DROP INDEX IF EXISTS books_author_isbn13_idx;
+    ALTER TABLE books DROP COLUMN author;
+    RAISE NOTICE 'Moved book authors to the authors table';
+END
+$authors$;
@@ -0,0 +1,4 @@
+-- Tables are managed by Hibernate; this only adds what it can't derive from the entities.
+
+-- Change versions of book writes, read by GET /books/changes
+CREATE SEQUENCE IF NOT EXISTS books_change_seq;
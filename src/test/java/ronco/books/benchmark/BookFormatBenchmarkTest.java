@@ -0,0 +1,101 @@
+package ronco.books.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import ronco.books.codec.BookProtobuf;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Payload size and encode/decode time of a 10k-book list in each format served by
+ * the book endpoints. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class BookFormatBenchmarkTest {
+
+    private static final int BOOKS = 10_000;
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int MEASURED_ROUNDS = 100;
+    private static final TypeReference<List<Book>> BOOK_LIST = new TypeReference<>() {
+    };
+
+    private final List<Book> books = IntStream.range(0, BOOKS)
+            .mapToObj(i -> Book.builder()
+                    .isbn(Isbn.format(Isbn.withCheckDigit(978_000_000_000L + i)))
+                    .title("The Collected Works, Volume " + i)
+                    .author("Author " + (i % 500))
+                    .build())
+            .toList();
+
+    @Test
+    @DisplayName("Compare JSON, CBOR, Smile and Protobuf for a 10k-book list")
+    void compareFormats() throws IOException {
+        System.out.printf("%-9s %10s %12s %12s%n", "format", "bytes", "encode us", "decode us");
+        report("json", jackson(new ObjectMapper()));
+        report("cbor", jackson(new ObjectMapper(new CBORFactory())));
+        report("smile", jackson(new ObjectMapper(new SmileFactory())));
+        report("protobuf", new Codec() {
+            @Override
+            public byte[] encode(List<Book> books) {
+                return BookProtobuf.encodeBooks(books);
+            }
+
+            @Override
+            public List<Book> decode(byte[] bytes) {
+                return BookProtobuf.decodeBooks(bytes);
+            }
+        });
+    }
+
+    private void report(final String format, final Codec codec) throws IOException {
+        final byte[] encoded = codec.encode(books);
+        assertThat(codec.decode(encoded)).isEqualTo(books);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            codec.decode(codec.encode(books));
+        }
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            final long started = System.nanoTime();
+            final byte[] bytes = codec.encode(books);
+            final long finishedEncoding = System.nanoTime();
+            codec.decode(bytes);
+            decodeNanos += System.nanoTime() - finishedEncoding;
+            encodeNanos += finishedEncoding - started;
+        }
+        System.out.printf("%-9s %10d %12d %12d%n", format, encoded.length,
+                encodeNanos / MEASURED_ROUNDS / 1000, decodeNanos / MEASURED_ROUNDS / 1000);
+    }
+
+    private static Codec jackson(final ObjectMapper mapper) {
+        return new Codec() {
+            @Override
+            public byte[] encode(List<Book> books) throws IOException {
+                return mapper.writerFor(BOOK_LIST).writeValueAsBytes(books);
+            }
+
+            @Override
+            public List<Book> decode(byte[] bytes) throws IOException {
+                return mapper.readValue(bytes, BOOK_LIST);
+            }
+        };
+    }
+
+    private interface Codec {
+        byte[] encode(List<Book> books) throws IOException;
+
+        List<Book> decode(byte[] bytes) throws IOException;
+    }
+}
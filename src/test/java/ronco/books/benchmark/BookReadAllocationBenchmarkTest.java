@@ -0,0 +1,92 @@
+package ronco.books.benchmark;
+
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.context.ActiveProfiles;
+import ronco.books.model.AuthorEntity;
+import ronco.books.model.Book;
+import ronco.books.model.BookEntity;
+import ronco.books.model.Isbn;
+import ronco.books.repository.BookRepository;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the heap allocated by reading the catalog as managed entities against the
+ * {@link Book} projection. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+@DataJpaTest
+@ActiveProfiles("test")
+public class BookReadAllocationBenchmarkTest {
+
+    private static final int BOOKS = 10_000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    @Autowired
+    private BookRepository bookRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @BeforeEach
+    void setUp() {
+        final List<AuthorEntity> authors = IntStream.range(0, 500)
+                .mapToObj(i -> {
+                    final AuthorEntity author = AuthorEntity.builder().name("Author " + i).build();
+                    entityManager.persist(author);
+                    return author;
+                })
+                .toList();
+        bookRepository.upsertAll(IntStream.range(0, BOOKS)
+                .mapToObj(i -> BookEntity.builder()
+                        .isbn(Isbn.format(Isbn.withCheckDigit(978_000_000_000L + i)))
+                        .title("Title " + i)
+                        .author(authors.get(i % 500))
+                        .build())
+                .toList());
+    }
+
+    @Test
+    @DisplayName("Reading through the projection should allocate less than loading managed entities")
+    void projection_shouldAllocateLessThanEntities() {
+        long entityBytes = measure(() -> bookRepository.findAll().stream()
+                .map(entity -> new Book(entity.getIsbn(), entity.getTitle(), entity.getAuthorName()))
+                .toList());
+        long projectionBytes = measure(() -> bookRepository.findBooksOrderByIsbn(Limit.unlimited()));
+
+        System.out.printf("Read %d books: entities %d bytes/round, projection %d bytes/round (%.1f%%)%n",
+                BOOKS, entityBytes, projectionBytes, 100.0 * projectionBytes / entityBytes);
+        assertThat(projectionBytes).isLessThan(entityBytes);
+    }
+
+    private long measure(final Supplier<List<Book>> read) {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            assertThat(read.get()).hasSize(BOOKS);
+            entityManager.clear();
+        }
+        long total = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            final long before = threads.getCurrentThreadAllocatedBytes();
+            assertThat(read.get()).hasSize(BOOKS);
+            total += threads.getCurrentThreadAllocatedBytes() - before;
+            // Managed entities stay in the persistence context; drop them so each round starts equal
+            entityManager.clear();
+        }
+        return total / MEASURED_ROUNDS;
+    }
+}
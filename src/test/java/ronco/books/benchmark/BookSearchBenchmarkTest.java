@@ -0,0 +1,79 @@
+package ronco.books.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+import ronco.books.search.BookSearchIndex;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Build time and query latency percentiles of the search index over a million books
+ * with a skewed vocabulary. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class BookSearchBenchmarkTest {
+
+    private static final int BOOKS = 1_000_000;
+    private static final int VOCABULARY = 50_000;
+    private static final int AUTHORS = 100_000;
+    private static final int WARMUP_QUERIES = 20_000;
+    private static final int MEASURED_QUERIES = 20_000;
+
+    @Test
+    @DisplayName("Search a million-book index and report p50/p99 latency")
+    void searchLatency() {
+        final Random random = new Random(42);
+        final BookSearchIndex index = new BookSearchIndex(new SimpleMeterRegistry());
+
+        final long started = System.nanoTime();
+        index.loadStarted();
+        for (int i = 0; i < BOOKS; i++) {
+            index.bookLoaded(Book.builder()
+                    .isbn(Isbn.format(Isbn.withCheckDigit(978_000_000_000L + i)))
+                    .title(word(random) + " " + word(random) + " " + word(random))
+                    .author("Author" + random.nextInt(AUTHORS) + " Surname" + random.nextInt(AUTHORS))
+                    .build());
+        }
+        index.loadCompleted();
+        System.out.printf("indexed %d books in %d ms%n", BOOKS, (System.nanoTime() - started) / 1_000_000);
+
+        for (int i = 0; i < WARMUP_QUERIES; i++) {
+            index.search(query(random), 0, 20);
+        }
+        final long[] latencies = new long[MEASURED_QUERIES];
+        long hits = 0;
+        for (int i = 0; i < MEASURED_QUERIES; i++) {
+            final String query = query(random);
+            final long queryStarted = System.nanoTime();
+            hits += index.search(query, 0, 20).total();
+            latencies[i] = System.nanoTime() - queryStarted;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("p50 %d us, p99 %d us, max %d us, %d hits%n",
+                latencies[MEASURED_QUERIES / 2] / 1000,
+                latencies[MEASURED_QUERIES * 99 / 100] / 1000,
+                latencies[MEASURED_QUERIES - 1] / 1000,
+                hits);
+        assertThat(hits).isPositive();
+    }
+
+    private static String query(final Random random) {
+        // One or two title words, the last one often cut short as if still being typed
+        final String last = word(random);
+        final String prefix = random.nextBoolean() ? last : last.substring(0, Math.max(3, last.length() - 2));
+        return random.nextBoolean() ? prefix : word(random) + " " + prefix;
+    }
+
+    private static String word(final Random random) {
+        // Squaring the uniform draw skews towards a few frequent words, as in real titles
+        final double uniform = random.nextDouble();
+        return "word" + (int) (uniform * uniform * VOCABULARY);
+    }
+}
@@ -0,0 +1,79 @@
+package ronco.books.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+import ronco.books.search.BookSuggestIndex;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Build time, estimated memory and per-keystroke latency of the type-ahead index
+ * over a million books. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class BookSuggestBenchmarkTest {
+
+    private static final int BOOKS = 1_000_000;
+    private static final int VOCABULARY = 50_000;
+    private static final int AUTHORS = 100_000;
+    private static final int WARMUP_QUERIES = 20_000;
+    private static final int MEASURED_QUERIES = 20_000;
+
+    @Test
+    @DisplayName("Complete prefixes against a million-book index and report memory and p50/p99 latency")
+    void suggestLatency() {
+        final Random random = new Random(42);
+        final BookSuggestIndex index = new BookSuggestIndex(new SimpleMeterRegistry());
+
+        final long started = System.nanoTime();
+        index.loadStarted();
+        for (int i = 0; i < BOOKS; i++) {
+            index.bookLoaded(Book.builder()
+                    .isbn(Isbn.format(Isbn.withCheckDigit(978_000_000_000L + i)))
+                    .title(word(random) + " " + word(random) + " " + word(random))
+                    .author("Author" + random.nextInt(AUTHORS) + " Surname" + random.nextInt(AUTHORS))
+                    .build());
+        }
+        index.loadCompleted();
+        System.out.printf("indexed %d books in %d ms, estimated %d MB%n",
+                BOOKS, (System.nanoTime() - started) / 1_000_000, index.estimatedBytes() >> 20);
+
+        for (int i = 0; i < WARMUP_QUERIES; i++) {
+            index.suggest(keystrokes(random), 10);
+        }
+        final long[] latencies = new long[MEASURED_QUERIES];
+        long suggestions = 0;
+        for (int i = 0; i < MEASURED_QUERIES; i++) {
+            final String prefix = keystrokes(random);
+            final long queryStarted = System.nanoTime();
+            suggestions += index.suggest(prefix, 10).size();
+            latencies[i] = System.nanoTime() - queryStarted;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("p50 %d us, p99 %d us, max %d us, %d suggestions%n",
+                latencies[MEASURED_QUERIES / 2] / 1000,
+                latencies[MEASURED_QUERIES * 99 / 100] / 1000,
+                latencies[MEASURED_QUERIES - 1] / 1000,
+                suggestions);
+        assertThat(suggestions).isPositive();
+    }
+
+    private static String keystrokes(final Random random) {
+        // Any prefix of a title word or author name, from the first keystroke on
+        final String text = random.nextBoolean() ? word(random) : "Surname" + random.nextInt(AUTHORS);
+        return text.substring(0, 1 + random.nextInt(text.length()));
+    }
+
+    private static String word(final Random random) {
+        // Squaring the uniform draw skews towards a few frequent words, as in real titles
+        final double uniform = random.nextDouble();
+        return "word" + (int) (uniform * uniform * VOCABULARY);
+    }
+}
@@ -0,0 +1,69 @@
+package ronco.books.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import ronco.books.cache.OffHeapBookStore;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the heap retained by a catalog held in the off-heap store against the same
+ * books in a heap map, and reports the collector time spent filling each. Run with
+ * {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class OffHeapBookStoreBenchmarkTest {
+
+    private static final int BOOKS = 1_000_000;
+
+    @Test
+    @DisplayName("Holding the catalog off-heap should retain a fraction of the heap a map of books does")
+    void offHeap_shouldRetainLessHeapThanMap() {
+        final OffHeapBookStore store = new OffHeapBookStore(DataSize.ofMegabytes(256), new SimpleMeterRegistry());
+        final Map<Long, Book> map = new HashMap<>();
+
+        final Measurement offHeap = measure(store::put);
+        assertThat(store.size()).isEqualTo(BOOKS);
+        final Measurement heap = measure(book -> map.put(Isbn.parse(book.getIsbn()), book));
+        assertThat(map).hasSize(BOOKS);
+
+        System.out.printf("%d books: off-heap retains %d heap bytes (%d ms GC), map retains %d (%d ms GC)%n",
+                BOOKS, offHeap.retainedBytes, offHeap.gcMillis, heap.retainedBytes, heap.gcMillis);
+        assertThat(offHeap.retainedBytes).isLessThan(heap.retainedBytes / 10);
+    }
+
+    private static Measurement measure(final Consumer<Book> sink) {
+        final long heapBefore = usedHeapAfterGc();
+        final long gcBefore = gcMillis();
+        for (int i = 0; i < BOOKS; i++) {
+            sink.accept(new Book(Isbn.format(Isbn.withCheckDigit(978_000_000_000L + i)), "Title of book " + i, "Author " + (i % 5000)));
+        }
+        final long gcAfter = gcMillis();
+        return new Measurement(usedHeapAfterGc() - heapBefore, gcAfter - gcBefore);
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+                .sum();
+    }
+
+    private record Measurement(long retainedBytes, long gcMillis) {
+    }
+}
@@ -0,0 +1,81 @@
+package ronco.books.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ronco.books.model.Book;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BookCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private BookCache bookCache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        bookCache = new BookCache(100, Duration.ofMinutes(10), meterRegistry);
+    }
+
+    @Test
+    @DisplayName("putIfAbsent should not overwrite a book that was put by a write")
+    void putIfAbsent_shouldNotOverwriteExistingEntry() {
+        bookCache.put(Book.builder().isbn("9780000000101").title("Fresh").build());
+
+        bookCache.putIfAbsent(Book.builder().isbn("9780000000101").title("Stale").build(), bookCache.generation(9780000000101L));
+
+        assertThat(bookCache.get(9780000000101L).getTitle()).isEqualTo("Fresh");
+    }
+
+    @Test
+    @DisplayName("putIfAbsent should not cache a book read before the book was invalidated")
+    void putIfAbsent_whenInvalidatedSinceRead_shouldNotCache() {
+        long generation = bookCache.generation(9780000000101L);
+
+        bookCache.invalidate(9780000000101L);
+        bookCache.putIfAbsent(Book.builder().isbn("9780000000101").title("Deleted").build(), generation);
+
+        assertThat(bookCache.get(9780000000101L)).isNull();
+        bookCache.putIfAbsent(Book.builder().isbn("9780000000101").title("Current").build(), bookCache.generation(9780000000101L));
+        assertThat(bookCache.get(9780000000101L).getTitle()).isEqualTo("Current");
+    }
+
+    @Test
+    @DisplayName("putIfAbsent should not cache a book read before the whole cache was invalidated")
+    void putIfAbsent_whenAllInvalidatedSinceRead_shouldNotCache() {
+        long generation = bookCache.generation(9780000000101L);
+
+        bookCache.invalidateAll();
+        bookCache.putIfAbsent(Book.builder().isbn("9780000000101").title("Stale").build(), generation);
+
+        assertThat(bookCache.get(9780000000101L)).isNull();
+    }
+
+    @Test
+    @DisplayName("Invalidating a book should remove it from the cache")
+    void invalidate_shouldRemoveEntry() {
+        bookCache.put(Book.builder().isbn("9780000000101").title("Title").build());
+
+        bookCache.invalidate(9780000000101L);
+
+        assertThat(bookCache.get(9780000000101L)).isNull();
+    }
+
+    @Test
+    @DisplayName("Hits and misses should be counted and published as metrics")
+    void get_shouldRecordHitsAndMisses() {
+        bookCache.put(Book.builder().isbn("9780000000101").title("Title").build());
+
+        bookCache.get(9780000000101L);
+        bookCache.get(9780000000200L);
+
+        assertThat(bookCache.stats().hitCount()).isEqualTo(1);
+        assertThat(bookCache.stats().missCount()).isEqualTo(1);
+        assertThat(meterRegistry.get("cache.gets").tag("cache", BookCache.CACHE_NAME).tag("result", "hit")
+                .functionCounter().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,82 @@
+package ronco.books.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import ronco.books.model.Book;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BookJsonCacheTest {
+
+    private BookJsonCache bookJsonCache;
+
+    @BeforeEach
+    void setUp() {
+        bookJsonCache = new BookJsonCache(new ObjectMapper(), DataSize.ofMegabytes(1), new SimpleMeterRegistry());
+    }
+
+    @Test
+    @DisplayName("Encoding an unchanged book twice should reuse the cached bytes")
+    void encode_whenBookUnchanged_shouldReuseBytes() {
+        byte[] first = bookJsonCache.encode(Book.builder().isbn("9780000000101").title("Title").author("Author").build()).json();
+
+        byte[] second = bookJsonCache.encode(Book.builder().isbn("9780000000101").title("Title").author("Author").build()).json();
+
+        assertThat(second).isSameAs(first);
+        assertThat(new String(first, StandardCharsets.UTF_8))
+                .isEqualTo("{\"isbn\":\"9780000000101\",\"title\":\"Title\",\"author\":\"Author\"}");
+    }
+
+    @Test
+    @DisplayName("Encoding a different version of a cached book should never return the stale bytes")
+    void encode_whenBookChanged_shouldReencode() {
+        bookJsonCache.encode(Book.builder().isbn("9780000000101").title("Old").build());
+
+        byte[] json = bookJsonCache.encode(Book.builder().isbn("9780000000101").title("New").build()).json();
+
+        assertThat(new String(json, StandardCharsets.UTF_8)).contains("\"New\"");
+    }
+
+    @Test
+    @DisplayName("Looking up a cached encoding should find only the same version of the book, and never encode it")
+    void cached_shouldOnlyReturnEncodingOfSameBook() {
+        Book book = Book.builder().isbn("9780000000101").title("Title").build();
+        assertThat(bookJsonCache.cached(book)).isNull();
+
+        BookJsonCache.EncodedBook encoded = bookJsonCache.encode(book);
+
+        assertThat(bookJsonCache.cached(Book.builder().isbn("9780000000101").title("Title").build())).isSameAs(encoded);
+        assertThat(bookJsonCache.cached(Book.builder().isbn("9780000000101").title("New").build())).isNull();
+        assertThat(encoded.eTag()).isEqualTo(CatalogVersion.bookETag(book));
+    }
+
+    @Test
+    @DisplayName("A saved book should drop its cached encoding")
+    void bookSaved_shouldInvalidateEntry() {
+        Book book = Book.builder().isbn("9780000000101").title("Title").build();
+        byte[] first = bookJsonCache.encode(book).json();
+
+        bookJsonCache.bookSaved(book);
+
+        assertThat(bookJsonCache.encode(book).json()).isNotSameAs(first).isEqualTo(first);
+    }
+
+    @Test
+    @DisplayName("An array should be the cached fragments joined with commas")
+    void encodeArray_shouldJoinFragments() {
+        byte[] array = bookJsonCache.encodeArray(List.of(
+                Book.builder().isbn("9780000000101").build(),
+                Book.builder().isbn("9780000000200").build()));
+
+        assertThat(new String(array, StandardCharsets.UTF_8))
+                .isEqualTo("[{\"isbn\":\"9780000000101\",\"title\":null,\"author\":null},{\"isbn\":\"9780000000200\",\"title\":null,\"author\":null}]");
+        assertThat(bookJsonCache.encodeArray(List.of())).asString(StandardCharsets.UTF_8).isEqualTo("[]");
+    }
+}
@@ -0,0 +1,51 @@
+package ronco.books.cache;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ronco.books.model.Book;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CatalogVersionTest {
+
+    @Test
+    @DisplayName("Every write should change the catalog ETag")
+    void catalogETag_shouldChangeOnWrites() {
+        CatalogVersion catalogVersion = new CatalogVersion();
+        String initial = catalogVersion.catalogETag();
+
+        catalogVersion.bookSaved(Book.builder().isbn("1").build());
+        String afterSave = catalogVersion.catalogETag();
+        catalogVersion.bookDeleted(9780000000101L);
+
+        assertThat(afterSave).isNotEqualTo(initial);
+        assertThat(catalogVersion.catalogETag()).isNotEqualTo(afterSave);
+    }
+
+    @Test
+    @DisplayName("A reload, which picks up writes made elsewhere, should change the catalog ETag when it starts and ends")
+    void catalogETag_shouldChangeOnReload() {
+        CatalogVersion catalogVersion = new CatalogVersion();
+        String initial = catalogVersion.catalogETag();
+
+        catalogVersion.loadStarted();
+        String duringLoad = catalogVersion.catalogETag();
+        catalogVersion.bookLoaded(Book.builder().isbn("1").build());
+        catalogVersion.loadCompleted();
+
+        assertThat(duringLoad).isNotEqualTo(initial);
+        assertThat(catalogVersion.catalogETag()).isNotEqualTo(duringLoad).isNotEqualTo(initial);
+    }
+
+    @Test
+    @DisplayName("Book ETags should be quoted, depend only on content, and tell field boundaries apart")
+    void bookETag_shouldDependOnContent() {
+        Book book = Book.builder().isbn("1").title("ab").author("c").build();
+
+        assertThat(CatalogVersion.bookETag(book)).startsWith("\"").endsWith("\"");
+        assertThat(CatalogVersion.bookETag(book))
+                .isEqualTo(CatalogVersion.bookETag(Book.builder().isbn("1").title("ab").author("c").build()));
+        assertThat(CatalogVersion.bookETag(book))
+                .isNotEqualTo(CatalogVersion.bookETag(Book.builder().isbn("1").title("a").author("bc").build()));
+    }
+}
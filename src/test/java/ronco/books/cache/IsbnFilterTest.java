@@ -0,0 +1,54 @@
+package ronco.books.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IsbnFilterTest {
+
+    private IsbnFilter isbnFilter;
+
+    @BeforeEach
+    void setUp() {
+        isbnFilter = new IsbnFilter(10_000, 0.01);
+    }
+
+    @Test
+    @DisplayName("Before the catalog is loaded, every ISBN should be reported as possibly present")
+    void mightContain_beforeLoad_shouldFailOpen() {
+        assertThat(isbnFilter.mightContain(9780306406157L)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Loaded ISBNs should always be found and the false-positive rate should stay near the target")
+    void mightContain_afterLoad_shouldHaveNoFalseNegatives() {
+        isbnFilter.loadStarted();
+        IntStream.range(0, 10_000).forEach(i -> isbnFilter.bookLoaded(Book.builder().isbn(Isbn.format(isbn13(978, i))).build()));
+        isbnFilter.loadCompleted();
+
+        assertThat(IntStream.range(0, 10_000).allMatch(i -> isbnFilter.mightContain(isbn13(978, i)))).isTrue();
+        long falsePositives = IntStream.range(0, 10_000).filter(i -> isbnFilter.mightContain(isbn13(979, i))).count();
+        assertThat(falsePositives).isLessThan(300);
+    }
+
+    @Test
+    @DisplayName("A book saved while a load is running should still be found after the load completes")
+    void bookSaved_duringLoad_shouldSurviveSwap() {
+        isbnFilter.loadStarted();
+        isbnFilter.bookSaved(Book.builder().isbn("9780306406157").build());
+        isbnFilter.loadCompleted();
+
+        assertThat(isbnFilter.mightContain(9780306406157L)).isTrue();
+        assertThat(isbnFilter.mightContain(9781861972712L)).isFalse();
+    }
+
+    private static long isbn13(final int prefix, final int i) {
+        return Isbn.withCheckDigit(prefix * 1_000_000_000L + i);
+    }
+}
@@ -0,0 +1,181 @@
+package ronco.books.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OffHeapBookStoreTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private OffHeapBookStore store;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        store = new OffHeapBookStore(DataSize.ofKilobytes(64), meterRegistry);
+    }
+
+    private static long isbn13(final int i) {
+        return Isbn.withCheckDigit(978_000_000_000L + i);
+    }
+
+    private static Book book(final int i) {
+        return Book.builder().isbn(Isbn.format(isbn13(i))).title("Title " + i).author("Author").build();
+    }
+
+    private double evictions() {
+        return meterRegistry.get("books.off-heap.evictions").functionCounter().count();
+    }
+
+    @Test
+    @DisplayName("A stored book should read back with all of its fields, missing ones included")
+    void get_shouldDecodeStoredBook() {
+        store.put(Book.builder().isbn("9780000000101").title("Les Misérables — 第一部").author("Victor Hugo").build());
+        store.put(Book.builder().isbn("9780000000200").build());
+
+        assertThat(store.get(9780000000101L)).isEqualTo(Book.builder().isbn("9780000000101").title("Les Misérables — 第一部").author("Victor Hugo").build());
+        assertThat(store.get(9780000000200L)).isEqualTo(Book.builder().isbn("9780000000200").build());
+        assertThat(store.get(9780000000309L)).isNull();
+    }
+
+    @Test
+    @DisplayName("Storing a book again should replace it, and invalidating it should drop it")
+    void put_shouldReplaceAndInvalidateShouldDrop() {
+        store.put(Book.builder().isbn("9780000000101").title("Old").build());
+        store.put(Book.builder().isbn("9780000000101").title("New").build());
+
+        assertThat(store.get(9780000000101L).getTitle()).isEqualTo("New");
+        assertThat(store.size()).isEqualTo(1);
+
+        store.invalidate(9780000000101L);
+
+        assertThat(store.get(9780000000101L)).isNull();
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    @DisplayName("The store should drop its oldest books to stay within its byte budget")
+    void put_whenOverBudget_shouldDropOldestBooks() {
+        for (int i = 0; i < 5000; i++) {
+            store.put(book(i));
+        }
+
+        assertThat(store.capacityBytes()).isLessThanOrEqualTo(DataSize.ofKilobytes(64).toBytes());
+        assertThat(store.usedBytes()).isLessThanOrEqualTo(store.capacityBytes());
+        assertThat(store.get(isbn13(0))).isNull();
+        assertThat(store.get(isbn13(4999))).isEqualTo(book(4999));
+        assertThat(evictions()).isEqualTo(5000 - store.size());
+    }
+
+    @Test
+    @DisplayName("Dropping the superseded record of a replaced book should keep its latest version")
+    void put_whenReplacedRecordDropped_shouldKeepLatestVersion() {
+        store.put(Book.builder().isbn("9780000010001").title("v1").build());
+        store.put(Book.builder().isbn("9780000010001").title("v2").build());
+
+        int written = 0;
+        while (evictions() == 0) {
+            assertThat(store.get(9780000010001L).getTitle()).isEqualTo("v2");
+            store.put(book(written++));
+        }
+
+        // The first counted eviction is v2 itself; v1 left the ring before it without touching the table
+        assertThat(store.get(9780000010001L)).isNull();
+        assertThat(written).isGreaterThan(1);
+    }
+
+    @Test
+    @DisplayName("A write should drop the stored book, so writes applied out of commit order can't leave an old version behind")
+    void bookSaved_shouldDropStoredBook() {
+        store.loadStarted();
+        store.bookLoaded(Book.builder().isbn("9780000000101").title("Loaded").build());
+        store.loadCompleted();
+
+        store.bookSaved(Book.builder().isbn("9780000000101").title("Second").build());
+        store.bookSaved(Book.builder().isbn("9780000000101").title("First").build());
+
+        assertThat(store.get(9780000000101L)).isNull();
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    @DisplayName("Writes made during a load should keep the loaded rows of their books out")
+    void load_whenWrittenDuringLoad_shouldSkipLoadedRows() {
+        store.put(Book.builder().isbn("9780000010018").title("Before reload").build());
+
+        store.loadStarted();
+        store.bookSaved(Book.builder().isbn("9780000000101").title("Saved").build());
+        store.bookDeleted(9780000000200L);
+        store.bookLoaded(Book.builder().isbn("9780000000101").title("Loaded").build());
+        store.bookLoaded(Book.builder().isbn("9780000000200").title("Loaded").build());
+        store.bookLoaded(Book.builder().isbn("9780000000309").title("Loaded").build());
+        store.loadCompleted();
+
+        assertThat(store.get(9780000010018L)).isNull();
+        assertThat(store.get(9780000000101L)).isNull();
+        assertThat(store.get(9780000000200L)).isNull();
+        assertThat(store.get(9780000000309L).getTitle()).isEqualTo("Loaded");
+    }
+
+    @Test
+    @DisplayName("A zero budget should turn the store off")
+    void put_whenBudgetIsZero_shouldStoreNothing() {
+        OffHeapBookStore disabled = new OffHeapBookStore(DataSize.ofBytes(0), new SimpleMeterRegistry());
+
+        disabled.put(book(1));
+
+        assertThat(disabled.get(isbn13(1))).isNull();
+        assertThat(disabled.capacityBytes()).isZero();
+    }
+
+    @Test
+    @DisplayName("Reads racing writes should only ever see a whole version of the requested book")
+    void get_whenRacingWrites_shouldNeverSeeTornRecords() throws Exception {
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 3; r++) {
+                readers.add(executor.submit(() -> {
+                    while (!done.get()) {
+                        for (int i = 0; i < 100; i++) {
+                            Book found = store.get(isbn13(i));
+                            if (found != null) {
+                                assertThat(found.getIsbn()).isEqualTo(book(i).getIsbn());
+                                assertThat(found.getTitle()).startsWith("Title " + i + " v");
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (int round = 0; round < 200; round++) {
+                for (int i = 0; i < 100; i++) {
+                    store.put(Book.builder().isbn(book(i).getIsbn()).title("Title " + i + " v" + round).build());
+                }
+            }
+            done.set(true);
+            for (Future<?> reader : readers) {
+                reader.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            done.set(true);
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package ronco.books.cluster;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import ronco.books.cache.BookCache;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+import ronco.books.repository.BookRepository;
+import ronco.books.service.CatalogListener;
+import ronco.books.service.CatalogReloadRequest;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Two nodes' buses talking over a real Postgres channel. Needs Docker; skipped without it.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+public class CatalogInvalidationBusPostgresTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static final String RECEIVER = "catalog-invalidation-receiver";
+
+    private final BlockingQueue<Long> written = new LinkedBlockingQueue<>();
+    private final BlockingQueue<CatalogReloadRequest> reloads = new LinkedBlockingQueue<>();
+
+    private JdbcTemplate jdbcTemplate;
+    private BookCache receiverCache;
+    private CatalogInvalidationBus sender;
+    private CatalogInvalidationBus receiver;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword()));
+        BookRepository bookRepository = mock(BookRepository.class);
+        when(bookRepository.findBooksByIsbnIn(anyCollection())).thenAnswer(invocation ->
+                invocation.<Collection<Long>>getArgument(0).stream().map(isbn13 -> book(isbn13, "New Title")).toList());
+        receiverCache = new BookCache(100, Duration.ofMinutes(10), new SimpleMeterRegistry());
+
+        sender = bus(POSTGRES.getJdbcUrl(), bookRepository,
+                new BookCache(100, Duration.ofMinutes(10), new SimpleMeterRegistry()), new RecordingListener(new LinkedBlockingQueue<>()),
+                event -> {
+                });
+        // Named, so the test can find its listening connection
+        String url = POSTGRES.getJdbcUrl();
+        receiver = bus(url + (url.contains("?") ? "&" : "?") + "ApplicationName=" + RECEIVER, bookRepository, receiverCache,
+                new RecordingListener(written), event -> reloads.add((CatalogReloadRequest) event));
+        sender.start();
+        receiver.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        sender.destroy();
+        receiver.destroy();
+    }
+
+    private CatalogInvalidationBus bus(String url, BookRepository bookRepository, BookCache bookCache,
+                                       CatalogListener catalogListener, ApplicationEventPublisher eventPublisher) {
+        DataSourceProperties dataSourceProperties = new DataSourceProperties();
+        dataSourceProperties.setUrl(url);
+        dataSourceProperties.setUsername(POSTGRES.getUsername());
+        dataSourceProperties.setPassword(POSTGRES.getPassword());
+        return new CatalogInvalidationBus(true, Duration.ofMillis(200), 1000, dataSourceProperties, jdbcTemplate,
+                bookRepository, bookCache, List.of(catalogListener), eventPublisher);
+    }
+
+    private static long isbn13(int id) {
+        return Isbn.withCheckDigit(978_000_000_000L + id);
+    }
+
+    private static Book book(long isbn13, String title) {
+        return Book.builder().isbn(Isbn.format(isbn13)).title(title).author("Author").build();
+    }
+
+    /**
+     * Writes books on the sending node until the receiver has seen one, as it may not be listening yet.
+     */
+    private void awaitListening() throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            sender.bookSaved(book(isbn13(attempt), "Title"));
+            if (written.poll(200, TimeUnit.MILLISECONDS) != null) {
+                written.clear();
+                return;
+            }
+        }
+        throw new AssertionError("The receiving node never saw a write");
+    }
+
+    @Test
+    @DisplayName("A write on one node should evict the other node's cached copy and reach its listeners")
+    void write_shouldReachOtherNode() throws InterruptedException {
+        awaitListening();
+        receiverCache.put(book(isbn13(500), "Old Title"));
+
+        sender.bookSaved(book(isbn13(500), "New Title"));
+
+        assertThat(written.poll(5, TimeUnit.SECONDS)).isEqualTo(isbn13(500));
+        assertThat(receiverCache.get(isbn13(500))).isNull();
+        assertThat(reloads).isEmpty();
+    }
+
+    @Test
+    @DisplayName("A lost notification should make the other node flush and reload")
+    void gap_shouldMakeOtherNodeReload() throws InterruptedException {
+        awaitListening();
+        receiverCache.put(book(isbn13(600), "Cached"));
+
+        // Uses up a sequence number without sending it
+        sender.encode(List.of(isbn13(601)));
+        sender.bookSaved(book(isbn13(602), "Title"));
+
+        assertThat(reloads.poll(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(receiverCache.get(isbn13(600))).isNull();
+    }
+
+    @Test
+    @DisplayName("A node whose listening connection dropped should reconnect, flush and keep receiving")
+    void reconnect_shouldFlushAndKeepListening() throws InterruptedException {
+        awaitListening();
+        receiverCache.put(book(isbn13(700), "Cached"));
+
+        jdbcTemplate.queryForList("SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE application_name = ?",
+                RECEIVER);
+
+        assertThat(reloads.poll(10, TimeUnit.SECONDS)).isNotNull();
+        assertThat(receiverCache.get(isbn13(700))).isNull();
+        sender.bookSaved(book(isbn13(701), "Title"));
+        assertThat(written.poll(5, TimeUnit.SECONDS)).isEqualTo(isbn13(701));
+    }
+
+    @Test
+    @DisplayName("Writes still queued when a node stops should reach the other node before it leaves")
+    void stop_shouldSendQueuedWrites() throws InterruptedException {
+        awaitListening();
+
+        sender.bookSaved(book(isbn13(800), "Title"));
+        sender.stop();
+
+        assertThat(written.poll(5, TimeUnit.SECONDS)).isEqualTo(isbn13(800));
+        Thread.sleep(1000);
+        assertThat(reloads).isEmpty();
+    }
+
+    private record RecordingListener(BlockingQueue<Long> written) implements CatalogListener {
+
+        @Override
+        public void bookSaved(Book book) {
+            written.add(Isbn.parse(book.getIsbn()));
+        }
+
+        @Override
+        public void bookDeleted(long isbn13) {
+            written.add(isbn13);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package ronco.books.cluster;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import ronco.books.cache.BookCache;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+import ronco.books.repository.BookRepository;
+import ronco.books.service.CatalogListener;
+import ronco.books.service.CatalogReloadRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class CatalogInvalidationBusTest {
+
+    @Mock
+    private BookRepository bookRepository;
+
+    @Mock
+    private CatalogListener catalogListener;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private BookCache bookCache;
+
+    private CatalogInvalidationBus bus;
+
+    // Stands in for another node; only used to encode its notifications
+    private CatalogInvalidationBus otherNode;
+
+    @BeforeEach
+    void setUp() {
+        bookCache = new BookCache(100, Duration.ofMinutes(10), new SimpleMeterRegistry());
+        bus = bus();
+        otherNode = bus();
+    }
+
+    private CatalogInvalidationBus bus() {
+        return bus(Duration.ofSeconds(10));
+    }
+
+    private CatalogInvalidationBus bus(Duration pollInterval) {
+        return new CatalogInvalidationBus(false, pollInterval, 1000, null, null,
+                bookRepository, bookCache, List.of(catalogListener), eventPublisher);
+    }
+
+    private static Book book(String isbn) {
+        return Book.builder().isbn(isbn).title("Title " + isbn).author("Author").build();
+    }
+
+    @Test
+    @DisplayName("Writes from another node should evict the cached books and reach the local listeners")
+    void receive_shouldApplyRemoteWrites() {
+        bookCache.put(book("9780000000101"));
+        bookCache.put(book("9780000000200"));
+        Book saved = Book.builder().isbn("9780000000101").title("New Title").author("Author").build();
+        when(bookRepository.findBooksByIsbnIn(List.of(9780000000101L, 9780000000200L))).thenReturn(List.of(saved));
+
+        bus.receive(otherNode.encode(List.of(9780000000101L, 9780000000200L)).get(0));
+
+        assertThat(bookCache.get(9780000000101L)).isNull();
+        assertThat(bookCache.get(9780000000200L)).isNull();
+        verify(catalogListener).bookSaved(saved);
+        verify(catalogListener).bookDeleted(9780000000200L);
+        verifyNoInteractions(eventPublisher);
+    }
+
+    @Test
+    @DisplayName("A stale copy cached while a remote write is being applied should not outlive it")
+    void receive_whenStaleCopyCachedMeanwhile_shouldEvictIt() {
+        Book stale = book("9780000000101");
+        Book saved = Book.builder().isbn("9780000000101").title("New Title").author("Author").build();
+        long generationBeforeWrite = bookCache.generation(9780000000101L);
+        when(bookRepository.findBooksByIsbnIn(List.of(9780000000101L))).thenAnswer(invocation -> {
+            // A local lookup that read the row before the remote write tries to cache it
+            bookCache.putIfAbsent(stale, generationBeforeWrite);
+            return List.of(saved);
+        });
+        doAnswer(invocation -> {
+            // A local lookup promotes the off-heap copy before the off-heap store takes the write
+            bookCache.putIfAbsent(stale, bookCache.generation(9780000000101L));
+            return null;
+        }).when(catalogListener).bookSaved(saved);
+
+        bus.receive(otherNode.encode(List.of(9780000000101L)).get(0));
+
+        assertThat(bookCache.get(9780000000101L)).isNull();
+    }
+
+    @Test
+    @DisplayName("A node's own notifications should be ignored")
+    void receive_ownNotification_shouldBeIgnored() {
+        bookCache.put(book("9780000000101"));
+
+        bus.receive(bus.encode(List.of(9780000000101L)).get(0));
+
+        assertThat(bookCache.get(9780000000101L)).isNotNull();
+        verifyNoInteractions(bookRepository, catalogListener, eventPublisher);
+    }
+
+    @Test
+    @DisplayName("A gap in a node's sequence should flush the cache and reload the catalog")
+    void receive_afterMissedNotification_shouldFlush() {
+        bookCache.put(book("9780000000903"));
+        when(bookRepository.findBooksByIsbnIn(anyCollection())).thenReturn(List.of());
+        bus.receive(otherNode.encode(List.of(9780000000101L)).get(0));
+        otherNode.encode(List.of(9780000000200L));
+
+        bus.receive(otherNode.encode(List.of(9780000000309L)).get(0));
+
+        assertThat(bookCache.get(9780000000903L)).isNull();
+        verify(eventPublisher, timeout(5000)).publishEvent(any(CatalogReloadRequest.class));
+        verify(bookRepository, times(1)).findBooksByIsbnIn(anyCollection());
+        verify(catalogListener, never()).bookDeleted(9780000000309L);
+    }
+
+    @Test
+    @DisplayName("A flush sent by a node that fell behind should flush the cache and reload the catalog")
+    void receive_flush_shouldFlush() {
+        bookCache.put(book("9780000000101"));
+
+        bus.receive(otherNode.encodeFlush());
+
+        assertThat(bookCache.get(9780000000101L)).isNull();
+        verify(eventPublisher, timeout(5000)).publishEvent(any(CatalogReloadRequest.class));
+        verifyNoInteractions(bookRepository);
+    }
+
+    @Test
+    @DisplayName("The reload a flush asks for should run off the thread that receives notifications")
+    void receive_flush_shouldReloadOnItsOwnThread() throws Exception {
+        CompletableFuture<String> reloadThread = new CompletableFuture<>();
+        doAnswer(invocation -> reloadThread.complete(Thread.currentThread().getName()))
+                .when(eventPublisher).publishEvent(any(CatalogReloadRequest.class));
+
+        bus.receive(otherNode.encodeFlush());
+
+        assertThat(reloadThread.get(5, TimeUnit.SECONDS)).isEqualTo("catalog-invalidation-reload");
+    }
+
+    @Test
+    @DisplayName("An idle node's empty notification should keep its sequence without touching the cache")
+    void receive_idle_shouldOnlyAdvanceSequence() {
+        bookCache.put(book("9780000000101"));
+        when(bookRepository.findBooksByIsbnIn(List.of(9780000000200L))).thenReturn(List.of());
+
+        bus.receive(otherNode.encodeIdle());
+        bus.receive(otherNode.encode(List.of(9780000000200L)).get(0));
+
+        assertThat(bookCache.get(9780000000101L)).isNotNull();
+        verify(catalogListener).bookDeleted(9780000000200L);
+        verifyNoInteractions(eventPublisher);
+    }
+
+    @Test
+    @DisplayName("A node falling silent without leaving should flush the cache and reload the catalog")
+    void checkSilentNodes_whenNodeFellSilent_shouldFlush() throws InterruptedException {
+        CatalogInvalidationBus impatientBus = bus(Duration.ofMillis(10));
+        bookCache.put(book("9780000000101"));
+        impatientBus.receive(otherNode.encodeIdle());
+
+        Thread.sleep(50);
+        impatientBus.checkSilentNodes();
+
+        assertThat(bookCache.get(9780000000101L)).isNull();
+        verify(eventPublisher, timeout(5000)).publishEvent(any(CatalogReloadRequest.class));
+    }
+
+    @Test
+    @DisplayName("A node that said it was leaving should not be taken for one that crashed")
+    void checkSilentNodes_whenNodeLeft_shouldNotFlush() throws InterruptedException {
+        CatalogInvalidationBus impatientBus = bus(Duration.ofMillis(10));
+        bookCache.put(book("9780000000101"));
+        impatientBus.receive(otherNode.encodeIdle());
+        impatientBus.receive(otherNode.encodeLeave());
+
+        Thread.sleep(50);
+        impatientBus.checkSilentNodes();
+
+        assertThat(bookCache.get(9780000000101L)).isNotNull();
+        verifyNoInteractions(eventPublisher);
+    }
+
+    @Test
+    @DisplayName("ISBNs should be packed into payloads under the NOTIFY limit, with consecutive sequence numbers")
+    void encode_shouldSplitPayloads() {
+        List<Long> isbn13s = LongStream.range(0, 2000).map(i -> Isbn.withCheckDigit(978_000_000_000L + i)).boxed().toList();
+
+        List<String> payloads = otherNode.encode(isbn13s);
+
+        assertThat(payloads).hasSizeGreaterThan(1);
+        List<Long> decoded = new ArrayList<>();
+        for (int i = 0; i < payloads.size(); i++) {
+            String[] lines = payloads.get(i).split("\n");
+            assertThat(payloads.get(i).getBytes(StandardCharsets.UTF_8).length)
+                    .isLessThanOrEqualTo(CatalogInvalidationBus.MAX_PAYLOAD_BYTES);
+            assertThat(lines[0]).endsWith(" " + i);
+            Arrays.stream(lines, 1, lines.length).map(Long::valueOf).forEach(decoded::add);
+        }
+        assertThat(decoded).isEqualTo(isbn13s);
+    }
+}
@@ -0,0 +1,50 @@
+package ronco.books.codec;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ronco.books.model.Book;
+
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BookProtobufTest {
+
+    @Test
+    @DisplayName("A book should encode to the standard protobuf wire format, leaving out null fields")
+    void encodeBook_shouldWriteWireFormat() {
+        byte[] encoded = BookProtobuf.encodeBook(Book.builder().isbn("1").author("é").build());
+
+        // field 1 "1", field 3 "é" (two UTF-8 bytes)
+        assertThat(HexFormat.of().formatHex(encoded)).isEqualTo("0a01311a02c3a9");
+    }
+
+    @Test
+    @DisplayName("A book list should survive a round trip, including missing fields")
+    void encodeBooks_shouldRoundTrip() {
+        List<Book> books = List.of(
+                Book.builder().isbn("1").title("Title ".repeat(30)).author("Author").build(),
+                Book.builder().isbn("2").build());
+
+        assertThat(BookProtobuf.decodeBooks(BookProtobuf.encodeBooks(books))).isEqualTo(books);
+    }
+
+    @Test
+    @DisplayName("Fields added by a newer schema should be skipped")
+    void decodeBook_shouldSkipUnknownFields() {
+        // field 4 varint 150, field 1 "1", field 5 fixed32
+        byte[] encoded = HexFormat.of().parseHex("2096010a0131" + "2d01020304");
+
+        assertThat(BookProtobuf.decodeBook(encoded)).isEqualTo(Book.builder().isbn("1").build());
+    }
+
+    @Test
+    @DisplayName("A truncated message should be rejected")
+    void decodeBook_whenTruncated_shouldThrow() {
+        byte[] encoded = HexFormat.of().parseHex("0a0531");
+
+        assertThatThrownBy(() -> BookProtobuf.decodeBook(encoded)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
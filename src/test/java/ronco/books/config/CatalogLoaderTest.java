@@ -0,0 +1,105 @@
+package ronco.books.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import ronco.books.model.Book;
+import ronco.books.service.AuthorDictionary;
+import ronco.books.service.BookService;
+import ronco.books.service.CatalogListener;
+import ronco.books.snapshot.CatalogSnapshots;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class CatalogLoaderTest {
+
+    @Mock
+    private BookService bookService;
+
+    @Mock
+    private AuthorDictionary authorDictionary;
+
+    @Mock
+    private CatalogSnapshots catalogSnapshots;
+
+    @Mock
+    private CatalogListener catalogListener;
+
+    private CatalogLoader catalogLoader;
+
+    @BeforeEach
+    void setUp() {
+        catalogLoader = new CatalogLoader(bookService, authorDictionary, catalogSnapshots, List.of(catalogListener),
+                Duration.ofMillis(10));
+    }
+
+    @AfterEach
+    void tearDown() {
+        catalogLoader.destroy();
+    }
+
+    @Test
+    @DisplayName("A load that fails part way should be reported to the listeners and retried until it completes")
+    @SuppressWarnings("unchecked")
+    void load_whenExportFails_shouldReportFailureAndRetry() {
+        Book book = Book.builder().isbn("9780000000101").title("Emma").build();
+        doAnswer(invocation -> {
+            invocation.getArgument(0, Consumer.class).accept(book);
+            throw new DataAccessResourceFailureException("connection lost");
+        }).doAnswer(invocation -> {
+            invocation.getArgument(0, Consumer.class).accept(book);
+            return null;
+        }).when(bookService).exportBooks(any());
+
+        catalogLoader.load();
+
+        verify(catalogListener, timeout(5000)).loadCompleted();
+        InOrder order = inOrder(catalogListener);
+        order.verify(catalogListener).loadStarted();
+        order.verify(catalogListener).bookLoaded(book);
+        order.verify(catalogListener).loadFailed();
+        order.verify(catalogListener).loadStarted();
+        order.verify(catalogListener).bookLoaded(book);
+        order.verify(catalogListener).loadCompleted();
+    }
+
+    @Test
+    @DisplayName("A load that completes should not be reported as failed")
+    void load_whenExportSucceeds_shouldCompleteOnce() {
+        catalogLoader.load();
+
+        verify(catalogListener).loadStarted();
+        verify(catalogListener).loadCompleted();
+        verify(catalogListener, never()).loadFailed();
+    }
+
+    @Test
+    @DisplayName("A failure before any book is read should still be reported to the listeners")
+    void load_whenAuthorsFailToLoad_shouldReportFailure() {
+        doThrow(new DataAccessResourceFailureException("connection lost"))
+                .doNothing()
+                .when(authorDictionary).load();
+
+        catalogLoader.load();
+
+        verify(catalogListener).loadFailed();
+        verify(catalogListener, timeout(5000)).loadCompleted();
+    }
+}
@@ -0,0 +1,132 @@
+package ronco.books.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * Runs {@code schema-postgresql.sql} the way Spring's SQL initialization does, against the
+ * table shapes earlier versions left behind. Needs Docker; skipped without it.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+public class PostgresMigrationTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword()));
+        jdbcTemplate.execute("DROP TABLE IF EXISTS books, books_rejected, authors CASCADE");
+    }
+
+    private void migrate() {
+        final ResourceDatabasePopulator populator = new ResourceDatabasePopulator(
+                new ClassPathResource("schema-postgresql.sql"));
+        // As spring.sql.init.separator in application.properties
+        populator.setSeparator(ScriptUtils.EOF_STATEMENT_SEPARATOR);
+        populator.execute(jdbcTemplate.getDataSource());
+    }
+
+    private List<String> columns(String table) {
+        return jdbcTemplate.queryForList("""
+                SELECT column_name FROM information_schema.columns
+                WHERE table_schema = current_schema() AND table_name = ?""", String.class, table);
+    }
+
+    @Test
+    @DisplayName("On an empty database, the migration should do nothing")
+    void migrate_withoutBooksTable_shouldDoNothing() {
+        migrate();
+        migrate();
+
+        assertThat(columns("books")).isEmpty();
+        assertThat(columns("authors")).isEmpty();
+    }
+
+    @Test
+    @DisplayName("A books table keyed by the ISBN string should be re-keyed by ISBN-13 with authors moved out")
+    void migrate_fromIsbnKeyedTable_shouldRekeyAndMoveAuthors() {
+        // Arrange: the table as the first version created it, before title keys and the changes feed
+        jdbcTemplate.execute("CREATE TABLE books (isbn varchar(255) PRIMARY KEY, title varchar(255), author varchar(255))");
+        jdbcTemplate.update("INSERT INTO books VALUES (?, ?, ?), (?, ?, ?), (?, ?, ?), (?, ?, ?)",
+                "0-306-40615-2", "Emma", "Austen",
+                "not an isbn", "Bad", "Nobody",
+                "9780000000101", "Dune", "Herbert",
+                "0-8044-2957-X", "Persuasion", "Austen");
+
+        // Act
+        migrate();
+        migrate();
+
+        // Assert
+        assertThat(columns("books")).contains("isbn13", "author_id", "change_version", "deleted").doesNotContain("author");
+        assertThat(jdbcTemplate.queryForList("""
+                SELECT b.isbn13, b.isbn, a.name FROM books b LEFT JOIN authors a ON a.id = b.author_id
+                ORDER BY b.isbn13"""))
+                .extracting(row -> row.get("isbn13"), row -> row.get("isbn"), row -> row.get("name"))
+                .containsExactly(
+                        tuple(9780000000101L, "9780000000101", "Herbert"),
+                        tuple(9780306406157L, "0-306-40615-2", "Austen"),
+                        tuple(9780804429573L, "0-8044-2957-X", "Austen"));
+        assertThat(jdbcTemplate.queryForList("SELECT isbn FROM books_rejected", String.class)).containsExactly("not an isbn");
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM authors", Integer.class)).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Of several spellings of one ISBN-13, the latest write should be kept and the others rejected")
+    void migrate_withDuplicateIsbn13s_shouldKeepLatestWrite() {
+        // Arrange: the table as of the changes feed
+        jdbcTemplate.execute("""
+                CREATE TABLE books (isbn varchar(255) PRIMARY KEY, title varchar(255), author varchar(255),
+                    title_key varchar(255), change_version bigint, deleted boolean NOT NULL DEFAULT false)""");
+        jdbcTemplate.update("INSERT INTO books (isbn, title, author, change_version) VALUES (?, ?, ?, ?), (?, ?, ?, ?)",
+                "0-306-40615-2", "Old", "Austen", 1L,
+                "978-0-306-40615-7", "New", "Austen", 2L);
+
+        // Act
+        migrate();
+
+        // Assert
+        assertThat(jdbcTemplate.queryForList("SELECT title FROM books", String.class)).containsExactly("New");
+        assertThat(jdbcTemplate.queryForList("SELECT title FROM books_rejected", String.class)).containsExactly("Old");
+    }
+
+    @Test
+    @DisplayName("A books table already keyed by ISBN-13 should only have its authors moved out")
+    void migrate_fromIsbn13KeyedTable_shouldOnlyMoveAuthors() {
+        // Arrange: the table as of ISBN-13 keys
+        jdbcTemplate.execute("""
+                CREATE TABLE books (isbn13 bigint PRIMARY KEY, isbn varchar(255), title varchar(255), author varchar(255),
+                    title_key varchar(255), change_version bigint, deleted boolean NOT NULL DEFAULT false)""");
+        jdbcTemplate.update("INSERT INTO books (isbn13, isbn, title, author) VALUES (?, ?, ?, ?), (?, ?, ?, ?)",
+                9780000000101L, "9780000000101", "Dune", "Herbert",
+                9780000000200L, "9780000000200", "Anonymous", null);
+
+        // Act
+        migrate();
+
+        // Assert
+        assertThat(columns("books_rejected")).isEmpty();
+        assertThat(jdbcTemplate.queryForList("""
+                SELECT b.isbn13, a.name FROM books b LEFT JOIN authors a ON a.id = b.author_id ORDER BY b.isbn13"""))
+                .extracting(row -> row.get("isbn13"), row -> row.get("name"))
+                .containsExactly(tuple(9780000000101L, "Herbert"), tuple(9780000000200L, null));
+    }
+}
@@ -1,6 +1,9 @@
 package ronco.books.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -9,17 +12,57 @@ import org.mockito.Captor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.json.JsonCompareMode;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import ronco.books.cache.BookJsonCache;
+import ronco.books.cache.CatalogVersion;
+import ronco.books.codec.BookProtobuf;
+import ronco.books.codec.BookProtobufHttpMessageConverter;
+import ronco.books.config.TestSecurityConfig;
+import ronco.books.events.CatalogEventStream;
+import ronco.books.model.AuthorStats;
 import ronco.books.model.Book;
+import ronco.books.model.BookChange;
+import ronco.books.model.BookChangePage;
+import ronco.books.model.BookCursor;
+import ronco.books.model.BookField;
+import ronco.books.ingest.BookFeed;
+import ronco.books.ingest.CsvBookFeed;
+import ronco.books.ingest.NdjsonBookFeed;
+import ronco.books.model.BookLookupRequest;
+import ronco.books.model.BookLookupResult;
+import ronco.books.model.BookPage;
+import ronco.books.model.BookQuery;
+import ronco.books.model.BookSort;
+import ronco.books.model.BookStats;
+import ronco.books.model.BookSuggestion;
+import ronco.books.model.BulkIngestError;
+import ronco.books.model.BulkIngestResult;
 import ronco.books.service.BookService;
+import ronco.books.snapshot.CatalogSnapshots;
 
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
@@ -30,17 +73,35 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 @ExtendWith(SpringExtension.class)
 @WebMvcTest(BookController.class)
+@Import({TestSecurityConfig.class, CatalogVersion.class, BookJsonCache.class, CatalogEventStream.class,
+        SimpleMeterRegistry.class})
 public class BookControllerUnitTest {
 
+    private static BookQuery page(Long after, int limit) {
+        return BookQuery.builder()
+                .after(after == null ? null : new BookCursor(null, after))
+                .limit(limit)
+                .build();
+    }
+
     @Autowired
     private MockMvc mockMvc;
 
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private CatalogVersion catalogVersion;
+
     @MockBean
     private BookService bookService;
 
+    @MockBean
+    private CatalogSnapshots catalogSnapshots;
+
+    @SpyBean
+    private BookJsonCache bookJsonCache;
+
     @Captor
     private ArgumentCaptor<Book> bookCaptor;
 
@@ -49,71 +110,572 @@ public class BookControllerUnitTest {
     void getBook_whenBookExists_shouldReturnBook() throws Exception {
         // Arrange
         Book book = Book.builder()
-                .isbn("12345")
+                .isbn("9780000123459")
                 .title("Book Title")
                 .author("Author Name")
                 .build();
 
-        when(bookService.findById("12345")).thenReturn(Optional.of(book));
+        when(bookService.findById("9780000123459")).thenReturn(Optional.of(book));
 
         // Act and Assert
-        mockMvc.perform(get("/books/12345"))
+        mockMvc.perform(get("/books/9780000123459"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON))
-                .andExpect(jsonPath("$.isbn", is("12345")))
+                .andExpect(jsonPath("$.isbn", is("9780000123459")))
                 .andExpect(jsonPath("$.title", is("Book Title")))
                 .andExpect(jsonPath("$.author", is("Author Name")));
 
-        verify(bookService, times(1)).findById("12345");
+        verify(bookService, times(1)).findById("9780000123459");
     }
 
     @Test
     @DisplayName("GET /books/{isbn} - When book does not exist, should return 404 Not Found")
     void getBook_whenBookDoesNotExist_shouldReturnNotFound() throws Exception {
-        when(bookService.findById("nonexistent")).thenReturn(Optional.empty());
+        when(bookService.findById("9781861972712")).thenReturn(Optional.empty());
 
-        mockMvc.perform(get("/books/nonexistent"))
+        mockMvc.perform(get("/books/9781861972712"))
                 .andExpect(status().isNotFound());
 
-        verify(bookService, times(1)).findById("nonexistent");
+        verify(bookService, times(1)).findById("9781861972712");
+    }
+
+    @Test
+    @DisplayName("GET/HEAD/PUT/DELETE /books/{isbn} - When the ISBN isn't valid, should return 400 Bad Request")
+    void bookByIsbn_whenIsbnInvalid_shouldReturnBadRequest() throws Exception {
+        mockMvc.perform(get("/books/9780306406158"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(head("/books/12345"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(put("/books/not-an-isbn")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Title\"}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(delete("/books/030640615X"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/books")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"isbn\":\"12345\",\"title\":\"Title\"}"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(bookService);
+    }
+
+    @Test
+    @DisplayName("GET /books/{isbn} - When the client's ETag matches, should return 304 Not Modified without a body")
+    void getBook_whenETagMatches_shouldReturnNotModified() throws Exception {
+        Book book = Book.builder().isbn("9780000123459").title("Book Title").author("Author Name").build();
+        when(bookService.findById("9780000123459")).thenReturn(Optional.of(book));
+
+        String eTag = mockMvc.perform(get("/books/9780000123459"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, CatalogVersion.bookETag(book)))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/books/9780000123459").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    @DisplayName("GET /books/{isbn} - When the client's ETag matches, should answer 304 without encoding the book")
+    void getBook_whenETagMatches_shouldNotEncodeBook() throws Exception {
+        Book book = Book.builder().isbn("9780000123459").title("Book Title ".repeat(20)).author("Author Name").build();
+        when(bookService.findById("9780000123459")).thenReturn(Optional.of(book));
+        String gzipETag = CatalogVersion.bookETag(book).replaceFirst("\"$", "-gzip\"");
+
+        mockMvc.perform(get("/books/9780000123459")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                        .header(HttpHeaders.IF_NONE_MATCH, gzipETag))
+                .andExpect(status().isNotModified());
+
+        verify(bookJsonCache, never()).encode(any(Book.class));
+    }
+
+    @Test
+    @DisplayName("GET /books/{isbn} - When the client accepts gzip, should return the precompressed body")
+    void getBook_whenGzipAccepted_shouldReturnCompressedBody() throws Exception {
+        Book book = Book.builder().isbn("9780000123459").title("Book Title ".repeat(20)).author("Author Name").build();
+        when(bookService.findById("9780000123459")).thenReturn(Optional.of(book));
+
+        byte[] body = mockMvc.perform(get("/books/9780000123459").header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            assertThat(objectMapper.readValue(in, Book.class)).isEqualTo(book);
+        }
+    }
+
+    @Test
+    @DisplayName("GET /books/{isbn} - When gzip would not make the body smaller, should return it uncompressed")
+    void getBook_whenGzipDoesNotHelp_shouldReturnPlainBody() throws Exception {
+        Book book = Book.builder().isbn("9780000000101").title("T").author("A").build();
+        when(bookService.findById("9780000000101")).thenReturn(Optional.of(book));
+
+        mockMvc.perform(get("/books/9780000000101").header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(header().string(HttpHeaders.ETAG, CatalogVersion.bookETag(book).replaceFirst("\"$", "-gzip\"")))
+                .andExpect(jsonPath("$.title", is("T")));
+    }
+
+    @Test
+    @DisplayName("GET /books - When the catalog is unchanged, should return 304 without reading any books")
+    void listBooks_whenCatalogUnchanged_shouldReturnNotModified() throws Exception {
+        mockMvc.perform(get("/books").header(HttpHeaders.IF_NONE_MATCH, catalogVersion.catalogETag()))
+                .andExpect(status().isNotModified());
+
+        verifyNoInteractions(bookService);
+    }
+
+    @Test
+    @DisplayName("GET /books - When the catalog changed since the client's ETag, should return the books")
+    void listBooks_whenCatalogChanged_shouldReturnBooks() throws Exception {
+        String staleETag = catalogVersion.catalogETag();
+        catalogVersion.bookDeleted(9780000123459L);
+        when(bookService.listBooks(page(null, BookController.DEFAULT_PAGE_SIZE))).thenReturn(BookPage.builder()
+                .books(Collections.emptyList())
+                .build());
+
+        mockMvc.perform(get("/books").header(HttpHeaders.IF_NONE_MATCH, staleETag))
+                .andExpect(status().isOk())
+                // Weak, since the container may gzip JSON pages
+                .andExpect(header().string(HttpHeaders.ETAG, "W/" + catalogVersion.catalogETag()))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    @Test
+    @DisplayName("POST /books/_mget - Should return found books and missing ISBNs in one response")
+    void lookupBooks_shouldReturnFoundAndMissing() throws Exception {
+        when(bookService.findAllById(List.of("9780000000101", "9780000000200"))).thenReturn(BookLookupResult.builder()
+                .found(List.of(Book.builder().isbn("9780000000101").title("Book 1").author("Author 1").build()))
+                .missing(List.of("9780000000200"))
+                .build());
+
+        mockMvc.perform(post("/books/_mget")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new BookLookupRequest(List.of("9780000000101", "9780000000200")))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.found", hasSize(1)))
+                .andExpect(jsonPath("$.found[0].isbn", is("9780000000101")))
+                .andExpect(jsonPath("$.missing[0]", is("9780000000200")));
+
+        verify(bookService, never()).findById(anyString());
+    }
+
+    @Test
+    @DisplayName("POST /books/_mget - Too many ISBNs in one request should return 400 Bad Request")
+    void lookupBooks_whenTooManyIsbns_shouldReturnBadRequest() throws Exception {
+        List<String> isbns = IntStream.rangeClosed(0, BookController.MAX_LOOKUP_SIZE)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.toList());
+
+        mockMvc.perform(post("/books/_mget")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new BookLookupRequest(isbns))))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(bookService);
     }
 
     @Test
-    @DisplayName("GET /books - Should return all books and 200 OK")
+    @DisplayName("HEAD /books/{isbn} - When book exists, should return 200 OK without a body")
+    void bookExists_whenBookExists_shouldReturnOk() throws Exception {
+        when(bookService.existsById("9780000123459")).thenReturn(true);
+
+        mockMvc.perform(head("/books/9780000123459"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(""));
+
+        verify(bookService, never()).findById(anyString());
+    }
+
+    @Test
+    @DisplayName("HEAD /books/{isbn} - When book does not exist, should return 404 Not Found")
+    void bookExists_whenBookDoesNotExist_shouldReturnNotFound() throws Exception {
+        when(bookService.existsById("9781861972712")).thenReturn(false);
+
+        mockMvc.perform(head("/books/9781861972712"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("GET /books - Should return the first page of books and 200 OK")
     void listBooks_shouldReturnAllBooks() throws Exception {
-        when(bookService.listBooks()).thenReturn(Arrays.asList(
-                Book.builder().isbn("1").title("Book 1").author("Author 1").build(),
-                Book.builder().isbn("2").title("Book 2").author("Author 2").build()
-        ));
+        when(bookService.listBooks(page(null, BookController.DEFAULT_PAGE_SIZE))).thenReturn(BookPage.builder()
+                .books(Arrays.asList(
+                        Book.builder().isbn("9780000000101").title("Book 1").author("Author 1").build(),
+                        Book.builder().isbn("9780000000200").title("Book 2").author("Author 2").build()))
+                .build());
 
         mockMvc.perform(get("/books"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON))
                 .andExpect(jsonPath("$", hasSize(2)))
-                .andExpect(jsonPath("$[0].isbn", is("1")))
-                .andExpect(jsonPath("$[1].isbn", is("2")));
+                .andExpect(jsonPath("$[0].isbn", is("9780000000101")))
+                .andExpect(jsonPath("$[1].isbn", is("9780000000200")))
+                .andExpect(header().doesNotExist(HttpHeaders.LINK));
+
+        verify(bookService, times(1)).listBooks(page(null, BookController.DEFAULT_PAGE_SIZE));
+    }
+
+    @Test
+    @DisplayName("GET /books/{isbn} - When the client asks for CBOR, should return a CBOR body with its own ETag")
+    void getBook_whenCborAccepted_shouldReturnCbor() throws Exception {
+        Book book = Book.builder().isbn("9780000123459").title("Book Title").author("Author Name").build();
+        when(bookService.findById("9780000123459")).thenReturn(Optional.of(book));
+
+        MvcResult result = mockMvc.perform(get("/books/9780000123459").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn();
+
+        assertThat(new ObjectMapper(new CBORFactory()).readValue(result.getResponse().getContentAsByteArray(), Book.class))
+                .isEqualTo(book);
+        assertThat(result.getResponse().getHeader(HttpHeaders.ETAG)).isNotEqualTo(CatalogVersion.bookETag(book));
+    }
+
+    @Test
+    @DisplayName("GET /books - When the client prefers protobuf, should return a protobuf book list")
+    void listBooks_whenProtobufPreferred_shouldReturnProtobuf() throws Exception {
+        List<Book> books = Arrays.asList(
+                Book.builder().isbn("9780000000101").title("Book 1").author("Author 1").build(),
+                Book.builder().isbn("9780000000200").title("Book 2").build());
+        when(bookService.listBooks(page(null, BookController.DEFAULT_PAGE_SIZE))).thenReturn(BookPage.builder()
+                .books(books)
+                .build());
+
+        byte[] body = mockMvc.perform(get("/books")
+                        .header(HttpHeaders.ACCEPT, "application/json;q=0.5, application/x-protobuf"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(BookProtobufHttpMessageConverter.APPLICATION_PROTOBUF))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT))
+                // Strong: the container doesn't compress protobuf
+                .andExpect(header().string(HttpHeaders.ETAG, catalogVersion.catalogETag().replaceFirst("\"$", "-x-protobuf\"")))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertThat(BookProtobuf.decodeBooks(body)).isEqualTo(books);
+    }
+
+    @Test
+    @DisplayName("GET /books/{isbn} - When the client accepts no supported format, should return 406")
+    void getBook_whenFormatNotSupported_shouldReturnNotAcceptable() throws Exception {
+        mockMvc.perform(get("/books/9780000123459").accept(MediaType.APPLICATION_XML))
+                .andExpect(status().isNotAcceptable());
+
+        verifyNoInteractions(bookService);
+    }
+
+    @Test
+    @DisplayName("PUT /books/{isbn} - A Smile request body should be accepted")
+    void updateBook_withSmileBody_shouldUpsert() throws Exception {
+        Book book = Book.builder().title("Smile Book").author("Author").build();
+        when(bookService.upsert(any(Book.class))).thenReturn(true);
+
+        mockMvc.perform(put("/books/9780000010018")
+                        .contentType(BookController.APPLICATION_SMILE)
+                        .content(new ObjectMapper(new SmileFactory()).writeValueAsBytes(book)))
+                .andExpect(status().isCreated());
+
+        verify(bookService).upsert(bookCaptor.capture());
+        assertThat(bookCaptor.getValue().getTitle()).isEqualTo("Smile Book");
+    }
+
+    @Test
+    @DisplayName("GET /books?fields= - Should ask the service for those fields and write only them")
+    void listBooks_withFields_shouldReturnOnlyRequestedFields() throws Exception {
+        Set<BookField> fields = EnumSet.of(BookField.ISBN, BookField.TITLE);
+        when(bookService.listBooks(page(null, BookController.DEFAULT_PAGE_SIZE).toBuilder().fields(fields).build())).thenReturn(BookPage.builder()
+                .books(List.of(Book.builder().isbn("9780000000101").title("Book 1").build()))
+                .build());
+
+        mockMvc.perform(get("/books").param("fields", "title,isbn"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[{\"isbn\":\"9780000000101\",\"title\":\"Book 1\"}]", JsonCompareMode.STRICT))
+                .andExpect(header().string(HttpHeaders.ETAG, "W/" + catalogVersion.catalogETag()
+                        .replaceFirst("\"$", "-isbn.title\"")));
+    }
+
+    @Test
+    @DisplayName("GET /books/{isbn}?fields= - Should keep requested null fields and leave out the others")
+    void getBook_withFields_shouldReturnOnlyRequestedFields() throws Exception {
+        when(bookService.findById("9780000123459")).thenReturn(Optional.of(
+                Book.builder().isbn("9780000123459").title("Book Title").build()));
+
+        mockMvc.perform(get("/books/9780000123459").param("fields", "author,title"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"title\":\"Book Title\",\"author\":null}", JsonCompareMode.STRICT));
+    }
+
+    @Test
+    @DisplayName("GET /books?author=&sort=title - Should pass the filters on and link to the next page with an opaque cursor")
+    void listBooks_withFilterAndSort_shouldLinkWithCursor() throws Exception {
+        String cursor = new BookCursor("book 1", 9780000000101L).encode(BookSort.TITLE);
+        when(bookService.listBooks(BookQuery.builder()
+                .author("Author")
+                .titlePrefix("Bo")
+                .sort(BookSort.TITLE)
+                .limit(1)
+                .build())).thenReturn(BookPage.builder()
+                .books(List.of(Book.builder().isbn("9780000000101").title("Book 1").author("Author").build()))
+                .nextCursor(cursor)
+                .build());
+
+        mockMvc.perform(get("/books?author=Author&titlePrefix=Bo&sort=title&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].isbn", is("9780000000101")))
+                .andExpect(header().string(HttpHeaders.LINK, containsString("after=" + cursor)))
+                .andExpect(header().string(HttpHeaders.LINK, containsString("sort=title")));
+    }
+
+    @Test
+    @DisplayName("GET /books?sort= - An unknown sort or a malformed cursor should be rejected with 400")
+    void listBooks_withInvalidSortOrCursor_shouldReturnBadRequest() throws Exception {
+        mockMvc.perform(get("/books").param("sort", "price"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/books").param("sort", "author").param("after", "not a cursor"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(bookService);
+    }
+
+    @Test
+    @DisplayName("GET /books?fields= - An unknown field should be rejected with 400")
+    void listBooks_withUnknownField_shouldReturnBadRequest() throws Exception {
+        mockMvc.perform(get("/books").param("fields", "isbn,price"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(bookService);
+    }
+
+    @Test
+    @DisplayName("GET /books/search?q= - Should return the ranked page and link to the next offset")
+    void searchBooks_shouldReturnPageWithNextLink() throws Exception {
+        when(bookService.searchBooks("tolkien ring", 0, 1)).thenReturn(BookPage.builder()
+                .books(List.of(Book.builder().isbn("9780000000101").title("The Lord of the Rings").author("J. R. R. Tolkien").build()))
+                .nextCursor("1")
+                .build());
+
+        mockMvc.perform(get("/books/search?q={q}&limit=1", "tolkien ring"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].isbn", is("9780000000101")))
+                .andExpect(header().string(HttpHeaders.LINK, containsString("offset=1")))
+                .andExpect(header().string(HttpHeaders.LINK, containsString("q=tolkien%20ring")));
+    }
+
+    @Test
+    @DisplayName("GET /books/search?q= - When the last keyword couldn't be expanded in full, should say the hits are truncated")
+    void searchBooks_whenTruncated_shouldSetHeader() throws Exception {
+        when(bookService.searchBooks("sag", 0, BookController.DEFAULT_SEARCH_PAGE_SIZE)).thenReturn(BookPage.builder()
+                .books(List.of())
+                .truncated(true)
+                .build());
+        when(bookService.searchBooks("saga", 0, BookController.DEFAULT_SEARCH_PAGE_SIZE)).thenReturn(BookPage.builder()
+                .books(List.of())
+                .build());
+
+        mockMvc.perform(get("/books/search").param("q", "sag"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(BookController.SEARCH_TRUNCATED, "true"));
+        mockMvc.perform(get("/books/search").param("q", "saga"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(BookController.SEARCH_TRUNCATED));
+    }
+
+    @Test
+    @DisplayName("GET /books/search?q= - Pages beyond the search window should be rejected with 400")
+    void searchBooks_beyondWindow_shouldReturnBadRequest() throws Exception {
+        mockMvc.perform(get("/books/search").param("q", "tolkien")
+                        .param("offset", String.valueOf(BookController.MAX_SEARCH_WINDOW)))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/books/search").param("q", "tolkien").param("offset", "-1"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(bookService);
+    }
+
+    @Test
+    @DisplayName("GET /books/search?q= - While the index is being built, should return 503")
+    void searchBooks_whenIndexNotBuilt_shouldReturnServiceUnavailable() throws Exception {
+        when(bookService.searchBooks("tolkien", 0, BookController.DEFAULT_SEARCH_PAGE_SIZE))
+                .thenThrow(new IllegalStateException("The search index is still being built"));
+
+        mockMvc.perform(get("/books/search").param("q", "tolkien"))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    @DisplayName("GET /books/suggest?prefix= - Should return the completions, capping the limit")
+    void suggestBooks_shouldReturnCompletions() throws Exception {
+        when(bookService.suggestBooks("tol", BookController.MAX_SUGGESTIONS)).thenReturn(List.of(
+                BookSuggestion.builder().text("J. R. R. Tolkien").field("author").books(2).build()));
+
+        mockMvc.perform(get("/books/suggest").param("prefix", "tol").param("limit", "1000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].text", is("J. R. R. Tolkien")))
+                .andExpect(jsonPath("$[0].field", is("author")))
+                .andExpect(jsonPath("$[0].books", is(2)));
+    }
+
+    @Test
+    @DisplayName("GET /books/changes?since= - Should return the changes and link to the next page by version")
+    void listChanges_whenMoreChangesExist_shouldReturnNextLink() throws Exception {
+        when(bookService.listChanges(40, 2)).thenReturn(BookChangePage.builder()
+                .changes(List.of(
+                        BookChange.builder().isbn("9780000000101").title("Emma").author("Austen").version(41).build(),
+                        BookChange.builder().isbn("9780000000200").version(42).deleted(true).build()))
+                .nextSince(42L)
+                .build());
+
+        mockMvc.perform(get("/books/changes").param("since", "40").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andExpect(header().string(HttpHeaders.LINK, "<http://localhost/books/changes?since=42&limit=2>; rel=\"next\""))
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].title", is("Emma")))
+                .andExpect(jsonPath("$[0].version", is(41)))
+                .andExpect(jsonPath("$[1].deleted", is(true)));
+    }
+
+    @Test
+    @DisplayName("GET /books/changes - Once caught up, should link where to poll from instead of a next page, and reject negative versions")
+    void listChanges_whenCaughtUp_shouldReturnPollLink() throws Exception {
+        when(bookService.listChanges(0, BookController.DEFAULT_PAGE_SIZE)).thenReturn(BookChangePage.builder()
+                .changes(List.of())
+                .pollSince(0L)
+                .build());
+
+        mockMvc.perform(get("/books/changes"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.LINK,
+                        "<http://localhost/books/changes?since=0&limit=" + BookController.DEFAULT_PAGE_SIZE + ">; rel=\"poll\""))
+                .andExpect(jsonPath("$", hasSize(0)));
+        mockMvc.perform(get("/books/changes").param("since", "-1"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("GET /books/stats?top= - Should return the statistics, capping the number of authors")
+    void getStats_shouldReturnStats() throws Exception {
+        when(bookService.getStats(BookController.MAX_STATS_TOP)).thenReturn(BookStats.builder()
+                .totalBooks(3)
+                .topAuthors(List.of(AuthorStats.builder().author("J. R. R. Tolkien").books(2).build()))
+                .writesPerSecond1m(0.5)
+                .writesPerSecond5m(0.1)
+                .build());
+
+        mockMvc.perform(get("/books/stats").param("top", "1000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalBooks", is(3)))
+                .andExpect(jsonPath("$.topAuthors[0].author", is("J. R. R. Tolkien")))
+                .andExpect(jsonPath("$.topAuthors[0].books", is(2)))
+                .andExpect(jsonPath("$.writesPerSecond1m", is(0.5)));
+    }
 
-        verify(bookService, times(1)).listBooks();
+    @Test
+    @DisplayName("GET /books/stats - Before the statistics are seeded, should return 503")
+    void getStats_beforeSeeded_shouldReturnServiceUnavailable() throws Exception {
+        when(bookService.getStats(BookController.DEFAULT_STATS_TOP)).thenThrow(new IllegalStateException("seeding"));
+
+        mockMvc.perform(get("/books/stats"))
+                .andExpect(status().isServiceUnavailable());
     }
 
     @Test
     @DisplayName("GET /books - When no books exist, should return empty list and 200 OK")
     void listBooks_whenNoBooks_shouldReturnEmptyList() throws Exception {
-        when(bookService.listBooks()).thenReturn(Collections.emptyList());
+        when(bookService.listBooks(page(null, BookController.DEFAULT_PAGE_SIZE))).thenReturn(BookPage.builder()
+                .books(Collections.emptyList())
+                .build());
 
         mockMvc.perform(get("/books"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON))
                 .andExpect(jsonPath("$", hasSize(0)));
 
-        verify(bookService, times(1)).listBooks();
+        verify(bookService, times(1)).listBooks(page(null, BookController.DEFAULT_PAGE_SIZE));
+    }
+
+    @Test
+    @DisplayName("GET /books?after=&limit= - When more books follow, should return a next link with the cursor")
+    void listBooks_whenMorePagesExist_shouldReturnNextLink() throws Exception {
+        when(bookService.listBooks(page(9780000000101L, 1))).thenReturn(BookPage.builder()
+                .books(Collections.singletonList(Book.builder().isbn("9780000000200").title("Book 2").author("Author 2").build()))
+                .nextCursor("9780000000200")
+                .build());
+
+        mockMvc.perform(get("/books").param("after", "9780000000101").param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].isbn", is("9780000000200")))
+                .andExpect(header().string(HttpHeaders.LINK, "<http://localhost/books?after=9780000000200&limit=1>; rel=\"next\""));
+    }
+
+    @Test
+    @DisplayName("GET /books?limit= - An oversized limit should be capped at the maximum page size")
+    void listBooks_whenLimitTooLarge_shouldCapPageSize() throws Exception {
+        when(bookService.listBooks(page(null, BookController.MAX_PAGE_SIZE))).thenReturn(BookPage.builder()
+                .books(Collections.emptyList())
+                .build());
+
+        mockMvc.perform(get("/books").param("limit", "1000000"))
+                .andExpect(status().isOk());
+
+        verify(bookService, times(1)).listBooks(page(null, BookController.MAX_PAGE_SIZE));
+    }
+
+    @Test
+    @DisplayName("GET /books/export - Should stream every book as newline-delimited JSON")
+    void exportBooks_shouldStreamNdjson() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<Book> consumer = invocation.getArgument(0);
+            consumer.accept(Book.builder().isbn("9780000000101").title("Book 1").author("Author 1").build());
+            consumer.accept(Book.builder().isbn("9780000000200").title("Book 2").author("Author 2").build());
+            return null;
+        }).when(bookService).exportBooks(any());
+
+        MvcResult result = mockMvc.perform(get("/books/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(
+                        "{\"isbn\":\"9780000000101\",\"title\":\"Book 1\",\"author\":\"Author 1\"}\n" +
+                        "{\"isbn\":\"9780000000200\",\"title\":\"Book 2\",\"author\":\"Author 2\"}\n"));
+
+        verify(bookService, never()).listBooks();
+    }
+
+    @Test
+    @DisplayName("GET /books/export - When a snapshot is mapped, should stream it without reading the database")
+    void exportBooks_whenSnapshotMapped_shouldStreamSnapshot() throws Exception {
+        doAnswer(invocation -> {
+            OutputStream outputStream = invocation.getArgument(0);
+            outputStream.write("{\"isbn\":\"9780000000101\",\"title\":\"Book 1\",\"author\":\"Author 1\"}\n".getBytes(StandardCharsets.UTF_8));
+            return true;
+        }).when(catalogSnapshots).export(any());
+
+        MvcResult result = mockMvc.perform(get("/books/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().string("{\"isbn\":\"9780000000101\",\"title\":\"Book 1\",\"author\":\"Author 1\"}\n"));
+
+        verify(bookService, never()).exportBooks(any());
     }
 
     @Test
     @DisplayName("POST /books - Should create a new book and return 201 Created")
     void createBook_shouldReturnCreatedBook() throws Exception {
         Book bookToCreate = Book.builder()
-                .isbn("new-isbn")
+                .isbn("9780000010032")
                 .title("New Book")
                 .author("New Author")
                 .build();
@@ -124,14 +686,14 @@ public class BookControllerUnitTest {
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(bookToCreate)))
                 .andExpect(status().isCreated())
-                .andExpect(jsonPath("$.isbn", is("new-isbn")))
+                .andExpect(jsonPath("$.isbn", is("9780000010032")))
                 .andExpect(jsonPath("$.title", is("New Book")))
                 .andExpect(jsonPath("$.author", is("New Author")));
 
         verify(bookService).save(bookCaptor.capture());
         Book capturedBook = bookCaptor.getValue();
 
-        assertThat(capturedBook.getIsbn()).isEqualTo("new-isbn");
+        assertThat(capturedBook.getIsbn()).isEqualTo("9780000010032");
         assertThat(capturedBook.getTitle()).isEqualTo("New Book");
     }
 
@@ -143,27 +705,21 @@ public class BookControllerUnitTest {
                 .author("Updated Author")
                 .build();
 
-        Book updatedBook = Book.builder()
-                .isbn("update-isbn")
-                .title("Updated Book")
-                .author("Updated Author")
-                .build();
-
-        when(bookService.isBookExist(any(Book.class))).thenReturn(true);
-        when(bookService.save(any(Book.class))).thenReturn(updatedBook);
+        when(bookService.upsert(any(Book.class))).thenReturn(false);
 
-        mockMvc.perform(put("/books/update-isbn")
+        mockMvc.perform(put("/books/9780000010025")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(bookToUpdate)))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$.isbn", is("update-isbn")))
+                .andExpect(jsonPath("$.isbn", is("9780000010025")))
                 .andExpect(jsonPath("$.title", is("Updated Book")));
 
-        verify(bookService).save(bookCaptor.capture());
+        verify(bookService).upsert(bookCaptor.capture());
         Book capturedBook = bookCaptor.getValue();
 
-        assertThat(capturedBook.getIsbn()).isEqualTo("update-isbn");
+        assertThat(capturedBook.getIsbn()).isEqualTo("9780000010025");
         assertThat(capturedBook.getTitle()).isEqualTo("Updated Book");
+        verify(bookService, never()).isBookExist(any(Book.class));
     }
 
     @Test
@@ -174,25 +730,51 @@ public class BookControllerUnitTest {
                 .author("New Author")
                 .build();
 
-        Book savedBook = Book.builder()
-                .isbn("new-isbn")
-                .title("New Book")
-                .author("New Author")
-                .build();
-
-        when(bookService.isBookExist(any(Book.class))).thenReturn(false);
-        when(bookService.save(any(Book.class))).thenReturn(savedBook);
+        when(bookService.upsert(any(Book.class))).thenReturn(true);
 
-        mockMvc.perform(put("/books/new-isbn")
+        mockMvc.perform(put("/books/9780000010032")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(newBook)))
                 .andExpect(status().isCreated())
-                .andExpect(jsonPath("$.isbn", is("new-isbn")));
+                .andExpect(jsonPath("$.isbn", is("9780000010032")));
 
-        verify(bookService).save(bookCaptor.capture());
+        verify(bookService).upsert(bookCaptor.capture());
         Book capturedBook = bookCaptor.getValue();
 
-        assertThat(capturedBook.getIsbn()).isEqualTo("new-isbn");
+        assertThat(capturedBook.getIsbn()).isEqualTo("9780000010032");
+    }
+
+    @Test
+    @DisplayName("POST /books/_bulk - An NDJSON feed should be ingested and summarised with 200 OK")
+    void bulkIngest_withNdjson_shouldReturnSummary() throws Exception {
+        when(bookService.ingest(any(BookFeed.class))).thenReturn(BulkIngestResult.builder()
+                .received(2).written(2).failed(0).errors(Collections.emptyList())
+                .build());
+
+        mockMvc.perform(post("/books/_bulk")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"isbn\":\"9780000000101\"}\n{\"isbn\":\"9780000000200\"}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.written", is(2)));
+
+        verify(bookService).ingest(any(NdjsonBookFeed.class));
+    }
+
+    @Test
+    @DisplayName("POST /books/_bulk - A CSV feed with failed rows should return 207 Multi-Status")
+    void bulkIngest_withCsvFailures_shouldReturnMultiStatus() throws Exception {
+        when(bookService.ingest(any(BookFeed.class))).thenReturn(BulkIngestResult.builder()
+                .received(2).written(1).failed(1)
+                .errors(Collections.singletonList(BulkIngestError.builder().line(2).message("ISBN is required").build()))
+                .build());
+
+        mockMvc.perform(post("/books/_bulk")
+                        .contentType("text/csv")
+                        .content("1,Title,Author\n,Title,Author\n"))
+                .andExpect(status().isMultiStatus())
+                .andExpect(jsonPath("$.errors[0].line", is(2)));
+
+        verify(bookService).ingest(any(CsvBookFeed.class));
     }
 
     @Test
@@ -200,9 +782,9 @@ public class BookControllerUnitTest {
     void deleteBook_shouldReturnNoContent() throws Exception {
         doNothing().when(bookService).deleteBookById(anyString());
 
-        mockMvc.perform(delete("/books/delete-isbn"))
+        mockMvc.perform(delete("/books/9780000010049"))
                 .andExpect(status().isNoContent());
 
-        verify(bookService, times(1)).deleteBookById("delete-isbn");
+        verify(bookService, times(1)).deleteBookById("9780000010049");
     }
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+package ronco.books.events;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import ronco.books.model.Book;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Streams from a running server, since the non-blocking writes need a real servlet container.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+public class CatalogEventStreamServerTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private CatalogEventStream catalogEventStream;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    @DisplayName("GET /books/events - Should push writes to the open stream as Server-Sent Events")
+    void streamEvents_shouldPushWrites() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/books/events")).build();
+        CompletableFuture<HttpResponse<Stream<String>>> response = HttpClient.newHttpClient()
+                .sendAsync(request, HttpResponse.BodyHandlers.ofLines());
+
+        // Nothing is written until the first event, so wait for the subscription rather than the headers
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.get("books.events.subscribers").gauge().value() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        catalogEventStream.bookSaved(Book.builder().isbn("9780000000101").title("Emma").author("Austen").build());
+
+        HttpResponse<Stream<String>> stream = response.get(5, TimeUnit.SECONDS);
+        assertThat(stream.headers().firstValue("Content-Type")).hasValueSatisfying(
+                contentType -> assertThat(contentType).startsWith(MediaType.TEXT_EVENT_STREAM_VALUE));
+        try (Stream<String> lines = stream.body()) {
+            assertThat(lines.limit(3)).satisfiesExactly(
+                    id -> assertThat(id).startsWith("id:"),
+                    name -> assertThat(name).isEqualTo("event:saved"),
+                    data -> assertThat(data).isEqualTo("data:{\"isbn\":\"9780000000101\",\"title\":\"Emma\",\"author\":\"Austen\"}"));
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package ronco.books.events;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.WriteListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ronco.books.model.Book;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CatalogEventStreamTest {
+
+    private static final int BUFFER_SIZE = 8;
+    private static final int MAX_LAG = 4;
+
+    // Sender tasks run when the test says so, which lets it hold subscribers back
+    private final Queue<Runnable> senderTasks = new ArrayDeque<>();
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private CatalogEventStream catalogEventStream;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        catalogEventStream = eventStream(Duration.ofMinutes(1));
+    }
+
+    private CatalogEventStream eventStream(Duration writeTimeout) {
+        return new CatalogEventStream(BUFFER_SIZE, MAX_LAG, Duration.ofMinutes(1), writeTimeout, senderTasks::add,
+                new ObjectMapper(), meterRegistry);
+    }
+
+    private void runSenders() {
+        Runnable task;
+        while ((task = senderTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static Book book(String isbn) {
+        return Book.builder().isbn(isbn).title("Title " + isbn).author("Author").build();
+    }
+
+    private static String field(String event, String name) {
+        for (String line : event.split("\n")) {
+            if (line.startsWith(name + ":")) {
+                return line.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes writes only while ready, like a servlet output in non-blocking mode.
+     */
+    private static class RecordingOutput implements CatalogEventStream.EventOutput {
+        private final StringBuilder written = new StringBuilder();
+        private WriteListener listener;
+        private boolean ready = true;
+        private int flushes;
+        private boolean closed;
+
+        @Override
+        public void start(WriteListener listener) {
+            this.listener = listener;
+            writable();
+        }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void write(byte[] bytes) throws IOException {
+            assertThat(ready).isTrue();
+            written.append(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void flush() {
+            assertThat(ready).isTrue();
+            flushes++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        void writable() {
+            ready = true;
+            try {
+                listener.onWritePossible();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        List<String> events() {
+            return written.isEmpty() ? List.of() : Arrays.asList(written.toString().split("\n\n"));
+        }
+
+        List<String> names() {
+            return events().stream().map(event -> field(event, "event")).toList();
+        }
+    }
+
+    @Test
+    @DisplayName("Every subscriber should get each save and delete once, in order")
+    void publish_shouldFanOutToEverySubscriber() {
+        RecordingOutput first = new RecordingOutput();
+        RecordingOutput second = new RecordingOutput();
+        catalogEventStream.subscribe(null, first);
+        catalogEventStream.subscribe(null, second);
+
+        catalogEventStream.bookSaved(book("1"));
+        catalogEventStream.bookDeleted(9780000000200L);
+        runSenders();
+
+        assertThat(first.names()).containsExactly(CatalogEventStream.SAVED, CatalogEventStream.DELETED);
+        assertThat(second.events()).isEqualTo(first.events());
+        assertThat(first.events().get(0)).contains("\"isbn\":\"1\"", "\"title\":\"Title 1\"");
+        assertThat(first.events().get(1)).contains("\"isbn\":\"9780000000200\"");
+        assertThat(meterRegistry.get("books.events.subscribers").gauge().value()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("A client reconnecting with the id of the last event it saw should get only the events after it")
+    void subscribe_withLastEventId_shouldResume() {
+        RecordingOutput first = new RecordingOutput();
+        catalogEventStream.subscribe(null, first);
+        catalogEventStream.bookSaved(book("1"));
+        catalogEventStream.bookSaved(book("2"));
+        catalogEventStream.bookSaved(book("3"));
+        runSenders();
+
+        RecordingOutput resumed = new RecordingOutput();
+        catalogEventStream.subscribe(field(first.events().get(0), "id"), resumed);
+        runSenders();
+
+        assertThat(resumed.events()).containsExactlyElementsOf(first.events().subList(1, 3));
+    }
+
+    @Test
+    @DisplayName("An event id from another node, a restart or beyond the ring should be answered with a resync")
+    void subscribe_withUnknownLastEventId_shouldResync() {
+        for (int i = 0; i < BUFFER_SIZE + 1; i++) {
+            catalogEventStream.bookSaved(book(String.valueOf(i)));
+        }
+        RecordingOutput tracking = new RecordingOutput();
+        catalogEventStream.subscribe(null, tracking);
+        catalogEventStream.bookSaved(book("tracked"));
+        runSenders();
+        String epoch = field(tracking.events().get(0), "id").split("-")[0];
+
+        RecordingOutput otherNode = new RecordingOutput();
+        RecordingOutput tooOld = new RecordingOutput();
+        catalogEventStream.subscribe("42-1", otherNode);
+        catalogEventStream.subscribe(epoch + "-0", tooOld);
+        catalogEventStream.bookSaved(book("next"));
+        runSenders();
+
+        assertThat(otherNode.names()).containsExactly(CatalogEventStream.RESYNC, CatalogEventStream.SAVED);
+        assertThat(tooOld.names()).containsExactly(CatalogEventStream.RESYNC, CatalogEventStream.SAVED);
+        assertThat(tooOld.events().get(1)).contains("\"isbn\":\"next\"");
+    }
+
+    @Test
+    @DisplayName("A subscriber more than max-lag events behind should skip to the newest event after a resync")
+    void slowSubscriber_shouldDropMissedEventsAndResync() {
+        RecordingOutput slow = new RecordingOutput();
+        catalogEventStream.subscribe(null, slow);
+
+        for (int i = 0; i < MAX_LAG + 1; i++) {
+            catalogEventStream.bookSaved(book(String.valueOf(i)));
+        }
+        runSenders();
+        catalogEventStream.bookSaved(book("after"));
+        runSenders();
+
+        assertThat(slow.names()).containsExactly(CatalogEventStream.RESYNC, CatalogEventStream.SAVED);
+        assertThat(slow.events().get(1)).contains("\"isbn\":\"after\"");
+        assertThat(meterRegistry.get("books.events.resyncs").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("A subscriber whose connection failed should be dropped, and heartbeats should reach the others")
+    void failingSubscriber_shouldBeDropped() {
+        RecordingOutput healthy = new RecordingOutput();
+        catalogEventStream.subscribe(null, healthy);
+        RecordingOutput broken = new RecordingOutput() {
+            @Override
+            public void write(byte[] bytes) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        catalogEventStream.subscribe(null, broken);
+
+        catalogEventStream.bookSaved(book("1"));
+        runSenders();
+        catalogEventStream.heartbeat();
+        runSenders();
+
+        assertThat(meterRegistry.get("books.events.subscribers").gauge().value()).isEqualTo(1);
+        assertThat(healthy.events()).hasSize(2);
+        assertThat(healthy.events().get(1)).startsWith(":heartbeat");
+        assertThat(broken.closed).isTrue();
+    }
+
+    @Test
+    @DisplayName("A subscriber whose connection takes no more writes should not hold a sender, and should catch up once it does")
+    void stalledSubscriber_shouldResumeWhenWritable() {
+        RecordingOutput stalled = new RecordingOutput();
+        RecordingOutput healthy = new RecordingOutput();
+        catalogEventStream.subscribe(null, stalled);
+        catalogEventStream.subscribe(null, healthy);
+
+        stalled.ready = false;
+        catalogEventStream.bookSaved(book("1"));
+        runSenders();
+        catalogEventStream.bookSaved(book("2"));
+        catalogEventStream.heartbeat();
+        runSenders();
+
+        assertThat(stalled.events()).isEmpty();
+        assertThat(healthy.names()).containsExactly(CatalogEventStream.SAVED, CatalogEventStream.SAVED, null);
+
+        stalled.writable();
+        runSenders();
+
+        assertThat(stalled.names()).containsExactly(CatalogEventStream.SAVED, CatalogEventStream.SAVED, null);
+        assertThat(stalled.events().get(1)).contains("\"isbn\":\"2\"");
+        assertThat(stalled.flushes).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("A subscriber whose connection takes no writes for the write timeout should be dropped")
+    void stalledSubscriber_shouldBeDroppedAfterWriteTimeout() {
+        meterRegistry = new SimpleMeterRegistry();
+        catalogEventStream = eventStream(Duration.ZERO);
+        RecordingOutput stalled = new RecordingOutput();
+        RecordingOutput healthy = new RecordingOutput();
+        catalogEventStream.subscribe(null, stalled);
+        catalogEventStream.subscribe(null, healthy);
+
+        stalled.ready = false;
+        catalogEventStream.bookSaved(book("1"));
+        runSenders();
+        catalogEventStream.heartbeat();
+        runSenders();
+
+        assertThat(stalled.closed).isTrue();
+        assertThat(healthy.closed).isFalse();
+        assertThat(meterRegistry.get("books.events.subscribers").gauge().value()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,54 @@
+package ronco.books.ingest;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CsvBookFeedTest {
+
+    private static CsvBookFeed feed(String csv) {
+        return new CsvBookFeed(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    @DisplayName("A header row should be skipped and may reorder the columns")
+    void next_withHeader_shouldMapColumnsByName() throws IOException {
+        try (CsvBookFeed feed = feed("author,isbn,title\nTolkien,1,The Hobbit\n")) {
+            BookFeedRecord record = feed.next();
+
+            assertThat(record.line()).isEqualTo(2);
+            assertThat(record.book().getIsbn()).isEqualTo("1");
+            assertThat(record.book().getTitle()).isEqualTo("The Hobbit");
+            assertThat(record.book().getAuthor()).isEqualTo("Tolkien");
+            assertThat(feed.next()).isNull();
+        }
+    }
+
+    @Test
+    @DisplayName("Quoted fields may contain commas, doubled quotes and line breaks")
+    void next_withQuotedFields_shouldUnquote() throws IOException {
+        try (CsvBookFeed feed = feed("1,\"Title, with \"\"quotes\"\"\",\"Multi\nline\"\n2,Second,Author\n")) {
+            BookFeedRecord first = feed.next();
+            BookFeedRecord second = feed.next();
+
+            assertThat(first.book().getTitle()).isEqualTo("Title, with \"quotes\"");
+            assertThat(first.book().getAuthor()).isEqualTo("Multi\nline");
+            assertThat(second.line()).isEqualTo(3);
+            assertThat(second.book().getIsbn()).isEqualTo("2");
+        }
+    }
+
+    @Test
+    @DisplayName("A row with too few columns should be reported as an error, not abort the feed")
+    void next_withShortRow_shouldReturnError() throws IOException {
+        try (CsvBookFeed feed = feed("1,Only title\n2,Title,Author\n")) {
+            assertThat(feed.next().error()).contains("columns");
+            assertThat(feed.next().book().getIsbn()).isEqualTo("2");
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ronco.books.loader;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.QueryTimeoutException;
+import ronco.books.model.Book;
+import ronco.books.repository.BookRepository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class BookBatchLoaderTest {
+
+    @Mock
+    private BookRepository bookRepository;
+
+    private SimpleMeterRegistry meterRegistry;
+    private BookBatchLoader bookBatchLoader;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        bookBatchLoader = new BookBatchLoader(bookRepository, true, Duration.ofMillis(50), 3, 1, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        bookBatchLoader.destroy();
+    }
+
+    @Test
+    @DisplayName("Lookups made within one window should be resolved by a single IN query")
+    void load_withinWindow_shouldIssueOneQuery() {
+        when(bookRepository.findBooksByIsbnIn(any())).thenReturn(List.of(Book.builder().isbn("9780000000101").title("Book 1").build()));
+
+        CompletableFuture<Optional<Book>> first = bookBatchLoader.load(9780000000101L);
+        CompletableFuture<Optional<Book>> second = bookBatchLoader.load(9780000000200L);
+        CompletableFuture<Optional<Book>> duplicate = bookBatchLoader.load(9780000000101L);
+
+        assertThat(first.join()).map(Book::getTitle).contains("Book 1");
+        assertThat(second.join()).isEmpty();
+        assertThat(duplicate.join()).map(Book::getTitle).contains("Book 1");
+        verify(bookRepository, times(1)).findBooksByIsbnIn(Set.of(9780000000101L, 9780000000200L));
+        verify(bookRepository, never()).findBookByIsbn(anyLong());
+        assertThat(meterRegistry.get("books.batch-loader.batches").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("A batch that reaches the maximum size should be sent without waiting for the window")
+    void load_whenBatchFull_shouldDispatchImmediately() {
+        when(bookRepository.findBooksByIsbnIn(any())).thenReturn(List.of());
+        BookBatchLoader slowLoader = new BookBatchLoader(bookRepository, true, Duration.ofHours(1), 2, 1, meterRegistry);
+        try {
+            CompletableFuture<Optional<Book>> first = slowLoader.load(9780000000101L);
+            CompletableFuture<Optional<Book>> second = slowLoader.load(9780000000200L);
+
+            assertThat(first.join()).isEmpty();
+            assertThat(second.join()).isEmpty();
+        } finally {
+            slowLoader.destroy();
+        }
+    }
+
+    @Test
+    @DisplayName("A failed batch query should be rethrown to every caller")
+    void findById_whenQueryFails_shouldRethrow() {
+        when(bookRepository.findBooksByIsbnIn(any())).thenThrow(new QueryTimeoutException("timeout"));
+
+        assertThatThrownBy(() -> bookBatchLoader.findById(9780000000101L)).isInstanceOf(QueryTimeoutException.class);
+    }
+
+    @Test
+    @DisplayName("When disabled, lookups should go straight to findBookByIsbn")
+    void findById_whenDisabled_shouldQueryDirectly() {
+        BookBatchLoader disabled = new BookBatchLoader(bookRepository, false, Duration.ofMillis(2), 100, 1, meterRegistry);
+        when(bookRepository.findBookByIsbn(9780000000101L)).thenReturn(Optional.empty());
+
+        assertThat(disabled.findById(9780000000101L)).isEmpty();
+        verify(bookRepository, never()).findBooksByIsbnIn(any());
+    }
+}
@@ -8,9 +8,10 @@ import static org.assertj.core.api.Assertions.assertThat;
 public class BookModelTest {
 
     // Book class tests
-    private static final String TEST_ISBN = "test-isbn";
+    private static final String TEST_ISBN = "9780306406157";
     private static final String TEST_TITLE = "Test Title";
     private static final String TEST_AUTHOR = "Test Author";
+    private static final AuthorEntity TEST_AUTHOR_ENTITY = AuthorEntity.builder().id(1).name(TEST_AUTHOR).build();
 
     @Test
     @DisplayName("Book model - Building object with Lombok builder should initialize all fields")
@@ -27,17 +28,17 @@ public class BookModelTest {
     }
 
     @Test
-    @DisplayName("Book model - Setters and getters should work correctly")
-    void book_setterGetterShouldWorkCorrectly() {
-        Book book = new Book();
+    @DisplayName("Book model - Changing a field should return a new book and leave the original as it was")
+    void book_withersShouldReturnChangedCopies() {
+        Book book = new Book(TEST_ISBN, TEST_TITLE, TEST_AUTHOR);
 
-        book.setIsbn("12345");
-        book.setTitle("New Title");
-        book.setAuthor("New Author");
+        Book renamed = book.withAuthor("New Author");
+        Book moved = book.toBuilder().isbn("9780000123459").build();
 
-        assertThat(book.getIsbn()).isEqualTo("12345");
-        assertThat(book.getTitle()).isEqualTo("New Title");
-        assertThat(book.getAuthor()).isEqualTo("New Author");
+        assertThat(renamed).isEqualTo(new Book(TEST_ISBN, TEST_TITLE, "New Author"));
+        assertThat(moved).isEqualTo(new Book("9780000123459", TEST_TITLE, TEST_AUTHOR));
+        assertThat(book).isEqualTo(new Book(TEST_ISBN, TEST_TITLE, TEST_AUTHOR));
+        assertThat(book.withAuthor(book.getAuthor())).isSameAs(book);
     }
 
     @Test
@@ -54,19 +55,19 @@ public class BookModelTest {
     @DisplayName("Book model - Equals and hashCode methods should work as expected")
     void book_equalsAndHashCodeShouldWorkCorrectly() {
         Book book1 = Book.builder()
-                .isbn("same-isbn")
+                .isbn("9781861972712")
                 .title("Title 1")
                 .author("Author 1")
                 .build();
 
         Book book2 = Book.builder()
-                .isbn("same-isbn")
+                .isbn("9781861972712")
                 .title("Title 1")
                 .author("Author 1")
                 .build();
 
         Book book3 = Book.builder()
-                .isbn("different-isbn")
+                .isbn("9780000000101")
                 .title("Title 2")
                 .author("Author 2")
                 .build();
@@ -81,14 +82,14 @@ public class BookModelTest {
     @DisplayName("Book model - ToString method should contain all object fields")
     void book_toStringShouldContainAllFields() {
         Book book = Book.builder()
-                .isbn("12345")
+                .isbn("9780000123459")
                 .title("Book Title")
                 .author("Author Name")
                 .build();
 
         String toStringResult = book.toString();
 
-        assertThat(toStringResult).contains("isbn=12345");
+        assertThat(toStringResult).contains("isbn=9780000123459");
         assertThat(toStringResult).contains("title=Book Title");
         assertThat(toStringResult).contains("author=Author Name");
     }
@@ -101,12 +102,13 @@ public class BookModelTest {
         BookEntity bookEntity = BookEntity.builder()
                 .isbn(TEST_ISBN)
                 .title(TEST_TITLE)
-                .author(TEST_AUTHOR)
+                .author(TEST_AUTHOR_ENTITY)
                 .build();
 
         assertThat(bookEntity.getIsbn()).isEqualTo(TEST_ISBN);
         assertThat(bookEntity.getTitle()).isEqualTo(TEST_TITLE);
-        assertThat(bookEntity.getAuthor()).isEqualTo(TEST_AUTHOR);
+        assertThat(bookEntity.getAuthor()).isEqualTo(TEST_AUTHOR_ENTITY);
+        assertThat(bookEntity.getAuthorName()).isEqualTo(TEST_AUTHOR);
     }
 
     @Test
@@ -114,44 +116,48 @@ public class BookModelTest {
     void bookEntity_setterGetterShouldWorkCorrectly() {
         BookEntity bookEntity = new BookEntity();
 
-        bookEntity.setIsbn("12345");
+        bookEntity.setIsbn("9780000123459");
         bookEntity.setTitle("New Title");
-        bookEntity.setAuthor("New Author");
+        bookEntity.setAuthor(AuthorEntity.builder().id(2).name("New Author").build());
 
-        assertThat(bookEntity.getIsbn()).isEqualTo("12345");
+        assertThat(bookEntity.getIsbn()).isEqualTo("9780000123459");
+        assertThat(bookEntity.getIsbn13()).isEqualTo(9780000123459L);
         assertThat(bookEntity.getTitle()).isEqualTo("New Title");
-        assertThat(bookEntity.getAuthor()).isEqualTo("New Author");
+        assertThat(bookEntity.getAuthorName()).isEqualTo("New Author");
+        assertThat(bookEntity.getAuthorId()).isEqualTo(2);
     }
 
     @Test
     @DisplayName("BookEntity model - Constructor with parameters should initialize all fields")
     void bookEntity_constructorWithParametersShouldInitializeAllFields() {
-        BookEntity bookEntity = new BookEntity(TEST_ISBN, TEST_TITLE, TEST_AUTHOR);
+        BookEntity bookEntity = new BookEntity("0-306-40615-2", TEST_TITLE, TEST_AUTHOR_ENTITY);
 
-        assertThat(bookEntity.getIsbn()).isEqualTo(TEST_ISBN);
+        assertThat(bookEntity.getIsbn()).isEqualTo("0-306-40615-2");
+        assertThat(bookEntity.getIsbn13()).isEqualTo(9780306406157L);
         assertThat(bookEntity.getTitle()).isEqualTo(TEST_TITLE);
-        assertThat(bookEntity.getAuthor()).isEqualTo(TEST_AUTHOR);
+        assertThat(bookEntity.getAuthor()).isEqualTo(TEST_AUTHOR_ENTITY);
+        assertThat(bookEntity.getAuthorName()).isEqualTo(TEST_AUTHOR);
     }
 
     @Test
-    @DisplayName("BookEntity model - Equals and hashCode methods should work as expected")
+    @DisplayName("BookEntity model - Equals and hashCode should compare the ISBN-13 only")
     void bookEntity_equalsAndHashCodeShouldWorkCorrectly() {
         BookEntity entity1 = BookEntity.builder()
-                .isbn("same-isbn")
+                .isbn("9781861972712")
                 .title("Title 1")
-                .author("Author 1")
+                .author(AuthorEntity.builder().name("Author 1").build())
                 .build();
 
         BookEntity entity2 = BookEntity.builder()
-                .isbn("same-isbn")
-                .title("Title 1")
-                .author("Author 1")
+                .isbn("1-86197-271-7")
+                .title("Title 1, revised")
+                .author(AuthorEntity.builder().name("Author 1").build())
                 .build();
 
         BookEntity entity3 = BookEntity.builder()
-                .isbn("different-isbn")
+                .isbn("9780000000101")
                 .title("Title 2")
-                .author("Author 2")
+                .author(AuthorEntity.builder().name("Author 2").build())
                 .build();
 
         assertThat(entity1).isEqualTo(entity2);
@@ -161,19 +167,19 @@ public class BookModelTest {
     }
 
     @Test
-    @DisplayName("BookEntity model - ToString method should contain all object fields")
+    @DisplayName("BookEntity model - ToString method should contain the book's own fields but not its lazy author")
     void bookEntity_toStringShouldContainAllFields() {
         BookEntity bookEntity = BookEntity.builder()
-                .isbn("12345")
+                .isbn("9780000123459")
                 .title("Book Title")
-                .author("Author Name")
+                .author(AuthorEntity.builder().name("Author Name").build())
                 .build();
 
         String toStringResult = bookEntity.toString();
 
-        assertThat(toStringResult).contains("isbn=12345");
+        assertThat(toStringResult).contains("isbn=9780000123459");
         assertThat(toStringResult).contains("title=Book Title");
-        assertThat(toStringResult).contains("author=Author Name");
+        assertThat(toStringResult).doesNotContain("author");
     }
 
     @Test
@@ -0,0 +1,48 @@
+package ronco.books.model;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class IsbnTest {
+
+    @Test
+    @DisplayName("Every way of writing the same ISBN should parse to one ISBN-13")
+    void parse_shouldNormalizeToIsbn13() {
+        assertThat(Isbn.parse("9780306406157")).isEqualTo(9780306406157L);
+        assertThat(Isbn.parse("978-0-306-40615-7")).isEqualTo(9780306406157L);
+        assertThat(Isbn.parse("0306406152")).isEqualTo(9780306406157L);
+        assertThat(Isbn.parse("0 306 40615 2")).isEqualTo(9780306406157L);
+        assertThat(Isbn.parse("0-8044-2957-X")).isEqualTo(9780804429573L);
+        assertThat(Isbn.parse("080442957x")).isEqualTo(9780804429573L);
+        assertThat(Isbn.parse("979-10-90636-07-1")).isEqualTo(9791090636071L);
+    }
+
+    @Test
+    @DisplayName("Wrong check digits, lengths, prefixes and characters should be rejected")
+    void parse_whenInvalid_shouldThrow() {
+        assertThat(Isbn.isValid("9780306406158")).isFalse();
+        assertThat(Isbn.isValid("0306406153")).isFalse();
+        assertThat(Isbn.isValid("12345")).isFalse();
+        assertThat(Isbn.isValid("97803064061570")).isFalse();
+        assertThat(Isbn.isValid("9770306406150")).isFalse();
+        assertThat(Isbn.isValid("X306406152")).isFalse();
+        assertThat(Isbn.isValid("030640615X2")).isFalse();
+        assertThat(Isbn.isValid("isbn")).isFalse();
+        assertThat(Isbn.isValid("")).isFalse();
+        assertThat(Isbn.isValid(null)).isFalse();
+        assertThatThrownBy(() -> Isbn.parse("12345"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid ISBN: 12345");
+    }
+
+    @Test
+    @DisplayName("Completing 12 digits with their check digit should give a valid ISBN-13")
+    void withCheckDigit_shouldCompleteIsbn13() {
+        assertThat(Isbn.withCheckDigit(978030640615L)).isEqualTo(9780306406157L);
+        assertThat(Isbn.format(Isbn.withCheckDigit(978000000000L))).isEqualTo("9780000000002");
+        assertThat(Isbn.isValid(Isbn.format(Isbn.withCheckDigit(979999999999L)))).isTrue();
+    }
+}
@@ -0,0 +1,205 @@
+package ronco.books.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import ronco.books.model.AuthorEntity;
+import ronco.books.model.BookEntity;
+import ronco.books.model.ReplacedBook;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+/**
+ * The Postgres statements behind the upserts and deletes, which the H2 tests in
+ * {@link BookRepositoryTest} don't run. Needs Docker; skipped without it.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+public class BookRepositoryPostgresTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private BookRepositoryCustomImpl bookRepository;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new DriverManagerDataSource(POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword());
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        bookRepository = new BookRepositoryCustomImpl(jdbcTemplate, null);
+
+        // The tables as Hibernate creates them from the entities, plus schema.sql
+        jdbcTemplate.execute("DROP TABLE IF EXISTS books, authors CASCADE");
+        jdbcTemplate.execute("DROP SEQUENCE IF EXISTS books_change_seq");
+        jdbcTemplate.execute("CREATE SEQUENCE books_change_seq");
+        jdbcTemplate.execute("CREATE TABLE authors (id serial PRIMARY KEY, name varchar(255) NOT NULL UNIQUE)");
+        jdbcTemplate.execute("""
+                CREATE TABLE books (isbn13 bigint PRIMARY KEY, isbn varchar(255), title varchar(255),
+                    author_id integer REFERENCES authors, title_key varchar(255), change_version bigint,
+                    deleted boolean NOT NULL DEFAULT FALSE)""");
+    }
+
+    private AuthorEntity author(String name) {
+        Integer id = jdbcTemplate.queryForObject("INSERT INTO authors (name) VALUES (?) RETURNING id", Integer.class, name);
+        return AuthorEntity.builder().id(id).name(name).build();
+    }
+
+    private static BookEntity book(String isbn, String title, AuthorEntity author) {
+        return BookEntity.builder().isbn(isbn).title(title).author(author).build();
+    }
+
+    private <T> T inTransaction(Function<BookRepositoryCustomImpl, T> write) {
+        return transactionTemplate.execute(status -> write.apply(bookRepository));
+    }
+
+    /**
+     * Runs the write in a transaction on a connection of its own, which the caller commits.
+     */
+    private <T> T uncommitted(Connection connection, Function<BookRepositoryCustomImpl, T> write) throws Exception {
+        connection.setAutoCommit(false);
+        return write.apply(new BookRepositoryCustomImpl(new JdbcTemplate(new SingleConnectionDataSource(connection, true)), null));
+    }
+
+    private void awaitBlockedOnLock() throws InterruptedException {
+        for (int attempt = 0; attempt < 500; attempt++) {
+            Integer waiting = jdbcTemplate.queryForObject(
+                    "SELECT count(*) FROM pg_stat_activity WHERE wait_event_type = 'Lock'", Integer.class);
+            if (waiting != null && waiting > 0) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("The second write never waited for the first");
+    }
+
+    @Test
+    @DisplayName("Upserts should create, replace, and revive a deleted book, reporting what each replaced")
+    void upsert_shouldReportReplacedBooks() {
+        // Arrange
+        AuthorEntity austen = author("Austen");
+        AuthorEntity bronte = author("Bronte");
+
+        // Act
+        ReplacedBook created = inTransaction(repository -> repository.upsert(book("9780000001115", "Emma", austen)));
+        ReplacedBook replaced = inTransaction(repository -> repository.upsert(book("9780000001115", "Jane Eyre", bronte)));
+        ReplacedBook deleted = inTransaction(repository -> repository.markDeleted(9780000001115L));
+        ReplacedBook deletedAgain = inTransaction(repository -> repository.markDeleted(9780000001115L));
+        ReplacedBook revived = inTransaction(repository -> repository.upsert(book("9780000001115", "Persuasion", austen)));
+
+        // Assert
+        assertThat(created).isNull();
+        assertThat(replaced).isEqualTo(new ReplacedBook("Austen"));
+        assertThat(deleted).isEqualTo(new ReplacedBook("Bronte"));
+        assertThat(deletedAgain).isNull();
+        assertThat(revived).isNull();
+        assertThat(jdbcTemplate.queryForMap("SELECT title, title_key, author_id, deleted FROM books WHERE isbn13 = 9780000001115"))
+                .containsEntry("title", "Persuasion")
+                .containsEntry("title_key", "persuasion")
+                .containsEntry("author_id", austen.getId())
+                .containsEntry("deleted", false);
+    }
+
+    @Test
+    @DisplayName("A batch upsert should create new books, revive deleted ones and report the live books it replaced")
+    void upsertAll_shouldReportReplacedBooks() {
+        // Arrange
+        AuthorEntity austen = author("Austen");
+        inTransaction(repository -> repository.upsert(book("9780000001115", "Emma", austen)));
+        inTransaction(repository -> repository.upsert(book("9780000002228", "Dune", null)));
+        inTransaction(repository -> repository.markDeleted(9780000002228L));
+
+        // Act
+        Map<Long, ReplacedBook> replaced = inTransaction(repository -> repository.upsertAll(List.of(
+                book("9780000001115", "Persuasion", null),
+                book("9780000002228", "Dune Messiah", austen),
+                book("9780000003331", "Sanditon", austen))));
+
+        // Assert
+        assertThat(replaced).containsExactly(entry(9780000001115L, new ReplacedBook("Austen")));
+        assertThat(jdbcTemplate.queryForList("SELECT title FROM books WHERE NOT deleted ORDER BY isbn13", String.class))
+                .containsExactly("Persuasion", "Dune Messiah", "Sanditon");
+    }
+
+    @Test
+    @DisplayName("Of two concurrent upserts of a new ISBN, only the one committing first should create the book")
+    void upsert_whenCreatedConcurrently_shouldReportBookCreatedByOtherWrite() throws Exception {
+        // Arrange
+        AuthorEntity austen = author("Austen");
+        AuthorEntity bronte = author("Bronte");
+
+        try (Connection connection = dataSource.getConnection()) {
+            ReplacedBook first = uncommitted(connection, repository -> repository.upsert(book("9780000001115", "Emma", austen)));
+
+            // Act: the second write starts before the first commits, so it can't see the book yet
+            CompletableFuture<ReplacedBook> second = CompletableFuture.supplyAsync(() ->
+                    inTransaction(repository -> repository.upsert(book("9780000001115", "Jane Eyre", bronte))));
+            awaitBlockedOnLock();
+            connection.commit();
+
+            // Assert
+            assertThat(first).isNull();
+            assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(new ReplacedBook("Austen"));
+        }
+        assertThat(jdbcTemplate.queryForObject("SELECT title FROM books WHERE isbn13 = 9780000001115", String.class))
+                .isEqualTo("Jane Eyre");
+    }
+
+    @Test
+    @DisplayName("Collating the title keys should put them in code point order once, so a prefix range keeps every match")
+    void collateTitleKeys_shouldOrderByCodePoint() {
+        // Arrange
+        inTransaction(repository -> repository.upsert(book("9780000001115", "A-Z of Birds", null)));
+
+        // Act
+        boolean collated = bookRepository.collateTitleKeys();
+        boolean collatedAgain = bookRepository.collateTitleKeys();
+
+        // Assert: language collations ignore the hyphen and sort "a-z..." after "a."
+        assertThat(collated).isTrue();
+        assertThat(collatedAgain).isFalse();
+        assertThat(jdbcTemplate.queryForList(
+                "SELECT title FROM books WHERE title_key >= 'a-' AND title_key < 'a.'", String.class))
+                .containsExactly("A-Z of Birds");
+    }
+
+    @Test
+    @DisplayName("A delete waiting on a concurrent update should report the book as that update left it")
+    void markDeleted_whenUpdatedConcurrently_shouldReportUpdatedBook() throws Exception {
+        // Arrange
+        AuthorEntity austen = author("Austen");
+        AuthorEntity bronte = author("Bronte");
+        inTransaction(repository -> repository.upsert(book("9780000001115", "Emma", austen)));
+
+        try (Connection connection = dataSource.getConnection()) {
+            uncommitted(connection, repository -> repository.upsert(book("9780000001115", "Jane Eyre", bronte)));
+
+            // Act
+            CompletableFuture<ReplacedBook> deleted = CompletableFuture.supplyAsync(() ->
+                    inTransaction(repository -> repository.markDeleted(9780000001115L)));
+            awaitBlockedOnLock();
+            connection.commit();
+
+            // Assert
+            assertThat(deleted.get(5, TimeUnit.SECONDS)).isEqualTo(new ReplacedBook("Bronte"));
+        }
+    }
+}
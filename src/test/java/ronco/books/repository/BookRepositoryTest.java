@@ -1,19 +1,38 @@
 package ronco.books.repository;
 
+import org.hibernate.Session;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
+import ronco.books.model.AuthorEntity;
+import ronco.books.model.AuthorStats;
+import ronco.books.model.Book;
+import ronco.books.model.BookChange;
+import ronco.books.model.BookCursor;
 import ronco.books.model.BookEntity;
+import ronco.books.model.BookField;
+import ronco.books.model.BookQuery;
+import ronco.books.model.BookSort;
+import ronco.books.model.Isbn;
+import ronco.books.model.ReplacedBook;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.Assertions.tuple;
 
-@DataJpaTest
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=ronco.books.repository.RecordingStatementInspector")
 @ActiveProfiles("test")
 public class BookRepositoryTest {
 
@@ -23,14 +42,17 @@ public class BookRepositoryTest {
     @Autowired
     private BookRepository bookRepository;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     @Test
     @DisplayName("When saving a book entity, it should be persisted")
     void save_shouldPersistBookEntity() {
         // Arrange
         BookEntity bookEntity = BookEntity.builder()
-                .isbn("12345")
+                .isbn("9780000123459")
                 .title("Test Book")
-                .author("Test Author")
+                .author(author("Test Author"))
                 .build();
 
         // Act
@@ -38,13 +60,13 @@ public class BookRepositoryTest {
 
         // Assert
         assertThat(savedEntity).isNotNull();
-        assertThat(savedEntity.getIsbn()).isEqualTo("12345");
+        assertThat(savedEntity.getIsbn()).isEqualTo("9780000123459");
         
         // Verify it's in the database
-        BookEntity foundEntity = entityManager.find(BookEntity.class, "12345");
+        BookEntity foundEntity = entityManager.find(BookEntity.class, 9780000123459L);
         assertThat(foundEntity).isNotNull();
         assertThat(foundEntity.getTitle()).isEqualTo("Test Book");
-        assertThat(foundEntity.getAuthor()).isEqualTo("Test Author");
+        assertThat(foundEntity.getAuthorName()).isEqualTo("Test Author");
     }
 
     @Test
@@ -52,28 +74,28 @@ public class BookRepositoryTest {
     void findById_whenBookExists_shouldReturnBook() {
         // Arrange
         BookEntity bookEntity = BookEntity.builder()
-                .isbn("54321")
+                .isbn("9780000543219")
                 .title("Another Book")
-                .author("Another Author")
+                .author(author("Another Author"))
                 .build();
         
         entityManager.persist(bookEntity);
         entityManager.flush();
 
         // Act
-        Optional<BookEntity> foundBook = bookRepository.findById("54321");
+        Optional<BookEntity> foundBook = bookRepository.findById(9780000543219L);
 
         // Assert
         assertThat(foundBook).isPresent();
         assertThat(foundBook.get().getTitle()).isEqualTo("Another Book");
-        assertThat(foundBook.get().getAuthor()).isEqualTo("Another Author");
+        assertThat(foundBook.get().getAuthorName()).isEqualTo("Another Author");
     }
 
     @Test
     @DisplayName("When finding a book by ID that doesn't exist, it should return empty")
     void findById_whenBookDoesNotExist_shouldReturnEmpty() {
         // Act
-        Optional<BookEntity> foundBook = bookRepository.findById("nonexistent");
+        Optional<BookEntity> foundBook = bookRepository.findById(9780000010056L);
 
         // Assert
         assertThat(foundBook).isEmpty();
@@ -84,15 +106,15 @@ public class BookRepositoryTest {
     void findAll_shouldReturnAllBooks() {
         // Arrange
         BookEntity book1 = BookEntity.builder()
-                .isbn("111")
+                .isbn("9780000001115")
                 .title("Book 1")
-                .author("Author 1")
+                .author(author("Author 1"))
                 .build();
         
         BookEntity book2 = BookEntity.builder()
-                .isbn("222")
+                .isbn("9780000002228")
                 .title("Book 2")
-                .author("Author 2")
+                .author(author("Author 2"))
                 .build();
         
         entityManager.persist(book1);
@@ -104,7 +126,452 @@ public class BookRepositoryTest {
 
         // Assert
         assertThat(allBooks).hasSize(2);
-        assertThat(allBooks).extracting(BookEntity::getIsbn).containsExactlyInAnyOrder("111", "222");
+        assertThat(allBooks).extracting(BookEntity::getIsbn).containsExactlyInAnyOrder("9780000001115", "9780000002228");
+    }
+
+    @Test
+    @DisplayName("When paging by ISBN, it should return the books after the cursor in ISBN order")
+    void findBooksAfterIsbn_shouldReturnNextPageInIsbnOrder() {
+        // Arrange
+        for (String isbn : List.of("9780000003331", "9780000001115", "9780000004444", "9780000002228")) {
+            entityManager.persist(BookEntity.builder()
+                    .isbn(isbn)
+                    .title("Book " + isbn)
+                    .author(author("Author " + isbn))
+                    .build());
+        }
+        entityManager.flush();
+
+        // Act
+        List<Book> firstPage = bookRepository.findBooksOrderByIsbn(Limit.of(2));
+        List<Book> nextPage = bookRepository.findBooksAfterIsbn(9780000002228L, Limit.of(2));
+
+        // Assert
+        assertThat(firstPage).extracting(Book::getIsbn).containsExactly("9780000001115", "9780000002228");
+        assertThat(nextPage).extracting(Book::getIsbn).containsExactly("9780000003331", "9780000004444");
+    }
+
+    @Test
+    @DisplayName("When reading a book through the projection, it should return its columns without managing an entity")
+    void findBookByIsbn_shouldProjectWithoutManagingEntity() {
+        // Arrange
+        entityManager.persist(BookEntity.builder()
+                .isbn("9780000001115")
+                .title("Book 111")
+                .author(author("Author 111"))
+                .build());
+        entityManager.flush();
+        entityManager.clear();
+
+        // Act
+        Optional<Book> found = bookRepository.findBookByIsbn(9780000001115L);
+        List<Book> batch = bookRepository.findBooksByIsbnIn(List.of(9780000001115L, 9780000009999L));
+
+        // Assert
+        assertThat(found).contains(new Book("9780000001115", "Book 111", "Author 111"));
+        assertThat(batch).extracting(Book::getIsbn).containsExactly("9780000001115");
+        assertThat(entityManager.getEntityManager().unwrap(Session.class)
+                .getStatistics().getEntityCount()).isZero();
+    }
+
+    @Test
+    @DisplayName("When selecting a subset of fields, only those columns should be filled in")
+    void findBooks_withFields_shouldSelectOnlyRequestedColumns() {
+        // Arrange
+        for (String isbn : List.of("9780000003331", "9780000001115", "9780000002228")) {
+            entityManager.persist(BookEntity.builder()
+                    .isbn(isbn)
+                    .title("Book " + isbn)
+                    .author(author("Author " + isbn))
+                    .build());
+        }
+        entityManager.flush();
+
+        // Act
+        List<Book> page = bookRepository.findBooks(BookQuery.builder()
+                .fields(EnumSet.of(BookField.TITLE))
+                .after(new BookCursor(null, 9780000001115L))
+                .limit(10)
+                .build());
+
+        // Assert
+        assertThat(page).containsExactly(
+                new Book("9780000002228", "Book 9780000002228", null),
+                new Book("9780000003331", "Book 9780000003331", null));
+    }
+
+    @Test
+    @DisplayName("When paging by title prefix, it should match case-insensitively and walk title order page by page")
+    void findBooks_byTitlePrefix_shouldPageInTitleOrder() {
+        // Arrange
+        persistBook("9780000000101", "the Hobbit", "Tolkien");
+        persistBook("9780000000200", "The Silmarillion", "Tolkien");
+        persistBook("9780000000309", "THE hobbit", "Tolkien");
+        persistBook("9780000000408", "Then_There_Were_None", "Christie");
+        persistBook("9780000000507", "Dune", "Herbert");
+        persistBook("9780000000606", "The 100% Book", "Nobody");
+        entityManager.flush();
+        BookQuery firstPage = BookQuery.builder()
+                .titlePrefix("The ")
+                .sort(BookSort.TITLE)
+                .limit(2)
+                .build();
+
+        // Act
+        List<Book> page1 = bookRepository.findBooks(firstPage);
+        List<Book> page2 = bookRepository.findBooks(firstPage.toBuilder()
+                .after(BookCursor.after(BookSort.TITLE, page1.get(page1.size() - 1)))
+                .build());
+
+        // Assert
+        assertThat(page1).extracting(Book::getIsbn).containsExactly("9780000000606", "9780000000101");
+        assertThat(page2).extracting(Book::getIsbn).containsExactly("9780000000309", "9780000000200");
+    }
+
+    @Test
+    @DisplayName("A deep page in title order should seek to its cursor in the title index instead of filtering from the start")
+    void findBooks_sortedByTitleAfterCursor_shouldSeekInIndex() {
+        // Arrange
+        for (int i = 1; i <= 50; i++) {
+            persistBook(Isbn.format(Isbn.withCheckDigit(978_000_000_000L + i)), "Title " + (i % 7), "Author");
+        }
+        entityManager.flush();
+        BookCursor cursor = new BookCursor("title 3", 9780000000309L);
+
+        // Act
+        bookRepository.findBooks(BookQuery.builder().sort(BookSort.TITLE).after(cursor).limit(5).build());
+        String plan = explain(RecordingStatementInspector.lastSql(), cursor.key(), cursor.key(), cursor.isbn13(), 5);
+
+        // Assert: the key range is an index condition, not only a WHERE over every index entry
+        assertThat(plan).contains("BOOKS_TITLE_KEY_ISBN13_IDX: TITLE_KEY >= ?1");
+    }
+
+    @Test
+    @DisplayName("A deep page in author order should seek to its cursor in the author name index")
+    void findBooks_sortedByAuthorAfterCursor_shouldSeekInNameIndex() {
+        // Arrange
+        for (int i = 1; i <= 50; i++) {
+            persistBook(Isbn.format(Isbn.withCheckDigit(978_000_000_000L + i)), "Title", "Author " + (i % 7));
+        }
+        entityManager.flush();
+        BookCursor cursor = new BookCursor("Author 3", 9780000000309L);
+
+        // Act
+        bookRepository.findBooks(BookQuery.builder().sort(BookSort.AUTHOR).after(cursor).limit(5).build());
+        String plan = explain(RecordingStatementInspector.lastSql(), cursor.key(), cursor.key(), cursor.isbn13(), 5);
+
+        // Assert: the join starts from the names after the cursor, not from every book
+        assertThat(plan).containsPattern("FROM \"PUBLIC\".\"AUTHORS\" \\S+\\s+/\\* PUBLIC.AUTHORS_NAME_KEY\\w*: NAME >= \\?1");
+    }
+
+    @Test
+    @DisplayName("When paging by title runs out of titled books, the page should continue with the untitled ones")
+    void findBooks_sortedByTitle_shouldPageIntoNullTitles() {
+        // Arrange
+        persistBook("9780000000101", null, "A");
+        persistBook("9780000000200", "Emma", "B");
+        persistBook("9780000000309", "Dune", "C");
+        persistBook("9780000000408", null, "D");
+        entityManager.flush();
+        BookQuery query = BookQuery.builder().sort(BookSort.TITLE).limit(1).build();
+        List<Book> page1 = bookRepository.findBooks(query.toBuilder().limit(2).build());
+
+        // Act
+        List<Book> page2 = bookRepository.findBooks(query.toBuilder()
+                .after(BookCursor.after(BookSort.TITLE, page1.get(1)))
+                .limit(2)
+                .build());
+        List<Book> page3 = bookRepository.findBooks(query.toBuilder()
+                .after(BookCursor.after(BookSort.TITLE, page2.get(1)))
+                .limit(2)
+                .build());
+
+        // Assert
+        assertThat(page1).extracting(Book::getIsbn).containsExactly("9780000000309", "9780000000200");
+        assertThat(page2).extracting(Book::getIsbn).containsExactly("9780000000101", "9780000000408");
+        assertThat(page3).isEmpty();
+    }
+
+    @Test
+    @DisplayName("When the prefix contains LIKE wildcards, they should match literally")
+    void findBooks_byTitlePrefixWithWildcards_shouldMatchLiterally() {
+        // Arrange
+        persistBook("9780000000101", "100% Pure", "A");
+        persistBook("9780000000200", "1000 Years", "B");
+        persistBook("9780000000309", "a_b", "C");
+        persistBook("9780000000408", "axb", "D");
+        entityManager.flush();
+
+        // Act & Assert
+        assertThat(bookRepository.findBooks(BookQuery.builder().titlePrefix("100%").limit(10).build()))
+                .extracting(Book::getIsbn).containsExactly("9780000000101");
+        assertThat(bookRepository.findBooks(BookQuery.builder().titlePrefix("a_").limit(10).build()))
+                .extracting(Book::getIsbn).containsExactly("9780000000309");
+    }
+
+    @Test
+    @DisplayName("When sorting by author, books should be ordered by author name, those without one last")
+    void findBooks_sortedByAuthor_shouldGroupByAuthorAndPutNullAuthorsLast() {
+        // Arrange
+        persistBook("9780000000101", "A", null);
+        persistBook("9780000000200", "B", "Zed");
+        persistBook("9780000000309", "C", "Amy");
+        persistBook("9780000000408", "D", null);
+        persistBook("9780000000507", "E", "Amy");
+        entityManager.flush();
+        BookQuery query = BookQuery.builder().sort(BookSort.AUTHOR).limit(2).build();
+
+        // Act
+        List<String> isbns = new ArrayList<>();
+        List<Book> page = bookRepository.findBooks(query);
+        while (!page.isEmpty()) {
+            page.forEach(book -> isbns.add(book.getIsbn()));
+            page = bookRepository.findBooks(query.toBuilder()
+                    .after(BookCursor.after(BookSort.AUTHOR, page.get(page.size() - 1)))
+                    .build());
+        }
+
+        // Assert
+        assertThat(isbns).containsExactly("9780000000309", "9780000000507", "9780000000200", "9780000000101", "9780000000408");
+    }
+
+    @Test
+    @DisplayName("When filtering by author, it should return only that author's books in ISBN order")
+    void findBooks_byAuthor_shouldFilterInIsbnOrder() {
+        // Arrange
+        persistBook("9780000000309", "C", "Tolkien");
+        persistBook("9780000000101", "A", "Tolkien");
+        persistBook("9780000000200", "B", "Herbert");
+        entityManager.flush();
+
+        // Act
+        List<Book> page = bookRepository.findBooks(BookQuery.builder().authorId(author("Tolkien").getId()).limit(10).build());
+
+        // Assert
+        assertThat(page).extracting(Book::getIsbn).containsExactly("9780000000101", "9780000000309");
+    }
+
+    @Test
+    @DisplayName("When rows are missing a title key, the backfill should fill it in")
+    void backfillTitleKeys_shouldFillMissingKeys() {
+        // Arrange
+        persistBook("9780000000101", "Mixed Case", "A");
+        entityManager.flush();
+        entityManager.getEntityManager().createNativeQuery("UPDATE books SET title_key = NULL").executeUpdate();
+        entityManager.clear();
+
+        // Act
+        int updated = bookRepository.backfillTitleKeys();
+
+        // Assert
+        assertThat(updated).isEqualTo(1);
+        assertThat(bookRepository.findById(9780000000101L)).map(BookEntity::getTitleKey).contains("mixed case");
+    }
+
+    @Test
+    @DisplayName("When more rows are missing a title key than fit in a page, the backfill should page through all of them")
+    void backfillTitleKeys_overSeveralPages_shouldFillEveryKey() {
+        // Arrange
+        for (int i = 1; i <= 2001; i++) {
+            persistBook(Isbn.format(Isbn.withCheckDigit(978_000_000_000L + i)), "Title " + i, null);
+        }
+        entityManager.flush();
+        entityManager.getEntityManager().createNativeQuery("UPDATE books SET title_key = NULL").executeUpdate();
+        entityManager.clear();
+
+        // Act
+        int updated = bookRepository.backfillTitleKeys();
+
+        // Assert
+        assertThat(updated).isEqualTo(2001);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM books WHERE title_key IS NULL", Long.class)).isZero();
+    }
+
+    private AuthorEntity author(String name) {
+        return entityManager.getEntityManager()
+                .createQuery("select a from AuthorEntity a where a.name = :name", AuthorEntity.class)
+                .setParameter("name", name)
+                .getResultStream()
+                .findFirst()
+                .orElseGet(() -> entityManager.persistFlushFind(AuthorEntity.builder().name(name).build()));
+    }
+
+    private void persistBook(String isbn, String title, String author) {
+        entityManager.persist(BookEntity.builder().isbn(isbn).title(title).author(author == null ? null : author(author)).build());
+    }
+
+    private String explain(String sql, Object... args) {
+        return String.join("\n", jdbcTemplate.queryForList("EXPLAIN " + sql, String.class, args));
+    }
+
+    @Test
+    @DisplayName("When streaming the catalog, it should return every book in ISBN order")
+    void streamBooks_shouldStreamAllBooksInIsbnOrder() {
+        // Arrange
+        for (String isbn : List.of("9780000002228", "9780000001115")) {
+            entityManager.persist(BookEntity.builder()
+                    .isbn(isbn)
+                    .title("Book " + isbn)
+                    .author(author("Author " + isbn))
+                    .build());
+        }
+        entityManager.flush();
+
+        // Act & Assert
+        try (Stream<Book> books = bookRepository.streamBooks()) {
+            assertThat(books.map(Book::getIsbn)).containsExactly("9780000001115", "9780000002228");
+        }
+    }
+
+    @Test
+    @DisplayName("When upserting a book, it should report nothing replaced on insert and the replaced book on update")
+    void upsert_shouldInsertThenUpdate() {
+        // Act
+        ReplacedBook created = bookRepository.upsert(BookEntity.builder()
+                .isbn("9780000010018")
+                .title("First Title")
+                .author(author("First Author"))
+                .build());
+        ReplacedBook replaced = bookRepository.upsert(BookEntity.builder()
+                .isbn("9780000010018")
+                .title("Second Title")
+                .author(author("Second Author"))
+                .build());
+        entityManager.clear();
+
+        // Assert
+        assertThat(created).isNull();
+        assertThat(replaced).isEqualTo(new ReplacedBook("First Author"));
+        BookEntity foundEntity = entityManager.find(BookEntity.class, 9780000010018L);
+        assertThat(foundEntity.getTitle()).isEqualTo("Second Title");
+        assertThat(foundEntity.getAuthorName()).isEqualTo("Second Author");
+    }
+
+    @Test
+    @DisplayName("When an ISBN is written as ISBN-10 and then as ISBN-13, both should key the same row")
+    void upsert_withTwoSpellingsOfOneIsbn_shouldWriteOneRow() {
+        // Act
+        ReplacedBook created = bookRepository.upsert(BookEntity.builder()
+                .isbn("0-306-40615-2")
+                .title("First Title")
+                .build());
+        ReplacedBook replaced = bookRepository.upsert(BookEntity.builder()
+                .isbn("978-0-306-40615-7")
+                .title("Second Title")
+                .build());
+        entityManager.clear();
+
+        // Assert
+        assertThat(created).isNull();
+        assertThat(replaced).isEqualTo(new ReplacedBook(null));
+        assertThat(bookRepository.count()).isEqualTo(1);
+        assertThat(bookRepository.findBookByIsbn(9780306406157L))
+                .contains(new Book("978-0-306-40615-7", "Second Title", null));
+    }
+
+    @Test
+    @DisplayName("When upserting a batch, it should insert new books, overwrite existing ones and report the books it replaced")
+    void upsertAll_shouldInsertAndUpdate() {
+        // Arrange
+        entityManager.persist(BookEntity.builder().isbn("9780000001115").title("Old Title").author(author("Old Author")).build());
+        entityManager.flush();
+
+        // Act
+        Map<Long, ReplacedBook> replaced = bookRepository.upsertAll(List.of(
+                BookEntity.builder().isbn("9780000001115").title("New Title").author(author("New Author")).build(),
+                BookEntity.builder().isbn("9780000002228").title("Book 2").author(author("Author 2")).build()));
+        entityManager.clear();
+
+        // Assert
+        assertThat(replaced).containsExactly(entry(9780000001115L, new ReplacedBook("Old Author")));
+        assertThat(entityManager.find(BookEntity.class, 9780000001115L).getTitle()).isEqualTo("New Title");
+        assertThat(entityManager.find(BookEntity.class, 9780000002228L).getTitle()).isEqualTo("Book 2");
+    }
+
+    @Test
+    @DisplayName("A deleted book should be hidden from reads but listed as a tombstone in the changes, in write order")
+    void markDeleted_shouldLeaveTombstoneInChanges() {
+        // Arrange
+        bookRepository.upsert(BookEntity.builder().isbn("9780000001115").title("Emma").author(author("Austen")).build());
+        bookRepository.upsert(BookEntity.builder().isbn("9780000002228").title("Dune").author(author("Herbert")).build());
+
+        // Act
+        ReplacedBook deleted = bookRepository.markDeleted(9780000001115L);
+        ReplacedBook deletedAgain = bookRepository.markDeleted(9780000001115L);
+        entityManager.clear();
+
+        // Assert
+        assertThat(deleted).isEqualTo(new ReplacedBook("Austen"));
+        assertThat(deletedAgain).isNull();
+        assertThat(bookRepository.markDeleted(9780000010049L)).isNull();
+        assertThat(bookRepository.existsById(9780000001115L)).isFalse();
+        assertThat(bookRepository.findBookByIsbn(9780000001115L)).isEmpty();
+        assertThat(bookRepository.count()).isEqualTo(1);
+
+        List<BookChange> changes = bookRepository.findChanges(0, 10);
+        assertThat(changes).extracting(BookChange::getIsbn).containsExactly("9780000002228", "9780000001115");
+        assertThat(changes.get(0).isDeleted()).isFalse();
+        assertThat(changes.get(0).getTitle()).isEqualTo("Dune");
+        assertThat(changes.get(1).isDeleted()).isTrue();
+        assertThat(changes.get(1).getTitle()).isNull();
+        assertThat(changes.get(1).getVersion()).isGreaterThan(changes.get(0).getVersion());
+        assertThat(bookRepository.findChanges(changes.get(0).getVersion(), 10)).containsExactly(changes.get(1));
+    }
+
+    @Test
+    @DisplayName("Upserting a deleted book should revive it as a new book with a new version")
+    void upsert_afterDelete_shouldReviveBook() {
+        // Arrange
+        bookRepository.upsert(BookEntity.builder().isbn("9780000001115").title("Emma").author(author("Austen")).build());
+        bookRepository.markDeleted(9780000001115L);
+        long deletedVersion = bookRepository.findChanges(0, 10).get(0).getVersion();
+
+        // Act
+        ReplacedBook replaced = bookRepository.upsert(BookEntity.builder().isbn("9780000001115").title("Persuasion").author(author("Austen")).build());
+        entityManager.clear();
+
+        // Assert
+        assertThat(replaced).isNull();
+        assertThat(bookRepository.findBookByIsbn(9780000001115L)).map(Book::getTitle).contains("Persuasion");
+        assertThat(bookRepository.findChanges(deletedVersion, 10))
+                .extracting(BookChange::getIsbn, BookChange::isDeleted)
+                .containsExactly(tuple("9780000001115", false));
+    }
+
+    @Test
+    @DisplayName("A snapshot export should stream live books in ISBN-13 order with the latest change version")
+    void exportSnapshot_shouldStreamLiveBooksInIsbn13Order() {
+        // Arrange
+        bookRepository.upsert(BookEntity.builder().isbn("978-1-86197-271-2").title("B").author(author("Author")).build());
+        bookRepository.upsert(BookEntity.builder().isbn("0-306-40615-2").title("A").author(author("Author")).build());
+        bookRepository.upsert(BookEntity.builder().isbn("9780000001115").title("Gone").author(author("Author")).build());
+        bookRepository.markDeleted(9780000001115L);
+        long latestVersion = bookRepository.findChanges(0, 10).get(2).getVersion();
+
+        // Act
+        List<Book> exported = new ArrayList<>();
+        long version = bookRepository.exportSnapshot(exported::add);
+
+        // Assert
+        assertThat(exported).extracting(Book::getIsbn).containsExactly("0-306-40615-2", "978-1-86197-271-2");
+        assertThat(exported.get(0).getTitle()).isEqualTo("A");
+        assertThat(version).isEqualTo(latestVersion);
+    }
+
+    @Test
+    @DisplayName("Rows written before change versions existed should enter the changes once backfilled")
+    void backfillChangeVersions_shouldVersionUnversionedRows() {
+        // Arrange
+        entityManager.persist(BookEntity.builder().isbn("9780000001115").title("Old").author(author("Author")).build());
+        entityManager.flush();
+
+        // Act
+        int backfilled = bookRepository.backfillChangeVersions();
+
+        // Assert
+        assertThat(backfilled).isEqualTo(1);
+        assertThat(bookRepository.findChanges(0, 10)).extracting(BookChange::getIsbn).containsExactly("9780000001115");
+        assertThat(bookRepository.backfillChangeVersions()).isZero();
     }
 
     @Test
@@ -112,23 +579,23 @@ public class BookRepositoryTest {
     void existsById_whenBookExists_shouldReturnTrue() {
         // Arrange
         BookEntity bookEntity = BookEntity.builder()
-                .isbn("exists")
+                .isbn("9780000010025")
                 .title("Existing Book")
-                .author("Existing Author")
+                .author(author("Existing Author"))
                 .build();
         
         entityManager.persist(bookEntity);
         entityManager.flush();
 
         // Act & Assert
-        assertThat(bookRepository.existsById("exists")).isTrue();
+        assertThat(bookRepository.existsById(9780000010025L)).isTrue();
     }
 
     @Test
     @DisplayName("When checking if a book exists by ID, it should return false for non-existent books")
     void existsById_whenBookDoesNotExist_shouldReturnFalse() {
         // Act & Assert
-        assertThat(bookRepository.existsById("nonexistent")).isFalse();
+        assertThat(bookRepository.existsById(9780000010056L)).isFalse();
     }
 
     @Test
@@ -136,20 +603,56 @@ public class BookRepositoryTest {
     void deleteById_shouldRemoveBookFromDatabase() {
         // Arrange
         BookEntity bookEntity = BookEntity.builder()
-                .isbn("delete-me")
+                .isbn("9780000010032")
                 .title("Book to Delete")
-                .author("Delete Author")
+                .author(author("Delete Author"))
                 .build();
         
         entityManager.persist(bookEntity);
         entityManager.flush();
         
-        assertThat(entityManager.find(BookEntity.class, "delete-me")).isNotNull();
+        assertThat(entityManager.find(BookEntity.class, 9780000010032L)).isNotNull();
 
         // Act
-        bookRepository.deleteById("delete-me");
+        bookRepository.deleteById(9780000010032L);
         
         // Assert
-        assertThat(entityManager.find(BookEntity.class, "delete-me")).isNull();
+        assertThat(entityManager.find(BookEntity.class, 9780000010032L)).isNull();
+    }
+
+    @Test
+    @DisplayName("Top authors should be counted per author, most books first, skipping books without an author")
+    void findTopAuthors_shouldCountBooksPerAuthor() {
+        entityManager.persist(BookEntity.builder().isbn("9780000000101").title("Emma").author(author("Austen")).build());
+        entityManager.persist(BookEntity.builder().isbn("9780000000200").title("Persuasion").author(author("Austen")).build());
+        entityManager.persist(BookEntity.builder().isbn("9780000000309").title("Dune").author(author("Herbert")).build());
+        entityManager.persist(BookEntity.builder().isbn("9780000000408").title("Anonymous").build());
+        entityManager.persist(BookEntity.builder().isbn("9780000000507").title("Jane Eyre").author(author("Bronte")).build());
+        entityManager.flush();
+
+        assertThat(bookRepository.findTopAuthors(Limit.of(2))).containsExactly(
+                new AuthorStats("Austen", 2), new AuthorStats("Bronte", 1));
+    }
+
+    @Test
+    @DisplayName("Authors should be stored once and shared by all of their books")
+    void save_shouldReferenceOneAuthorRowPerName() {
+        // Arrange
+        persistBook("9780000000101", "Emma", "Austen");
+        persistBook("9780000000200", "Persuasion", "Austen");
+        entityManager.flush();
+        entityManager.clear();
+
+        // Act
+        Long authors = entityManager.getEntityManager()
+                .createQuery("select count(a) from AuthorEntity a", Long.class)
+                .getSingleResult();
+
+        // Assert
+        assertThat(authors).isEqualTo(1L);
+        assertThat(bookRepository.findById(9780000000101L).map(BookEntity::getAuthorId))
+                .isEqualTo(bookRepository.findById(9780000000200L).map(BookEntity::getAuthorId));
+        assertThat(bookRepository.findBooksByIsbnIn(List.of(9780000000101L, 9780000000200L)))
+                .extracting(Book::getAuthor).containsOnly("Austen");
     }
-}
\ No newline at end of file
+}
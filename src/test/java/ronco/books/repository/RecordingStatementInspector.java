@@ -0,0 +1,22 @@
+package ronco.books.repository;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Remembers the last SQL statement Hibernate prepared, so a test can ask the database
+ * for its plan.
+ */
+public class RecordingStatementInspector implements StatementInspector {
+
+    private static volatile String lastSql;
+
+    public static String lastSql() {
+        return lastSql;
+    }
+
+    @Override
+    public String inspect(final String sql) {
+        lastSql = sql;
+        return sql;
+    }
+}
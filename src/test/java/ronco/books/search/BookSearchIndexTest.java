@@ -0,0 +1,141 @@
+package ronco.books.search;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BookSearchIndexTest {
+
+    private BookSearchIndex bookSearchIndex;
+
+    @BeforeEach
+    void setUp() {
+        bookSearchIndex = new BookSearchIndex(new SimpleMeterRegistry());
+    }
+
+    private void load(Book... books) {
+        bookSearchIndex.loadStarted();
+        for (Book book : books) {
+            bookSearchIndex.bookLoaded(book);
+        }
+        bookSearchIndex.loadCompleted();
+    }
+
+    private static long isbn13(int id) {
+        return Isbn.withCheckDigit(978_000_000_000L + id);
+    }
+
+    private static Book book(int id, String title, String author) {
+        return Book.builder().isbn(Isbn.format(isbn13(id))).title(title).author(author).build();
+    }
+
+    @Test
+    @DisplayName("Before the catalog is loaded, searching should fail rather than return an empty result")
+    void search_beforeLoad_shouldThrow() {
+        assertThatThrownBy(() -> bookSearchIndex.search("tolkien", 0, 10)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    @DisplayName("Terms should be normalized, stop words ignored and the last term matched as a prefix")
+    void search_shouldMatchAllTermsWithLastAsPrefix() {
+        load(book(1, "The Lord of the Rings", "J. R. R. Tolkien"),
+                book(2, "The Hobbit", "J. R. R. Tolkien"),
+                book(3, "Jane Eyre", "Charlotte Brontë"),
+                book(4, "Ring of Fire", "Someone Else"));
+
+        assertThat(bookSearchIndex.search("TOLKIEN, ring", 0, 10).isbn13s()).containsExactly(isbn13(1));
+        assertThat(bookSearchIndex.search("the bronte", 0, 10).isbn13s()).containsExactly(isbn13(3));
+        assertThat(bookSearchIndex.search("hobbit tolkien", 0, 10).isbn13s()).containsExactly(isbn13(2));
+        assertThat(bookSearchIndex.search("ring tolkien", 0, 10).isbn13s()).isEmpty();
+        assertThat(bookSearchIndex.search("of the", 0, 10).isbn13s()).isEmpty();
+        assertThat(bookSearchIndex.search("of the", 0, 10).total()).isZero();
+    }
+
+    @Test
+    @DisplayName("Title matches should outrank author matches, ties should keep catalog order and pages should not overlap")
+    void search_shouldRankAndPage() {
+        load(book(1, "Dune Messiah", "Frank Herbert"),
+                book(2, "Dune", "Frank Herbert"),
+                book(3, "Other", "Dune Writer"),
+                book(4, "Unrelated", "Nobody"));
+
+        BookSearchIndex.Hits firstPage = bookSearchIndex.search("dune", 0, 2);
+        BookSearchIndex.Hits secondPage = bookSearchIndex.search("dune", 2, 2);
+
+        assertThat(firstPage.isbn13s()).containsExactly(isbn13(1), isbn13(2));
+        assertThat(firstPage.total()).isEqualTo(3);
+        assertThat(secondPage.isbn13s()).containsExactly(isbn13(3));
+        assertThat(bookSearchIndex.search("dune", 4, 2).isbn13s()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("A prefix starting more terms than are expanded should be reported as truncated")
+    void search_whenPrefixHasTooManyExpansions_shouldReportTruncated() {
+        load(IntStream.rangeClosed(0, BookSearchIndex.MAX_PREFIX_EXPANSIONS)
+                .mapToObj(i -> book(i, String.format("Saga%04d", i), "Author"))
+                .toArray(Book[]::new));
+
+        BookSearchIndex.Hits truncated = bookSearchIndex.search("saga", 0, 10);
+        BookSearchIndex.Hits complete = bookSearchIndex.search("saga00", 0, 10);
+
+        assertThat(truncated.truncated()).isTrue();
+        assertThat(truncated.total()).isEqualTo(BookSearchIndex.MAX_PREFIX_EXPANSIONS);
+        assertThat(complete.truncated()).isFalse();
+        assertThat(complete.total()).isEqualTo(100);
+        assertThat(bookSearchIndex.search("saga0256", 0, 10).truncated()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Saves and deletes should be searchable at once and survive compaction")
+    void search_shouldFollowWrites() {
+        load();
+        IntStream.range(0, 3000).forEach(i -> bookSearchIndex.bookSaved(book(i, "Volume " + i, "Author")));
+        // Retitling tombstones the old documents and triggers compaction along the way
+        IntStream.range(0, 2000).forEach(i -> bookSearchIndex.bookSaved(book(i, "Tome " + i, "Author")));
+        bookSearchIndex.bookDeleted(isbn13(2999));
+
+        assertThat(bookSearchIndex.search("volume", 0, 10).total()).isEqualTo(999);
+        assertThat(bookSearchIndex.search("tome", 0, 10).total()).isEqualTo(2000);
+        assertThat(bookSearchIndex.search("tome 1500", 0, 10).isbn13s()).containsExactly(isbn13(1500));
+        assertThat(bookSearchIndex.search("volume 2999", 0, 10).isbn13s()).isEmpty();
+        assertThat(bookSearchIndex.search("author", 0, 10).total()).isEqualTo(2999);
+    }
+
+    @Test
+    @DisplayName("A write made while a load is running should win over the row the load reads")
+    void bookSaved_duringLoad_shouldWinOverLoadedRow() {
+        bookSearchIndex.loadStarted();
+        bookSearchIndex.bookSaved(book(1, "New Title", "Author"));
+        bookSearchIndex.bookDeleted(isbn13(2));
+        bookSearchIndex.bookLoaded(book(1, "Old Title", "Author"));
+        bookSearchIndex.bookLoaded(book(2, "Deleted", "Author"));
+        bookSearchIndex.loadCompleted();
+
+        assertThat(bookSearchIndex.search("new", 0, 10).isbn13s()).containsExactly(isbn13(1));
+        assertThat(bookSearchIndex.search("old", 0, 10).isbn13s()).isEmpty();
+        assertThat(bookSearchIndex.search("deleted", 0, 10).isbn13s()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("When a reload fails, the index loaded before should keep serving, with the writes made meanwhile")
+    void loadFailed_shouldKeepServingPreviousIndex() {
+        load(book(1, "Emma", "Austen"));
+        bookSearchIndex.loadStarted();
+        bookSearchIndex.bookLoaded(book(2, "Partial", "Author"));
+        bookSearchIndex.bookSaved(book(3, "Persuasion", "Austen"));
+        bookSearchIndex.loadFailed();
+
+        assertThat(bookSearchIndex.search("austen", 0, 10).isbn13s()).containsExactlyInAnyOrder(isbn13(1), isbn13(3));
+        assertThat(bookSearchIndex.search("partial", 0, 10).isbn13s()).isEmpty();
+        bookSearchIndex.bookSaved(book(4, "Sanditon", "Austen"));
+        assertThat(bookSearchIndex.search("sanditon", 0, 10).isbn13s()).containsExactly(isbn13(4));
+    }
+}
@@ -0,0 +1,129 @@
+package ronco.books.search;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+import ronco.books.model.BookSuggestion;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BookSuggestIndexTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private BookSuggestIndex bookSuggestIndex;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        bookSuggestIndex = new BookSuggestIndex(meterRegistry);
+    }
+
+    private void load(Book... books) {
+        bookSuggestIndex.loadStarted();
+        for (Book book : books) {
+            bookSuggestIndex.bookLoaded(book);
+        }
+        bookSuggestIndex.loadCompleted();
+    }
+
+    private static long isbn13(int id) {
+        return Isbn.withCheckDigit(978_000_000_000L + id);
+    }
+
+    private static Book book(int id, String title, String author) {
+        return Book.builder().isbn(Isbn.format(isbn13(id))).title(title).author(author).build();
+    }
+
+    private List<String> suggest(String prefix, int limit) {
+        return bookSuggestIndex.suggest(prefix, limit).stream().map(BookSuggestion::getText).toList();
+    }
+
+    @Test
+    @DisplayName("Before the catalog is loaded, suggesting should fail rather than return nothing")
+    void suggest_beforeLoad_shouldThrow() {
+        assertThatThrownBy(() -> bookSuggestIndex.suggest("tol", 10)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    @DisplayName("Completions should be found from the start of any word, ignoring case and accents")
+    void suggest_shouldMatchWordStarts() {
+        load(book(1, "The Lord of the Rings", "J. R. R. Tolkien"),
+                book(2, "Jane Eyre", "Charlotte Brontë"),
+                book(3, "Rings of Saturn", "W. G. Sebald"));
+
+        assertThat(suggest("TOLK", 10)).containsExactly("J. R. R. Tolkien");
+        assertThat(suggest("bront", 10)).containsExactly("Charlotte Brontë");
+        assertThat(suggest("the lord", 10)).containsExactly("The Lord of the Rings");
+        assertThat(suggest("rings", 10)).containsExactly("Rings of Saturn", "The Lord of the Rings");
+        assertThat(suggest("of", 10)).isEmpty();
+        assertThat(suggest("  ", 10)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Completions carried by more books should rank first and report their book count")
+    void suggest_shouldRankByBookCount() {
+        load(book(1, "Dune", "Frank Herbert"),
+                book(2, "Dune Messiah", "Frank Herbert"),
+                book(3, "Dune", "Frank Herbert"),
+                book(4, "Dune", "Someone Else"));
+
+        List<BookSuggestion> suggestions = bookSuggestIndex.suggest("dune", 2);
+
+        assertThat(suggestions).containsExactly(
+                BookSuggestion.builder().text("Dune").field("title").books(3).build(),
+                BookSuggestion.builder().text("Dune Messiah").field("title").books(1).build());
+        assertThat(suggest("f", 1)).containsExactly("Frank Herbert");
+    }
+
+    @Test
+    @DisplayName("Saves, retitles and deletes should show up at once and survive merging into the sorted array")
+    void suggest_shouldFollowWrites() {
+        load(book(1, "Old Title", "Author"));
+        bookSuggestIndex.bookSaved(book(1, "New Title", "Author"));
+        IntStream.range(0, BookSuggestIndex.MIN_MERGE_SIZE)
+                .forEach(i -> bookSuggestIndex.bookSaved(book(100_000 + i, "Volume " + i, "Author")));
+        bookSuggestIndex.bookDeleted(isbn13(100_007));
+
+        assertThat(suggest("old", 10)).isEmpty();
+        assertThat(suggest("new", 10)).containsExactly("New Title");
+        assertThat(suggest("volume 7", 100)).doesNotContain("Volume 7").contains("Volume 70", "Volume 700");
+        assertThat(bookSuggestIndex.suggest("auth", 10)).singleElement()
+                .extracting(BookSuggestion::getBooks).isEqualTo(BookSuggestIndex.MIN_MERGE_SIZE);
+    }
+
+    @Test
+    @DisplayName("A write made while a load is running should win over the row the load reads")
+    void bookSaved_duringLoad_shouldWinOverLoadedRow() {
+        bookSuggestIndex.loadStarted();
+        bookSuggestIndex.bookSaved(book(1, "New Title", "Author"));
+        bookSuggestIndex.bookDeleted(isbn13(2));
+        bookSuggestIndex.bookLoaded(book(1, "Old Title", "Author"));
+        bookSuggestIndex.bookLoaded(book(2, "Deleted", "Author"));
+        bookSuggestIndex.loadCompleted();
+
+        assertThat(suggest("new", 10)).containsExactly("New Title");
+        assertThat(suggest("old", 10)).isEmpty();
+        assertThat(suggest("deleted", 10)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("The estimated memory should be published as a gauge and grow with the catalog")
+    void estimatedBytes_shouldBeReported() {
+        load(book(1, "Title", "Author"));
+        long small = bookSuggestIndex.estimatedBytes();
+        IntStream.range(0, 1000).forEach(i -> bookSuggestIndex.bookSaved(book(100_000 + i, "Title " + i, "Author " + i)));
+
+        assertThat(small).isPositive();
+        assertThat(meterRegistry.get("books.suggest.memory").gauge().value())
+                .isEqualTo((double) bookSuggestIndex.estimatedBytes())
+                .isGreaterThan(small + 1000 * 2 * 40);
+    }
+}
@@ -0,0 +1,75 @@
+package ronco.books.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import ronco.books.model.AuthorEntity;
+import ronco.books.repository.AuthorRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class AuthorDictionaryTest {
+
+    @Mock
+    private AuthorRepository authorRepository;
+
+    private AuthorDictionary authorDictionary;
+
+    @BeforeEach
+    void setUp() {
+        authorDictionary = new AuthorDictionary(authorRepository);
+    }
+
+    @Test
+    @DisplayName("Resolving a new author should create it once and serve later lookups from the cache")
+    void resolve_whenAuthorIsNew_shouldCreateAndCacheIt() {
+        when(authorRepository.findByName("Austen")).thenReturn(Optional.empty());
+        when(authorRepository.saveAndFlush(any(AuthorEntity.class))).thenReturn(new AuthorEntity(1, "Austen"));
+
+        AuthorEntity created = authorDictionary.resolve("Austen");
+        AuthorEntity again = authorDictionary.resolve("Austen");
+
+        assertThat(created.getId()).isEqualTo(1);
+        assertThat(again).isSameAs(created);
+        verify(authorRepository, times(1)).findByName("Austen");
+        verify(authorRepository, times(1)).saveAndFlush(any(AuthorEntity.class));
+    }
+
+    @Test
+    @DisplayName("When another instance creates the author first, resolving should return the stored row")
+    void resolve_whenCreatedConcurrently_shouldReturnStoredAuthor() {
+        when(authorRepository.findByName("Austen"))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(new AuthorEntity(2, "Austen")));
+        when(authorRepository.saveAndFlush(any(AuthorEntity.class)))
+                .thenThrow(new DataIntegrityViolationException("authors_name_key"));
+
+        AuthorEntity resolved = authorDictionary.resolve("Austen");
+
+        assertThat(resolved.getId()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Interning should return the loaded author's name instance, and unknown names unchanged")
+    void intern_shouldShareLoadedNames() {
+        String loaded = new String("Austen");
+        when(authorRepository.findAll()).thenReturn(List.of(new AuthorEntity(1, loaded)));
+        when(authorRepository.findByName("Nobody")).thenReturn(Optional.empty());
+        authorDictionary.load();
+
+        assertThat(authorDictionary.intern(new String("Austen"))).isSameAs(loaded);
+        assertThat(authorDictionary.intern("Nobody")).isEqualTo("Nobody");
+        assertThat(authorDictionary.intern(null)).isNull();
+        verify(authorRepository, never()).findByName("Austen");
+    }
+}
@@ -1,5 +1,6 @@
 package ronco.books.service.impl;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -7,18 +8,68 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.util.unit.DataSize;
+import ronco.books.cache.BookCache;
+import ronco.books.cache.CatalogVersion;
+import ronco.books.cache.IsbnFilter;
+import ronco.books.cache.OffHeapBookStore;
+import ronco.books.ingest.NdjsonBookFeed;
+import ronco.books.loader.BookBatchLoader;
+import ronco.books.model.AuthorEntity;
+import ronco.books.model.AuthorStats;
 import ronco.books.model.Book;
+import ronco.books.model.BookChange;
+import ronco.books.model.BookChangePage;
+import ronco.books.model.BookCursor;
 import ronco.books.model.BookEntity;
+import ronco.books.model.BookField;
+import ronco.books.model.BookLookupResult;
+import ronco.books.model.BookPage;
+import ronco.books.model.BookQuery;
+import ronco.books.model.BookSort;
+import ronco.books.model.BookStats;
+import ronco.books.model.BulkIngestResult;
+import ronco.books.model.Isbn;
+import ronco.books.model.ReplacedBook;
+import ronco.books.repository.AuthorRepository;
 import ronco.books.repository.BookRepository;
-
+import ronco.books.search.BookSearchIndex;
+import ronco.books.search.BookSuggestIndex;
+import ronco.books.service.AuthorDictionary;
+import ronco.books.snapshot.CatalogSnapshots;
+import ronco.books.stats.CatalogStats;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -27,31 +78,77 @@ public class BookServiceImplTest {
     @Mock
     private BookRepository bookRepository;
 
+    @Mock
+    private AuthorRepository authorRepository;
+
+    private BookCache bookCache;
+
+    private OffHeapBookStore offHeapBookStore;
+
+    @Mock
+    private CatalogSnapshots catalogSnapshots;
+
+    private IsbnFilter isbnFilter;
+
+    private BookSearchIndex bookSearchIndex;
+
+    private CatalogStats catalogStats;
+
+    private CatalogVersion catalogVersion;
+
+    private SimpleMeterRegistry meterRegistry;
+
     private BookServiceImpl bookService;
 
     @BeforeEach
     void setUp() {
-        bookService = new BookServiceImpl(bookRepository);
+        bookCache = new BookCache(100, Duration.ofMinutes(10), new SimpleMeterRegistry());
+        offHeapBookStore = new OffHeapBookStore(DataSize.ofKilobytes(64), new SimpleMeterRegistry());
+        isbnFilter = new IsbnFilter(1000, 0.01);
+        bookSearchIndex = new BookSearchIndex(new SimpleMeterRegistry());
+        catalogVersion = new CatalogVersion();
+        BookBatchLoader bookBatchLoader = new BookBatchLoader(
+                bookRepository, false, Duration.ofMillis(2), 100, 1, new SimpleMeterRegistry());
+        meterRegistry = new SimpleMeterRegistry();
+        AtomicInteger authorIds = new AtomicInteger();
+        lenient().when(authorRepository.findByName(anyString())).thenReturn(Optional.empty());
+        lenient().when(authorRepository.saveAndFlush(any(AuthorEntity.class))).thenAnswer(invocation -> {
+            AuthorEntity author = invocation.getArgument(0);
+            author.setId(authorIds.incrementAndGet());
+            return author;
+        });
+        AuthorDictionary authorDictionary = new AuthorDictionary(authorRepository);
+        catalogStats = new CatalogStats(bookRepository, authorDictionary, 10);
+        bookService = new BookServiceImpl(
+                bookRepository, authorDictionary, bookCache, offHeapBookStore, catalogSnapshots, isbnFilter, bookSearchIndex,
+                new BookSuggestIndex(new SimpleMeterRegistry()), catalogStats, catalogVersion, bookBatchLoader,
+                List.of(offHeapBookStore, isbnFilter, bookSearchIndex, catalogStats, catalogVersion), meterRegistry);
+    }
+
+    private static long isbn13(int id) {
+        return Isbn.withCheckDigit(978_000_000_000L + id);
+    }
+
+    private void loadIsbnFilter(String... isbns) {
+        isbnFilter.loadStarted();
+        for (String isbn : isbns) {
+            isbnFilter.bookLoaded(Book.builder().isbn(isbn).build());
+        }
+        isbnFilter.loadCompleted();
     }
 
     @Test
     @DisplayName("When saving a book, it should be converted and saved correctly")
     void save_shouldConvertAndSaveBook() {
         Book bookToSave = Book.builder()
-                .isbn("12345")
-                .title("Example Title")
-                .author("Example Author")
-                .build();
-
-        BookEntity savedEntity = BookEntity.builder()
-                .isbn("12345")
+                .isbn("9780000123459")
                 .title("Example Title")
                 .author("Example Author")
                 .build();
 
         ArgumentCaptor<BookEntity> bookEntityCaptor = ArgumentCaptor.forClass(BookEntity.class);
 
-        when(bookRepository.save(any(BookEntity.class))).thenReturn(savedEntity);
+        when(bookRepository.upsert(any(BookEntity.class))).thenReturn(null);
 
         Book result = bookService.save(bookToSave);
 
@@ -60,117 +157,680 @@ public class BookServiceImplTest {
         assertThat(result.getTitle()).isEqualTo(bookToSave.getTitle());
         assertThat(result.getAuthor()).isEqualTo(bookToSave.getAuthor());
 
-        verify(bookRepository).save(bookEntityCaptor.capture());
+        verify(bookRepository).upsert(bookEntityCaptor.capture());
         BookEntity capturedEntity = bookEntityCaptor.getValue();
 
         assertThat(capturedEntity.getIsbn()).isEqualTo(bookToSave.getIsbn());
         assertThat(capturedEntity.getTitle()).isEqualTo(bookToSave.getTitle());
-        assertThat(capturedEntity.getAuthor()).isEqualTo(bookToSave.getAuthor());
+        assertThat(capturedEntity.getAuthorName()).isEqualTo(bookToSave.getAuthor());
+    }
+
+    @Test
+    @DisplayName("When upserting a book, it should report whether it was created and refresh the cache")
+    void upsert_shouldReportCreatedAndRefreshCache() {
+        Book book = Book.builder().isbn("9780000123459").title("Title").author("Author").build();
+        when(bookRepository.upsert(any(BookEntity.class))).thenReturn(null);
+
+        boolean created = bookService.upsert(book);
+
+        assertThat(created).isTrue();
+        assertThat(bookService.findById("9780000123459")).map(Book::getTitle).contains("Title");
+        verify(bookRepository, never()).save(any(BookEntity.class));
+        verify(bookRepository, never()).existsById(anyLong());
+        verify(bookRepository, never()).findBookByIsbn(anyLong());
+    }
+
+    @Test
+    @DisplayName("When ingesting a feed, it should write in batches and report malformed items by line")
+    void ingest_shouldBatchWritesAndReportFailures() throws IOException {
+        String ndjson = IntStream.range(0, BookServiceImpl.INGEST_BATCH_SIZE + 1)
+                .mapToObj(i -> "{\"isbn\":\"" + Isbn.format(isbn13(i)) + "\",\"title\":\"Book " + i + "\"}")
+                .collect(Collectors.joining("\n")) + "\nnot json\n{\"title\":\"No ISBN\"}\n";
+
+        BulkIngestResult result = bookService.ingest(new NdjsonBookFeed(
+                new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)), new ObjectMapper()));
+
+        assertThat(result.getReceived()).isEqualTo(BookServiceImpl.INGEST_BATCH_SIZE + 3);
+        assertThat(result.getWritten()).isEqualTo(BookServiceImpl.INGEST_BATCH_SIZE + 1);
+        assertThat(result.getFailed()).isEqualTo(2);
+        assertThat(result.getErrors()).extracting(error -> error.getLine())
+                .containsExactly((long) BookServiceImpl.INGEST_BATCH_SIZE + 2, (long) BookServiceImpl.INGEST_BATCH_SIZE + 3);
+        verify(bookRepository, times(2)).upsertAll(anyList());
+        verify(bookRepository, never()).save(any(BookEntity.class));
+    }
+
+    @Test
+    @DisplayName("When ingesting a feed, invalid ISBNs should be reported and two spellings of one ISBN written once")
+    void ingest_shouldRejectInvalidIsbnsAndMergeSpellings() throws IOException {
+        String ndjson = """
+                {"isbn":"0-306-40615-2","title":"First"}
+                {"isbn":"12345","title":"Invalid"}
+                {"isbn":"978-0-306-40615-7","title":"Second"}
+                """;
+
+        BulkIngestResult result = bookService.ingest(new NdjsonBookFeed(
+                new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)), new ObjectMapper()));
+
+        assertThat(result.getWritten()).isEqualTo(2);
+        assertThat(result.getFailed()).isEqualTo(1);
+        assertThat(result.getErrors().get(0).getIsbn()).isEqualTo("12345");
+        assertThat(result.getErrors().get(0).getMessage()).isEqualTo("Invalid ISBN");
+        verify(bookRepository).upsertAll(argThat(entities -> entities.size() == 1
+                && entities.get(0).getIsbn13() == 9780306406157L
+                && entities.get(0).getTitle().equals("Second")));
+    }
+
+    @Test
+    @DisplayName("When a batch fails, it should retry row by row and only report the rows that still fail")
+    void ingest_whenBatchFails_shouldIsolateFailingRows() throws IOException {
+        doThrow(new DataIntegrityViolationException("batch")).when(bookRepository).upsertAll(anyList());
+        when(bookRepository.upsert(any(BookEntity.class))).thenAnswer(invocation -> {
+            BookEntity entity = invocation.getArgument(0);
+            if ("9780000010117".equals(entity.getIsbn())) {
+                throw new DataIntegrityViolationException("title too long");
+            }
+            return null;
+        });
+        String ndjson = "{\"isbn\":\"9780000010100\"}\n{\"isbn\":\"9780000010117\"}\n";
+
+        BulkIngestResult result = bookService.ingest(new NdjsonBookFeed(
+                new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)), new ObjectMapper()));
+
+        assertThat(result.getWritten()).isEqualTo(1);
+        assertThat(result.getFailed()).isEqualTo(1);
+        assertThat(result.getErrors().get(0).getIsbn()).isEqualTo("9780000010117");
+        assertThat(result.getErrors().get(0).getLine()).isEqualTo(2);
     }
 
     @Test
     @DisplayName("When searching for an existing book by ID, it should return the matching book")
     void findById_whenBookExists_shouldReturnBook() {
-        String isbn = "12345";
-        BookEntity foundEntity = BookEntity.builder()
+        String isbn = "9780000123459";
+        Book foundBook = Book.builder()
                 .isbn(isbn)
                 .title("Existing Title")
                 .author("Existing Author")
                 .build();
 
-        when(bookRepository.findById(isbn)).thenReturn(Optional.of(foundEntity));
+        when(bookRepository.findBookByIsbn(Isbn.parse(isbn))).thenReturn(Optional.of(foundBook));
 
         Optional<Book> result = bookService.findById(isbn);
 
         assertThat(result).isPresent();
         assertThat(result.get().getIsbn()).isEqualTo(isbn);
-        assertThat(result.get().getTitle()).isEqualTo(foundEntity.getTitle());
-        assertThat(result.get().getAuthor()).isEqualTo(foundEntity.getAuthor());
+        assertThat(result.get().getTitle()).isEqualTo(foundBook.getTitle());
+        assertThat(result.get().getAuthor()).isEqualTo(foundBook.getAuthor());
 
-        verify(bookRepository, times(1)).findById(isbn);
+        verify(bookRepository, times(1)).findBookByIsbn(Isbn.parse(isbn));
     }
 
     @Test
     @DisplayName("When searching for a non-existent book, it should return an empty Optional")
     void findById_whenBookDoesNotExist_shouldReturnEmpty() {
-        String isbn = "nonexistent";
-        when(bookRepository.findById(isbn)).thenReturn(Optional.empty());
+        String isbn = "9780000010056";
+        when(bookRepository.findBookByIsbn(Isbn.parse(isbn))).thenReturn(Optional.empty());
 
         Optional<Book> result = bookService.findById(isbn);
 
         assertThat(result).isEmpty();
-        verify(bookRepository, times(1)).findById(isbn);
+        verify(bookRepository, times(1)).findBookByIsbn(Isbn.parse(isbn));
+    }
+
+    @Test
+    @DisplayName("When the same book is looked up twice, the second lookup should be served from the cache")
+    void findById_whenCalledTwice_shouldHitRepositoryOnce() {
+        String isbn = "9780000123459";
+        when(bookRepository.findBookByIsbn(Isbn.parse(isbn))).thenReturn(Optional.of(
+                Book.builder().isbn(isbn).title("Cached Title").author("Cached Author").build()));
+
+        bookService.findById(isbn);
+        Optional<Book> result = bookService.findById(isbn);
+
+        assertThat(result).map(Book::getTitle).contains("Cached Title");
+        verify(bookRepository, times(1)).findBookByIsbn(Isbn.parse(isbn));
+        assertThat(bookCache.stats().hitCount()).isEqualTo(1);
+        assertThat(bookCache.stats().missCount()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("When a book is held off-heap but not in the cache, it should be served and promoted without a query")
+    void findById_whenHeldOffHeap_shouldNotQueryRepository() {
+        offHeapBookStore.loadStarted();
+        offHeapBookStore.bookLoaded(Book.builder().isbn("9780000123459").title("Stored Title").author("Author").build());
+        offHeapBookStore.loadCompleted();
+
+        assertThat(bookService.findById("9780000123459")).map(Book::getTitle).contains("Stored Title");
+        assertThat(bookService.findAllById(List.of("9780000123459")).getFound()).extracting(Book::getTitle)
+                .containsExactly("Stored Title");
+
+        verifyNoInteractions(bookRepository);
+        assertThat(bookCache.stats().hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("When a book is only in the mapped snapshot, it should be served from it without a query")
+    void findById_whenInSnapshot_shouldNotQueryRepository() {
+        when(catalogSnapshots.find(9780000123459L)).thenReturn(Book.builder().isbn("9780000123459").title("Snapshot Title").build());
+
+        assertThat(bookService.findById("9780000123459")).map(Book::getTitle).contains("Snapshot Title");
+        assertThat(bookService.findById("9780000123459")).map(Book::getTitle).contains("Snapshot Title");
+
+        verify(catalogSnapshots, times(1)).find(9780000123459L);
+        verifyNoInteractions(bookRepository);
+    }
+
+    @Test
+    @DisplayName("When a book is deleted, it should no longer be served from the off-heap store")
+    void deleteBookById_shouldDropOffHeapCopy() {
+        offHeapBookStore.put(Book.builder().isbn("9780000123459").title("Title").author("Author").build());
+        when(bookRepository.markDeleted(9780000123459L)).thenReturn(new ReplacedBook("Author"));
+
+        bookService.deleteBookById("9780000123459");
+
+        assertThat(offHeapBookStore.get(9780000123459L)).isNull();
+    }
+
+    @Test
+    @DisplayName("When a book is saved, subsequent lookups should see the saved version without a query")
+    void save_shouldRefreshCachedBook() {
+        Book updated = Book.builder().isbn("9780000123459").title("New Title").author("Author").build();
+        when(bookRepository.upsert(any(BookEntity.class))).thenReturn(new ReplacedBook("Author"));
+        bookCache.put(Book.builder().isbn("9780000123459").title("Old Title").author("Author").build());
+
+        bookService.save(updated);
+        Optional<Book> result = bookService.findById("9780000123459");
+
+        assertThat(result).map(Book::getTitle).contains("New Title");
+        verify(bookRepository, never()).findBookByIsbn(anyLong());
+    }
+
+    @Test
+    @DisplayName("When a book is deleted, it should be evicted from the cache")
+    void deleteBookById_shouldInvalidateCachedBook() {
+        bookCache.put(Book.builder().isbn("9780000123459").title("Title").author("Author").build());
+        when(bookRepository.findBookByIsbn(9780000123459L)).thenReturn(Optional.empty());
+
+        bookService.deleteBookById("9780000123459");
+
+        assertThat(bookService.findById("9780000123459")).isEmpty();
+        verify(bookRepository, times(1)).findBookByIsbn(9780000123459L);
+    }
+
+    @Test
+    @DisplayName("When looking up many books, cached books should skip the query and missing ISBNs should be listed")
+    void findAllById_shouldUseCacheAndReportMissing() {
+        loadIsbnFilter("9780000010070", "9780000010087", "9780000010094");
+        bookCache.put(Book.builder().isbn("9780000010070").title("Cached").build());
+        when(bookRepository.findBooksByIsbnIn(List.of(9780000010087L, 9780000010094L))).thenReturn(List.of(
+                Book.builder().isbn("9780000010087").title("Stored").build()));
+
+        BookLookupResult result = bookService.findAllById(List.of("9780000010087", "9780000010070", "9780000010063", "9780000010094", "9780000010087"));
+
+        assertThat(result.getFound()).extracting(Book::getIsbn).containsExactly("9780000010087", "9780000010070");
+        assertThat(result.getMissing()).containsExactly("9780000010063", "9780000010094");
+        assertThat(bookService.findById("9780000010087")).isPresent();
+        verify(bookRepository, never()).findBookByIsbn(anyLong());
+    }
+
+    @Test
+    @DisplayName("When looking up more books than fit in one query, it should split the IN list into chunks")
+    void findAllById_whenManyIsbns_shouldQueryInChunks() {
+        List<String> isbns = IntStream.range(0, BookServiceImpl.LOOKUP_CHUNK_SIZE + 1)
+                .mapToObj(i -> Isbn.format(isbn13(i)))
+                .collect(Collectors.toList());
+        when(bookRepository.findBooksByIsbnIn(anyList())).thenReturn(Collections.emptyList());
+
+        BookLookupResult result = bookService.findAllById(isbns);
+
+        assertThat(result.getMissing()).hasSize(isbns.size());
+        verify(bookRepository, times(2)).findBooksByIsbnIn(anyList());
+    }
+
+    @Test
+    @DisplayName("When many threads miss on the same ISBN at once, only one of them should query the repository")
+    void findById_whenConcurrentMisses_shouldLoadOnce() throws Exception {
+        int callers = 8;
+        CountDownLatch queryStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(bookRepository.findBookByIsbn(9780000123459L)).thenAnswer(invocation -> {
+            queryStarted.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Optional.of(Book.builder().isbn("9780000123459").title("Popular").build());
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            Future<Optional<Book>> leader = executor.submit(() -> bookService.findById("9780000123459"));
+            queryStarted.await(5, TimeUnit.SECONDS);
+            List<Future<Optional<Book>>> followers = new ArrayList<>();
+            for (int i = 1; i < callers; i++) {
+                followers.add(executor.submit(() -> bookService.findById("9780000123459")));
+            }
+            // The leader is still inside the query, so every follower has to join its flight
+            while (meterRegistry.get("books.single-flight.shared").tag("operation", "findById").functionCounter().count()
+                    < callers - 1) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertThat(leader.get(5, TimeUnit.SECONDS)).map(Book::getTitle).contains("Popular");
+            for (Future<Optional<Book>> follower : followers) {
+                assertThat(follower.get(5, TimeUnit.SECONDS)).map(Book::getTitle).contains("Popular");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(bookRepository, times(1)).findBookByIsbn(9780000123459L);
+        assertThat(meterRegistry.get("books.single-flight.loads").tag("operation", "findById").functionCounter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("When a book is deleted while a slow lookup is reading it, the lookup should not cache the deleted book")
+    void findById_whenDeletedDuringLoad_shouldNotCacheDeletedBook() throws Exception {
+        CountDownLatch queryStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(bookRepository.findBookByIsbn(9780000123459L))
+                .thenAnswer(invocation -> {
+                    queryStarted.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                    return Optional.of(Book.builder().isbn("9780000123459").title("Deleted").build());
+                })
+                .thenReturn(Optional.empty());
+        when(bookRepository.markDeleted(9780000123459L)).thenReturn(new ReplacedBook("Author"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Optional<Book>> slowLookup = executor.submit(() -> bookService.findById("9780000123459"));
+            queryStarted.await(5, TimeUnit.SECONDS);
+            // The lookup has read the row; the delete commits and evicts before it gets to cache it
+            bookService.deleteBookById("9780000123459");
+            release.countDown();
+
+            assertThat(slowLookup.get(5, TimeUnit.SECONDS)).map(Book::getTitle).contains("Deleted");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(bookCache.get(9780000123459L)).isNull();
+        assertThat(bookService.findById("9780000123459")).isEmpty();
+        verify(bookRepository, times(2)).findBookByIsbn(9780000123459L);
+    }
+
+    @Test
+    @DisplayName("When a lookup starts after a delete, it should not join a lookup of the book that began before it")
+    void findById_whenDeletedDuringLoad_shouldNotShareLoadWithLaterCaller() throws Exception {
+        CountDownLatch queryStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(bookRepository.findBookByIsbn(9780000123459L))
+                .thenAnswer(invocation -> {
+                    queryStarted.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                    return Optional.of(Book.builder().isbn("9780000123459").title("Deleted").build());
+                })
+                .thenReturn(Optional.empty());
+        when(bookRepository.markDeleted(9780000123459L)).thenReturn(new ReplacedBook("Author"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Optional<Book>> slowLookup = executor.submit(() -> bookService.findById("9780000123459"));
+            queryStarted.await(5, TimeUnit.SECONDS);
+            bookService.deleteBookById("9780000123459");
+
+            // Still in flight, but it began before the delete this caller has seen
+            assertThat(bookService.findById("9780000123459")).isEmpty();
+
+            release.countDown();
+            assertThat(slowLookup.get(5, TimeUnit.SECONDS)).map(Book::getTitle).contains("Deleted");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(bookRepository, times(2)).findBookByIsbn(9780000123459L);
+    }
+
+    @Test
+    @DisplayName("When a page is requested after a write, it should not join a read of the page that began before it")
+    void listBooksPage_whenWrittenDuringLoad_shouldNotShareLoadWithLaterCaller() throws Exception {
+        CountDownLatch queryStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(bookRepository.findBooksOrderByIsbn(Limit.of(3)))
+                .thenAnswer(invocation -> {
+                    queryStarted.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                    return List.of(Book.builder().isbn("9780000000101").title("Old Title").build());
+                })
+                .thenReturn(List.of(Book.builder().isbn("9780000000101").title("New Title").build()));
+        when(bookRepository.upsert(any(BookEntity.class))).thenReturn(new ReplacedBook(null));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<BookPage> slowPage = executor.submit(() -> bookService.listBooks(null, 2));
+            queryStarted.await(5, TimeUnit.SECONDS);
+            bookService.save(Book.builder().isbn("9780000000101").title("New Title").build());
+
+            assertThat(bookService.listBooks(null, 2).getBooks()).extracting(Book::getTitle).containsExactly("New Title");
+
+            release.countDown();
+            assertThat(slowPage.get(5, TimeUnit.SECONDS).getBooks()).extracting(Book::getTitle).containsExactly("Old Title");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(bookRepository, times(2)).findBooksOrderByIsbn(Limit.of(3));
     }
 
     @Test
     @DisplayName("When requesting all books, it should return a complete and correctly converted list")
     void listBooks_shouldReturnAllBooks() {
-        List<BookEntity> bookEntities = Arrays.asList(
-                BookEntity.builder().isbn("1").title("Book 1").author("Author 1").build(),
-                BookEntity.builder().isbn("2").title("Book 2").author("Author 2").build()
+        List<Book> books = Arrays.asList(
+                Book.builder().isbn("9780000000101").title("Book 1").author("Author 1").build(),
+                Book.builder().isbn("9780000000200").title("Book 2").author("Author 2").build()
         );
 
-        when(bookRepository.findAll()).thenReturn(bookEntities);
+        when(bookRepository.findAllBooks()).thenReturn(books);
 
         List<Book> result = bookService.listBooks();
 
         assertThat(result).hasSize(2);
-        assertThat(result.get(0).getIsbn()).isEqualTo("1");
+        assertThat(result.get(0).getIsbn()).isEqualTo("9780000000101");
         assertThat(result.get(0).getTitle()).isEqualTo("Book 1");
         assertThat(result.get(0).getAuthor()).isEqualTo("Author 1");
 
-        assertThat(result.get(1).getIsbn()).isEqualTo("2");
+        assertThat(result.get(1).getIsbn()).isEqualTo("9780000000200");
         assertThat(result.get(1).getTitle()).isEqualTo("Book 2");
         assertThat(result.get(1).getAuthor()).isEqualTo("Author 2");
 
-        verify(bookRepository, times(1)).findAll();
+        verify(bookRepository, times(1)).findAllBooks();
     }
 
     @Test
     @DisplayName("When requesting an empty book list, it should return an empty list")
     void listBooks_whenNoBooks_shouldReturnEmptyList() {
-        when(bookRepository.findAll()).thenReturn(Collections.emptyList());
+        when(bookRepository.findAllBooks()).thenReturn(Collections.emptyList());
 
         List<Book> result = bookService.listBooks();
 
         assertThat(result).isEmpty();
-        verify(bookRepository, times(1)).findAll();
+        verify(bookRepository, times(1)).findAllBooks();
+    }
+
+    @Test
+    @DisplayName("When a page is requested, it should fetch one extra row and return a cursor to the next page")
+    void listBooksPage_whenMoreRowsExist_shouldReturnNextCursor() {
+        when(bookRepository.findBooksAfterIsbn(9780000000101L, Limit.of(3))).thenReturn(Arrays.asList(
+                Book.builder().isbn("9780000000200").title("Book 2").author("Author 2").build(),
+                Book.builder().isbn("9780000000309").title("Book 3").author("Author 3").build(),
+                Book.builder().isbn("9780000000408").title("Book 4").author("Author 4").build()
+        ));
+
+        BookPage result = bookService.listBooks("9780000000101", 2);
+
+        assertThat(result.getBooks()).extracting(Book::getIsbn).containsExactly("9780000000200", "9780000000309");
+        assertThat(result.getNextCursor()).isEqualTo("9780000000309");
+    }
+
+    @Test
+    @DisplayName("When the last page is requested, it should not return a next cursor")
+    void listBooksPage_whenLastPage_shouldReturnNoCursor() {
+        when(bookRepository.findBooksOrderByIsbn(Limit.of(3))).thenReturn(Collections.singletonList(
+                Book.builder().isbn("9780000000101").title("Book 1").author("Author 1").build()
+        ));
+
+        BookPage result = bookService.listBooks(null, 2);
+
+        assertThat(result.getBooks()).extracting(Book::getIsbn).containsExactly("9780000000101");
+        assertThat(result.getNextCursor()).isNull();
+        verify(bookRepository, never()).findAllBooks();
+    }
+
+    @Test
+    @DisplayName("When a page is requested with a subset of fields, it should read only those columns")
+    void listBooksPage_withFields_shouldSelectOnlyThoseColumns() {
+        Set<BookField> fields = EnumSet.of(BookField.TITLE);
+        when(bookRepository.findBooks(BookQuery.builder().fields(fields).limit(3).build())).thenReturn(Arrays.asList(
+                Book.builder().isbn("9780000000101").title("Book 1").build(),
+                Book.builder().isbn("9780000000200").title("Book 2").build(),
+                Book.builder().isbn("9780000000309").title("Book 3").build()
+        ));
+
+        BookPage result = bookService.listBooks(BookQuery.builder().fields(fields).limit(2).build());
+
+        assertThat(result.getBooks()).extracting(Book::getTitle).containsExactly("Book 1", "Book 2");
+        assertThat(result.getNextCursor()).isEqualTo("9780000000200");
+        verify(bookRepository, never()).findBooksOrderByIsbn(any());
+    }
+
+    @Test
+    @DisplayName("When a page is filtered by author, the repository should filter on the author's ID")
+    void listBooksPage_byAuthor_shouldFilterOnAuthorId() {
+        when(authorRepository.findByName("Tolkien")).thenReturn(Optional.of(new AuthorEntity(7, "Tolkien")));
+        when(bookRepository.findBooks(BookQuery.builder().author("Tolkien").authorId(7).limit(3).build()))
+                .thenReturn(List.of(Book.builder().isbn("9780000000101").title("The Hobbit").author("Tolkien").build()));
+
+        BookPage result = bookService.listBooks(BookQuery.builder().author("Tolkien").limit(2).build());
+
+        assertThat(result.getBooks()).extracting(Book::getIsbn).containsExactly("9780000000101");
+    }
+
+    @Test
+    @DisplayName("When a page is filtered by an unknown author, it should be empty without querying the books")
+    void listBooksPage_byUnknownAuthor_shouldReturnEmptyPage() {
+        BookPage result = bookService.listBooks(BookQuery.builder().author("Nobody").limit(2).build());
+
+        assertThat(result.getBooks()).isEmpty();
+        assertThat(result.getNextCursor()).isNull();
+        verify(bookRepository, never()).findBooks(any());
+    }
+
+    @Test
+    @DisplayName("When every field is requested, the page should come from the full-row query")
+    void listBooksPage_withAllFields_shouldUseFullRowQuery() {
+        when(bookRepository.findBooksOrderByIsbn(Limit.of(3))).thenReturn(Collections.emptyList());
+
+        bookService.listBooks(BookQuery.builder().fields(EnumSet.allOf(BookField.class)).limit(2).build());
+
+        verify(bookRepository, never()).findBooks(any());
+    }
+
+    @Test
+    @DisplayName("When a page is sorted by title, the next cursor should carry the last title key and ISBN")
+    void listBooksPage_sortedByTitle_shouldReturnOpaqueCursor() {
+        BookQuery query = BookQuery.builder().sort(BookSort.TITLE).limit(1).build();
+        when(bookRepository.findBooks(query.toBuilder().limit(2).build())).thenReturn(Arrays.asList(
+                Book.builder().isbn("9780000000903").title("Alpha").build(),
+                Book.builder().isbn("9780000000101").title("beta").build()
+        ));
+
+        BookPage result = bookService.listBooks(query);
+
+        assertThat(result.getBooks()).extracting(Book::getIsbn).containsExactly("9780000000903");
+        assertThat(BookCursor.decode(BookSort.TITLE, result.getNextCursor())).isEqualTo(new BookCursor("alpha", 9780000000903L));
+    }
+
+    @Test
+    @DisplayName("When exporting, every streamed book should reach the consumer in order")
+    void exportBooks_shouldStreamAllBooks() {
+        int total = BookRepository.EXPORT_FETCH_SIZE * 2 + 1;
+        Stream<Book> books = IntStream.range(0, total)
+                .mapToObj(i -> Book.builder().isbn(Isbn.format(isbn13(i))).title("Book " + i).author("Author").build());
+        when(bookRepository.streamBooks()).thenReturn(books);
+
+        List<Book> exported = new ArrayList<>();
+        bookService.exportBooks(exported::add);
+
+        assertThat(exported).hasSize(total);
+        assertThat(exported.get(0).getIsbn()).isEqualTo(Isbn.format(isbn13(0)));
     }
 
     @Test
     @DisplayName("Checking if a book exists should query the repository by ID")
     void isBookExist_shouldCheckRepository() {
-        Book book = Book.builder().isbn("12345").build();
-        when(bookRepository.existsById("12345")).thenReturn(true);
+        Book book = Book.builder().isbn("9780000123459").build();
+        when(bookRepository.existsById(9780000123459L)).thenReturn(true);
 
         boolean result = bookService.isBookExist(book);
 
         assertThat(result).isTrue();
-        verify(bookRepository, times(1)).existsById("12345");
+        verify(bookRepository, times(1)).existsById(9780000123459L);
+    }
+
+    @Test
+    @DisplayName("When the ISBN filter rules a book out, lookups should not query the repository")
+    void findById_whenFilterRulesOutIsbn_shouldNotQueryRepository() {
+        loadIsbnFilter("9780000123459");
+
+        assertThat(bookService.findById("9780000010063")).isEmpty();
+        assertThat(bookService.existsById("9780000010063")).isFalse();
+
+        verifyNoInteractions(bookRepository);
     }
 
     @Test
-    @DisplayName("When deleting an existing book, it should be removed from the repository")
+    @DisplayName("When a book is saved after the filter was loaded, it should be found again")
+    void save_shouldAddIsbnToFilter() {
+        loadIsbnFilter();
+        Book book = Book.builder().isbn("9780000123459").title("Title").author("Author").build();
+        when(bookRepository.upsert(any(BookEntity.class))).thenReturn(null);
+        when(bookRepository.existsById(9780000123459L)).thenReturn(true);
+
+        bookService.save(book);
+
+        assertThat(bookService.existsById("9780000123459")).isTrue();
+    }
+
+    @Test
+    @DisplayName("When deleting an existing book, it should be marked deleted in the repository")
     void deleteBookById_whenBookExists_shouldDeleteFromRepository() {
-        String isbn = "12345";
+        String isbn = "9780000123459";
 
-        doNothing().when(bookRepository).deleteById(isbn);
+        when(bookRepository.markDeleted(Isbn.parse(isbn))).thenReturn(new ReplacedBook("Author"));
 
         bookService.deleteBookById(isbn);
 
-        verify(bookRepository, times(1)).deleteById(isbn);
+        verify(bookRepository, times(1)).markDeleted(Isbn.parse(isbn));
+        verify(bookRepository, never()).deleteById(Isbn.parse(isbn));
     }
 
     @Test
-    @DisplayName("When attempting to delete a non-existent book, it should catch the exception and continue")
+    @DisplayName("When attempting to delete a non-existent book, it should carry on without failing")
     void deleteBookById_whenBookDoesNotExist_shouldHandleException() {
-        String isbn = "nonexistent";
+        String isbn = "9780000010056";
 
-        doThrow(new org.springframework.dao.EmptyResultDataAccessException("Book not found", 1))
-                .when(bookRepository).deleteById(isbn);
+        when(bookRepository.markDeleted(Isbn.parse(isbn))).thenReturn(null);
 
         bookService.deleteBookById(isbn);
 
-        verify(bookRepository, times(1)).deleteById(isbn);
+        verify(bookRepository, times(1)).markDeleted(Isbn.parse(isbn));
+    }
+
+    @Test
+    @DisplayName("When a delete finds nothing to delete, the in-memory views should keep the book")
+    void deleteBookById_whenNothingDeleted_shouldNotNotifyListeners() {
+        bookSearchIndex.loadStarted();
+        bookSearchIndex.loadCompleted();
+        Book book = Book.builder().isbn("9780000123459").title("Title").author("Author").build();
+        offHeapBookStore.put(book);
+        bookSearchIndex.bookSaved(book);
+        when(bookRepository.markDeleted(9780000123459L)).thenReturn(null);
+
+        bookService.deleteBookById("9780000123459");
+
+        assertThat(offHeapBookStore.get(9780000123459L)).isEqualTo(book);
+        assertThat(bookSearchIndex.search("title", 0, 10).total()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("When a delete fails, the cached book should be evicted but the in-memory views should keep it")
+    void deleteBookById_whenDeleteFails_shouldEvictButNotNotifyListeners() {
+        Book book = Book.builder().isbn("9780000123459").title("Title").author("Author").build();
+        offHeapBookStore.put(book);
+        bookCache.put(book);
+        when(bookRepository.markDeleted(9780000123459L)).thenThrow(new DataIntegrityViolationException("failed"));
+
+        assertThatThrownBy(() -> bookService.deleteBookById("9780000123459"))
+                .isInstanceOf(DataIntegrityViolationException.class);
+
+        assertThat(bookCache.get(9780000123459L)).isNull();
+        assertThat(offHeapBookStore.get(9780000123459L)).isEqualTo(book);
+    }
+
+    @Test
+    @DisplayName("Changes should be read one row past the page to find the version of the next page")
+    void listChanges_shouldPageByVersion() {
+        BookChange first = BookChange.builder().isbn("9780000000101").title("Emma").author("Austen").version(5).build();
+        BookChange second = BookChange.builder().isbn("9780000000200").version(7).deleted(true).build();
+        BookChange third = BookChange.builder().isbn("9780000000309").title("Dune").author("Herbert").version(9).build();
+        when(bookRepository.findChanges(4, 3)).thenReturn(List.of(first, second, third));
+        when(bookRepository.findChanges(7, 3)).thenReturn(List.of(third));
+
+        BookChangePage firstPage = bookService.listChanges(4, 2);
+        BookChangePage lastPage = bookService.listChanges(7, 2);
+
+        assertThat(firstPage.getChanges()).containsExactly(first, second);
+        assertThat(firstPage.getNextSince()).isEqualTo(7);
+        assertThat(lastPage.getChanges()).containsExactly(third);
+        assertThat(lastPage.getNextSince()).isNull();
+        assertThat(lastPage.getPollSince()).isEqualTo(0);
+        assertThat(firstPage.getPollSince()).isNull();
+    }
+
+    @Test
+    @DisplayName("Once caught up, the feed should be polled from behind the newest change, so late commits aren't skipped")
+    void listChanges_whenCaughtUp_shouldPollFromBehindNewestChange() {
+        BookChange newest = BookChange.builder().isbn("9780000000101").title("Emma").version(5000).build();
+        when(bookRepository.findChanges(4990, 3)).thenReturn(List.of(newest));
+        when(bookRepository.findChanges(6000, 3)).thenReturn(List.of());
+
+        BookChangePage page = bookService.listChanges(4990, 2);
+        BookChangePage empty = bookService.listChanges(6000, 2);
+
+        assertThat(page.getPollSince()).isEqualTo(5000 - BookChange.COMMIT_OVERLAP);
+        assertThat(empty.getChanges()).isEmpty();
+        assertThat(empty.getPollSince()).isEqualTo(6000 - BookChange.COMMIT_OVERLAP);
+    }
+
+    @Test
+    @DisplayName("Search should find saved books, best match first, and stop deleted books from matching")
+    void searchBooks_shouldFollowWrites() {
+        bookSearchIndex.loadStarted();
+        bookSearchIndex.loadCompleted();
+        Book rings = Book.builder().isbn("9780000000101").title("The Lord of the Rings").author("J. R. R. Tolkien").build();
+        Book hobbit = Book.builder().isbn("9780000000200").title("The Hobbit").author("J. R. R. Tolkien").build();
+        when(bookRepository.upsert(any(BookEntity.class))).thenReturn(null);
+        bookService.save(rings);
+        bookService.save(hobbit);
+
+        BookPage page = bookService.searchBooks("tolkien ring", 0, 10);
+
+        assertThat(page.getBooks()).containsExactly(rings);
+        assertThat(bookService.searchBooks("tolkien", 0, 1).getNextCursor()).isEqualTo("1");
+
+        when(bookRepository.markDeleted(9780000000101L)).thenReturn(new ReplacedBook("Author"));
+        bookService.deleteBookById("9780000000101");
+
+        assertThat(bookService.searchBooks("tolkien", 0, 10).getBooks()).containsExactly(hobbit);
+        verify(bookRepository, never()).findBooksByIsbnIn(anyList());
+    }
+
+    @Test
+    @DisplayName("Stats should count saved books once, follow author changes and drop deleted books")
+    void getStats_shouldFollowWrites() {
+        catalogStats.loadStarted();
+        catalogStats.loadCompleted();
+        when(bookRepository.upsert(any(BookEntity.class))).thenReturn(null, null, new ReplacedBook("Tolkien"));
+        bookService.save(Book.builder().isbn("9780000000101").title("The Hobbit").author("Tolkien").build());
+        bookService.save(Book.builder().isbn("9780000000200").title("Emma").author("Tolkien").build());
+        bookService.save(Book.builder().isbn("9780000000200").title("Emma").author("Austen").build());
+        when(bookRepository.markDeleted(9780000000101L)).thenReturn(new ReplacedBook("Tolkien"));
+        bookService.deleteBookById("9780000000101");
+
+        BookStats stats = bookService.getStats(10);
+
+        assertThat(stats.getTotalBooks()).isEqualTo(1);
+        assertThat(stats.getTopAuthors()).containsExactly(AuthorStats.builder().author("Austen").books(1).build());
+        assertThat(stats.getWritesPerSecond1m()).isEqualTo(4 / 60.0);
+        verify(bookRepository, never()).count();
     }
-}
\ No newline at end of file
+}
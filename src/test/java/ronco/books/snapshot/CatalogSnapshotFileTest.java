@@ -0,0 +1,108 @@
+package ronco.books.snapshot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ronco.books.model.Book;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CatalogSnapshotFileTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @TempDir
+    private Path directory;
+
+    private CatalogSnapshotFile write(final Path path, final long changeVersion, final Book... books) throws IOException {
+        try (CatalogSnapshotFile.Writer writer = CatalogSnapshotFile.writer(path, OBJECT_MAPPER.writerFor(Book.class))) {
+            for (Book book : books) {
+                writer.add(book);
+            }
+            writer.finish(changeVersion);
+        }
+        return CatalogSnapshotFile.open(path, OBJECT_MAPPER.readerFor(Book.class));
+    }
+
+    @Test
+    @DisplayName("A written snapshot should map back with its books, found by ISBN")
+    void open_shouldFindWrittenBooks() throws IOException {
+        Path path = directory.resolve("catalog.snap");
+        try (CatalogSnapshotFile snapshot = write(path, 42,
+                Book.builder().isbn("9780000000101").title("First").author("Author").build(),
+                Book.builder().isbn("9780000000200").build(),
+                Book.builder().isbn("9780000000309").title("Dérive").author("Auteur").build())) {
+
+            assertThat(snapshot.changeVersion()).isEqualTo(42);
+            assertThat(snapshot.size()).isEqualTo(3);
+            assertThat(snapshot.find(9780000000101L)).isEqualTo(Book.builder().isbn("9780000000101").title("First").author("Author").build());
+            assertThat(snapshot.find(9780000000200L)).isEqualTo(Book.builder().isbn("9780000000200").build());
+            assertThat(snapshot.find(9780000000309L).getTitle()).isEqualTo("Dérive");
+            assertThat(snapshot.find(9780000000002L)).isNull();
+            assertThat(snapshot.find(9780000000255L)).isNull();
+            assertThat(snapshot.lowerBound(9780000000255L)).isEqualTo(2);
+
+            List<String> replayed = new ArrayList<>();
+            snapshot.forEach(book -> replayed.add(book.getIsbn()));
+            assertThat(replayed).containsExactly("9780000000101", "9780000000200", "9780000000309");
+        }
+        assertThat(Files.list(directory)).containsExactly(path);
+    }
+
+    @Test
+    @DisplayName("Transferring a run of lines should write them as newline-delimited JSON")
+    void transferLines_shouldWriteJsonLines() throws IOException {
+        try (CatalogSnapshotFile snapshot = write(directory.resolve("catalog.snap"), 1,
+                Book.builder().isbn("9780000000101").title("A").build(),
+                Book.builder().isbn("9780000000200").title("B").build(),
+                Book.builder().isbn("9780000000309").title("C").build())) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            snapshot.transferLines(1, 3, Channels.newChannel(out));
+
+            assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo(
+                    "{\"isbn\":\"9780000000200\",\"title\":\"B\",\"author\":null}\n{\"isbn\":\"9780000000309\",\"title\":\"C\",\"author\":null}\n");
+        }
+    }
+
+    @Test
+    @DisplayName("Books added out of ISBN order should be rejected and leave no file behind")
+    void add_whenOutOfOrder_shouldReject() throws IOException {
+        Path path = directory.resolve("catalog.snap");
+        try (CatalogSnapshotFile.Writer writer = CatalogSnapshotFile.writer(path, OBJECT_MAPPER.writerFor(Book.class))) {
+            writer.add(Book.builder().isbn("9780000000200").build());
+            assertThatThrownBy(() -> writer.add(Book.builder().isbn("9780000000101").build()))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+
+        assertThat(Files.list(directory)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("A truncated or foreign file should be refused")
+    void open_whenNotASnapshot_shouldThrow() throws IOException {
+        Path path = directory.resolve("catalog.snap");
+        write(path, 1, Book.builder().isbn("9780000000101").title("A").build()).close();
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+
+        assertThatThrownBy(() -> CatalogSnapshotFile.open(path, OBJECT_MAPPER.readerFor(Book.class)))
+                .isInstanceOf(IOException.class);
+
+        Files.writeString(path, "not a snapshot, but long enough to hold a header of sixty-four bytes");
+        assertThatThrownBy(() -> CatalogSnapshotFile.open(path, OBJECT_MAPPER.readerFor(Book.class)))
+                .isInstanceOf(IOException.class);
+    }
+}
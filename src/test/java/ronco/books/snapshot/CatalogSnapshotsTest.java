@@ -0,0 +1,160 @@
+package ronco.books.snapshot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ronco.books.model.Book;
+import ronco.books.model.BookChange;
+import ronco.books.model.Isbn;
+import ronco.books.repository.BookRepository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CatalogSnapshotsTest {
+
+    @Mock
+    private BookRepository bookRepository;
+
+    @TempDir
+    private Path directory;
+
+    private CatalogSnapshots catalogSnapshots;
+
+    @BeforeEach
+    void setUp() {
+        doAnswer(invocation -> {
+            Consumer<Book> consumer = invocation.getArgument(0);
+            consumer.accept(Book.builder().isbn("9780000000101").title("One").build());
+            consumer.accept(Book.builder().isbn("9780000000200").title("Two").build());
+            consumer.accept(Book.builder().isbn("9780000000309").title("Three").build());
+            return 5000L;
+        }).when(bookRepository).exportSnapshot(any());
+        catalogSnapshots = newCatalogSnapshots();
+        catalogSnapshots.writeSnapshot();
+    }
+
+    @AfterEach
+    void tearDown() {
+        catalogSnapshots.destroy();
+    }
+
+    private CatalogSnapshots newCatalogSnapshots() {
+        return new CatalogSnapshots(directory.resolve("catalog.snap").toString(), bookRepository, new ObjectMapper());
+    }
+
+    @Test
+    @DisplayName("Books should be served from the snapshot until they are written")
+    void find_shouldSkipBooksWrittenSinceSnapshot() {
+        assertThat(catalogSnapshots.find(9780000000101L).getTitle()).isEqualTo("One");
+
+        catalogSnapshots.bookSaved(Book.builder().isbn("9780000000101").title("New").build());
+        catalogSnapshots.bookDeleted(9780000000200L);
+
+        assertThat(catalogSnapshots.find(9780000000101L)).isNull();
+        assertThat(catalogSnapshots.find(9780000000200L)).isNull();
+        assertThat(catalogSnapshots.find(9780000000309L).getTitle()).isEqualTo("Three");
+    }
+
+    @Test
+    @DisplayName("A new snapshot should start with an empty overlay")
+    void writeSnapshot_shouldResetOverlay() {
+        catalogSnapshots.bookSaved(Book.builder().isbn("9780000000101").title("One").build());
+
+        catalogSnapshots.writeSnapshot();
+
+        assertThat(catalogSnapshots.find(9780000000101L).getTitle()).isEqualTo("One");
+    }
+
+    @Test
+    @DisplayName("A restarted node should map the snapshot and replay it with the changes made since, each book once")
+    void replay_afterRestart_shouldMergeChangesSinceSnapshot() {
+        CatalogSnapshots restarted = newCatalogSnapshots();
+        when(bookRepository.findChanges(5000 - BookChange.COMMIT_OVERLAP, 1000)).thenReturn(List.of(
+                BookChange.builder().isbn("9780000000101").title("One, revised").version(5001).build(),
+                BookChange.builder().isbn("9780000000200").version(5002).deleted(true).build(),
+                BookChange.builder().isbn("9780000000408").title("Four").version(5003).build()));
+        List<Book> replayed = new ArrayList<>();
+
+        // Not served until caught up, since 9780000000200 has been deleted since
+        assertThat(restarted.find(9780000000200L)).isNull();
+        assertThat(restarted.replay(replayed::add)).isTrue();
+
+        assertThat(replayed).extracting(Book::getIsbn).containsExactlyInAnyOrder("9780000000101", "9780000000309", "9780000000408");
+        assertThat(replayed).extracting(Book::getTitle).contains("One, revised").doesNotContain("One");
+        assertThat(restarted.find(9780000000200L)).isNull();
+        assertThat(restarted.find(9780000000309L).getTitle()).isEqualTo("Three");
+        restarted.destroy();
+    }
+
+    @Test
+    @DisplayName("A snapshot too far behind to catch up should be dropped rather than served")
+    void replay_whenTooFarBehind_shouldDropSnapshot() throws IOException {
+        CatalogSnapshots restarted = newCatalogSnapshots();
+        when(bookRepository.findChanges(anyLong(), anyInt())).thenAnswer(invocation -> {
+            long since = invocation.getArgument(0);
+            return LongStream.rangeClosed(since + 1, since + 1000)
+                    .mapToObj(version -> BookChange.builder()
+                            .isbn(Isbn.format(Isbn.withCheckDigit(978_000_000_000L + version)))
+                            .title("Changed")
+                            .version(version)
+                            .build())
+                    .toList();
+        });
+
+        assertThat(restarted.replay(book -> { })).isFalse();
+
+        assertThat(restarted.find(9780000000101L)).isNull();
+        assertThat(restarted.export(new ByteArrayOutputStream())).isFalse();
+        restarted.destroy();
+    }
+
+    @Test
+    @DisplayName("Without a snapshot, nothing should be replayed")
+    void replay_withoutSnapshot_shouldDecline() {
+        CatalogSnapshots disabled = new CatalogSnapshots("", bookRepository, new ObjectMapper());
+
+        assertThat(disabled.replay(book -> { })).isFalse();
+        assertThat(disabled.find(9780000000101L)).isNull();
+        verify(bookRepository, never()).findChanges(anyLong(), anyInt());
+    }
+
+    @Test
+    @DisplayName("An export should splice books written since the snapshot into the snapshot's lines")
+    void export_shouldSpliceWrittenBooks() throws IOException {
+        catalogSnapshots.bookSaved(Book.builder().isbn("9780000000200").title("Two, revised").build());
+        catalogSnapshots.bookSaved(Book.builder().isbn("9780000000255").title("Two and a half").build());
+        catalogSnapshots.bookDeleted(9780000000309L);
+        when(bookRepository.findBooksByIsbnIn(List.of(9780000000200L, 9780000000255L, 9780000000309L))).thenReturn(List.of(
+                Book.builder().isbn("9780000000200").title("Two, revised").build(),
+                Book.builder().isbn("9780000000255").title("Two and a half").build()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThat(catalogSnapshots.export(out)).isTrue();
+
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("""
+                {"isbn":"9780000000101","title":"One","author":null}
+                {"isbn":"9780000000200","title":"Two, revised","author":null}
+                {"isbn":"9780000000255","title":"Two and a half","author":null}
+                """);
+    }
+}
@@ -0,0 +1,239 @@
+package ronco.books.stats;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import ronco.books.model.AuthorEntity;
+import ronco.books.model.AuthorStats;
+import ronco.books.model.Book;
+import ronco.books.model.Isbn;
+import ronco.books.model.BookStats;
+import ronco.books.model.ReplacedBook;
+import ronco.books.repository.AuthorRepository;
+import ronco.books.repository.BookRepository;
+import ronco.books.service.AuthorDictionary;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class CatalogStatsTest {
+
+    private static final Instant START = Instant.parse("2025-01-01T00:00:00Z");
+
+    @Mock
+    private BookRepository bookRepository;
+
+    @Mock
+    private AuthorRepository authorRepository;
+
+    private MovableClock clock;
+
+    private CatalogStats catalogStats;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MovableClock();
+        Map<String, AuthorEntity> authors = new HashMap<>();
+        lenient().when(authorRepository.findByName(anyString())).thenAnswer(invocation -> Optional.of(authors.computeIfAbsent(
+                invocation.getArgument(0), name -> new AuthorEntity(authors.size() + 1, name))));
+        catalogStats = new CatalogStats(bookRepository, new AuthorDictionary(authorRepository), 2, clock);
+    }
+
+    private void load(Book... books) {
+        catalogStats.loadStarted();
+        for (Book book : books) {
+            catalogStats.bookLoaded(book);
+        }
+        catalogStats.loadCompleted();
+    }
+
+    private static long isbn13(int id) {
+        return Isbn.withCheckDigit(978_000_000_000L + id);
+    }
+
+    private static Book book(int id, String author) {
+        return Book.builder().isbn(Isbn.format(isbn13(id))).title("Title " + id).author(author).build();
+    }
+
+    private static AuthorStats author(String author, long books) {
+        return new AuthorStats(author, books);
+    }
+
+    private void advance(Duration duration) {
+        clock.instant = clock.instant.plus(duration);
+    }
+
+    @Test
+    @DisplayName("Before the catalog is loaded, reading the stats should fail and reconciling should do nothing")
+    void getStats_beforeLoad_shouldThrow() {
+        catalogStats.reconcile();
+
+        assertThatThrownBy(() -> catalogStats.getStats(10)).isInstanceOf(IllegalStateException.class);
+        verify(bookRepository, never()).count();
+    }
+
+    @Test
+    @DisplayName("The load should seed the total and the top authors, keeping only as many authors as tracked")
+    void load_shouldSeedStats() {
+        load(book(1, "Austen"), book(2, "Austen"), book(3, "Bronte"), book(4, null),
+                book(5, "Austen"), book(6, "Bronte"), book(7, "Carroll"));
+
+        BookStats stats = catalogStats.getStats(10);
+
+        assertThat(stats.getTotalBooks()).isEqualTo(7);
+        // Carroll took over Bronte's counter, so its count is an overestimate
+        assertThat(stats.getTopAuthors()).containsExactly(author("Austen", 3), author("Carroll", 3));
+        assertThat(catalogStats.getStats(1).getTopAuthors()).containsExactly(author("Austen", 3));
+        assertThat(stats.getWritesPerSecond1m()).isZero();
+        assertThat(stats.getReconciledAt()).isNull();
+    }
+
+    @Test
+    @DisplayName("Saves should only count new books, re-attribute changed authors, and deletes should uncount")
+    void writes_shouldUpdateStats() {
+        load(book(1, "Austen"), book(2, "Bronte"));
+
+        catalogStats.bookSaved(book(3, "Bronte"), null);
+        catalogStats.bookSaved(book(1, "Bronte"), new ReplacedBook("Austen"));
+        catalogStats.bookSaved(book(1, "Bronte"), new ReplacedBook("Bronte"));
+        catalogStats.bookDeleted(isbn13(2), new ReplacedBook("Bronte"));
+
+        BookStats stats = catalogStats.getStats(10);
+        assertThat(stats.getTotalBooks()).isEqualTo(2);
+        assertThat(stats.getTopAuthors()).containsExactly(author("Bronte", 2));
+        verify(bookRepository, never()).count();
+    }
+
+    @Test
+    @DisplayName("Writes made through other instances should only count towards the write rate")
+    void remoteWrites_shouldOnlyCountTowardsRate() {
+        load(book(1, "Austen"));
+
+        catalogStats.bookSaved(book(2, "Bronte"));
+        catalogStats.bookDeleted(isbn13(1));
+
+        BookStats stats = catalogStats.getStats(10);
+        assertThat(stats.getTotalBooks()).isEqualTo(1);
+        assertThat(stats.getTopAuthors()).containsExactly(author("Austen", 1));
+        assertThat(stats.getWritesPerSecond1m()).isEqualTo(2 / 60.0);
+    }
+
+    @Test
+    @DisplayName("A load that raced a write should be reconciled against the database as it completes")
+    void loadCompleted_afterRacingWrite_shouldReconcile() {
+        when(bookRepository.count()).thenReturn(2L);
+        when(bookRepository.findTopAuthors(Limit.of(2))).thenReturn(List.of(author("Austen", 1), author("Bronte", 1)));
+        catalogStats.loadStarted();
+        catalogStats.bookSaved(book(1, "Bronte"), new ReplacedBook("Austen"));
+        catalogStats.bookDeleted(isbn13(2), new ReplacedBook("Austen"));
+        catalogStats.bookLoaded(book(1, "Bronte"));
+        catalogStats.bookLoaded(book(3, "Austen"));
+        catalogStats.loadCompleted();
+
+        BookStats stats = catalogStats.getStats(10);
+        assertThat(stats.getTotalBooks()).isEqualTo(2);
+        assertThat(stats.getTopAuthors()).containsExactly(author("Austen", 1), author("Bronte", 1));
+        assertThat(stats.getReconciledAt()).isEqualTo(START);
+    }
+
+    @Test
+    @DisplayName("When a reload fails, the figures from before it should be served again")
+    void loadFailed_shouldRestorePreviousFigures() {
+        load(book(1, "Austen"), book(2, "Bronte"));
+        catalogStats.loadStarted();
+        catalogStats.bookLoaded(book(1, "Austen"));
+        catalogStats.loadFailed();
+
+        BookStats stats = catalogStats.getStats(10);
+        assertThat(stats.getTotalBooks()).isEqualTo(2);
+        assertThat(stats.getTopAuthors()).containsExactly(author("Austen", 1), author("Bronte", 1));
+    }
+
+    @Test
+    @DisplayName("When the first load fails, there should still be no figures to serve")
+    void loadFailed_onFirstLoad_shouldStayUnseeded() {
+        catalogStats.loadStarted();
+        catalogStats.bookLoaded(book(1, "Austen"));
+        catalogStats.loadFailed();
+
+        assertThatThrownBy(() -> catalogStats.getStats(10)).isInstanceOf(IllegalStateException.class);
+        load(book(2, "Bronte"));
+        assertThat(catalogStats.getStats(10).getTotalBooks()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Write rates should average the writes of the last one and five minutes")
+    void writeRates_shouldCoverTheirWindows() {
+        load();
+        for (int i = 0; i < 30; i++) {
+            catalogStats.bookSaved(book(i, "Austen"), null);
+        }
+        advance(Duration.ofMinutes(2));
+        for (int i = 0; i < 6; i++) {
+            catalogStats.bookDeleted(isbn13(i), new ReplacedBook("Austen"));
+        }
+
+        BookStats stats = catalogStats.getStats(10);
+        assertThat(stats.getWritesPerSecond1m()).isEqualTo(6 / 60.0);
+        assertThat(stats.getWritesPerSecond5m()).isEqualTo(36 / 300.0);
+
+        advance(Duration.ofMinutes(4));
+        assertThat(catalogStats.getStats(10).getWritesPerSecond5m()).isEqualTo(6 / 300.0);
+    }
+
+    @Test
+    @DisplayName("Reconciling should replace the total and the top authors with the database's counts")
+    void reconcile_shouldResetToDatabaseCounts() {
+        load(book(1, "Austen"), book(2, "Bronte"));
+        when(bookRepository.count()).thenReturn(5L);
+        when(bookRepository.findTopAuthors(Limit.of(2))).thenReturn(List.of(author("Carroll", 3), author("Austen", 2)));
+        advance(Duration.ofMinutes(10));
+
+        catalogStats.reconcile();
+        catalogStats.bookSaved(book(6, "Austen"), null);
+
+        BookStats stats = catalogStats.getStats(10);
+        assertThat(stats.getTotalBooks()).isEqualTo(6);
+        assertThat(stats.getTopAuthors()).containsExactly(author("Austen", 3), author("Carroll", 3));
+        assertThat(stats.getReconciledAt()).isEqualTo(START.plus(Duration.ofMinutes(10)));
+    }
+
+    private static final class MovableClock extends Clock {
+        private Instant instant = START;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}